@@ -29,6 +29,12 @@ public interface BackendKnobsFlags {
     /** Enable fetching only part of the program data. */
     boolean enablePartialProgramFetch();
 
+    /**
+     * Keeps the partially fetched programs in compact columns instead of program objects. Takes
+     * effect only with {@link #enablePartialProgramFetch}.
+     */
+    boolean compactProgramCache();
+
     /** EPG fetcher interval in hours */
     long epgFetcherIntervalHour();
 
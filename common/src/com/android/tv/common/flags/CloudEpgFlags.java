@@ -31,4 +31,7 @@ public interface CloudEpgFlags {
 
     /** List of input ids that Live TV will update their EPG. */
     String thirdPartyEpgInputsCsv();
+
+    /** Whether Live TV reads the EPG from a local XMLTV file instead of the EPG service. */
+    boolean localXmltvEpg();
 }
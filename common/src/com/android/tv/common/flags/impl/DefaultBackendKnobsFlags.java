@@ -29,6 +29,11 @@ public final class DefaultBackendKnobsFlags
         return false;
     }
 
+    @Override
+    public boolean compactProgramCache() {
+        return false;
+    }
+
     @Override
     public long epgFetcherIntervalHour() {
         return 25;
@@ -43,4 +43,9 @@ public final class DefaultCloudEpgFlags implements CloudEpgFlags {
     public String thirdPartyEpgInputsCsv() {
         return mThirdPartyEpgInputCsv;
     }
+
+    @Override
+    public boolean localXmltvEpg() {
+        return false;
+    }
 }
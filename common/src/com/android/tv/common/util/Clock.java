@@ -36,6 +36,13 @@ public interface Clock {
      */
     long elapsedRealtime();
 
+    /**
+     * Returns nanoseconds since boot, including time spent in sleep.
+     *
+     * @see SystemClock#elapsedRealtimeNanos()
+     */
+    long elapsedRealtimeNanos();
+
     /**
      * Returns milliseconds since boot, not counting time spent in deep sleep.
      *
@@ -65,6 +72,11 @@ public interface Clock {
                     return SystemClock.elapsedRealtime();
                 }
 
+                @Override
+                public long elapsedRealtimeNanos() {
+                    return SystemClock.elapsedRealtimeNanos();
+                }
+
                 @Override
                 public void sleep(long ms) {
                     SystemClock.sleep(ms);
@@ -159,6 +159,44 @@ JNIEXPORT jint JNICALL Java_com_android_tv_tuner_TunerHal_nativeWriteInBuffer(
   return dataSize;
 }
 
+/*
+ * Class:     com_android_tv_tuner_TunerHal
+ * Method:    nativeWriteInDirectBuffer
+ * Signature: (JLjava/nio/ByteBuffer;II)I
+ */
+JNIEXPORT jint JNICALL Java_com_android_tv_tuner_TunerHal_nativeWriteInDirectBuffer(
+    JNIEnv *env, jobject thiz, jlong deviceId, jobject directBuffer, jint offset,
+    jint size) {
+  std::map<jlong, DvbManager *>::iterator it = sDvbManagers.find(deviceId);
+  if (it == sDvbManagers.end()) {
+    return -1;
+  }
+  DvbManager *dvbManager = it->second;
+  uint8_t *address = (uint8_t *)env->GetDirectBufferAddress(directBuffer);
+  if (address == NULL) {
+    return -1;
+  }
+
+  // Always read multiple of TS_PACKET_SIZE. DVR is read directly into the
+  // buffer, so the size is not limited by TS_PAYLOAD_SIZE.
+  size = (size / TS_PACKET_SIZE) * TS_PACKET_SIZE;
+  if (size == 0) {
+    return 0;
+  }
+
+  int dataSize = dvbManager->readTsStream(env, thiz, address + offset, size,
+                                          READ_TIMEOUT_MS);
+  if (dataSize == 0) {
+    ALOGD("No data to read DVR");
+    return 0;
+  } else if (dataSize < 0) {
+    return -1;
+  }
+
+  sTotalBytesFetched += dataSize;
+  return dataSize;
+}
+
 /*
  * Class:     com_android_tv_tuner_TunerHal
  * Method:    nativeSetHasPendingTune
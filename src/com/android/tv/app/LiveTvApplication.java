@@ -28,8 +28,10 @@ import com.android.tv.common.flags.impl.DefaultCloudEpgFlags;
 import com.android.tv.common.flags.impl.DefaultConcurrentDvrPlaybackFlags;
 import com.android.tv.common.flags.impl.DefaultUiFlags;
 import com.android.tv.common.singletons.HasSingletons;
+import com.android.tv.common.util.Clock;
 import com.android.tv.data.epg.EpgReader;
 import com.android.tv.data.epg.StubEpgReader;
+import com.android.tv.data.epg.XmltvEpgReader;
 import com.android.tv.modules.TvSingletonsModule;
 import com.android.tv.perf.PerformanceMonitor;
 import com.android.tv.perf.PerformanceMonitorManagerFactory;
@@ -38,6 +40,7 @@ import com.android.tv.util.account.AccountHelper;
 import com.android.tv.util.account.AccountHelperImpl;
 import com.google.common.base.Optional;
 import dagger.android.AndroidInjector;
+import java.io.File;
 import javax.inject.Provider;
 
 /** The top level application for Live TV. */
@@ -52,6 +55,9 @@ public class LiveTvApplication extends TvApplication implements HasSingletons<Tv
 
                 @Override
                 public EpgReader get() {
+                    if (mCloudEpgFlags.localXmltvEpg()) {
+                        return getXmltvEpgReader();
+                    }
                     return new StubEpgReader(LiveTvApplication.this);
                 }
             };
@@ -66,6 +72,7 @@ public class LiveTvApplication extends TvApplication implements HasSingletons<Tv
     private Tracker mTracker;
     private ExperimentLoader mExperimentLoader;
     private PerformanceMonitor mPerformanceMonitor;
+    private XmltvEpgReader mXmltvEpgReader;
 
     @Override
     protected AndroidInjector<LiveTvApplication> applicationInjector() {
@@ -103,6 +110,16 @@ public class LiveTvApplication extends TvApplication implements HasSingletons<Tv
         return mEpgReaderProvider;
     }
 
+    // The reader is shared so that the file is indexed only once.
+    private synchronized XmltvEpgReader getXmltvEpgReader() {
+        if (mXmltvEpgReader == null) {
+            mXmltvEpgReader =
+                    new XmltvEpgReader(
+                            new File(getFilesDir(), XmltvEpgReader.FILE_NAME), Clock.SYSTEM);
+        }
+        return mXmltvEpgReader;
+    }
+
     @Override
     public ExperimentLoader getExperimentLoader() {
         mExperimentLoader = new ExperimentLoader();
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data;
+
+import android.support.annotation.VisibleForTesting;
+import com.android.tv.util.Utils;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * The programs of a channel in the order of the start time, stored column by column.
+ *
+ * <p>The programs read with {@link Program#PARTIAL_PROJECTION} and added by {@link #addPartial}
+ * are kept only as primitive and interned columns, and {@link #get} creates a new {@link Program}
+ * for them on every call without keeping it. Other programs, like complete or dummy ones, are kept
+ * as they are, and the columns are not allocated until the first partial program is added. The ID,
+ * start time and end time of every program can be read without creating a {@link Program}.
+ *
+ * <p>Complete programs have too many columns to be kept compact, so the list saves memory only
+ * when the programs are fetched partially and {@code BackendKnobsFlags.compactProgramCache()} is
+ * on. Otherwise it works as an {@link java.util.ArrayList}.
+ *
+ * <p>This class is not thread safe.
+ */
+final class CompactProgramList extends AbstractList<Program> implements RandomAccess {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int[] EMPTY_GENRE_IDS = new int[0];
+
+    private final long mChannelId;
+    private int mSize;
+    // Non-null for the programs which are kept as they are.
+    private Program[] mPrograms = new Program[INITIAL_CAPACITY];
+    // The columns of the partial programs. They are null until a partial program is added.
+    private long[] mIds;
+    private long[] mStartTimesUtcMillis;
+    private long[] mEndTimesUtcMillis;
+    private String[] mTitles;
+    private String[] mEpisodeTitles;
+    private int[][] mCanonicalGenreIds;
+
+    /** Shares the strings and genre arrays between the programs read by a single query. */
+    static final class Interner {
+        private final Map<String, String> mStrings = new HashMap<>();
+        private final Map<String, int[]> mGenreIds = new HashMap<>();
+
+        String intern(String string) {
+            if (string == null) {
+                return null;
+            }
+            String interned = mStrings.get(string);
+            if (interned == null) {
+                mStrings.put(string, string);
+                interned = string;
+            }
+            return interned;
+        }
+
+        int[] internGenreIds(int[] genreIds) {
+            if (genreIds == null || genreIds.length == 0) {
+                return genreIds == null ? null : EMPTY_GENRE_IDS;
+            }
+            String key = Arrays.toString(genreIds);
+            int[] interned = mGenreIds.get(key);
+            if (interned == null) {
+                mGenreIds.put(key, genreIds);
+                interned = genreIds;
+            }
+            return interned;
+        }
+    }
+
+    CompactProgramList(long channelId) {
+        mChannelId = channelId;
+    }
+
+    /**
+     * Appends a program read with {@link Program#PARTIAL_PROJECTION}. Only the columns of the
+     * partial projection are kept and {@code program} itself is not referenced.
+     */
+    void addPartial(Program program, Interner interner) {
+        if (program.getChannelId() != mChannelId) {
+            add(program);
+            return;
+        }
+        int index = mSize;
+        insertRow(index);
+        if (mIds == null) {
+            allocateColumns(mPrograms.length);
+        }
+        mIds[index] = program.getId();
+        mStartTimesUtcMillis[index] = program.getStartTimeUtcMillis();
+        mEndTimesUtcMillis[index] = program.getEndTimeUtcMillis();
+        mTitles[index] = interner.intern(program.getTitle());
+        mEpisodeTitles[index] = interner.intern(program.getEpisodeTitle());
+        mCanonicalGenreIds[index] = interner.internGenreIds(program.getCanonicalGenreIds());
+    }
+
+    /** Returns the ID of the program at {@code index} without creating a {@link Program}. */
+    long getId(int index) {
+        checkIndex(index);
+        Program program = mPrograms[index];
+        return program != null ? program.getId() : mIds[index];
+    }
+
+    /** Returns the start time of the program at {@code index}. */
+    long getStartTimeUtcMillis(int index) {
+        checkIndex(index);
+        return getStartTimeUtcMillisInternal(index);
+    }
+
+    /** Returns the end time of the program at {@code index}. */
+    long getEndTimeUtcMillis(int index) {
+        checkIndex(index);
+        Program program = mPrograms[index];
+        return program != null ? program.getEndTimeUtcMillis() : mEndTimesUtcMillis[index];
+    }
+
+    /**
+     * Searches for a program which starts at {@code timeMs}. The result is the same as {@link
+     * java.util.Collections#binarySearch} with a program which starts at {@code timeMs}.
+     */
+    int binarySearchStartTime(long timeMs) {
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long startTimeMs = getStartTimeUtcMillisInternal(mid);
+            if (startTimeMs < timeMs) {
+                low = mid + 1;
+            } else if (startTimeMs > timeMs) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Returns the program at {@code index}. A partial program is created from its columns on
+     * every call and isn't kept, so that a full scan doesn't inflate the list.
+     */
+    @Override
+    public Program get(int index) {
+        checkIndex(index);
+        Program program = mPrograms[index];
+        if (program != null) {
+            return program;
+        }
+        return new Program.Builder()
+                .setId(mIds[index])
+                .setChannelId(mChannelId)
+                .setTitle(mTitles[index])
+                .setEpisodeTitle(mEpisodeTitles[index])
+                .setCanonicalGenreIds(mCanonicalGenreIds[index])
+                .setStartTimeUtcMillis(mStartTimesUtcMillis[index])
+                .setEndTimeUtcMillis(mEndTimesUtcMillis[index])
+                .build();
+    }
+
+    /** Returns the number of programs which are kept as objects rather than in the columns. */
+    @VisibleForTesting
+    int getRetainedProgramCount() {
+        int count = 0;
+        for (int i = 0; i < mSize; ++i) {
+            if (mPrograms[i] != null) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /** Returns whether the columns of the partial programs are allocated. */
+    @VisibleForTesting
+    boolean hasColumns() {
+        return mIds != null;
+    }
+
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    @Override
+    public Program set(int index, Program program) {
+        Program previous = get(index);
+        setRow(index, program);
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Program program) {
+        if (index < 0 || index > mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+        insertRow(index);
+        setRow(index, program);
+    }
+
+    @Override
+    public Program remove(int index) {
+        Program previous = get(index);
+        int moved = mSize - index - 1;
+        if (moved > 0) {
+            System.arraycopy(mPrograms, index + 1, mPrograms, index, moved);
+            if (mIds != null) {
+                System.arraycopy(mIds, index + 1, mIds, index, moved);
+                System.arraycopy(
+                        mStartTimesUtcMillis, index + 1, mStartTimesUtcMillis, index, moved);
+                System.arraycopy(mEndTimesUtcMillis, index + 1, mEndTimesUtcMillis, index, moved);
+                System.arraycopy(mTitles, index + 1, mTitles, index, moved);
+                System.arraycopy(mEpisodeTitles, index + 1, mEpisodeTitles, index, moved);
+                System.arraycopy(mCanonicalGenreIds, index + 1, mCanonicalGenreIds, index, moved);
+            }
+        }
+        --mSize;
+        clearRow(mSize);
+        ++modCount;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < mSize; ++i) {
+            clearRow(i);
+        }
+        mSize = 0;
+        ++modCount;
+    }
+
+    private long getStartTimeUtcMillisInternal(int index) {
+        Program program = mPrograms[index];
+        return program != null ? program.getStartTimeUtcMillis() : mStartTimesUtcMillis[index];
+    }
+
+    private void setRow(int index, Program program) {
+        clearRow(index);
+        mPrograms[index] = program;
+    }
+
+    private void clearRow(int index) {
+        mPrograms[index] = null;
+        if (mIds != null) {
+            mTitles[index] = null;
+            mEpisodeTitles[index] = null;
+            mCanonicalGenreIds[index] = null;
+        }
+    }
+
+    private void allocateColumns(int capacity) {
+        mIds = new long[capacity];
+        mStartTimesUtcMillis = new long[capacity];
+        mEndTimesUtcMillis = new long[capacity];
+        mTitles = new String[capacity];
+        mEpisodeTitles = new String[capacity];
+        mCanonicalGenreIds = new int[capacity][];
+    }
+
+    private void insertRow(int index) {
+        if (mSize == mPrograms.length) {
+            int capacity = mSize + (mSize >> 1);
+            mPrograms = Arrays.copyOf(mPrograms, capacity);
+            if (mIds != null) {
+                mIds = Arrays.copyOf(mIds, capacity);
+                mStartTimesUtcMillis = Arrays.copyOf(mStartTimesUtcMillis, capacity);
+                mEndTimesUtcMillis = Arrays.copyOf(mEndTimesUtcMillis, capacity);
+                mTitles = Arrays.copyOf(mTitles, capacity);
+                mEpisodeTitles = Arrays.copyOf(mEpisodeTitles, capacity);
+                mCanonicalGenreIds = Arrays.copyOf(mCanonicalGenreIds, capacity);
+            }
+        }
+        int moved = mSize - index;
+        if (moved > 0) {
+            System.arraycopy(mPrograms, index, mPrograms, index + 1, moved);
+            if (mIds != null) {
+                System.arraycopy(mIds, index, mIds, index + 1, moved);
+                System.arraycopy(
+                        mStartTimesUtcMillis, index, mStartTimesUtcMillis, index + 1, moved);
+                System.arraycopy(mEndTimesUtcMillis, index, mEndTimesUtcMillis, index + 1, moved);
+                System.arraycopy(mTitles, index, mTitles, index + 1, moved);
+                System.arraycopy(mEpisodeTitles, index, mEpisodeTitles, index + 1, moved);
+                System.arraycopy(mCanonicalGenreIds, index, mCanonicalGenreIds, index + 1, moved);
+            }
+        }
+        // The new row is set by the caller.
+        mPrograms[index] = null;
+        ++mSize;
+        ++modCount;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + mSize);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CompactProgramList{channelId="
+                + mChannelId
+                + ", size="
+                + mSize
+                + ", range="
+                + (mSize == 0
+                        ? "none"
+                        : Utils.toTimeString(getStartTimeUtcMillisInternal(0))
+                                + "-"
+                                + Utils.toTimeString(getEndTimeUtcMillis(mSize - 1)))
+                + "}";
+    }
+}
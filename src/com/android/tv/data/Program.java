@@ -863,6 +863,17 @@ public final class Program extends BaseProgram implements Comparable<Program>, P
             return this;
         }
 
+        /**
+         * Sets the canonical genre IDs. The array is not copied.
+         *
+         * @param genreIds the genre IDs
+         * @return a reference to this object
+         */
+        public Builder setCanonicalGenreIds(int[] genreIds) {
+            mProgram.mCanonicalGenreIds = genreIds;
+            return this;
+        }
+
         /**
          * Sets the recording prohibited flag
          *
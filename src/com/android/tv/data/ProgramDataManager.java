@@ -17,6 +17,7 @@
 package com.android.tv.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.Context;
 import android.database.ContentObserver;
 import android.database.Cursor;
@@ -28,11 +29,14 @@ import android.os.Looper;
 import android.os.Message;
 import android.support.annotation.AnyThread;
 import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.LongSparseArray;
-import android.util.LruCache;
+import android.util.Pair;
+import android.util.Range;
 import com.android.tv.TvSingletons;
 import com.android.tv.common.SoftPreconditions;
 import com.android.tv.common.memory.MemoryManageable;
@@ -43,7 +47,9 @@ import com.android.tv.perf.PerformanceMonitor;
 import com.android.tv.perf.TimerEvent;
 import com.android.tv.util.AsyncDbTask;
 import com.android.tv.util.MultiLongSparseArray;
+import com.android.tv.util.PriorityDbExecutor;
 import com.android.tv.util.TvProviderUtils;
+import com.android.tv.util.TvUriMatcher;
 import com.android.tv.util.Utils;
 import com.android.tv.common.flags.BackendKnobsFlags;
 import java.util.ArrayList;
@@ -78,6 +84,7 @@ public class ProgramDataManager implements MemoryManageable {
     // TODO: Use TvContract constants, once they become public.
     private static final String PARAM_START_TIME = "start_time";
     private static final String PARAM_END_TIME = "end_time";
+    private static final String PARAM_CHANNEL = "channel";
     // COLUMN_CHANNEL_ID, COLUMN_END_TIME_UTC_MILLIS are added to detect duplicated programs.
     // Duplicated programs are always consecutive by the sorting order.
     private static final String SORT_BY_TIME =
@@ -87,6 +94,10 @@ public class ProgramDataManager implements MemoryManageable {
                     + ", "
                     + Programs.COLUMN_END_TIME_UTC_MILLIS;
 
+    // If more programs or channels than this are changed at once, e.g. by an EPG sync, reloading
+    // the whole prefetch window is cheaper than reloading the channels one by one.
+    private static final int MAX_DELTA_RELOAD_CHANGE_COUNT = 200;
+
     private static final int MSG_UPDATE_CURRENT_PROGRAMS = 1000;
     private static final int MSG_UPDATE_ONE_CURRENT_PROGRAM = 1001;
     private static final int MSG_UPDATE_PREFETCH_PROGRAM = 1002;
@@ -109,7 +120,7 @@ public class ProgramDataManager implements MemoryManageable {
             mChannelId2ProgramUpdatedListeners = new MultiLongSparseArray<>();
     private final Handler mHandler;
     private final Set<Callback> mCallbacks = new ArraySet<>();
-    private Map<Long, ArrayList<Program>> mChannelIdProgramCache = new ConcurrentHashMap<>();
+    private Map<Long, CompactProgramList> mChannelIdProgramCache = new ConcurrentHashMap<>();
     private final Set<Long> mCompleteInfoChannelIds = new HashSet<>();
     private final ContentObserver mProgramObserver;
 
@@ -118,13 +129,24 @@ public class ProgramDataManager implements MemoryManageable {
     private long mLastPrefetchTaskRunMs;
     private ProgramsPrefetchTask mProgramsPrefetchTask;
 
+    // The time range of the last successful full prefetch. A delta reload is possible only while
+    // the prefetch time range is not changed.
+    private long mLastPrefetchStartTimeMs;
+    private long mLastPrefetchEndTimeMs;
+    // True if the cache was loaded with all the columns, not with Program.PARTIAL_PROJECTION.
+    private boolean mPrefetchedProgramsComplete;
+    // Changes notified since the last prefetch. If a change can't be tied to a program or a
+    // channel, the whole prefetch window is reloaded.
+    private boolean mFullPrefetchRequired = true;
+    private final Set<Long> mChangedProgramIds = new HashSet<>();
+    private final Set<Long> mChangedChannelIds = new HashSet<>();
+
     // Any program that ends prior to this time will be removed from the cache
     // when a channel's current program is updated.
     // Note that there's no limit for end time.
     private long mPrefetchTimeRangeStartMs;
 
     private boolean mPauseProgramUpdate = false;
-    private final LruCache<Long, Program> mZeroLengthProgramCache = new LruCache<>(10);
 
     @MainThread
     public ProgramDataManager(Context context) {
@@ -161,6 +183,12 @@ public class ProgramDataManager implements MemoryManageable {
                 new ContentObserver(mHandler) {
                     @Override
                     public void onChange(boolean selfChange) {
+                        onChange(selfChange, null);
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange, @Nullable Uri uri) {
+                        recordProgramChange(uri);
                         if (!mHandler.hasMessages(MSG_UPDATE_CURRENT_PROGRAMS)) {
                             mHandler.sendEmptyMessage(MSG_UPDATE_CURRENT_PROGRAMS);
                         }
@@ -251,6 +279,7 @@ public class ProgramDataManager implements MemoryManageable {
 
     /** Reloads program data. */
     public void reload() {
+        requestFullPrefetch();
         if (!mHandler.hasMessages(MSG_UPDATE_CURRENT_PROGRAMS)) {
             mHandler.sendEmptyMessage(MSG_UPDATE_CURRENT_PROGRAMS);
         }
@@ -313,6 +342,7 @@ public class ProgramDataManager implements MemoryManageable {
             mPrefetchEnabled = false;
             cancelPrefetchTask();
             mChannelIdProgramCache.clear();
+            requestFullPrefetch();
             mHandler.removeMessages(MSG_UPDATE_PREFETCH_PROGRAM);
         }
     }
@@ -327,7 +357,7 @@ public class ProgramDataManager implements MemoryManageable {
      */
     public List<Program> getPrograms(long channelId, long startTime) {
         SoftPreconditions.checkState(mPrefetchEnabled, TAG, "Prefetch is disabled.");
-        ArrayList<Program> cachedPrograms = mChannelIdProgramCache.get(channelId);
+        CompactProgramList cachedPrograms = mChannelIdProgramCache.get(channelId);
         if (cachedPrograms == null) {
             return Collections.emptyList();
         }
@@ -336,22 +366,48 @@ public class ProgramDataManager implements MemoryManageable {
                 cachedPrograms.subList(startIndex, cachedPrograms.size()));
     }
 
+    /**
+     * Returns the time range of the prefetched programs if they have all the columns and there are
+     * no pending changes, or {@code null} otherwise.
+     *
+     * <p>If it's not {@code null}, {@link #getPrefetchedPrograms} has all the programs which start
+     * in the range, so they can be used instead of querying the programs in the range.
+     */
+    @Nullable
+    public Range<Long> getCompletePrefetchTimeRange() {
+        if (!mPrefetchEnabled
+                || !mPrefetchedProgramsComplete
+                || mChannelIdProgramCache.isEmpty()
+                || mFullPrefetchRequired
+                || !mChangedProgramIds.isEmpty()
+                || !mChangedChannelIds.isEmpty()
+                || mProgramsPrefetchTask != null
+                || isProgramUpdatePaused()) {
+            return null;
+        }
+        return new Range<>(mLastPrefetchStartTimeMs, mLastPrefetchEndTimeMs);
+    }
+
+    /** Returns the prefetched programs of all the channels. */
+    public List<Program> getPrefetchedPrograms() {
+        List<Program> result = new ArrayList<>();
+        for (CompactProgramList programs : mChannelIdProgramCache.values()) {
+            result.addAll(programs);
+        }
+        return result;
+    }
+
     /**
      * Returns the index of program that is played at the specified time.
      *
      * <p>If there isn't, return the first program among programs that starts after the given time
      * if returnNextProgram is {@code true}.
      */
-    private int getProgramIndexAt(List<Program> programs, long time) {
-        Program key = mZeroLengthProgramCache.get(time);
-        if (key == null) {
-            key = createDummyProgram(time, time);
-            mZeroLengthProgramCache.put(time, key);
-        }
-        int index = Collections.binarySearch(programs, key);
+    private int getProgramIndexAt(CompactProgramList programs, long time) {
+        int index = programs.binarySearchStartTime(time);
         if (index < 0) {
             index = -(index + 1); // change it to index to be added.
-            if (index > 0 && isProgramPlayedAt(programs.get(index - 1), time)) {
+            if (index > 0 && isProgramPlayedAt(programs, index - 1, time)) {
                 // A program is played at that time.
                 return index - 1;
             }
@@ -360,8 +416,9 @@ public class ProgramDataManager implements MemoryManageable {
         return index;
     }
 
-    private boolean isProgramPlayedAt(Program program, long time) {
-        return program.getStartTimeUtcMillis() <= time && time <= program.getEndTimeUtcMillis();
+    private boolean isProgramPlayedAt(CompactProgramList programs, int index, long time) {
+        return programs.getStartTimeUtcMillis(index) <= time
+                && time <= programs.getEndTimeUtcMillis(index);
     }
 
     /**
@@ -428,7 +485,7 @@ public class ProgramDataManager implements MemoryManageable {
         if (!Program.isProgramValid(currentProgram)) {
             return;
         }
-        ArrayList<Program> cachedPrograms = mChannelIdProgramCache.remove(channelId);
+        CompactProgramList cachedPrograms = mChannelIdProgramCache.remove(channelId);
         if (cachedPrograms == null) {
             return;
         }
@@ -487,26 +544,132 @@ public class ProgramDataManager implements MemoryManageable {
         mProgramsUpdateTask.executeOnDbThread();
     }
 
+    private void requestFullPrefetch() {
+        mFullPrefetchRequired = true;
+        mChangedProgramIds.clear();
+        mChangedChannelIds.clear();
+    }
+
+    /**
+     * Records which programs or channels are affected by a change of {@link Programs}, so that the
+     * next prefetch can reload only those channels.
+     */
+    private void recordProgramChange(@Nullable Uri uri) {
+        if (mFullPrefetchRequired) {
+            return;
+        }
+        if (uri != null) {
+            switch (TvUriMatcher.match(uri)) {
+                case TvUriMatcher.MATCH_PROGRAM_ID:
+                    mChangedProgramIds.add(ContentUris.parseId(uri));
+                    checkDeltaReloadLimit();
+                    return;
+                case TvUriMatcher.MATCH_PROGRAM:
+                    String channelId = uri.getQueryParameter(PARAM_CHANNEL);
+                    if (channelId != null) {
+                        try {
+                            mChangedChannelIds.add(Long.parseLong(channelId));
+                            checkDeltaReloadLimit();
+                            return;
+                        } catch (NumberFormatException e) {
+                            Log.w(TAG, "Invalid channel ID in " + uri);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        // The whole table or an unknown set of programs is changed.
+        requestFullPrefetch();
+    }
+
+    private void checkDeltaReloadLimit() {
+        if (mChangedProgramIds.size() + mChangedChannelIds.size()
+                > MAX_DELTA_RELOAD_CHANGE_COUNT) {
+            requestFullPrefetch();
+        }
+    }
+
+    private ProgramsPrefetchTask createPrefetchTask() {
+        long startTimeMs =
+                Utils.floorTime(
+                        mClock.currentTimeMillis() - PROGRAM_GUIDE_SNAP_TIME_MS,
+                        PROGRAM_GUIDE_SNAP_TIME_MS);
+        long endTimeMs = startTimeMs + TimeUnit.HOURS.toMillis(getFetchDuration());
+        ProgramsPrefetchTask task;
+        if (mFullPrefetchRequired
+                || mChannelIdProgramCache.isEmpty()
+                || startTimeMs != mLastPrefetchStartTimeMs
+                || endTimeMs != mLastPrefetchEndTimeMs) {
+            task = new ProgramsPrefetchTask(startTimeMs, endTimeMs, null, null);
+        } else {
+            Set<Long> channelIds = new HashSet<>(mChangedChannelIds);
+            Set<Long> unresolvedProgramIds = new HashSet<>(mChangedProgramIds);
+            if (!unresolvedProgramIds.isEmpty()) {
+                // Removed programs can be found only in the cache.
+                for (Map.Entry<Long, CompactProgramList> entry :
+                        mChannelIdProgramCache.entrySet()) {
+                    CompactProgramList programs = entry.getValue();
+                    for (int i = 0; i < programs.size(); ++i) {
+                        if (unresolvedProgramIds.remove(programs.getId(i))) {
+                            channelIds.add(entry.getKey());
+                        }
+                    }
+                }
+            }
+            task =
+                    new ProgramsPrefetchTask(
+                            startTimeMs, endTimeMs, channelIds, unresolvedProgramIds);
+        }
+        // From now on, the changes will be handled by the task. If it fails, it requests a full
+        // prefetch again.
+        mFullPrefetchRequired = false;
+        mChangedProgramIds.clear();
+        mChangedChannelIds.clear();
+        return task;
+    }
+
+    /**
+     * Loads the programs in the prefetch time range.
+     *
+     * <p>If the channel IDs are given, only the programs of those channels are reloaded and
+     * spliced into the existing cache. Otherwise, the cache is rebuilt with all the programs.
+     */
     private class ProgramsPrefetchTask
-            extends AsyncDbTask<Void, Void, Map<Long, ArrayList<Program>>> {
+            extends AsyncDbTask<Void, Void, Map<Long, CompactProgramList>> {
         private final long mStartTimeMs;
         private final long mEndTimeMs;
+        // Set to null on the background thread if the delta reload is not possible.
+        @Nullable private Set<Long> mChannelIds;
+        @Nullable private final Set<Long> mUnresolvedProgramIds;
 
         private boolean mSuccess;
+        private int mReadRowCount;
         private TimerEvent mFromEmptyCacheTimeEvent;
 
-        public ProgramsPrefetchTask() {
+        public ProgramsPrefetchTask(
+                long startTimeMs,
+                long endTimeMs,
+                @Nullable Set<Long> channelIds,
+                @Nullable Set<Long> unresolvedProgramIds) {
             super(mDbExecutor);
-            long time = mClock.currentTimeMillis();
-            mStartTimeMs =
-                    Utils.floorTime(time - PROGRAM_GUIDE_SNAP_TIME_MS, PROGRAM_GUIDE_SNAP_TIME_MS);
-            mEndTimeMs = mStartTimeMs + TimeUnit.HOURS.toMillis(getFetchDuration());
+            mStartTimeMs = startTimeMs;
+            mEndTimeMs = endTimeMs;
+            mChannelIds = channelIds;
+            mUnresolvedProgramIds = unresolvedProgramIds;
             mSuccess = false;
         }
 
+        @Override
+        protected int getDbPriority() {
+            // It can take seconds with a large lineup. Don't delay the current program queries.
+            return PriorityDbExecutor.PRIORITY_BULK;
+        }
+
         @Override
         protected void onPreExecute() {
-            if (mChannelIdCurrentProgramMap.isEmpty()) {
+            if (mChannelIds == null && mChannelIdCurrentProgramMap.isEmpty()) {
                 // No current program guide is shown.
                 // Measure the delay before users can see program guides.
                 mFromEmptyCacheTimeEvent = mPerformanceMonitor.startTimer();
@@ -514,82 +677,75 @@ public class ProgramDataManager implements MemoryManageable {
         }
 
         @Override
-        protected Map<Long, ArrayList<Program>> doInBackground(Void... params) {
+        protected Map<Long, CompactProgramList> doInBackground(Void... params) {
             TimerEvent asyncTimeEvent = mPerformanceMonitor.startTimer();
-            Map<Long, ArrayList<Program>> programMap = new HashMap<>();
+            Map<Long, CompactProgramList> programMap = new HashMap<>();
+            if (mChannelIds != null
+                    && mUnresolvedProgramIds != null
+                    && !mUnresolvedProgramIds.isEmpty()
+                    && !resolveChannelIds()) {
+                mChannelIds = null;
+            }
             if (DEBUG) {
                 Log.d(
                         TAG,
-                        "Starts programs prefetch. "
+                        "Starts programs prefetch"
+                                + (mChannelIds == null
+                                        ? ". "
+                                        : " for " + mChannelIds.size() + " changed channels. ")
                                 + Utils.toTimeString(mStartTimeMs)
                                 + "-"
                                 + Utils.toTimeString(mEndTimeMs));
             }
-            Uri uri =
-                    Programs.CONTENT_URI
-                            .buildUpon()
-                            .appendQueryParameter(PARAM_START_TIME, String.valueOf(mStartTimeMs))
-                            .appendQueryParameter(PARAM_END_TIME, String.valueOf(mEndTimeMs))
-                            .build();
+            List<Uri> uris = new ArrayList<>();
+            if (mChannelIds == null) {
+                uris.add(
+                        Programs.CONTENT_URI
+                                .buildUpon()
+                                .appendQueryParameter(
+                                        PARAM_START_TIME, String.valueOf(mStartTimeMs))
+                                .appendQueryParameter(PARAM_END_TIME, String.valueOf(mEndTimeMs))
+                                .build());
+            } else {
+                for (long channelId : mChannelIds) {
+                    uris.add(
+                            TvContract.buildProgramsUriForChannel(
+                                    channelId, mStartTimeMs, mEndTimeMs));
+                }
+            }
             final int RETRY_COUNT = 3;
-            Program lastReadProgram = null;
             for (int retryCount = RETRY_COUNT; retryCount > 0; retryCount--) {
                 if (isProgramUpdatePaused()) {
                     return null;
                 }
                 programMap.clear();
+                mReadRowCount = 0;
 
                 String[] projection =
                         mBackendKnobsFlags.enablePartialProgramFetch()
                                 ? Program.PARTIAL_PROJECTION
                                 : Program.PROJECTION;
                 if (TvProviderUtils.checkSeriesIdColumn(mContext, Programs.CONTENT_URI)) {
-                    if (Utils.isProgramsUri(uri)) {
-                        projection =
-                                TvProviderUtils.addExtraColumnsToProjection(
-                                        projection, TvProviderUtils.EXTRA_PROGRAM_COLUMN_SERIES_ID);
-                    }
+                    projection =
+                            TvProviderUtils.addExtraColumnsToProjection(
+                                    projection, TvProviderUtils.EXTRA_PROGRAM_COLUMN_SERIES_ID);
                 }
-                try (Cursor c = mContentResolver.query(uri, projection, null, null, SORT_BY_TIME)) {
-                    if (c == null) {
-                        continue;
-                    }
-                    while (c.moveToNext()) {
-                        int duplicateCount = 0;
+                try {
+                    boolean success = true;
+                    for (Uri uri : uris) {
+                        if (!readPrograms(uri, projection, programMap)) {
+                            success = false;
+                            break;
+                        }
                         if (isCancelled()) {
                             if (DEBUG) {
                                 Log.d(TAG, "ProgramsPrefetchTask canceled.");
                             }
                             return null;
                         }
-                        Program program =
-                                mBackendKnobsFlags.enablePartialProgramFetch()
-                                        ? Program.fromCursorPartialProjection(c)
-                                        : Program.fromCursor(c);
-                        if (Program.isDuplicate(program, lastReadProgram)) {
-                            duplicateCount++;
-                            continue;
-                        } else {
-                            lastReadProgram = program;
-                        }
-                        ArrayList<Program> programs = programMap.get(program.getChannelId());
-                        if (programs == null) {
-                            programs = new ArrayList<>();
-                            if (mBackendKnobsFlags.enablePartialProgramFetch()) {
-                                // To skip already loaded complete data.
-                                Program currentProgramInfo =
-                                        mChannelIdCurrentProgramMap.get(program.getChannelId());
-                                if (currentProgramInfo != null
-                                        && Program.isDuplicate(program, currentProgramInfo)) {
-                                    program = currentProgramInfo;
-                                }
-                            }
-                            programMap.put(program.getChannelId(), programs);
-                        }
-                        programs.add(program);
-                        if (duplicateCount > 0) {
-                            Log.w(TAG, "Found " + duplicateCount + " duplicate programs");
-                        }
+                    }
+                    if (!success) {
+                        continue;
                     }
                     mSuccess = true;
                     break;
@@ -604,7 +760,13 @@ public class ProgramDataManager implements MemoryManageable {
                 }
             }
             if (DEBUG) {
-                Log.d(TAG, "Ends programs prefetch for " + programMap.size() + " channels");
+                Log.d(
+                        TAG,
+                        "Ends programs prefetch for "
+                                + programMap.size()
+                                + " channels, read "
+                                + mReadRowCount
+                                + " rows");
             }
             mPerformanceMonitor.stopTimer(
                     asyncTimeEvent,
@@ -612,17 +774,105 @@ public class ProgramDataManager implements MemoryManageable {
             return programMap;
         }
 
+        /**
+         * Reads the programs of {@code uri} into {@code programMap}. Returns {@code false} if the
+         * query failed.
+         */
+        private boolean readPrograms(
+                Uri uri, String[] projection, Map<Long, CompactProgramList> programMap) {
+            try (Cursor c = mContentResolver.query(uri, projection, null, null, SORT_BY_TIME)) {
+                if (c == null) {
+                    return false;
+                }
+                boolean partialProgramFetch = mBackendKnobsFlags.enablePartialProgramFetch();
+                boolean compactProgramCache =
+                        partialProgramFetch && mBackendKnobsFlags.compactProgramCache();
+                CompactProgramList.Interner interner = new CompactProgramList.Interner();
+                int duplicateCount = 0;
+                Program lastReadProgram = null;
+                while (c.moveToNext()) {
+                    if (isCancelled()) {
+                        return true;
+                    }
+                    mReadRowCount++;
+                    Program program =
+                            partialProgramFetch
+                                    ? Program.fromCursorPartialProjection(c)
+                                    : Program.fromCursor(c);
+                    if (Program.isDuplicate(program, lastReadProgram)) {
+                        duplicateCount++;
+                        continue;
+                    } else {
+                        lastReadProgram = program;
+                    }
+                    CompactProgramList programs = programMap.get(program.getChannelId());
+                    if (programs == null) {
+                        programs = new CompactProgramList(program.getChannelId());
+                        programMap.put(program.getChannelId(), programs);
+                        if (partialProgramFetch) {
+                            // To skip already loaded complete data.
+                            Program currentProgramInfo =
+                                    mChannelIdCurrentProgramMap.get(program.getChannelId());
+                            if (currentProgramInfo != null
+                                    && Program.isDuplicate(program, currentProgramInfo)) {
+                                programs.add(currentProgramInfo);
+                                continue;
+                            }
+                        }
+                    }
+                    if (compactProgramCache) {
+                        // Only the columns are kept, so that the cache stays small.
+                        programs.addPartial(program, interner);
+                    } else {
+                        programs.add(program);
+                    }
+                }
+                if (duplicateCount > 0) {
+                    Log.w(TAG, "Found " + duplicateCount + " duplicate programs");
+                }
+                return true;
+            }
+        }
+
+        /**
+         * Adds the channel IDs of the changed programs which are not in the cache, e.g. newly
+         * inserted ones. Returns {@code false} if they can't be resolved.
+         */
+        private boolean resolveChannelIds() {
+            String[] projection = {Programs._ID, Programs.COLUMN_CHANNEL_ID};
+            String selection =
+                    Programs._ID + " IN (" + TextUtils.join(",", mUnresolvedProgramIds) + ")";
+            try (Cursor c =
+                    mContentResolver.query(
+                            Programs.CONTENT_URI, projection, selection, null, null)) {
+                if (c == null) {
+                    return false;
+                }
+                while (c.moveToNext()) {
+                    mChannelIds.add(c.getLong(1));
+                }
+                return true;
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to resolve the channels of changed programs", e);
+                return false;
+            }
+        }
+
         @Override
-        protected void onPostExecute(Map<Long, ArrayList<Program>> programs) {
+        protected void onPostExecute(Map<Long, CompactProgramList> programs) {
             mProgramsPrefetchTask = null;
             if (isProgramUpdatePaused()) {
                 // ProgramsPrefetchTask will run again once setPauseProgramUpdate(false) is called.
+                requestFullPrefetch();
                 return;
             }
             long nextMessageDelayedTime;
             if (mSuccess) {
                 long currentTime = mClock.currentTimeMillis();
                 mLastPrefetchTaskRunMs = currentTime;
+                mPerformanceMonitor.recordCount(
+                        EventNames.PROGRAM_DATA_MANAGER_PROGRAMS_PREFETCH_READ_ROW_COUNT,
+                        mReadRowCount);
                 nextMessageDelayedTime =
                         Utils.floorTime(
                                         mLastPrefetchTaskRunMs + PROGRAM_GUIDE_SNAP_TIME_MS,
@@ -632,10 +882,39 @@ public class ProgramDataManager implements MemoryManageable {
                 if (mChannelIdProgramCache.isEmpty()) {
                     nextMessageDelayedTime = 0;
                 }
-                mChannelIdProgramCache = programs;
-                if (mBackendKnobsFlags.enablePartialProgramFetch()) {
-                    // Since cache has partial data we need to reset the map of complete data.
-                    mCompleteInfoChannelIds.clear();
+                if (mChannelIds == null) {
+                    mChannelIdProgramCache = programs;
+                    mLastPrefetchStartTimeMs = mStartTimeMs;
+                    mLastPrefetchEndTimeMs = mEndTimeMs;
+                    mPrefetchedProgramsComplete = !mBackendKnobsFlags.enablePartialProgramFetch();
+                    if (mBackendKnobsFlags.enablePartialProgramFetch()) {
+                        // Since cache has partial data we need to reset the map of complete data.
+                        mCompleteInfoChannelIds.clear();
+                    }
+                } else {
+                    for (long channelId : mChannelIds) {
+                        CompactProgramList channelPrograms = programs.get(channelId);
+                        if (channelPrograms == null) {
+                            mChannelIdProgramCache.remove(channelId);
+                        } else {
+                            mChannelIdProgramCache.put(channelId, channelPrograms);
+                        }
+                        if (mBackendKnobsFlags.enablePartialProgramFetch()) {
+                            mCompleteInfoChannelIds.remove(channelId);
+                        }
+                    }
+                }
+                if (DEBUG) {
+                    Log.d(
+                            TAG,
+                            (mChannelIds == null
+                                            ? "Full prefetch"
+                                            : "Delta prefetch of "
+                                                    + mChannelIds.size()
+                                                    + " channels")
+                                    + " read "
+                                    + mReadRowCount
+                                    + " rows");
                 }
                 notifyProgramUpdated();
                 if (mFromEmptyCacheTimeEvent != null) {
@@ -645,6 +924,8 @@ public class ProgramDataManager implements MemoryManageable {
                     mFromEmptyCacheTimeEvent = null;
                 }
             } else {
+                // The changes handed over to this task are lost.
+                requestFullPrefetch();
                 nextMessageDelayedTime = PERIODIC_PROGRAM_UPDATE_MIN_MS;
             }
             if (!mHandler.hasMessages(MSG_UPDATE_PREFETCH_PROGRAM)) {
@@ -677,7 +958,8 @@ public class ProgramDataManager implements MemoryManageable {
         }
     }
 
-    private class SingleChannelPrefetchTask extends AsyncDbTask.AsyncQueryTask<ArrayList<Program>> {
+    private class SingleChannelPrefetchTask
+            extends AsyncDbTask.AsyncQueryTask<CompactProgramList> {
         long mChannelId;
 
         public SingleChannelPrefetchTask(long channelId, long startTimeMs, long endTimeMs) {
@@ -693,8 +975,14 @@ public class ProgramDataManager implements MemoryManageable {
         }
 
         @Override
-        protected ArrayList<Program> onQuery(Cursor c) {
-            ArrayList<Program> programMap = new ArrayList<>();
+        protected int getDbPriority() {
+            // The user is scrolling the program guide to the channel.
+            return PriorityDbExecutor.PRIORITY_INTERACTIVE;
+        }
+
+        @Override
+        protected CompactProgramList onQuery(Cursor c) {
+            CompactProgramList programMap = new CompactProgramList(mChannelId);
             while (c.moveToNext()) {
                 Program program = Program.fromCursor(c);
                 programMap.add(program);
@@ -703,7 +991,7 @@ public class ProgramDataManager implements MemoryManageable {
         }
 
         @Override
-        protected void onPostExecute(ArrayList<Program> programs) {
+        protected void onPostExecute(CompactProgramList programs) {
             mChannelIdProgramCache.put(mChannelId, programs);
             notifySingleChannelUpdated(mChannelId);
         }
@@ -737,6 +1025,11 @@ public class ProgramDataManager implements MemoryManageable {
                     SORT_BY_TIME);
         }
 
+        @Override
+        protected int getDbPriority() {
+            return PriorityDbExecutor.PRIORITY_INTERACTIVE;
+        }
+
         @Override
         public List<Program> onQuery(Cursor c) {
             final List<Program> programs = new ArrayList<>();
@@ -804,6 +1097,17 @@ public class ProgramDataManager implements MemoryManageable {
             mChannelId = channelId;
         }
 
+        @Override
+        protected int getDbPriority() {
+            return PriorityDbExecutor.PRIORITY_INTERACTIVE;
+        }
+
+        @Override
+        protected Object getCoalescingKey() {
+            // A newer task for the same channel always replaces the older one.
+            return Pair.create(UpdateCurrentProgramForChannelTask.class, mChannelId);
+        }
+
         @Override
         public Program onQuery(Cursor c) {
             Program program = null;
@@ -864,7 +1168,7 @@ public class ProgramDataManager implements MemoryManageable {
                             mHandler.sendEmptyMessageDelayed(
                                     MSG_UPDATE_PREFETCH_PROGRAM, delayMillis);
                         } else {
-                            mProgramsPrefetchTask = new ProgramsPrefetchTask();
+                            mProgramsPrefetchTask = createPrefetchTask();
                             mProgramsPrefetchTask.executeOnDbThread();
                         }
                         break;
@@ -909,6 +1213,7 @@ public class ProgramDataManager implements MemoryManageable {
         SoftPreconditions.checkState(mPrefetchEnabled, TAG, "Prefetch is disabled.");
         if (mPrefetchTimeRangeStartMs > startTimeMs) {
             // Fetch the programs immediately to re-create the cache.
+            requestFullPrefetch();
             if (!mHandler.hasMessages(MSG_UPDATE_PREFETCH_PROGRAM)) {
                 mHandler.sendEmptyMessage(MSG_UPDATE_PREFETCH_PROGRAM);
             }
@@ -927,6 +1232,8 @@ public class ProgramDataManager implements MemoryManageable {
         if (mProgramsPrefetchTask != null) {
             mProgramsPrefetchTask.cancel(true);
             mProgramsPrefetchTask = null;
+            // The changes handed over to the canceled task are lost.
+            requestFullPrefetch();
         }
     }
 
@@ -46,7 +46,8 @@ class EpgFetchHelper {
     private static final boolean DEBUG = false;
 
     private static final long PROGRAM_QUERY_DURATION_MS = TimeUnit.DAYS.toMillis(30);
-    private static final int BATCH_OPERATION_COUNT = 100;
+    // Throttle the batch operations to avoid TransactionTooLargeException.
+    static final int BATCH_OPERATION_COUNT = 100;
 
     // Value: Long
     private static final String KEY_LAST_UPDATED_EPG_TIMESTAMP =
@@ -73,11 +74,56 @@ class EpgFetchHelper {
      */
     static boolean updateEpgData(
             Context context, Clock clock, long channelId, List<Program> fetchedPrograms) {
-        final int fetchedProgramsCount = fetchedPrograms.size();
-        if (fetchedProgramsCount == 0) {
+        if (fetchedPrograms.isEmpty()) {
             return false;
         }
+        ArrayList<ContentProviderOperation> ops =
+                buildEpgOperations(context, clock, channelId, fetchedPrograms);
+        if (ops.isEmpty()) {
+            // The programs are already up to date.
+            return true;
+        }
         boolean updated = false;
+        // Throttle the batch operation not to cause TransactionTooLargeException.
+        for (int i = 0; i < ops.size(); i += BATCH_OPERATION_COUNT) {
+            int end = Math.min(ops.size(), i + BATCH_OPERATION_COUNT);
+            ArrayList<ContentProviderOperation> batch = new ArrayList<>(ops.subList(i, end));
+            if (DEBUG) {
+                int size = batch.size();
+                Log.d(TAG, "Running " + size + " operations for channel " + channelId);
+                for (int j = 0; j < size; ++j) {
+                    Log.d(TAG, "Operation(" + j + "): " + batch.get(j));
+                }
+            }
+            if (!applyBatch(context, batch)) {
+                return updated;
+            }
+            updated = true;
+        }
+        if (DEBUG) {
+            Log.d(
+                    TAG,
+                    "Updated " + fetchedPrograms.size() + " programs for channel " + channelId);
+        }
+        return updated;
+    }
+
+    /**
+     * Builds the operations which update the EPG data of the given channel with newly fetched
+     * programs, as described in {@link #updateEpgData}. The operations are not applied.
+     *
+     * @param channelId the target channel ID.
+     * @param fetchedPrograms the newly fetched program data, sorted by the start time.
+     * @return the operations in the order to be applied.
+     */
+    @WorkerThread
+    static ArrayList<ContentProviderOperation> buildEpgOperations(
+            Context context, Clock clock, long channelId, List<Program> fetchedPrograms) {
+        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
+        final int fetchedProgramsCount = fetchedPrograms.size();
+        if (fetchedProgramsCount == 0) {
+            return ops;
+        }
         long startTimeMs = clock.currentTimeMillis();
         long endTimeMs = startTimeMs + PROGRAM_QUERY_DURATION_MS;
         List<Program> oldPrograms = queryPrograms(context, channelId, startTimeMs, endTimeMs);
@@ -86,7 +132,6 @@ class EpgFetchHelper {
 
         // Compare the new programs with old programs one by one and update/delete the old one
         // or insert new program if there is no matching program in the database.
-        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
         while (newProgramsIndex < fetchedProgramsCount) {
             Program oldProgram =
                     oldProgramsIndex < oldPrograms.size()
@@ -135,29 +180,24 @@ class EpgFetchHelper {
                                 .withValues(Program.toContentValues(newProgram, context))
                                 .build());
             }
-            // Throttle the batch operation not to cause TransactionTooLargeException.
-            if (ops.size() > BATCH_OPERATION_COUNT || newProgramsIndex >= fetchedProgramsCount) {
-                try {
-                    if (DEBUG) {
-                        int size = ops.size();
-                        Log.d(TAG, "Running " + size + " operations for channel " + channelId);
-                        for (int i = 0; i < size; ++i) {
-                            Log.d(TAG, "Operation(" + i + "): " + ops.get(i));
-                        }
-                    }
-                    context.getContentResolver().applyBatch(TvContract.AUTHORITY, ops);
-                    updated = true;
-                } catch (RemoteException | OperationApplicationException e) {
-                    Log.e(TAG, "Failed to insert programs.", e);
-                    return updated;
-                }
-                ops.clear();
-            }
         }
-        if (DEBUG) {
-            Log.d(TAG, "Updated " + fetchedProgramsCount + " programs for channel " + channelId);
+        return ops;
+    }
+
+    /**
+     * Applies a batch of operations to TvProvider.
+     *
+     * @return {@code true} if the operations are successfully applied.
+     */
+    @WorkerThread
+    static boolean applyBatch(Context context, ArrayList<ContentProviderOperation> ops) {
+        try {
+            context.getContentResolver().applyBatch(TvContract.AUTHORITY, ops);
+            return true;
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(TAG, "Failed to insert programs.", e);
+            return false;
         }
-        return updated;
     }
 
     @WorkerThread
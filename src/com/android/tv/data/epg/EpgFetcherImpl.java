@@ -65,11 +65,9 @@ import com.google.common.collect.ImmutableSet;
 import com.android.tv.common.flags.BackendKnobsFlags;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -110,6 +108,9 @@ public class EpgFetcherImpl implements EpgFetcher {
     private static final int MSG_RETRY_PREPARE_FETCH_DURING_SCAN = 4;
 
     private static final int QUERY_CHANNEL_COUNT = 50;
+    private static final int INGEST_DIFF_THREAD_COUNT = 3;
+    // Lets the reader fetch the next batch while the previous one is diffed and written.
+    private static final int INGEST_MAX_PENDING_CHANNELS = QUERY_CHANNEL_COUNT * 2;
     private static final int MINIMUM_CHANNELS_TO_DECIDE_LINEUP = 3;
 
     private final Context mContext;
@@ -469,33 +470,16 @@ public class EpgFetcherImpl implements EpgFetcher {
         if (epgChannels.size() == 0) {
             return;
         }
-        Set<EpgReader.EpgChannel> batch = new HashSet<>(QUERY_CHANNEL_COUNT);
-        for (EpgReader.EpgChannel epgChannel : epgChannels) {
-            batch.add(epgChannel);
-            if (batch.size() >= QUERY_CHANNEL_COUNT) {
-                batchUpdateEpg(mEpgReader.getPrograms(batch, durationSec));
-                batch.clear();
-            }
-        }
-        if (!batch.isEmpty()) {
-            batchUpdateEpg(mEpgReader.getPrograms(batch, durationSec));
-        }
-    }
-
-    @WorkerThread
-    private void batchUpdateEpg(Map<EpgReader.EpgChannel, Collection<Program>> allPrograms) {
-        for (Map.Entry<EpgReader.EpgChannel, Collection<Program>> entry : allPrograms.entrySet()) {
-            List<Program> programs = new ArrayList(entry.getValue());
-            if (programs == null) {
-                continue;
-            }
-            Collections.sort(programs);
-            Log.i(
-                    TAG,
-                    "Batch fetched " + programs.size() + " programs for channel " + entry.getKey());
-            EpgFetchHelper.updateEpgData(
-                    mContext, mClock, entry.getKey().getChannel().getId(), programs);
-        }
+        EpgIngestPipeline pipeline =
+                new EpgIngestPipeline(
+                        (channelId, programs) ->
+                                EpgFetchHelper.buildEpgOperations(
+                                        mContext, mClock, channelId, programs),
+                        ops -> EpgFetchHelper.applyBatch(mContext, ops),
+                        mPerformanceMonitor,
+                        INGEST_DIFF_THREAD_COUNT,
+                        INGEST_MAX_PENDING_CHANNELS);
+        pipeline.ingest(mEpgReader, epgChannels, durationSec, QUERY_CHANNEL_COUNT);
     }
 
     @Nullable
@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data.epg;
+
+import android.content.ContentProviderOperation;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import com.android.tv.common.concurrent.NamedThreadFactory;
+import com.android.tv.data.Program;
+import com.android.tv.perf.EventNames;
+import com.android.tv.perf.PerformanceMonitor;
+import com.android.tv.perf.TimerEvent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ingests fetched EPG data into TvProvider in a pipeline of three stages.
+ *
+ * <ol>
+ *   <li>The calling thread reads the programs of the channels from {@link EpgReader} in batches.
+ *   <li>A pool of threads compares the programs of each channel with the ones in TvProvider and
+ *       builds the operations to apply.
+ *   <li>A single writer thread applies the operations of several channels together in batches of
+ *       at most {@link EpgFetchHelper#BATCH_OPERATION_COUNT}. When such a batch fails, the
+ *       operations of each channel in it are applied again on their own, so that a bad channel
+ *       doesn't roll back the others.
+ * </ol>
+ *
+ * <p>So the reader fetches the next batch of channels while the previous one is compared and
+ * written. The number of channels between the reader and the writer is bounded, and the reader
+ * waits when the later stages fall behind. The time spent in each stage is logged at the end and
+ * reported to {@link PerformanceMonitor}.
+ */
+class EpgIngestPipeline {
+    private static final String TAG = "EpgIngestPipeline";
+
+    private static final ThreadFactory sThreadFactory = new NamedThreadFactory("EpgIngest");
+
+    /** Builds the operations which update the programs of a channel in TvProvider. */
+    interface ProgramDiffer {
+        List<ContentProviderOperation> diff(long channelId, List<Program> programs);
+    }
+
+    /** Applies a batch of operations to TvProvider. */
+    interface BatchWriter {
+        /** Returns {@code true} if the operations are successfully applied. */
+        boolean apply(ArrayList<ContentProviderOperation> ops);
+    }
+
+    private final ProgramDiffer mDiffer;
+    private final BatchWriter mWriter;
+    @Nullable private final PerformanceMonitor mPerformanceMonitor;
+    private final int mDiffThreadCount;
+    private final int mMaxPendingChannels;
+
+    /**
+     * @param diffThreadCount the number of threads which compare the programs
+     * @param maxPendingChannels the maximum number of channels which are read but not written yet
+     */
+    EpgIngestPipeline(
+            ProgramDiffer differ,
+            BatchWriter writer,
+            @Nullable PerformanceMonitor performanceMonitor,
+            int diffThreadCount,
+            int maxPendingChannels) {
+        mDiffer = differ;
+        mWriter = writer;
+        mPerformanceMonitor = performanceMonitor;
+        mDiffThreadCount = diffThreadCount;
+        mMaxPendingChannels = maxPendingChannels;
+    }
+
+    /**
+     * Reads the programs of the given channels for the duration, and updates TvProvider with them.
+     * Returns when all the channels are written, or the calling thread is interrupted.
+     *
+     * @param batchSize the number of channels to read at once
+     * @return the statistics of the run
+     */
+    @WorkerThread
+    Stats ingest(
+            EpgReader reader,
+            Set<EpgReader.EpgChannel> epgChannels,
+            long durationSec,
+            int batchSize) {
+        return new Run(reader, durationSec).run(epgChannels, batchSize);
+    }
+
+    /** The statistics of a run of the pipeline. Times are the sums over the threads of a stage. */
+    static class Stats {
+        int channelCount;
+        int operationCount;
+        int writeBatchCount;
+        int failedWriteBatchCount;
+        long totalMs;
+        long readMs;
+        long readerBlockedMs;
+        long diffMs;
+        long writeMs;
+
+        @Override
+        public String toString() {
+            return channelCount
+                    + " channels, "
+                    + operationCount
+                    + " operations in "
+                    + writeBatchCount
+                    + " batches ("
+                    + failedWriteBatchCount
+                    + " failed) in "
+                    + totalMs
+                    + "ms: read "
+                    + readMs
+                    + "ms (blocked "
+                    + readerBlockedMs
+                    + "ms), diff "
+                    + diffMs
+                    + "ms, write "
+                    + writeMs
+                    + "ms";
+        }
+    }
+
+    /** The operations of a channel, which are passed from a differ to the writer. */
+    private static class ChannelOperations {
+        private final List<ContentProviderOperation> mOperations;
+
+        private ChannelOperations(List<ContentProviderOperation> operations) {
+            mOperations = operations;
+        }
+    }
+
+    private static final ChannelOperations END_OF_STREAM =
+            new ChannelOperations(Collections.emptyList());
+
+    private class Run {
+        private final EpgReader mReader;
+        private final long mDurationSec;
+        private final ExecutorService mDiffExecutor =
+                Executors.newFixedThreadPool(mDiffThreadCount, sThreadFactory);
+        private final BlockingQueue<ChannelOperations> mWriteQueue = new LinkedBlockingQueue<>();
+        // A permit per channel which is read but not written yet.
+        private final Semaphore mPendingChannels = new Semaphore(mMaxPendingChannels);
+        private final Thread mWriterThread = sThreadFactory.newThread(this::write);
+
+        private final AtomicInteger mChannelCount = new AtomicInteger();
+        private final AtomicLong mDiffNs = new AtomicLong();
+        private long mReadNs;
+        private long mReaderBlockedNs;
+        // Accessed only by the writer thread before it ends.
+        private int mOperationCount;
+        private int mWriteBatchCount;
+        private int mFailedWriteBatchCount;
+        private long mWriteNs;
+
+        private Run(EpgReader reader, long durationSec) {
+            mReader = reader;
+            mDurationSec = durationSec;
+        }
+
+        private Stats run(Set<EpgReader.EpgChannel> epgChannels, int batchSize) {
+            long startNs = System.nanoTime();
+            mWriterThread.start();
+            try {
+                Set<EpgReader.EpgChannel> batch = new HashSet<>(batchSize);
+                for (EpgReader.EpgChannel epgChannel : epgChannels) {
+                    batch.add(epgChannel);
+                    if (batch.size() >= batchSize) {
+                        read(batch);
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    read(batch);
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Interrupted while ingesting EPG");
+                Thread.currentThread().interrupt();
+            } finally {
+                finish();
+            }
+            Stats stats = new Stats();
+            stats.channelCount = mChannelCount.get();
+            stats.operationCount = mOperationCount;
+            stats.writeBatchCount = mWriteBatchCount;
+            stats.failedWriteBatchCount = mFailedWriteBatchCount;
+            stats.totalMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+            stats.readMs = TimeUnit.NANOSECONDS.toMillis(mReadNs);
+            stats.readerBlockedMs = TimeUnit.NANOSECONDS.toMillis(mReaderBlockedNs);
+            stats.diffMs = TimeUnit.NANOSECONDS.toMillis(mDiffNs.get());
+            stats.writeMs = TimeUnit.NANOSECONDS.toMillis(mWriteNs);
+            Log.i(TAG, "Ingested " + stats);
+            return stats;
+        }
+
+        private void read(Set<EpgReader.EpgChannel> batch) throws InterruptedException {
+            TimerEvent timer = startTimer();
+            long startNs = System.nanoTime();
+            Map<EpgReader.EpgChannel, Collection<Program>> allPrograms =
+                    mReader.getPrograms(batch, mDurationSec);
+            mReadNs += System.nanoTime() - startNs;
+            stopTimer(timer, Stage.READ);
+            for (Map.Entry<EpgReader.EpgChannel, Collection<Program>> entry :
+                    allPrograms.entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                long blockedStartNs = System.nanoTime();
+                mPendingChannels.acquire();
+                mReaderBlockedNs += System.nanoTime() - blockedStartNs;
+                long channelId = entry.getKey().getChannel().getId();
+                List<Program> programs = new ArrayList<>(entry.getValue());
+                mDiffExecutor.execute(() -> diff(channelId, programs));
+            }
+        }
+
+        private void diff(long channelId, List<Program> programs) {
+            boolean queued = false;
+            try {
+                TimerEvent timer = startTimer();
+                long startNs = System.nanoTime();
+                List<ContentProviderOperation> ops = null;
+                try {
+                    Collections.sort(programs);
+                    ops = mDiffer.diff(channelId, programs);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to compare programs for channel " + channelId, e);
+                }
+                mDiffNs.addAndGet(System.nanoTime() - startNs);
+                stopTimer(timer, Stage.DIFF);
+                mChannelCount.incrementAndGet();
+                if (ops != null && !ops.isEmpty()) {
+                    mWriteQueue.add(new ChannelOperations(ops));
+                    queued = true;
+                }
+            } finally {
+                if (!queued) {
+                    // Otherwise the writer releases the permit.
+                    mPendingChannels.release();
+                }
+            }
+        }
+
+        private void write() {
+            ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+            // The index in the batch where the operations of each channel start.
+            List<Integer> channelStarts = new ArrayList<>();
+            // The channels whose operations are all in the batch or applied.
+            int completedChannels = 0;
+            while (true) {
+                ChannelOperations channelOps = mWriteQueue.poll();
+                if (channelOps == null) {
+                    // Nothing more to coalesce for now.
+                    flush(batch, channelStarts);
+                    mPendingChannels.release(completedChannels);
+                    completedChannels = 0;
+                    try {
+                        channelOps = mWriteQueue.take();
+                    } catch (InterruptedException e) {
+                        // The writer is stopped only by END_OF_STREAM.
+                        continue;
+                    }
+                }
+                if (channelOps == END_OF_STREAM) {
+                    flush(batch, channelStarts);
+                    mPendingChannels.release(completedChannels);
+                    return;
+                }
+                channelStarts.add(batch.size());
+                for (ContentProviderOperation op : channelOps.mOperations) {
+                    if (channelStarts.isEmpty()) {
+                        // The rest of the channel after a flush.
+                        channelStarts.add(0);
+                    }
+                    batch.add(op);
+                    if (batch.size() >= EpgFetchHelper.BATCH_OPERATION_COUNT) {
+                        flush(batch, channelStarts);
+                        mPendingChannels.release(completedChannels);
+                        completedChannels = 0;
+                    }
+                }
+                ++completedChannels;
+            }
+        }
+
+        private void flush(
+                ArrayList<ContentProviderOperation> batch, List<Integer> channelStarts) {
+            if (batch.isEmpty()) {
+                channelStarts.clear();
+                return;
+            }
+            TimerEvent timer = startTimer();
+            long startNs = System.nanoTime();
+            if (!apply(batch) && channelStarts.size() > 1) {
+                // Applies each channel again on its own, so that the others are written.
+                for (int i = 0; i < channelStarts.size(); ++i) {
+                    int start = channelStarts.get(i);
+                    int end =
+                            i + 1 < channelStarts.size() ? channelStarts.get(i + 1) : batch.size();
+                    apply(new ArrayList<>(batch.subList(start, end)));
+                }
+            }
+            mWriteNs += System.nanoTime() - startNs;
+            stopTimer(timer, Stage.WRITE);
+            mOperationCount += batch.size();
+            batch.clear();
+            channelStarts.clear();
+        }
+
+        private boolean apply(ArrayList<ContentProviderOperation> ops) {
+            ++mWriteBatchCount;
+            if (mWriter.apply(ops)) {
+                return true;
+            }
+            ++mFailedWriteBatchCount;
+            return false;
+        }
+
+        private void finish() {
+            boolean interrupted = false;
+            mDiffExecutor.shutdown();
+            while (true) {
+                try {
+                    if (mDiffExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    // The pending diffs are bounded, so waits for them anyway.
+                    interrupted = true;
+                }
+            }
+            mWriteQueue.add(END_OF_STREAM);
+            while (true) {
+                try {
+                    mWriterThread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private enum Stage {
+        READ,
+        DIFF,
+        WRITE
+    }
+
+    @Nullable
+    private TimerEvent startTimer() {
+        return mPerformanceMonitor == null ? null : mPerformanceMonitor.startTimer();
+    }
+
+    private void stopTimer(@Nullable TimerEvent timer, Stage stage) {
+        if (mPerformanceMonitor == null || timer == null) {
+            return;
+        }
+        // Event names should be compile time constants.
+        switch (stage) {
+            case READ:
+                mPerformanceMonitor.stopTimer(timer, EventNames.EPG_INGEST_READ);
+                break;
+            case DIFF:
+                mPerformanceMonitor.stopTimer(timer, EventNames.EPG_INGEST_DIFF);
+                break;
+            case WRITE:
+                mPerformanceMonitor.stopTimer(timer, EventNames.EPG_INGEST_WRITE);
+                break;
+        }
+    }
+}
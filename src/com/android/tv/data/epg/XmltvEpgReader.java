@@ -0,0 +1,531 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data.epg;
+
+import android.support.annotation.AnyThread;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Xml;
+import com.android.tv.common.util.Clock;
+import com.android.tv.data.ChannelNumber;
+import com.android.tv.data.Lineup;
+import com.android.tv.data.Program;
+import com.android.tv.data.api.Channel;
+import com.android.tv.dvr.data.SeriesInfo;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * An {@link EpgReader} which reads the EPG from a local XMLTV file.
+ *
+ * <p>The file is indexed by {@link XmltvIndex} on the first access, and the index is rebuilt only
+ * when the file changes. Programs are read by seeking to their {@code <programme>} elements and
+ * parsing only those with {@link XmlPullParser}, so the document is never held in memory.
+ *
+ * <p>XMLTV has no lineups, so the whole file is provided as a single lineup. Channels are matched
+ * to the input channels by their display names, which are usually the channel numbers or the call
+ * signs.
+ */
+public class XmltvEpgReader implements EpgReader {
+    private static final String TAG = "XmltvEpgReader";
+    private static final boolean DEBUG = false;
+
+    /** The ID of the only lineup. */
+    public static final String LINEUP_ID = "xmltv";
+
+    /** The name of the XMLTV file in the files directory of the app. */
+    public static final String FILE_NAME = "xmltv.xml";
+
+    // Programmes which are closer than this are read at once.
+    private static final int MAX_READ_GAP = 4 * 1024;
+    private static final int MAX_READ_SIZE = 256 * 1024;
+    private static final String XMLTV_NS = "xmltv_ns";
+    private static final String EPG_TIMESTAMP_FORMAT = "yyyyMMddHHmmss";
+
+    private final File mFile;
+    private final Clock mClock;
+    // Guards the cached index and channels. It is never held while the file is read.
+    private final Object mLock = new Object();
+    // Lets only one thread build the index at a time.
+    private final Object mIndexBuildLock = new Object();
+    private XmltvIndex mIndex;
+    private Map<String, ChannelInfo> mChannels;
+    // The index which mChannels are parsed from.
+    private XmltvIndex mChannelsIndex;
+
+    /** The information in a {@code <channel>} element. */
+    private static final class ChannelInfo {
+        private final String id;
+        private final List<String> displayNames = new ArrayList<>();
+
+        private ChannelInfo(String id) {
+            this.id = id;
+        }
+    }
+
+    public XmltvEpgReader(File file, Clock clock) {
+        mFile = file;
+        mClock = clock;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return mFile.canRead();
+    }
+
+    @Override
+    public long getEpgTimestamp() {
+        XmltvIndex index = getIndex();
+        if (index == null) {
+            return 0;
+        }
+        String date = index.date;
+        if (date != null && date.length() >= EPG_TIMESTAMP_FORMAT.length()) {
+            try {
+                return Long.parseLong(date.substring(0, EPG_TIMESTAMP_FORMAT.length()));
+            } catch (NumberFormatException e) {
+                // Falls back to the modification time.
+            }
+        }
+        SimpleDateFormat format = new SimpleDateFormat(EPG_TIMESTAMP_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return Long.parseLong(format.format(index.lastModified));
+    }
+
+    @Override
+    public void setRegionCode(String regionCode) {
+        // Do nothing
+    }
+
+    @Override
+    public List<Lineup> getLineups(@NonNull String postalCode) {
+        if (getIndex() == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(
+                new Lineup(
+                        LINEUP_ID,
+                        Lineup.LINEUP_OTHER,
+                        mFile.getName(),
+                        "",
+                        getChannelNumbers(LINEUP_ID)));
+    }
+
+    @Override
+    public List<String> getChannelNumbers(@NonNull String lineupId) {
+        List<String> numbers = new ArrayList<>();
+        for (ChannelInfo info : getChannelInfos().values()) {
+            for (String name : info.displayNames) {
+                if (isChannelNumber(name)) {
+                    numbers.add(name);
+                    break;
+                }
+            }
+        }
+        return numbers;
+    }
+
+    @Override
+    public Set<EpgChannel> getChannels(Set<Channel> inputChannels, @NonNull String lineupId) {
+        Set<EpgChannel> result = new HashSet<>();
+        for (ChannelInfo info : getChannelInfos().values()) {
+            Channel match = findChannel(inputChannels, info);
+            if (match != null) {
+                result.add(EpgChannel.createEpgChannel(match, info.id, false));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void preloadChannels(@NonNull String lineupId) {
+        getChannelInfos();
+    }
+
+    @AnyThread
+    @Override
+    public void clearCachedChannels(@NonNull String lineupId) {
+        synchronized (mLock) {
+            mIndex = null;
+            mChannels = null;
+            mChannelsIndex = null;
+        }
+    }
+
+    @Override
+    public List<Program> getPrograms(EpgChannel epgChannel) {
+        Collection<Program> programs =
+                readPrograms(Collections.singleton(epgChannel), 0, Long.MAX_VALUE)
+                        .get(epgChannel);
+        return programs == null ? Collections.emptyList() : new ArrayList<>(programs);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @param duration the duration in seconds from now
+     */
+    @Override
+    public Map<EpgChannel, Collection<Program>> getPrograms(
+            @NonNull Set<EpgChannel> epgChannels, long duration) {
+        long startTimeMs = mClock.currentTimeMillis();
+        long endTimeMs = startTimeMs + TimeUnit.SECONDS.toMillis(duration);
+        return readPrograms(epgChannels, startTimeMs, endTimeMs);
+    }
+
+    @Override
+    public SeriesInfo getSeriesInfo(@NonNull String seriesId) {
+        return null;
+    }
+
+    /**
+     * Returns the index of the file, building it if it is not built yet or the file changed.
+     *
+     * <p>The index is built without holding {@link #mLock}, so that the cached index can be
+     * cleared or used while a large file is scanned.
+     */
+    @Nullable
+    private XmltvIndex getIndex() {
+        XmltvIndex index = getIndexIfValid();
+        if (index != null) {
+            return index;
+        }
+        synchronized (mIndexBuildLock) {
+            // Another thread might have built it while this one waited.
+            index = getIndexIfValid();
+            if (index != null) {
+                return index;
+            }
+            long startTimeMs = System.currentTimeMillis();
+            try (InputStream in = new FileInputStream(mFile)) {
+                index = XmltvIndex.build(in, mFile.length(), mFile.lastModified());
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to index " + mFile, e);
+                return null;
+            }
+            Log.i(
+                    TAG,
+                    "Indexed "
+                            + index.channels.size()
+                            + " channels and "
+                            + index.programmeCount
+                            + " programmes in "
+                            + (System.currentTimeMillis() - startTimeMs)
+                            + "ms");
+            synchronized (mLock) {
+                mIndex = index;
+            }
+            return index;
+        }
+    }
+
+    @Nullable
+    private XmltvIndex getIndexIfValid() {
+        long fileLength = mFile.length();
+        long lastModified = mFile.lastModified();
+        synchronized (mLock) {
+            if (mIndex != null
+                    && mIndex.fileLength == fileLength
+                    && mIndex.lastModified == lastModified) {
+                return mIndex;
+            }
+            return null;
+        }
+    }
+
+    private Map<String, ChannelInfo> getChannelInfos() {
+        XmltvIndex index = getIndex();
+        if (index == null) {
+            return Collections.emptyMap();
+        }
+        synchronized (mLock) {
+            if (mChannels == null || mChannelsIndex != index) {
+                Map<String, ChannelInfo> channels = new HashMap<>();
+                XmlPullParser parser = Xml.newPullParser();
+                for (XmltvIndex.XmltvChannel channel : index.channels) {
+                    try {
+                        parser.setInput(
+                                new ByteArrayInputStream(channel.element), index.charset.name());
+                        channels.put(channel.id, parseChannel(parser, channel.id));
+                    } catch (XmlPullParserException | IOException e) {
+                        Log.w(TAG, "Failed to parse channel " + channel.id, e);
+                    }
+                }
+                mChannels = channels;
+                mChannelsIndex = index;
+            }
+            return mChannels;
+        }
+    }
+
+    /** Reads the programs which overlap with the given time span. */
+    private Map<EpgChannel, Collection<Program>> readPrograms(
+            Set<EpgChannel> epgChannels, long startTimeMs, long endTimeMs) {
+        Map<EpgChannel, Collection<Program>> result = new HashMap<>();
+        XmltvIndex index = getIndex();
+        if (index == null) {
+            return result;
+        }
+        List<Fragment> fragments = new ArrayList<>();
+        for (EpgChannel epgChannel : epgChannels) {
+            List<Program> programs = new ArrayList<>();
+            result.put(epgChannel, programs);
+            XmltvIndex.ProgrammeList list = index.programmes.get(epgChannel.getEpgChannelId());
+            if (list == null) {
+                continue;
+            }
+            for (int i = list.findFirstEndingAfter(startTimeMs);
+                    i < list.size() && list.getStartTimeMs(i) < endTimeMs;
+                    ++i) {
+                if (list.getEndTimeMs(i) > startTimeMs
+                        || list.getStartTimeMs(i) == list.getEndTimeMs(i)) {
+                    fragments.add(new Fragment(epgChannel, programs, list, i));
+                }
+            }
+        }
+        // Reads the programmes in the file order, so that nearby ones are read at once.
+        Collections.sort(fragments, (lhs, rhs) -> Long.compare(lhs.mOffset, rhs.mOffset));
+        long startNs = System.nanoTime();
+        try (RandomAccessFile file = new RandomAccessFile(mFile, "r")) {
+            XmlPullParser parser = Xml.newPullParser();
+            byte[] buffer = new byte[MAX_READ_SIZE];
+            int i = 0;
+            while (i < fragments.size()) {
+                // Finds the fragments to read at once.
+                long readOffset = fragments.get(i).mOffset;
+                long readEnd = readOffset + fragments.get(i).mLength;
+                int last = i;
+                while (last + 1 < fragments.size()) {
+                    Fragment next = fragments.get(last + 1);
+                    long end = next.mOffset + next.mLength;
+                    if (next.mOffset - readEnd > MAX_READ_GAP || end - readOffset > MAX_READ_SIZE) {
+                        break;
+                    }
+                    readEnd = Math.max(readEnd, end);
+                    ++last;
+                }
+                int readLength = (int) (readEnd - readOffset);
+                if (readLength > buffer.length) {
+                    buffer = new byte[readLength];
+                }
+                file.seek(readOffset);
+                file.readFully(buffer, 0, readLength);
+                for (; i <= last; ++i) {
+                    Fragment fragment = fragments.get(i);
+                    Program program;
+                    try {
+                        parser.setInput(
+                                new ByteArrayInputStream(
+                                        buffer,
+                                        (int) (fragment.mOffset - readOffset),
+                                        fragment.mLength),
+                                index.charset.name());
+                        program = parseProgramme(parser, fragment);
+                    } catch (IOException | XmlPullParserException e) {
+                        // Skips only the malformed programme.
+                        Log.w(TAG, "Failed to parse a programme at " + fragment.mOffset, e);
+                        continue;
+                    }
+                    if (program != null) {
+                        fragment.mPrograms.add(program);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read programs from " + mFile, e);
+        }
+        if (DEBUG) {
+            Log.d(
+                    TAG,
+                    "Read "
+                            + fragments.size()
+                            + " programs in "
+                            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs)
+                            + "ms");
+        }
+        return result;
+    }
+
+    /** A {@code <programme>} element to read. */
+    private static final class Fragment {
+        private final EpgChannel mEpgChannel;
+        private final List<Program> mPrograms;
+        private final long mOffset;
+        private final int mLength;
+        private final long mStartTimeMs;
+        private final long mEndTimeMs;
+
+        private Fragment(
+                EpgChannel epgChannel,
+                List<Program> programs,
+                XmltvIndex.ProgrammeList list,
+                int index) {
+            mEpgChannel = epgChannel;
+            mPrograms = programs;
+            mOffset = list.getOffset(index);
+            mLength = list.getLength(index);
+            mStartTimeMs = list.getStartTimeMs(index);
+            mEndTimeMs = list.getEndTimeMs(index);
+        }
+    }
+
+    @Nullable
+    private static Program parseProgramme(XmlPullParser parser, Fragment fragment)
+            throws XmlPullParserException, IOException {
+        if (parser.nextTag() != XmlPullParser.START_TAG) {
+            return null;
+        }
+        Channel channel = fragment.mEpgChannel.getChannel();
+        Program.Builder builder =
+                new Program.Builder()
+                        .setChannelId(channel.getId())
+                        .setPackageName(channel.getPackageName())
+                        .setStartTimeUtcMillis(fragment.mStartTimeMs)
+                        .setEndTimeUtcMillis(fragment.mEndTimeMs);
+        boolean hasTitle = false;
+        boolean hasEpisodeNumber = false;
+        int eventType;
+        while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (eventType != XmlPullParser.START_TAG || parser.getDepth() != 2) {
+                continue;
+            }
+            switch (parser.getName()) {
+                case "title":
+                    // The first title is in the main language.
+                    if (!hasTitle) {
+                        builder.setTitle(parser.nextText());
+                        hasTitle = true;
+                    }
+                    break;
+                case "sub-title":
+                    builder.setEpisodeTitle(parser.nextText());
+                    break;
+                case "desc":
+                    builder.setDescription(parser.nextText());
+                    break;
+                case "episode-num":
+                    if (!hasEpisodeNumber
+                            && XMLTV_NS.equals(parser.getAttributeValue(null, "system"))) {
+                        hasEpisodeNumber = setEpisodeNumber(builder, parser.nextText());
+                    }
+                    break;
+                case "icon":
+                    String src = parser.getAttributeValue(null, "src");
+                    if (!TextUtils.isEmpty(src)) {
+                        builder.setPosterArtUri(src);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Sets the season and episode numbers in the {@code xmltv_ns} format, {@code
+     * season/total.episode/total.part/total}, where the numbers start from zero.
+     */
+    @VisibleForTesting
+    static boolean setEpisodeNumber(Program.Builder builder, String xmltvNs) {
+        String[] parts = xmltvNs.split("\\.", -1);
+        if (parts.length < 2) {
+            return false;
+        }
+        int season = parseZeroBased(parts[0]);
+        int episode = parseZeroBased(parts[1]);
+        if (episode < 0) {
+            return false;
+        }
+        if (season >= 0) {
+            builder.setSeasonNumber(String.valueOf(season + 1));
+        }
+        builder.setEpisodeNumber(String.valueOf(episode + 1));
+        return true;
+    }
+
+    private static int parseZeroBased(String part) {
+        int slash = part.indexOf('/');
+        String number = (slash >= 0 ? part.substring(0, slash) : part).trim();
+        if (number.isEmpty()) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(number);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static ChannelInfo parseChannel(XmlPullParser parser, String id)
+            throws XmlPullParserException, IOException {
+        ChannelInfo info = new ChannelInfo(id);
+        int eventType;
+        while ((eventType = parser.next()) != XmlPullParser.END_DOCUMENT) {
+            if (eventType != XmlPullParser.START_TAG || parser.getDepth() != 2) {
+                continue;
+            }
+            if ("display-name".equals(parser.getName())) {
+                String name = parser.nextText().trim();
+                if (!name.isEmpty()) {
+                    info.displayNames.add(name);
+                }
+            }
+        }
+        return info;
+    }
+
+    @Nullable
+    private static Channel findChannel(Set<Channel> inputChannels, ChannelInfo info) {
+        for (String name : info.displayNames) {
+            boolean isNumber = isChannelNumber(name);
+            for (Channel channel : inputChannels) {
+                if (isNumber
+                        ? ChannelNumber.equivalent(channel.getDisplayNumber(), name)
+                        : name.equalsIgnoreCase(channel.getDisplayName())) {
+                    return channel;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isChannelNumber(String name) {
+        return name.matches("\\d+([-. ]\\d+)?");
+    }
+}
@@ -0,0 +1,585 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data.epg;
+
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An index of an XMLTV document, built in a single pass over the bytes of the document.
+ *
+ * <p>The {@code <channel>} elements are small and few, so they are kept as they are. For each
+ * {@code <programme>} element, only the byte range in the document and the start and end times
+ * are kept, so that the programs of a channel during a time span can be read by seeking to them.
+ * The document is scanned tag by tag and is never held in memory as a whole.
+ */
+class XmltvIndex {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final String TAG_TV = "tv";
+    private static final String TAG_CHANNEL = "channel";
+    private static final String TAG_PROGRAMME = "programme";
+
+    /** A {@code <channel>} element. */
+    static final class XmltvChannel {
+        final String id;
+        final byte[] element;
+
+        XmltvChannel(String id, byte[] element) {
+            this.id = id;
+            this.element = element;
+        }
+    }
+
+    /** The {@code <programme>} elements of a channel, sorted by the start time. */
+    static final class ProgrammeList {
+        private long[] mOffsets = new long[16];
+        private int[] mLengths = new int[16];
+        private long[] mStartTimes = new long[16];
+        private long[] mEndTimes = new long[16];
+        private int mSize;
+        private long mMaxDurationMs;
+
+        private void add(long offset, int length, long startTimeMs, long endTimeMs) {
+            if (mSize == mOffsets.length) {
+                int capacity = mSize * 2;
+                mOffsets = Arrays.copyOf(mOffsets, capacity);
+                mLengths = Arrays.copyOf(mLengths, capacity);
+                mStartTimes = Arrays.copyOf(mStartTimes, capacity);
+                mEndTimes = Arrays.copyOf(mEndTimes, capacity);
+            }
+            mOffsets[mSize] = offset;
+            mLengths[mSize] = length;
+            mStartTimes[mSize] = startTimeMs;
+            mEndTimes[mSize] = endTimeMs;
+            ++mSize;
+        }
+
+        /** Sorts the programmes and fills in the missing end times. */
+        private void finish() {
+            if (!isSorted()) {
+                sort();
+            }
+            for (int i = 0; i < mSize; ++i) {
+                if (mEndTimes[i] < mStartTimes[i]) {
+                    // The stop attribute is optional. The programme ends when the next one starts.
+                    mEndTimes[i] = i + 1 < mSize ? mStartTimes[i + 1] : mStartTimes[i];
+                }
+                mMaxDurationMs = Math.max(mMaxDurationMs, mEndTimes[i] - mStartTimes[i]);
+            }
+        }
+
+        private boolean isSorted() {
+            for (int i = 1; i < mSize; ++i) {
+                if (mStartTimes[i - 1] > mStartTimes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void sort() {
+            Integer[] order = new Integer[mSize];
+            for (int i = 0; i < mSize; ++i) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (lhs, rhs) -> Long.compare(mStartTimes[lhs], mStartTimes[rhs]));
+            long[] offsets = new long[mSize];
+            int[] lengths = new int[mSize];
+            long[] startTimes = new long[mSize];
+            long[] endTimes = new long[mSize];
+            for (int i = 0; i < mSize; ++i) {
+                offsets[i] = mOffsets[order[i]];
+                lengths[i] = mLengths[order[i]];
+                startTimes[i] = mStartTimes[order[i]];
+                endTimes[i] = mEndTimes[order[i]];
+            }
+            mOffsets = offsets;
+            mLengths = lengths;
+            mStartTimes = startTimes;
+            mEndTimes = endTimes;
+        }
+
+        /** Returns the number of the programmes. */
+        int size() {
+            return mSize;
+        }
+
+        long getOffset(int index) {
+            return mOffsets[index];
+        }
+
+        int getLength(int index) {
+            return mLengths[index];
+        }
+
+        long getStartTimeMs(int index) {
+            return mStartTimes[index];
+        }
+
+        long getEndTimeMs(int index) {
+            return mEndTimes[index];
+        }
+
+        /**
+         * Returns the index of the first programme which may end after the given time. No
+         * programme before the index ends after it.
+         */
+        int findFirstEndingAfter(long timeMs) {
+            // No programme which starts earlier than this can end after the time.
+            long from = timeMs - mMaxDurationMs;
+            int low = 0;
+            int high = mSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mStartTimes[mid] < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    final long fileLength;
+    final long lastModified;
+    final Charset charset;
+    /** The date attribute of the {@code <tv>} element, or {@code null} if there is none. */
+    @Nullable final String date;
+    /** The channels in the document order. */
+    final List<XmltvChannel> channels;
+    /** The programmes by the channel ID. */
+    final Map<String, ProgrammeList> programmes;
+    final int programmeCount;
+
+    private XmltvIndex(
+            long fileLength,
+            long lastModified,
+            Charset charset,
+            @Nullable String date,
+            List<XmltvChannel> channels,
+            Map<String, ProgrammeList> programmes,
+            int programmeCount) {
+        this.fileLength = fileLength;
+        this.lastModified = lastModified;
+        this.charset = charset;
+        this.date = date;
+        this.channels = Collections.unmodifiableList(channels);
+        this.programmes = programmes;
+        this.programmeCount = programmeCount;
+    }
+
+    /** Builds the index of the XMLTV document. */
+    @WorkerThread
+    static XmltvIndex build(InputStream in, long fileLength, long lastModified)
+            throws IOException {
+        return new Scanner(in).scan(fileLength, lastModified);
+    }
+
+    /**
+     * Parses a time in the XMLTV format, {@code YYYYMMDDhhmmss +hhmm}. The seconds and the time
+     * zone are optional, and UTC is assumed if there is no time zone.
+     *
+     * @return the time in milliseconds since the epoch, or -1 if the time is invalid.
+     */
+    static long parseTime(@Nullable String time) {
+        if (time == null || time.length() < 12) {
+            return -1;
+        }
+        int year = parseDigits(time, 0, 4);
+        int month = parseDigits(time, 4, 6);
+        int day = parseDigits(time, 6, 8);
+        int hour = parseDigits(time, 8, 10);
+        int minute = parseDigits(time, 10, 12);
+        int second = time.length() >= 14 ? parseDigits(time, 12, 14) : 0;
+        if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || minute < 0) {
+            return -1;
+        }
+        if (second < 0) {
+            // The time zone follows the minutes.
+            second = 0;
+        }
+        long seconds = ((daysFromEpoch(year, month, day) * 24 + hour) * 60 + minute) * 60 + second;
+        int zone = Math.max(time.indexOf('+', 12), time.indexOf('-', 12));
+        if (zone >= 0 && zone + 5 <= time.length()) {
+            int zoneHour = parseDigits(time, zone + 1, zone + 3);
+            int zoneMinute = parseDigits(time, zone + 3, zone + 5);
+            if (zoneHour >= 0 && zoneMinute >= 0) {
+                int zoneOffset = (zoneHour * 60 + zoneMinute) * 60;
+                seconds -= time.charAt(zone) == '+' ? zoneOffset : -zoneOffset;
+            }
+        }
+        return TimeUnit.SECONDS.toMillis(seconds);
+    }
+
+    private static int parseDigits(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; ++i) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /** Returns the number of days since 1970-01-01 in the proleptic Gregorian calendar. */
+    private static long daysFromEpoch(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /** Scans the tags of an XMLTV document. */
+    private static final class Scanner {
+        private final InputStream mIn;
+        private final byte[] mBuffer = new byte[READ_BUFFER_SIZE];
+        private int mBufferLength;
+        private int mBufferPos;
+        private long mBufferOffset;
+
+        // The bytes of the last start or end tag.
+        private byte[] mTag = new byte[256];
+        private int mTagLength;
+
+        // The bytes of the current <channel> element.
+        @Nullable private ByteArrayOutputStream mCapture;
+        @Nullable private String mChannelId;
+
+        // The current <programme> element.
+        private long mProgrammeOffset = -1;
+        @Nullable private String mProgrammeChannel;
+        private long mProgrammeStartTimeMs;
+        private long mProgrammeEndTimeMs;
+
+        private Charset mCharset = StandardCharsets.UTF_8;
+        @Nullable private String mDate;
+        private final List<XmltvChannel> mChannels = new ArrayList<>();
+        private final Map<String, ProgrammeList> mProgrammes = new HashMap<>();
+        private int mProgrammeCount;
+
+        private Scanner(InputStream in) {
+            mIn = in;
+        }
+
+        private XmltvIndex scan(long fileLength, long lastModified) throws IOException {
+            int b;
+            while ((b = read()) != -1) {
+                if (b != '<') {
+                    continue;
+                }
+                long tagOffset = position() - 1;
+                b = read();
+                if (b == '!') {
+                    skipMarkupDeclaration();
+                } else if (b == '?') {
+                    readProcessingInstruction();
+                } else if (b == '/') {
+                    readTag(b);
+                    onEndTag(tagName(2));
+                } else if (b != -1) {
+                    readTag(b);
+                    onStartTag(tagName(1), tagOffset);
+                }
+            }
+            for (ProgrammeList list : mProgrammes.values()) {
+                list.finish();
+            }
+            return new XmltvIndex(
+                    fileLength,
+                    lastModified,
+                    mCharset,
+                    mDate,
+                    mChannels,
+                    mProgrammes,
+                    mProgrammeCount);
+        }
+
+        private void onStartTag(String name, long tagOffset) throws IOException {
+            boolean empty = mTag[mTagLength - 2] == '/';
+            switch (name) {
+                case TAG_TV:
+                    mDate = findAttribute(tagString(), "date");
+                    break;
+                case TAG_CHANNEL:
+                    String id = findAttribute(tagString(), "id");
+                    if (id == null) {
+                        break;
+                    }
+                    if (empty) {
+                        mChannels.add(new XmltvChannel(id, Arrays.copyOf(mTag, mTagLength)));
+                    } else {
+                        mChannelId = id;
+                        mCapture = new ByteArrayOutputStream();
+                        mCapture.write(mTag, 0, mTagLength);
+                    }
+                    break;
+                case TAG_PROGRAMME:
+                    String tag = tagString();
+                    mProgrammeChannel = findAttribute(tag, "channel");
+                    mProgrammeStartTimeMs = parseTime(findAttribute(tag, "start"));
+                    mProgrammeEndTimeMs = parseTime(findAttribute(tag, "stop"));
+                    if (mProgrammeChannel == null || mProgrammeStartTimeMs < 0) {
+                        break;
+                    }
+                    mProgrammeOffset = tagOffset;
+                    if (empty) {
+                        addProgramme();
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void onEndTag(String name) {
+            if (TAG_CHANNEL.equals(name) && mCapture != null) {
+                mChannels.add(new XmltvChannel(mChannelId, mCapture.toByteArray()));
+                mCapture = null;
+                mChannelId = null;
+            } else if (TAG_PROGRAMME.equals(name) && mProgrammeOffset >= 0) {
+                addProgramme();
+            }
+        }
+
+        private void addProgramme() {
+            ProgrammeList list = mProgrammes.get(mProgrammeChannel);
+            if (list == null) {
+                list = new ProgrammeList();
+                mProgrammes.put(mProgrammeChannel, list);
+            }
+            list.add(
+                    mProgrammeOffset,
+                    (int) (position() - mProgrammeOffset),
+                    mProgrammeStartTimeMs,
+                    mProgrammeEndTimeMs);
+            ++mProgrammeCount;
+            mProgrammeOffset = -1;
+        }
+
+        /** Reads a start or end tag into {@link #mTag}, after its first two bytes are read. */
+        private void readTag(int second) throws IOException {
+            mTagLength = 0;
+            appendTag('<');
+            appendTag(second);
+            int quote = 0;
+            int b;
+            while ((b = read()) != -1) {
+                appendTag(b);
+                if (quote != 0) {
+                    if (b == quote) {
+                        quote = 0;
+                    }
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '>') {
+                    return;
+                }
+            }
+        }
+
+        private void appendTag(int b) {
+            if (mTagLength == mTag.length) {
+                mTag = Arrays.copyOf(mTag, mTagLength * 2);
+            }
+            mTag[mTagLength++] = (byte) b;
+        }
+
+        private String tagName(int start) {
+            int end = start;
+            while (end < mTagLength) {
+                byte b = mTag[end];
+                if (b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+                    break;
+                }
+                ++end;
+            }
+            return new String(mTag, start, end - start, StandardCharsets.US_ASCII);
+        }
+
+        private String tagString() {
+            return new String(mTag, 0, mTagLength, mCharset);
+        }
+
+        private void readProcessingInstruction() throws IOException {
+            mTagLength = 0;
+            appendTag('<');
+            appendTag('?');
+            int previous = 0;
+            int b;
+            while ((b = read()) != -1) {
+                appendTag(b);
+                if (previous == '?' && b == '>') {
+                    break;
+                }
+                previous = b;
+            }
+            if (tagName(2).equals("xml")) {
+                String encoding = findAttribute(tagString(), "encoding");
+                if (encoding != null && Charset.isSupported(encoding)) {
+                    mCharset = Charset.forName(encoding);
+                }
+            }
+        }
+
+        /** Skips a comment, a CDATA section or a document type declaration. */
+        private void skipMarkupDeclaration() throws IOException {
+            int b = read();
+            if (b == '-') {
+                read();
+                skipUntilEnd('-');
+            } else if (b == '[') {
+                skipUntilEnd(']');
+            } else {
+                // A document type declaration may have an internal subset in brackets.
+                int depth = 0;
+                while (b != -1 && (b != '>' || depth > 0)) {
+                    if (b == '[') {
+                        ++depth;
+                    } else if (b == ']') {
+                        --depth;
+                    }
+                    b = read();
+                }
+            }
+        }
+
+        /** Skips until two or more of the given byte followed by '>', i.e. "-->" or "]]>". */
+        private void skipUntilEnd(int c) throws IOException {
+            int run = 0;
+            int b;
+            while ((b = read()) != -1) {
+                if (b == '>' && run >= 2) {
+                    return;
+                }
+                run = b == c ? run + 1 : 0;
+            }
+        }
+
+        private int read() throws IOException {
+            if (mBufferPos == mBufferLength) {
+                mBufferOffset += mBufferLength;
+                mBufferPos = 0;
+                mBufferLength = Math.max(mIn.read(mBuffer), 0);
+                if (mBufferLength == 0) {
+                    return -1;
+                }
+            }
+            int b = mBuffer[mBufferPos++] & 0xff;
+            if (mCapture != null) {
+                mCapture.write(b);
+            }
+            return b;
+        }
+
+        /** Returns the offset of the next byte to read. */
+        private long position() {
+            return mBufferOffset + mBufferPos;
+        }
+    }
+
+    /**
+     * Returns the value of the attribute in the given start tag, or {@code null} if there is
+     * none.
+     */
+    @Nullable
+    static String findAttribute(String tag, String name) {
+        int length = tag.length();
+        int i = 1;
+        // Skips the tag name.
+        while (i < length && !Character.isWhitespace(tag.charAt(i))) {
+            ++i;
+        }
+        while (i < length) {
+            while (i < length && Character.isWhitespace(tag.charAt(i))) {
+                ++i;
+            }
+            int nameStart = i;
+            while (i < length && tag.charAt(i) != '=' && !Character.isWhitespace(tag.charAt(i))
+                    && tag.charAt(i) != '>') {
+                ++i;
+            }
+            int nameEnd = i;
+            while (i < length && Character.isWhitespace(tag.charAt(i))) {
+                ++i;
+            }
+            if (i >= length || tag.charAt(i) != '=') {
+                return null;
+            }
+            ++i;
+            while (i < length && Character.isWhitespace(tag.charAt(i))) {
+                ++i;
+            }
+            if (i >= length) {
+                return null;
+            }
+            char quote = tag.charAt(i);
+            if (quote != '"' && quote != '\'') {
+                return null;
+            }
+            int valueStart = ++i;
+            while (i < length && tag.charAt(i) != quote) {
+                ++i;
+            }
+            if (tag.regionMatches(nameStart, name, 0, name.length())
+                    && nameEnd - nameStart == name.length()) {
+                return unescape(tag.substring(valueStart, Math.min(i, length)));
+            }
+            ++i;
+        }
+        return null;
+    }
+
+    private static final Map<String, String> ENTITIES = new LinkedHashMap<>();
+
+    static {
+        ENTITIES.put("&lt;", "<");
+        ENTITIES.put("&gt;", ">");
+        ENTITIES.put("&quot;", "\"");
+        ENTITIES.put("&apos;", "'");
+        // Must be the last not to unescape twice.
+        ENTITIES.put("&amp;", "&");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('&') < 0) {
+            return value;
+        }
+        for (Map.Entry<String, String> entity : ENTITIES.entrySet()) {
+            value = value.replace(entity.getKey(), entity.getValue());
+        }
+        return value;
+    }
+}
@@ -32,7 +32,6 @@ import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.MainThread;
 import android.support.annotation.Nullable;
-import android.support.annotation.VisibleForTesting;
 import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.Log;
@@ -91,6 +90,8 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
     private final HashMap<Long, ScheduledRecording> mProgramId2ScheduledRecordings =
             new HashMap<>();
     private final HashMap<String, SeriesRecording> mSeriesId2SeriesRecordings = new HashMap<>();
+    // Indexes the values of mScheduledRecordings for the queries.
+    private final ScheduledRecordingIndex mScheduledRecordingIndex = new ScheduledRecordingIndex();
 
     private final HashMap<Long, ScheduledRecording> mScheduledRecordingsForRemovedInput =
             new HashMap<>();
@@ -257,7 +258,7 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
                                             == ScheduledRecording.STATE_RECORDING_DELETED) {
                                         getDeletedScheduleMap().put(r.getProgramId(), r);
                                     } else {
-                                        mScheduledRecordings.put(r.getId(), r);
+                                        putScheduledRecording(r);
                                         if (r.getProgramId() != ScheduledRecording.ID_NOT_SET) {
                                             mProgramId2ScheduledRecordings.put(r.getProgramId(), r);
                                         }
@@ -474,16 +475,6 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
         return mRecordedProgramLoadFinished;
     }
 
-    private List<ScheduledRecording> getScheduledRecordingsPrograms() {
-        if (!mDvrLoadFinished) {
-            return Collections.emptyList();
-        }
-        ArrayList<ScheduledRecording> list = new ArrayList<>(mScheduledRecordings.size());
-        list.addAll(mScheduledRecordings.values());
-        Collections.sort(list, ScheduledRecording.START_TIME_COMPARATOR);
-        return list;
-    }
-
     @Override
     public List<RecordedProgram> getRecordedPrograms() {
         if (!mRecordedProgramLoadFinished) {
@@ -541,59 +532,26 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
 
     @Override
     public long getNextScheduledStartTimeAfter(long startTime) {
-        return getNextStartTimeAfter(getScheduledRecordingsPrograms(), startTime);
-    }
-
-    @VisibleForTesting
-    static long getNextStartTimeAfter(
-            List<ScheduledRecording> scheduledRecordings, long startTime) {
-        int start = 0;
-        int end = scheduledRecordings.size() - 1;
-        while (start <= end) {
-            int mid = (start + end) / 2;
-            if (scheduledRecordings.get(mid).getStartTimeMs() <= startTime) {
-                start = mid + 1;
-            } else {
-                end = mid - 1;
-            }
+        if (!mDvrLoadFinished) {
+            return NEXT_START_TIME_NOT_FOUND;
         }
-        return start < scheduledRecordings.size()
-                ? scheduledRecordings.get(start).getStartTimeMs()
-                : NEXT_START_TIME_NOT_FOUND;
+        return mScheduledRecordingIndex.getNextStartTimeAfter(startTime);
     }
 
     @Override
     public List<ScheduledRecording> getScheduledRecordings(
             Range<Long> period, @RecordingState int state) {
-        List<ScheduledRecording> result = new ArrayList<>();
-        for (ScheduledRecording r : mScheduledRecordings.values()) {
-            if (r.isOverLapping(period) && r.getState() == state) {
-                result.add(r);
-            }
-        }
-        return result;
+        return mScheduledRecordingIndex.getSchedules(period, state);
     }
 
     @Override
     public List<ScheduledRecording> getScheduledRecordings(long seriesRecordingId) {
-        List<ScheduledRecording> result = new ArrayList<>();
-        for (ScheduledRecording r : mScheduledRecordings.values()) {
-            if (r.getSeriesRecordingId() == seriesRecordingId) {
-                result.add(r);
-            }
-        }
-        return result;
+        return mScheduledRecordingIndex.getSchedulesForSeriesRecording(seriesRecordingId);
     }
 
     @Override
     public List<ScheduledRecording> getScheduledRecordings(String inputId) {
-        List<ScheduledRecording> result = new ArrayList<>();
-        for (ScheduledRecording r : mScheduledRecordings.values()) {
-            if (TextUtils.equals(r.getInputId(), inputId)) {
-                result.add(r);
-            }
-        }
-        return result;
+        return mScheduledRecordingIndex.getSchedulesForInput(inputId);
     }
 
     @Nullable
@@ -632,7 +590,7 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
             if (r.getId() == ScheduledRecording.ID_NOT_SET) {
                 r.setId(IdGenerator.SCHEDULED_RECORDING.newId());
             }
-            mScheduledRecordings.put(r.getId(), r);
+            putScheduledRecording(r);
             if (r.getProgramId() != ScheduledRecording.ID_NOT_SET) {
                 mProgramId2ScheduledRecordings.put(r.getProgramId(), r);
             }
@@ -679,7 +637,10 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
         List<ScheduledRecording> schedulesNotToDelete = new ArrayList<>();
         Set<Long> seriesRecordingIdsToCheck = new HashSet<>();
         for (ScheduledRecording r : schedules) {
-            mScheduledRecordings.remove(r.getId());
+            ScheduledRecording removed = mScheduledRecordings.remove(r.getId());
+            if (removed != null) {
+                mScheduledRecordingIndex.remove(removed);
+            }
             getDeletedScheduleMap().remove(r.getProgramId());
             mProgramId2ScheduledRecordings.remove(r.getProgramId());
             if (r.getSeriesRecordingId() != SeriesRecording.ID_NOT_SET
@@ -796,7 +757,7 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
                 continue;
             }
             toUpdate.add(r);
-            ScheduledRecording oldScheduledRecording = mScheduledRecordings.put(r.getId(), r);
+            ScheduledRecording oldScheduledRecording = putScheduledRecording(r);
             // The channel ID should not be changed.
             SoftPreconditions.checkState(r.getChannelId() == oldScheduledRecording.getChannelId());
             long programId = r.getProgramId();
@@ -861,6 +822,17 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
         mNoStopFuture.add(updateSeriesRecordingFuture);
     }
 
+    /** Puts the schedule to the map and the indexes, and returns the old one with the same ID. */
+    @Nullable
+    private ScheduledRecording putScheduledRecording(ScheduledRecording r) {
+        ScheduledRecording old = mScheduledRecordings.put(r.getId(), r);
+        if (old != null) {
+            mScheduledRecordingIndex.remove(old);
+        }
+        mScheduledRecordingIndex.add(r);
+        return old;
+    }
+
     private boolean isInputAvailable(String inputId) {
         return mInputManager.hasTvInputInfo(inputId)
                 && (!CommonUtils.isBundledInput(inputId)
@@ -939,6 +911,7 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
         if (!movedSchedules.isEmpty()) {
             for (ScheduledRecording schedule : movedSchedules) {
                 mProgramId2ScheduledRecordings.put(schedule.getProgramId(), schedule);
+                mScheduledRecordingIndex.add(schedule);
             }
         }
         if (!movedSeriesRecordings.isEmpty()) {
@@ -987,6 +960,7 @@ public class DvrDataManagerImpl extends BaseDvrDataManager {
         if (!movedSchedules.isEmpty()) {
             for (ScheduledRecording schedule : movedSchedules) {
                 mProgramId2ScheduledRecordings.remove(schedule.getProgramId());
+                mScheduledRecordingIndex.remove(schedule);
             }
         }
         if (!movedSeriesRecordings.isEmpty()) {
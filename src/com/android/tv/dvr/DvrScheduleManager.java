@@ -38,6 +38,7 @@ import com.android.tv.dvr.recorder.InputTaskScheduler;
 import com.android.tv.util.CompositeComparator;
 import com.android.tv.util.Utils;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -84,6 +85,9 @@ public class DvrScheduleManager {
     // the boolean value true denotes the schedule is just partially conflicting, which means
     // although there's conflict, it might still be recorded partially.
     private final Map<String, Map<Long, ConflictInfo>> mInputConflictInfoMap = new HashMap<>();
+    // Keeps the conflicts of each input up to date, so that only the schedules around a changed
+    // schedule are simulated again.
+    private final Map<String, ScheduleConflictEngine> mInputConflictEngineMap = new HashMap<>();
 
     private boolean mInitialized;
 
@@ -119,6 +123,7 @@ public class DvrScheduleManager {
                         if (!mInitialized) {
                             return;
                         }
+                        Set<String> changedInputIds = new ArraySet<>();
                         for (ScheduledRecording schedule : scheduledRecordings) {
                             if (!schedule.isNotStarted() && !schedule.isInProgress()) {
                                 continue;
@@ -128,8 +133,7 @@ public class DvrScheduleManager {
                             if (!SoftPreconditions.checkArgument(
                                     input != null, TAG, "Input was removed for : %s", schedule)) {
                                 // Input removed.
-                                mInputScheduleMap.remove(schedule.getInputId());
-                                mInputConflictInfoMap.remove(schedule.getInputId());
+                                removeInput(schedule.getInputId());
                                 continue;
                             }
                             String inputId = input.getId();
@@ -139,8 +143,10 @@ public class DvrScheduleManager {
                                 mInputScheduleMap.put(inputId, schedules);
                             }
                             schedules.add(schedule);
+                            addToConflictEngine(inputId, schedule);
+                            changedInputIds.add(inputId);
                         }
-                        onSchedulesChanged();
+                        onSchedulesChanged(changedInputIds);
                         notifyScheduledRecordingAdded(scheduledRecordings);
                     }
 
@@ -150,21 +156,25 @@ public class DvrScheduleManager {
                         if (!mInitialized) {
                             return;
                         }
+                        Set<String> changedInputIds = new ArraySet<>();
                         for (ScheduledRecording schedule : scheduledRecordings) {
                             TvInputInfo input =
                                     Utils.getTvInputInfoForInputId(mContext, schedule.getInputId());
                             if (input == null) {
                                 // Input removed.
-                                mInputScheduleMap.remove(schedule.getInputId());
-                                mInputConflictInfoMap.remove(schedule.getInputId());
+                                removeInput(schedule.getInputId());
                                 continue;
                             }
                             String inputId = input.getId();
                             List<ScheduledRecording> schedules = mInputScheduleMap.get(inputId);
                             if (schedules != null) {
-                                schedules.remove(schedule);
+                                int index = schedules.indexOf(schedule);
+                                if (index >= 0) {
+                                    removeFromConflictEngine(inputId, schedules.remove(index));
+                                }
                                 if (schedules.isEmpty()) {
                                     mInputScheduleMap.remove(inputId);
+                                    mInputConflictEngineMap.remove(inputId);
                                 }
                             }
                             Map<Long, ConflictInfo> conflictInfo =
@@ -175,8 +185,9 @@ public class DvrScheduleManager {
                                     mInputConflictInfoMap.remove(inputId);
                                 }
                             }
+                            changedInputIds.add(inputId);
                         }
-                        onSchedulesChanged();
+                        onSchedulesChanged(changedInputIds);
                         notifyScheduledRecordingRemoved(scheduledRecordings);
                     }
 
@@ -186,14 +197,14 @@ public class DvrScheduleManager {
                         if (!mInitialized) {
                             return;
                         }
+                        Set<String> changedInputIds = new ArraySet<>();
                         for (ScheduledRecording schedule : scheduledRecordings) {
                             TvInputInfo input =
                                     Utils.getTvInputInfoForInputId(mContext, schedule.getInputId());
                             if (!SoftPreconditions.checkArgument(
                                     input != null, TAG, "Input was removed for : %s", schedule)) {
                                 // Input removed.
-                                mInputScheduleMap.remove(schedule.getInputId());
-                                mInputConflictInfoMap.remove(schedule.getInputId());
+                                removeInput(schedule.getInputId());
                                 continue;
                             }
                             String inputId = input.getId();
@@ -207,16 +218,20 @@ public class DvrScheduleManager {
                             // is changed.
                             for (Iterator<ScheduledRecording> i = schedules.iterator();
                                     i.hasNext(); ) {
-                                if (i.next().getId() == schedule.getId()) {
+                                ScheduledRecording oldSchedule = i.next();
+                                if (oldSchedule.getId() == schedule.getId()) {
                                     i.remove();
+                                    removeFromConflictEngine(inputId, oldSchedule);
                                     break;
                                 }
                             }
                             if (schedule.isNotStarted() || schedule.isInProgress()) {
                                 schedules.add(schedule);
+                                addToConflictEngine(inputId, schedule);
                             }
                             if (schedules.isEmpty()) {
                                 mInputScheduleMap.remove(inputId);
+                                mInputConflictEngineMap.remove(inputId);
                             }
                             // Update conflict list as well
                             Map<Long, ConflictInfo> conflictInfo =
@@ -227,8 +242,9 @@ public class DvrScheduleManager {
                                     oldConflictInfo.schedule = schedule;
                                 }
                             }
+                            changedInputIds.add(inputId);
                         }
-                        onSchedulesChanged();
+                        onSchedulesChanged(changedInputIds);
                         notifyScheduledRecordingStatusChanged(scheduledRecordings);
                     }
                 };
@@ -274,6 +290,7 @@ public class DvrScheduleManager {
 
     private void buildData() {
         mInputScheduleMap.clear();
+        mInputConflictEngineMap.clear();
         for (ScheduledRecording schedule : mDataManager.getAllScheduledRecordings()) {
             if (!schedule.isNotStarted() && !schedule.isInProgress()) {
                 continue;
@@ -295,15 +312,39 @@ public class DvrScheduleManager {
             mInitialized = true;
             notifyInitialize();
         }
-        onSchedulesChanged();
+        onSchedulesChanged(mInputScheduleMap.keySet());
+    }
+
+    private void removeInput(String inputId) {
+        mInputScheduleMap.remove(inputId);
+        mInputConflictInfoMap.remove(inputId);
+        mInputConflictEngineMap.remove(inputId);
+    }
+
+    private void addToConflictEngine(String inputId, ScheduledRecording schedule) {
+        ScheduleConflictEngine engine = mInputConflictEngineMap.get(inputId);
+        if (engine != null) {
+            engine.add(schedule);
+        }
+    }
+
+    private void removeFromConflictEngine(String inputId, ScheduledRecording schedule) {
+        ScheduleConflictEngine engine = mInputConflictEngineMap.get(inputId);
+        if (engine != null) {
+            engine.remove(schedule);
+        }
     }
 
-    private void onSchedulesChanged() {
+    /** Updates the conflicts of the given inputs and notifies the changes. */
+    private void onSchedulesChanged(Collection<String> inputIds) {
         // TODO: notify conflict state change when some conflicting recording becomes partially
         //       conflicting, vice versa.
         List<ScheduledRecording> addedConflicts = new ArrayList<>();
         List<ScheduledRecording> removedConflicts = new ArrayList<>();
-        for (String inputId : mInputScheduleMap.keySet()) {
+        for (String inputId : inputIds) {
+            if (!mInputScheduleMap.containsKey(inputId)) {
+                continue;
+            }
             Map<Long, ConflictInfo> oldConflictInfo = mInputConflictInfoMap.get(inputId);
             Map<Long, ScheduledRecording> oldConflictMap = new HashMap<>();
             if (oldConflictInfo != null) {
@@ -311,13 +352,12 @@ public class DvrScheduleManager {
                     oldConflictMap.put(conflictInfo.schedule.getId(), conflictInfo.schedule);
                 }
             }
-            List<ConflictInfo> conflicts = getConflictingSchedulesInfo(inputId);
+            Map<Long, ConflictInfo> conflicts = getConflictingSchedulesInfo(inputId);
             if (conflicts.isEmpty()) {
                 mInputConflictInfoMap.remove(inputId);
             } else {
-                Map<Long, ConflictInfo> conflictInfos = new HashMap<>();
-                for (ConflictInfo conflictInfo : conflicts) {
-                    conflictInfos.put(conflictInfo.schedule.getId(), conflictInfo);
+                Map<Long, ConflictInfo> conflictInfos = new HashMap<>(conflicts);
+                for (ConflictInfo conflictInfo : conflicts.values()) {
                     if (oldConflictMap.remove(conflictInfo.schedule.getId()) == null) {
                         addedConflicts.add(conflictInfo.schedule);
                     }
@@ -591,21 +631,26 @@ public class DvrScheduleManager {
 
     /**
      * Returns all the scheduled recordings that conflicts and will not be recorded or clipped for
-     * the given input.
+     * the given input, by the schedule ID.
      */
     @NonNull
-    private List<ConflictInfo> getConflictingSchedulesInfo(String inputId) {
+    private Map<Long, ConflictInfo> getConflictingSchedulesInfo(String inputId) {
         SoftPreconditions.checkState(mInitialized, TAG, "Not initialized yet");
         TvInputInfo input = Utils.getTvInputInfoForInputId(mContext, inputId);
         SoftPreconditions.checkState(input != null, TAG, "Can't find input for : " + inputId);
         if (!mInitialized || input == null) {
-            return Collections.emptyList();
+            return Collections.emptyMap();
         }
         List<ScheduledRecording> schedules = mInputScheduleMap.get(input.getId());
         if (schedules == null || schedules.isEmpty()) {
-            return Collections.emptyList();
+            return Collections.emptyMap();
+        }
+        ScheduleConflictEngine engine = mInputConflictEngineMap.get(input.getId());
+        if (engine == null || engine.getTunerCount() != input.getTunerCount()) {
+            engine = new ScheduleConflictEngine(input.getTunerCount(), schedules);
+            mInputConflictEngineMap.put(input.getId(), engine);
         }
-        return getConflictingSchedulesInfo(schedules, input.getTunerCount());
+        return engine.getConflicts();
     }
 
     /**
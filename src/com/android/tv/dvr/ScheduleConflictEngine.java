@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.MainThread;
+import com.android.tv.dvr.DvrScheduleManager.ConflictInfo;
+import com.android.tv.dvr.data.ScheduledRecording;
+import com.android.tv.dvr.recorder.InputTaskScheduler;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps the conflicts of the schedules of an input up to date as the schedules change.
+ *
+ * <p>The simulation of {@link InputTaskScheduler} in {@link
+ * DvrScheduleManager#getConflictingSchedulesInfo(List, int)} sweeps the schedules in the
+ * recording order, and a schedule competes for the tuners only with the recordings which have not
+ * finished when it starts. So the schedules are split into clusters at the points where all the
+ * earlier schedules have finished, and each cluster is simulated separately. The result is the
+ * same as the simulation of all the schedules. When a schedule is added or removed, only the
+ * clusters within its time span are merged, re-split and simulated again.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+@MainThread
+class ScheduleConflictEngine {
+    /** The schedules which compete for the tuners with each other. */
+    private static final class Cluster {
+        // The end of the cluster. No schedule after the cluster starts before this.
+        private final long mEndTimeMs;
+        private final List<ScheduledRecording> mSchedules;
+        private final List<ConflictInfo> mConflicts;
+
+        private Cluster(
+                long endTimeMs, List<ScheduledRecording> schedules, List<ConflictInfo> conflicts) {
+            mEndTimeMs = endTimeMs;
+            mSchedules = schedules;
+            mConflicts = conflicts;
+        }
+    }
+
+    private final int mTunerCount;
+    // The clusters by their start time.
+    private final TreeMap<Long, Cluster> mClusters = new TreeMap<>();
+    private final Map<Long, ConflictInfo> mConflicts = new HashMap<>();
+
+    ScheduleConflictEngine(int tunerCount, Collection<ScheduledRecording> schedules) {
+        mTunerCount = tunerCount;
+        addClusters(new ArrayList<>(schedules));
+    }
+
+    /** Returns the tuner count which the conflicts are calculated with. */
+    int getTunerCount() {
+        return mTunerCount;
+    }
+
+    /** Returns the number of the clusters. */
+    int getClusterCount() {
+        return mClusters.size();
+    }
+
+    /** Returns the conflicts of all the schedules by the schedule ID. */
+    Map<Long, ConflictInfo> getConflicts() {
+        return Collections.unmodifiableMap(mConflicts);
+    }
+
+    /** Adds a schedule and updates the conflicts. */
+    void add(ScheduledRecording schedule) {
+        List<ScheduledRecording> schedules = removeClustersAround(schedule);
+        schedules.add(schedule);
+        addClusters(schedules);
+    }
+
+    /**
+     * Removes a schedule and updates the conflicts. The schedule should be the one which was added,
+     * otherwise the one which equals to it is removed.
+     */
+    void remove(ScheduledRecording schedule) {
+        List<ScheduledRecording> schedules = removeClustersAround(schedule);
+        boolean removed = false;
+        for (Iterator<ScheduledRecording> iter = schedules.iterator(); iter.hasNext(); ) {
+            if (iter.next() == schedule) {
+                iter.remove();
+                removed = true;
+                break;
+            }
+        }
+        if (!removed) {
+            schedules.remove(schedule);
+        }
+        addClusters(schedules);
+    }
+
+    /**
+     * Removes the clusters which may compete with the given schedule, and returns their schedules.
+     */
+    private List<ScheduledRecording> removeClustersAround(ScheduledRecording schedule) {
+        long startTimeMs = schedule.getStartTimeMs();
+        long endTimeMs = Math.max(startTimeMs, schedule.getEndTimeMs());
+        Map.Entry<Long, Cluster> floor = mClusters.floorEntry(startTimeMs);
+        long from =
+                floor != null && floor.getValue().mEndTimeMs >= startTimeMs
+                        ? floor.getKey()
+                        : startTimeMs;
+        List<ScheduledRecording> schedules = new ArrayList<>();
+        for (Iterator<Cluster> iter = mClusters.subMap(from, true, endTimeMs, true).values()
+                        .iterator();
+                iter.hasNext(); ) {
+            Cluster cluster = iter.next();
+            schedules.addAll(cluster.mSchedules);
+            for (ConflictInfo conflictInfo : cluster.mConflicts) {
+                mConflicts.remove(conflictInfo.schedule.getId(), conflictInfo);
+            }
+            iter.remove();
+        }
+        return schedules;
+    }
+
+    /** Splits the schedules into clusters and adds them with their conflicts. */
+    private void addClusters(List<ScheduledRecording> schedules) {
+        if (schedules.isEmpty()) {
+            return;
+        }
+        Collections.sort(schedules, InputTaskScheduler.getRecordingOrderComparator());
+        int first = 0;
+        long startTimeMs = schedules.get(0).getStartTimeMs();
+        long endTimeMs = schedules.get(0).getEndTimeMs();
+        for (int i = 1; i < schedules.size(); ++i) {
+            ScheduledRecording schedule = schedules.get(i);
+            // The schedules which start at the same time as the cluster are kept in the cluster
+            // even if they don't compete, so that the clusters have distinct start times.
+            if (schedule.getStartTimeMs() >= endTimeMs
+                    && schedule.getStartTimeMs() > startTimeMs) {
+                addCluster(startTimeMs, endTimeMs, schedules.subList(first, i));
+                first = i;
+                startTimeMs = schedule.getStartTimeMs();
+                endTimeMs = schedule.getEndTimeMs();
+            } else {
+                endTimeMs = Math.max(endTimeMs, schedule.getEndTimeMs());
+            }
+        }
+        addCluster(startTimeMs, endTimeMs, schedules.subList(first, schedules.size()));
+    }
+
+    private void addCluster(long startTimeMs, long endTimeMs, List<ScheduledRecording> schedules) {
+        List<ScheduledRecording> clusterSchedules = new ArrayList<>(schedules);
+        List<ConflictInfo> conflicts;
+        if (clusterSchedules.size() <= mTunerCount) {
+            conflicts = Collections.emptyList();
+        } else {
+            conflicts =
+                    DvrScheduleManager.getConflictingSchedulesInfo(clusterSchedules, mTunerCount);
+            for (ConflictInfo conflictInfo : conflicts) {
+                mConflicts.put(conflictInfo.schedule.getId(), conflictInfo);
+            }
+        }
+        long lastStartTimeMs = schedules.get(schedules.size() - 1).getStartTimeMs();
+        mClusters.put(
+                startTimeMs,
+                new Cluster(Math.max(endTimeMs, lastStartTimeMs), clusterSchedules, conflicts));
+    }
+}
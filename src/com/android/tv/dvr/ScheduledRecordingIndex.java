@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr;
+
+import android.support.annotation.MainThread;
+import android.util.Range;
+import com.android.tv.dvr.data.ScheduledRecording;
+import com.android.tv.dvr.data.ScheduledRecording.RecordingState;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes of the scheduled recordings in {@link DvrDataManagerImpl}, by the series
+ * recording ID, by the input ID and by the start time.
+ *
+ * <p>The index should be given exactly the schedules which are added to and removed from the
+ * primary map. An updated schedule is removed as the old instance and added as the new one.
+ */
+@MainThread
+class ScheduledRecordingIndex {
+    private final HashMap<Long, HashMap<Long, ScheduledRecording>> mSeriesRecordingId2Schedules =
+            new HashMap<>();
+    private final HashMap<String, HashMap<Long, ScheduledRecording>> mInputId2Schedules =
+            new HashMap<>();
+    private final TreeMap<Long, HashMap<Long, ScheduledRecording>> mStartTime2Schedules =
+            new TreeMap<>();
+    // The longest duration of the schedules which have been added. It's not decreased when the
+    // schedules are removed, which only makes the period queries look at a few more schedules.
+    private long mMaxDurationMs;
+
+    /** Adds a schedule to the indexes. */
+    void add(ScheduledRecording schedule) {
+        put(mSeriesRecordingId2Schedules, schedule.getSeriesRecordingId(), schedule);
+        put(mInputId2Schedules, schedule.getInputId(), schedule);
+        put(mStartTime2Schedules, schedule.getStartTimeMs(), schedule);
+        mMaxDurationMs = Math.max(mMaxDurationMs, schedule.getDuration());
+    }
+
+    /** Removes a schedule which was added to the indexes. */
+    void remove(ScheduledRecording schedule) {
+        remove(mSeriesRecordingId2Schedules, schedule.getSeriesRecordingId(), schedule);
+        remove(mInputId2Schedules, schedule.getInputId(), schedule);
+        remove(mStartTime2Schedules, schedule.getStartTimeMs(), schedule);
+    }
+
+    /** Returns the schedules which belong to the series recording. */
+    List<ScheduledRecording> getSchedulesForSeriesRecording(long seriesRecordingId) {
+        return toList(mSeriesRecordingId2Schedules.get(seriesRecordingId));
+    }
+
+    /** Returns the schedules for the input. */
+    List<ScheduledRecording> getSchedulesForInput(String inputId) {
+        return toList(mInputId2Schedules.get(inputId));
+    }
+
+    /** Returns the schedules which overlap with the period and have the given state. */
+    List<ScheduledRecording> getSchedules(Range<Long> period, @RecordingState int state) {
+        // A schedule which starts before (lower - max duration) can't overlap with the period.
+        long from = period.getLower() - mMaxDurationMs;
+        if (from > period.getLower()) {
+            from = Long.MIN_VALUE;
+        }
+        if (from > period.getUpper()) {
+            return new ArrayList<>();
+        }
+        List<ScheduledRecording> result = new ArrayList<>();
+        for (HashMap<Long, ScheduledRecording> schedules :
+                mStartTime2Schedules.subMap(from, false, period.getUpper(), false).values()) {
+            for (ScheduledRecording r : schedules.values()) {
+                if (r.isOverLapping(period) && r.getState() == state) {
+                    result.add(r);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the earliest start time after {@code timeMs}, or {@link
+     * DvrDataManager#NEXT_START_TIME_NOT_FOUND} if there's none.
+     */
+    long getNextStartTimeAfter(long timeMs) {
+        Long startTimeMs = mStartTime2Schedules.higherKey(timeMs);
+        return startTimeMs == null ? DvrDataManager.NEXT_START_TIME_NOT_FOUND : startTimeMs;
+    }
+
+    private static <K> void put(
+            Map<K, HashMap<Long, ScheduledRecording>> index, K key, ScheduledRecording schedule) {
+        HashMap<Long, ScheduledRecording> schedules = index.get(key);
+        if (schedules == null) {
+            schedules = new HashMap<>();
+            index.put(key, schedules);
+        }
+        schedules.put(schedule.getId(), schedule);
+    }
+
+    private static <K> void remove(
+            Map<K, HashMap<Long, ScheduledRecording>> index, K key, ScheduledRecording schedule) {
+        HashMap<Long, ScheduledRecording> schedules = index.get(key);
+        if (schedules != null && schedules.remove(schedule.getId()) != null
+                && schedules.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    private static List<ScheduledRecording> toList(HashMap<Long, ScheduledRecording> schedules) {
+        return schedules == null ? new ArrayList<>() : new ArrayList<>(schedules.values());
+    }
+}
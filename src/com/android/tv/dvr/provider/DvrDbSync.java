@@ -39,6 +39,7 @@ import com.android.tv.dvr.data.ScheduledRecording;
 import com.android.tv.dvr.data.SeriesRecording;
 import com.android.tv.dvr.recorder.SeriesRecordingScheduler;
 import com.android.tv.util.AsyncDbTask.AsyncQueryProgramTask;
+import com.android.tv.util.PriorityDbExecutor;
 import com.android.tv.util.TvUriMatcher;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -364,6 +365,11 @@ public class DvrDbSync {
             mProgramId = programId;
         }
 
+        @Override
+        protected int getDbPriority() {
+            return PriorityDbExecutor.PRIORITY_BULK;
+        }
+
         @Override
         protected void onCancelled(Program program) {
             if (mQueryProgramTask == this) {
@@ -25,6 +25,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
+import android.text.TextUtils;
 import com.android.tv.TvSingletons;
 import com.android.tv.common.SoftPreconditions;
 import com.android.tv.common.util.PermissionUtils;
@@ -35,6 +36,7 @@ import com.android.tv.dvr.data.SeasonEpisodeNumber;
 import com.android.tv.dvr.data.SeriesRecording;
 import com.android.tv.util.AsyncDbTask.AsyncProgramQueryTask;
 import com.android.tv.util.AsyncDbTask.CursorFilter;
+import com.android.tv.util.PriorityDbExecutor;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -68,6 +70,8 @@ public abstract class EpisodicProgramLoadTask {
                     + "=0";
     private static final String CHANNEL_ID_PREDICATE = Programs.COLUMN_CHANNEL_ID + "=?";
     private static final String PROGRAM_TITLE_PREDICATE = Programs.COLUMN_TITLE + "=?";
+    private static final String START_TIME_NOT_BEFORE_PREDICATE =
+            Programs.COLUMN_START_TIME_UTC_MILLIS + ">=?";
 
     private final Context mContext;
     private final DvrDataManager mDataManager;
@@ -78,6 +82,9 @@ public abstract class EpisodicProgramLoadTask {
     // If true, match programs with OPTION_CHANNEL_ALL.
     private boolean mIgnoreChannelOption;
     private final ArrayList<SeriesRecording> mSeriesRecordings = new ArrayList<>();
+    @Nullable private SeriesEpisodeMatcher mEpisodeMatcher;
+    // The programs loaded from mEpisodeMatcher.
+    private List<Program> mMatchedPrograms = Collections.emptyList();
     private AsyncProgramQueryTask mProgramQueryTask;
 
     /** Constructor used to load programs for one series recording with the given channel option. */
@@ -145,6 +152,19 @@ public abstract class EpisodicProgramLoadTask {
         return this;
     }
 
+    /**
+     * Sets the matcher over the programs in memory. The programs which start before its end time
+     * are loaded from it, and only the later ones are queried. It's used only if all the programs
+     * can be queried with a selection. The default value is {@code null}, which queries all the
+     * programs.
+     */
+    public EpisodicProgramLoadTask setEpisodeMatcher(@Nullable SeriesEpisodeMatcher matcher) {
+        SoftPreconditions.checkState(
+                mProgramQueryTask == null, TAG, "Can't change setting after execution.");
+        mEpisodeMatcher = matcher;
+        return this;
+    }
+
     /**
      * Executes the task.
      *
@@ -192,18 +212,33 @@ public abstract class EpisodicProgramLoadTask {
                 sqlParams.selectionArgs,
                 null,
                 sqlParams.filter) {
+            @Override
+            protected int getDbPriority() {
+                // It may scan all the programs, so it shouldn't block the other queries.
+                return PriorityDbExecutor.PRIORITY_BULK;
+            }
+
             @Override
             protected void onPostExecute(List<Program> programs) {
-                EpisodicProgramLoadTask.this.onPostExecute(programs);
+                EpisodicProgramLoadTask.this.onPostExecute(addMatchedPrograms(programs));
             }
 
             @Override
             protected void onCancelled(List<Program> programs) {
-                EpisodicProgramLoadTask.this.onCancelled(programs);
+                EpisodicProgramLoadTask.this.onCancelled(addMatchedPrograms(programs));
             }
         };
     }
 
+    private List<Program> addMatchedPrograms(List<Program> programs) {
+        if (programs == null || mMatchedPrograms.isEmpty()) {
+            return programs;
+        }
+        List<Program> result = new ArrayList<>(mMatchedPrograms);
+        result.addAll(programs);
+        return result;
+    }
+
     private SqlParams createSqlParams() {
         SqlParams sqlParams = new SqlParams();
         if (PermissionUtils.hasAccessAllEpg(mContext)) {
@@ -215,7 +250,8 @@ public abstract class EpisodicProgramLoadTask {
                                     ? PROGRAM_PREDICATE_WITH_CURRENT_PROGRAM
                                     : PROGRAM_PREDICATE);
             List<String> args = new ArrayList<>();
-            args.add(Long.toString(System.currentTimeMillis()));
+            long currentTimeMs = System.currentTimeMillis();
+            args.add(Long.toString(currentTimeMs));
             // Channel option
             if (!mQueryAllChannels) {
                 selection.append(" AND ").append(CHANNEL_ID_PREDICATE);
@@ -226,9 +262,22 @@ public abstract class EpisodicProgramLoadTask {
                 selection.append(" AND ").append(PROGRAM_TITLE_PREDICATE);
                 args.add(mSeriesRecordings.get(0).getTitle());
             }
+            SeriesRecordingCursorFilter filter = new SeriesRecordingCursorFilter(mSeriesRecordings);
+            // The programs in memory are loaded now, and the rest is queried.
+            if (mEpisodeMatcher != null) {
+                selection.append(" AND ").append(START_TIME_NOT_BEFORE_PREDICATE);
+                args.add(Long.toString(mEpisodeMatcher.getEndTimeMs()));
+                mMatchedPrograms =
+                        mEpisodeMatcher.match(
+                                mSeriesRecordings,
+                                mIgnoreChannelOption,
+                                (seriesRecording, program) ->
+                                        isMatchedProgramToLoad(
+                                                filter, seriesRecording, program, currentTimeMs));
+            }
             sqlParams.selection = selection.toString();
             sqlParams.selectionArgs = args.toArray(new String[args.size()]);
-            sqlParams.filter = new SeriesRecordingCursorFilter(mSeriesRecordings);
+            sqlParams.filter = filter;
         } else {
             // The query includes the current program. Will be filtered if needed.
             if (mQueryAllChannels) {
@@ -255,6 +304,34 @@ public abstract class EpisodicProgramLoadTask {
         return sqlParams;
     }
 
+    /**
+     * Returns {@code true} if the program from {@link #mEpisodeMatcher} should be loaded. The
+     * conditions are the same as the query and {@code filter}.
+     */
+    private boolean isMatchedProgramToLoad(
+            SeriesRecordingCursorFilter filter,
+            SeriesRecording seriesRecording,
+            Program program,
+            long currentTimeMs) {
+        long timeMs =
+                mLoadCurrentProgram
+                        ? program.getEndTimeUtcMillis()
+                        : program.getStartTimeUtcMillis();
+        if (timeMs <= currentTimeMs || program.isRecordingProhibited()) {
+            return false;
+        }
+        if (!mQueryAllChannels
+                && program.getChannelId() != mSeriesRecordings.get(0).getChannelId()) {
+            return false;
+        }
+        if (mSeriesRecordings.size() == 1
+                && !TextUtils.equals(program.getTitle(), mSeriesRecordings.get(0).getTitle())) {
+            return false;
+        }
+        return filter.isAllowed(program.getId())
+                && filter.isEpisodeToLoad(seriesRecording, program);
+    }
+
     /**
      * Filter the programs which match the series recording. The episodes which the schedules are
      * already created for are filtered out too.
@@ -285,8 +362,7 @@ public abstract class EpisodicProgramLoadTask {
         @Override
         @WorkerThread
         public boolean apply(Cursor c) {
-            if (!mLoadDisallowedProgram
-                    && mDisallowedProgramIds.contains(c.getLong(PROGRAM_ID_INDEX))) {
+            if (!isAllowed(c.getLong(PROGRAM_ID_INDEX))) {
                 return false;
             }
             Program program = Program.fromCursor(c);
@@ -300,16 +376,29 @@ public abstract class EpisodicProgramLoadTask {
                     programMatches = seriesRecording.matchProgram(program);
                 }
                 if (programMatches) {
-                    return mLoadScheduledEpisode
-                            || !mSeasonEpisodeNumbers.contains(
-                                    new SeasonEpisodeNumber(
-                                            seriesRecording.getId(),
-                                            program.getSeasonNumber(),
-                                            program.getEpisodeNumber()));
+                    return isEpisodeToLoad(seriesRecording, program);
                 }
             }
             return false;
         }
+
+        /** Returns {@code false} if the program is disallowed and shouldn't be loaded. */
+        boolean isAllowed(long programId) {
+            return mLoadDisallowedProgram || !mDisallowedProgramIds.contains(programId);
+        }
+
+        /**
+         * Returns {@code true} if the program which matches the series recording should be
+         * loaded, i.e., no schedule has been created for the episode yet.
+         */
+        boolean isEpisodeToLoad(SeriesRecording seriesRecording, Program program) {
+            return mLoadScheduledEpisode
+                    || !mSeasonEpisodeNumbers.contains(
+                            new SeasonEpisodeNumber(
+                                    seriesRecording.getId(),
+                                    program.getSeasonNumber(),
+                                    program.getEpisodeNumber()));
+        }
     }
 
     private class SeriesRecordingCursorFilterForNonSystem extends SeriesRecordingCursorFilter {
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr.provider;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.support.annotation.MainThread;
+import android.text.TextUtils;
+import com.android.tv.data.Program;
+import com.android.tv.dvr.data.SeriesRecording;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches the series recordings with the programs which are already loaded in memory, instead of
+ * querying the programs from TvProvider.
+ *
+ * <p>The programs are indexed by the series ID, which a program should have to match a series
+ * recording, so only the episodes of the series are checked for each series recording.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+@MainThread
+public class SeriesEpisodeMatcher {
+    /** Filters the programs which match the series recordings. */
+    public interface Filter {
+        /**
+         * Returns {@code true} if the {@code program} which matches the {@code seriesRecording}
+         * should be loaded.
+         */
+        boolean accept(SeriesRecording seriesRecording, Program program);
+    }
+
+    private final long mEndTimeMs;
+    private final Map<String, List<Program>> mSeriesId2Programs = new HashMap<>();
+
+    /**
+     * Creates the matcher over the {@code programs} which start before {@code endTimeMs}. All the
+     * programs in the time range should be given.
+     */
+    public SeriesEpisodeMatcher(Collection<Program> programs, long endTimeMs) {
+        mEndTimeMs = endTimeMs;
+        for (Program program : programs) {
+            String seriesId = program.getSeriesId();
+            if (TextUtils.isEmpty(seriesId) || program.getStartTimeUtcMillis() >= endTimeMs) {
+                continue;
+            }
+            List<Program> episodes = mSeriesId2Programs.get(seriesId);
+            if (episodes == null) {
+                episodes = new ArrayList<>();
+                mSeriesId2Programs.put(seriesId, episodes);
+            }
+            episodes.add(program);
+        }
+    }
+
+    /**
+     * Returns the end of the time range. The programs which start at or after this should be
+     * queried.
+     */
+    public long getEndTimeMs() {
+        return mEndTimeMs;
+    }
+
+    /**
+     * Returns the programs which match any of the series recordings and are accepted by the
+     * {@code filter}. Like {@link EpisodicProgramLoadTask}, a program is checked only with the
+     * first series recording which it matches.
+     *
+     * @param ignoreChannelOption if {@code true}, the programs are matched with {@link
+     *     SeriesRecording#OPTION_CHANNEL_ALL}.
+     */
+    public List<Program> match(
+            List<SeriesRecording> seriesRecordings, boolean ignoreChannelOption, Filter filter) {
+        Map<String, List<SeriesRecording>> seriesId2SeriesRecordings = new LinkedHashMap<>();
+        for (SeriesRecording seriesRecording : seriesRecordings) {
+            List<SeriesRecording> sameSeries =
+                    seriesId2SeriesRecordings.get(seriesRecording.getSeriesId());
+            if (sameSeries == null) {
+                sameSeries = new ArrayList<>();
+                seriesId2SeriesRecordings.put(seriesRecording.getSeriesId(), sameSeries);
+            }
+            sameSeries.add(seriesRecording);
+        }
+        List<Program> result = new ArrayList<>();
+        for (Map.Entry<String, List<SeriesRecording>> entry :
+                seriesId2SeriesRecordings.entrySet()) {
+            List<Program> episodes = mSeriesId2Programs.get(entry.getKey());
+            if (episodes == null) {
+                continue;
+            }
+            for (Program program : episodes) {
+                for (SeriesRecording seriesRecording : entry.getValue()) {
+                    boolean programMatches =
+                            ignoreChannelOption
+                                    ? seriesRecording.matchProgram(
+                                            program, SeriesRecording.OPTION_CHANNEL_ALL)
+                                    : seriesRecording.matchProgram(program);
+                    if (programMatches) {
+                        if (filter.accept(seriesRecording, program)) {
+                            result.add(program);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
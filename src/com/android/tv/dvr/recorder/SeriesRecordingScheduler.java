@@ -23,15 +23,18 @@ import android.content.SharedPreferences;
 import android.os.AsyncTask;
 import android.os.Build;
 import android.support.annotation.MainThread;
+import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.LongSparseArray;
+import android.util.Range;
 import com.android.tv.TvSingletons;
 import com.android.tv.common.SoftPreconditions;
 import com.android.tv.common.util.CollectionUtils;
 import com.android.tv.common.util.SharedPreferencesUtils;
 import com.android.tv.data.Program;
+import com.android.tv.data.ProgramDataManager;
 import com.android.tv.data.epg.EpgReader;
 import com.android.tv.dvr.DvrDataManager;
 import com.android.tv.dvr.DvrDataManager.ScheduledRecordingListener;
@@ -43,6 +46,7 @@ import com.android.tv.dvr.data.SeasonEpisodeNumber;
 import com.android.tv.dvr.data.SeriesInfo;
 import com.android.tv.dvr.data.SeriesRecording;
 import com.android.tv.dvr.provider.EpisodicProgramLoadTask;
+import com.android.tv.dvr.provider.SeriesEpisodeMatcher;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -85,6 +89,9 @@ public class SeriesRecordingScheduler {
     private final Context mContext;
     private final DvrManager mDvrManager;
     private final WritableDvrDataManager mDataManager;
+    private final ProgramDataManager mProgramDataManager;
+    // Built from the prefetched programs when it's needed.
+    @Nullable private SeriesEpisodeMatcher mEpisodeMatcher;
     private final List<SeriesRecordingUpdateTask> mScheduleTasks = new ArrayList<>();
     private final LongSparseArray<FetchSeriesInfoTask> mFetchSeriesInfoTasks =
             new LongSparseArray<>();
@@ -148,6 +155,19 @@ public class SeriesRecordingScheduler {
                 }
             };
 
+    private final ProgramDataManager.Callback mProgramDataManagerCallback =
+            new ProgramDataManager.Callback() {
+                @Override
+                public void onProgramUpdated() {
+                    mEpisodeMatcher = null;
+                }
+
+                @Override
+                public void onSingleChannelUpdated(long channelId) {
+                    mEpisodeMatcher = null;
+                }
+            };
+
     private final ScheduledRecordingListener mScheduledRecordingListener =
             new ScheduledRecordingListener() {
                 @Override
@@ -208,6 +228,7 @@ public class SeriesRecordingScheduler {
         TvSingletons tvSingletons = TvSingletons.getSingletons(context);
         mDvrManager = tvSingletons.getDvrManager();
         mDataManager = (WritableDvrDataManager) tvSingletons.getDvrDataManager();
+        mProgramDataManager = tvSingletons.getProgramDataManager();
         mSharedPreferences =
                 context.getSharedPreferences(
                         SharedPreferencesUtils.SHARED_PREF_SERIES_RECORDINGS, Context.MODE_PRIVATE);
@@ -226,6 +247,7 @@ public class SeriesRecordingScheduler {
         mStarted = true;
         mDataManager.addSeriesRecordingListener(mSeriesRecordingListener);
         mDataManager.addScheduledRecordingListener(mScheduledRecordingListener);
+        mProgramDataManager.addCallback(mProgramDataManagerCallback);
         startFetchingSeriesInfo();
         updateSchedules(mDataManager.getSeriesRecordings());
     }
@@ -246,6 +268,8 @@ public class SeriesRecordingScheduler {
             task.cancel(true);
         }
         mScheduleTasks.clear();
+        mProgramDataManager.removeCallback(mProgramDataManagerCallback);
+        mEpisodeMatcher = null;
         mDataManager.removeScheduledRecordingListener(mScheduledRecordingListener);
         mDataManager.removeSeriesRecordingListener(mSeriesRecordingListener);
     }
@@ -374,6 +398,24 @@ public class SeriesRecordingScheduler {
         }
     }
 
+    /**
+     * Returns the matcher over the prefetched programs, or {@code null} if they can't be used, e.g.
+     * they are not loaded yet or being updated.
+     */
+    @Nullable
+    private SeriesEpisodeMatcher getEpisodeMatcher() {
+        Range<Long> range = mProgramDataManager.getCompletePrefetchTimeRange();
+        if (range == null) {
+            return null;
+        }
+        if (mEpisodeMatcher == null || mEpisodeMatcher.getEndTimeMs() != range.getUpper()) {
+            mEpisodeMatcher =
+                    new SeriesEpisodeMatcher(
+                            mProgramDataManager.getPrefetchedPrograms(), range.getUpper());
+        }
+        return mEpisodeMatcher;
+    }
+
     private boolean needToReadAllChannels(List<SeriesRecording> seriesRecordingsToUpdate) {
         for (SeriesRecording seriesRecording : seriesRecordingsToUpdate) {
             if (seriesRecording.getChannelOption() == SeriesRecording.OPTION_CHANNEL_ALL) {
@@ -484,6 +526,7 @@ public class SeriesRecordingScheduler {
     private class SeriesRecordingUpdateTask extends EpisodicProgramLoadTask {
         SeriesRecordingUpdateTask(List<SeriesRecording> seriesRecordings) {
             super(mContext, seriesRecordings);
+            setEpisodeMatcher(getEpisodeMatcher());
         }
 
         @Override
@@ -298,5 +298,6 @@ public class RecordingCardView extends BaseCardView {
         mExpandedTitleView.setText(null);
         setContent(null, null);
         mImageView.setImageDrawable(mDefaultImage);
+        ImageLoader.cancelLoads(this);
     }
 }
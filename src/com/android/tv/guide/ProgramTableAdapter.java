@@ -254,6 +254,13 @@ class ProgramTableAdapter extends RecyclerView.Adapter<ProgramTableAdapter.Progr
         }
     }
 
+    @Override
+    public void onViewRecycled(ProgramRowViewHolder holder) {
+        super.onViewRecycled(holder);
+        // The row is scrolled out. Its images don't need to be loaded any more.
+        ImageLoader.cancelLoads(holder);
+    }
+
     @Override
     public void onAttachedToRecyclerView(RecyclerView recyclerView) {
         mRecyclerView = recyclerView;
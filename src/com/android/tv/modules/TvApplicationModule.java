@@ -18,16 +18,18 @@ package com.android.tv.modules;
 import android.content.Context;
 import com.android.tv.MainActivity;
 import com.android.tv.TvApplication;
+import com.android.tv.TvSingletons;
 import com.android.tv.common.concurrent.NamedThreadFactory;
 import com.android.tv.common.dagger.ApplicationModule;
 import com.android.tv.common.dagger.annotations.ApplicationContext;
 import com.android.tv.onboarding.OnboardingActivity;
 import com.android.tv.util.AsyncDbTask;
+import com.android.tv.util.PriorityDbExecutor;
 import com.android.tv.util.TvInputManagerHelper;
+import com.google.common.base.Suppliers;
 import dagger.Module;
 import dagger.Provides;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
 import javax.inject.Singleton;
 
 /** Dagger module for {@link TvApplication}. */
@@ -44,8 +46,12 @@ public class TvApplicationModule {
     @Provides
     @AsyncDbTask.DbExecutor
     @Singleton
-    Executor providesDbExecutor() {
-        return Executors.newSingleThreadExecutor(THREAD_FACTORY);
+    Executor providesDbExecutor(@ApplicationContext Context context) {
+        // The performance monitor is resolved lazily, since it's not ready during injection.
+        return new PriorityDbExecutor(
+                THREAD_FACTORY,
+                Suppliers.memoize(
+                        () -> TvSingletons.getSingletons(context).getPerformanceMonitor()));
     }
 
     @Provides
@@ -35,10 +35,17 @@ public final class EventNames {
         ON_DEVICE_SEARCH,
         PROGRAM_GUIDE_SHOW,
         PROGRAM_DATA_MANAGER_PROGRAMS_PREFETCH_TASK_DO_IN_BACKGROUND,
+        PROGRAM_DATA_MANAGER_PROGRAMS_PREFETCH_READ_ROW_COUNT,
         PROGRAM_GUIDE_SHOW_FROM_EMPTY_CACHE,
         PROGRAM_GUIDE_SCROLL_HORIZONTALLY,
         PROGRAM_GUIDE_SCROLL_VERTICALLY,
-        MEMORY_ON_PROGRAM_GUIDE_CLOSE
+        MEMORY_ON_PROGRAM_GUIDE_CLOSE,
+        DB_EXECUTOR_QUEUE_WAIT_INTERACTIVE,
+        DB_EXECUTOR_QUEUE_WAIT_BACKGROUND,
+        DB_EXECUTOR_QUEUE_WAIT_BULK,
+        EPG_INGEST_READ,
+        EPG_INGEST_DIFF,
+        EPG_INGEST_WRITE
     })
     public @interface EventName {}
 
@@ -52,12 +59,33 @@ public final class EventNames {
     public static final String PROGRAM_GUIDE_SHOW = "ProgramGuide.show";
     public static final String PROGRAM_DATA_MANAGER_PROGRAMS_PREFETCH_TASK_DO_IN_BACKGROUND =
             "ProgramDataManager.ProgramsPrefetchTask.doInBackground";
+    /** Event name for the number of program rows read by a full or a delta prefetch. */
+    public static final String PROGRAM_DATA_MANAGER_PROGRAMS_PREFETCH_READ_ROW_COUNT =
+            "ProgramDataManager.ProgramsPrefetchTask.readRowCount";
     public static final String PROGRAM_GUIDE_SHOW_FROM_EMPTY_CACHE =
             "ProgramGuide.show.fromEmptyCache";
     public static final String PROGRAM_GUIDE_SCROLL_HORIZONTALLY =
             "ProgramGuide.scroll.horizontally";
     public static final String PROGRAM_GUIDE_SCROLL_VERTICALLY = "ProgramGuide.scroll.vertically";
     public static final String MEMORY_ON_PROGRAM_GUIDE_CLOSE = "ProgramGuide.memory.close";
+    /**
+     * Event names for the time a DB task waits in each lane of {@link
+     * com.android.tv.util.PriorityDbExecutor} before it starts.
+     */
+    public static final String DB_EXECUTOR_QUEUE_WAIT_INTERACTIVE =
+            "DbExecutor.queueWait.interactive";
+
+    public static final String DB_EXECUTOR_QUEUE_WAIT_BACKGROUND =
+            "DbExecutor.queueWait.background";
+    public static final String DB_EXECUTOR_QUEUE_WAIT_BULK = "DbExecutor.queueWait.bulk";
+    /**
+     * Event names for the time spent in each stage of {@link
+     * com.android.tv.data.epg.EpgIngestPipeline}.
+     */
+    public static final String EPG_INGEST_READ = "EpgIngest.read";
+
+    public static final String EPG_INGEST_DIFF = "EpgIngest.diff";
+    public static final String EPG_INGEST_WRITE = "EpgIngest.write";
 
     private EventNames() {}
 }
@@ -72,6 +72,14 @@ public interface PerformanceMonitor {
      */
     void stopTimer(TimerEvent event, @EventName @CompileTimeConstant String eventName);
 
+    /**
+     * Records a count for a specific event, e.g. the number of rows which a task read.
+     *
+     * @param eventName for which the count is recorded. This must be constant with no PII.
+     * @param count to record
+     */
+    void recordCount(@EventName @CompileTimeConstant String eventName, long count);
+
     /**
      * Starts recording jank for a specific scenario or event.
      *
@@ -45,6 +45,9 @@ public final class StubPerformanceMonitor implements PerformanceMonitor {
     @Override
     public void stopTimer(TimerEvent event, String name) {}
 
+    @Override
+    public void recordCount(String eventName, long count) {}
+
     @Override
     public void startJankRecorder(String eventName) {}
 
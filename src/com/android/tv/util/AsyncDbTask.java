@@ -367,12 +367,40 @@ public abstract class AsyncDbTask<Params, Progress, Result>
         }
     }
 
+    /**
+     * Returns the lane to run this task in, if the executor is a {@link PriorityDbExecutor}.
+     * Defaults to {@link PriorityDbExecutor#PRIORITY_BACKGROUND}.
+     */
+    @PriorityDbExecutor.Priority
+    protected int getDbPriority() {
+        return PriorityDbExecutor.PRIORITY_BACKGROUND;
+    }
+
+    /**
+     * Returns the key to coalesce this task with the queued ones, or {@code null} not to coalesce.
+     *
+     * <p>If the executor is a {@link PriorityDbExecutor} and a task with an equal key is still
+     * waiting in the same lane, that task is canceled and only this one runs. Override it only if
+     * the owner doesn't need the result of the superseded task.
+     */
+    @Nullable
+    protected Object getCoalescingKey() {
+        return null;
+    }
+
     /** Execute the task on {@link TvSingletons#getDbExecutor()}. */
     @SafeVarargs
     @MainThread
     public final void executeOnDbThread(Params... params) {
         mCalledExecuteOnDbThread = true;
-        executeOnExecutor(mExecutor, params);
+        if (mExecutor instanceof PriorityDbExecutor) {
+            executeOnExecutor(
+                    ((PriorityDbExecutor) mExecutor)
+                            .forPriority(getDbPriority(), getCoalescingKey(), () -> cancel(true)),
+                    params);
+        } else {
+            executeOnExecutor(mExecutor, params);
+        }
     }
 
     /**
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util;
+
+import static java.lang.annotation.RetentionPolicy.SOURCE;
+
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.Log;
+import com.android.tv.perf.EventNames;
+import com.android.tv.perf.PerformanceMonitor;
+import com.android.tv.perf.TimerEvent;
+import com.google.common.base.Supplier;
+import java.lang.annotation.Retention;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link Executor} for DB access which runs tasks in separate lanes by their priority.
+ *
+ * <p>Each lane has its own thread and runs its tasks in the order they are executed, so a long
+ * bulk query doesn't delay an interactive one. Tasks executed with {@link #execute(Runnable)} run
+ * in the {@link #PRIORITY_BACKGROUND} lane, keeping the single thread behavior for them.
+ *
+ * <p>A task may have a coalescing key. When it is executed, a queued task of the same lane with an
+ * equal key which hasn't started yet is dropped and its {@code onSuperseded} callback is called.
+ */
+public class PriorityDbExecutor implements Executor {
+    private static final String TAG = "PriorityDbExecutor";
+    private static final boolean DEBUG = false;
+
+    @Retention(SOURCE)
+    @IntDef({PRIORITY_INTERACTIVE, PRIORITY_BACKGROUND, PRIORITY_BULK})
+    public @interface Priority {}
+
+    /** For short queries whose results are waited by the user, e.g. the current programs. */
+    public static final int PRIORITY_INTERACTIVE = 0;
+    /** The default priority. */
+    public static final int PRIORITY_BACKGROUND = 1;
+    /** For long queries and sync jobs, e.g. the program guide prefetch. */
+    public static final int PRIORITY_BULK = 2;
+
+    private static final int LANE_COUNT = 3;
+
+    private final Supplier<PerformanceMonitor> mPerformanceMonitorSupplier;
+    private final Lane[] mLanes = new Lane[LANE_COUNT];
+
+    public PriorityDbExecutor(
+            ThreadFactory threadFactory, Supplier<PerformanceMonitor> performanceMonitorSupplier) {
+        mPerformanceMonitorSupplier = performanceMonitorSupplier;
+        for (int i = 0; i < LANE_COUNT; ++i) {
+            mLanes[i] = new Lane(i, Executors.newSingleThreadExecutor(threadFactory));
+        }
+    }
+
+    @Override
+    public void execute(@NonNull Runnable command) {
+        execute(PRIORITY_BACKGROUND, null, null, command);
+    }
+
+    /**
+     * Executes {@code command} in the lane of {@code priority}.
+     *
+     * @param coalescingKey if not {@code null}, the queued task with an equal key is dropped.
+     * @param onSuperseded called on the current thread if this task is dropped later by another
+     *     task with an equal key.
+     */
+    public void execute(
+            @Priority int priority,
+            @Nullable Object coalescingKey,
+            @Nullable Runnable onSuperseded,
+            @NonNull Runnable command) {
+        mLanes[priority].enqueue(new Entry(command, coalescingKey, onSuperseded, startTimer()));
+    }
+
+    /** Returns an {@link Executor} which executes the tasks in the lane of {@code priority}. */
+    public Executor forPriority(
+            @Priority int priority,
+            @Nullable Object coalescingKey,
+            @Nullable Runnable onSuperseded) {
+        return command -> execute(priority, coalescingKey, onSuperseded, command);
+    }
+
+    /** Returns the number of tasks which are waiting in the lane of {@code priority}. */
+    @VisibleForTesting
+    int getQueuedTaskCount(@Priority int priority) {
+        return mLanes[priority].getQueuedTaskCount();
+    }
+
+    /** Returns the number of tasks dropped by coalescing in the lane of {@code priority}. */
+    @VisibleForTesting
+    int getCoalescedTaskCount(@Priority int priority) {
+        return mLanes[priority].getCoalescedTaskCount();
+    }
+
+    /** Interrupts the running tasks and stops the threads of all the lanes. */
+    @VisibleForTesting
+    void shutdownNow() {
+        for (Lane lane : mLanes) {
+            lane.mExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Blocks until the threads of all the lanes have stopped after {@link #shutdownNow}, or the
+     * timeout occurs.
+     *
+     * @return {@code true} if all the threads have stopped.
+     */
+    @VisibleForTesting
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadlineNs = System.nanoTime() + unit.toNanos(timeout);
+        for (Lane lane : mLanes) {
+            long remainingNs = deadlineNs - System.nanoTime();
+            if (!lane.mExecutor.awaitTermination(remainingNs, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private TimerEvent startTimer() {
+        PerformanceMonitor performanceMonitor = mPerformanceMonitorSupplier.get();
+        return performanceMonitor == null ? null : performanceMonitor.startTimer();
+    }
+
+    private void stopTimer(@Priority int priority, @Nullable TimerEvent timerEvent) {
+        PerformanceMonitor performanceMonitor = mPerformanceMonitorSupplier.get();
+        if (performanceMonitor == null || timerEvent == null) {
+            return;
+        }
+        // Event names should be compile time constants.
+        switch (priority) {
+            case PRIORITY_INTERACTIVE:
+                performanceMonitor.stopTimer(
+                        timerEvent, EventNames.DB_EXECUTOR_QUEUE_WAIT_INTERACTIVE);
+                break;
+            case PRIORITY_BULK:
+                performanceMonitor.stopTimer(timerEvent, EventNames.DB_EXECUTOR_QUEUE_WAIT_BULK);
+                break;
+            case PRIORITY_BACKGROUND:
+            default:
+                performanceMonitor.stopTimer(
+                        timerEvent, EventNames.DB_EXECUTOR_QUEUE_WAIT_BACKGROUND);
+                break;
+        }
+    }
+
+    private static final class Entry {
+        private final Runnable mCommand;
+        @Nullable private final Object mCoalescingKey;
+        @Nullable private final Runnable mOnSuperseded;
+        @Nullable private final TimerEvent mTimerEvent;
+        private final long mEnqueuedTimeMs = SystemClock.elapsedRealtime();
+
+        private Entry(
+                Runnable command,
+                @Nullable Object coalescingKey,
+                @Nullable Runnable onSuperseded,
+                @Nullable TimerEvent timerEvent) {
+            mCommand = command;
+            mCoalescingKey = coalescingKey;
+            mOnSuperseded = onSuperseded;
+            mTimerEvent = timerEvent;
+        }
+    }
+
+    private final class Lane implements Runnable {
+        @Priority private final int mPriority;
+        private final ExecutorService mExecutor;
+        // Guarded by itself.
+        private final ArrayDeque<Entry> mQueue = new ArrayDeque<>();
+        private int mCoalescedTaskCount;
+
+        private Lane(@Priority int priority, ExecutorService executor) {
+            mPriority = priority;
+            mExecutor = executor;
+        }
+
+        private void enqueue(Entry entry) {
+            Entry superseded = null;
+            synchronized (mQueue) {
+                if (entry.mCoalescingKey != null) {
+                    for (Iterator<Entry> i = mQueue.iterator(); i.hasNext(); ) {
+                        Entry queued = i.next();
+                        if (Objects.equals(queued.mCoalescingKey, entry.mCoalescingKey)) {
+                            i.remove();
+                            superseded = queued;
+                            ++mCoalescedTaskCount;
+                            break;
+                        }
+                    }
+                }
+                mQueue.add(entry);
+            }
+            if (superseded != null) {
+                if (DEBUG) Log.d(TAG, "Superseded a task: " + superseded.mCoalescingKey);
+                if (superseded.mOnSuperseded != null) {
+                    superseded.mOnSuperseded.run();
+                }
+            } else {
+                // Every entry has its own run(). A superseded entry hands its run() over to the
+                // newer one, so it's not submitted again.
+                mExecutor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            Entry entry;
+            synchronized (mQueue) {
+                entry = mQueue.poll();
+            }
+            if (entry == null) {
+                return;
+            }
+            stopTimer(mPriority, entry.mTimerEvent);
+            if (DEBUG) {
+                Log.d(
+                        TAG,
+                        "Lane "
+                                + mPriority
+                                + " waited "
+                                + (SystemClock.elapsedRealtime() - entry.mEnqueuedTimeMs)
+                                + "ms for a task");
+            }
+            entry.mCommand.run();
+        }
+
+        private int getQueuedTaskCount() {
+            synchronized (mQueue) {
+                return mQueue.size();
+            }
+        }
+
+        private int getCoalescedTaskCount() {
+            synchronized (mQueue) {
+                return mCoalescedTaskCount;
+            }
+        }
+    }
+}
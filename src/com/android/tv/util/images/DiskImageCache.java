@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util.images;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import com.android.tv.util.images.BitmapUtils.ScaledBitmapInfo;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded disk cache of decoded and downscaled bitmaps, which is the second tier below {@link
+ * ImageCache}.
+ *
+ * <p>An entry is keyed by the image URI and the requested size, and holds the bitmap as it was
+ * decoded for that size, so a hit doesn't need the network nor a large decode. The least recently
+ * used entries are evicted when the total file size exceeds the byte budget.
+ */
+public class DiskImageCache {
+    private static final String TAG = "DiskImageCache";
+    private static final boolean DEBUG = false;
+
+    private static final String DIRECTORY_NAME = "image_cache";
+    private static final long DEFAULT_MAX_BYTES = 20 * 1024 * 1024;
+    // Increase it when the file format is changed. The files of other versions are ignored.
+    private static final int FILE_VERSION = 1;
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int JPEG_QUALITY = 90;
+
+    private static DiskImageCache sInstance;
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+    // The entries in the order of access. Guarded by this.
+    private final LinkedHashMap<String, Long> mEntrySizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long mTotalBytes;
+    private boolean mInitialized;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /** Returns the shared instance in the cache directory of the application. */
+    public static synchronized DiskImageCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance =
+                    new DiskImageCache(
+                            new File(context.getApplicationContext().getCacheDir(), DIRECTORY_NAME),
+                            DEFAULT_MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    DiskImageCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the bitmap stored for {@code uriString} and the requested size, or {@code null} if
+     * there isn't.
+     */
+    @WorkerThread
+    @Nullable
+    public ScaledBitmapInfo get(String uriString, int reqWidth, int reqHeight) {
+        String fileName = getFileName(uriString, reqWidth, reqHeight);
+        synchronized (this) {
+            initializeIfNeeded();
+            if (!mEntrySizes.containsKey(fileName)) {
+                ++mMissCount;
+                logStats("miss", uriString);
+                return null;
+            }
+            // Touch the entry to make it the most recently used one.
+            mEntrySizes.get(fileName);
+        }
+        File file = new File(mDirectory, fileName);
+        ScaledBitmapInfo bitmapInfo = readFile(file, uriString);
+        synchronized (this) {
+            if (bitmapInfo == null) {
+                removeEntry(fileName);
+                ++mMissCount;
+                logStats("miss", uriString);
+            } else {
+                ++mHitCount;
+                logStats("hit", uriString);
+            }
+        }
+        if (bitmapInfo != null) {
+            // The modified time keeps the access order over restarts.
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return bitmapInfo;
+    }
+
+    /** Stores {@code bitmapInfo} which is decoded for the requested size. */
+    @WorkerThread
+    public void put(ScaledBitmapInfo bitmapInfo, int reqWidth, int reqHeight) {
+        String fileName = getFileName(bitmapInfo.id, reqWidth, reqHeight);
+        synchronized (this) {
+            initializeIfNeeded();
+            if (mEntrySizes.containsKey(fileName)) {
+                return;
+            }
+        }
+        File file = new File(mDirectory, fileName);
+        File tempFile =
+                new File(
+                        mDirectory,
+                        fileName + TEMP_FILE_SUFFIX + Thread.currentThread().getId());
+        if (!writeFile(tempFile, bitmapInfo) || !tempFile.renameTo(file)) {
+            tempFile.delete();
+            return;
+        }
+        synchronized (this) {
+            Long oldSize = mEntrySizes.put(fileName, file.length());
+            if (oldSize != null) {
+                mTotalBytes -= oldSize;
+            }
+            mTotalBytes += file.length();
+            trimToSize();
+        }
+    }
+
+    /** Returns the number of {@link #get} calls which found the bitmap. */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /** Returns the number of {@link #get} calls which didn't find the bitmap. */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    /** Returns the number of the entries evicted to keep the byte budget. */
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /** Returns the total size of the cached files in bytes. */
+    public synchronized long getSize() {
+        initializeIfNeeded();
+        return mTotalBytes;
+    }
+
+    private void initializeIfNeeded() {
+        if (mInitialized) {
+            return;
+        }
+        mInitialized = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Failed to create " + mDirectory);
+            return;
+        }
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        // Restores the access order from the last modified time.
+        Arrays.sort(files, (lhs, rhs) -> Long.compare(lhs.lastModified(), rhs.lastModified()));
+        for (File file : files) {
+            if (file.getName().contains(TEMP_FILE_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            mEntrySizes.put(file.getName(), file.length());
+            mTotalBytes += file.length();
+        }
+        trimToSize();
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> i = mEntrySizes.entrySet().iterator();
+        while (mTotalBytes > mMaxBytes && i.hasNext()) {
+            Map.Entry<String, Long> eldest = i.next();
+            i.remove();
+            mTotalBytes -= eldest.getValue();
+            new File(mDirectory, eldest.getKey()).delete();
+            ++mEvictionCount;
+        }
+    }
+
+    private void removeEntry(String fileName) {
+        Long size = mEntrySizes.remove(fileName);
+        if (size != null) {
+            mTotalBytes -= size;
+        }
+        new File(mDirectory, fileName).delete();
+    }
+
+    private void logStats(String result, String uriString) {
+        if (DEBUG) {
+            Log.d(
+                    TAG,
+                    "Disk cache "
+                            + result
+                            + " for "
+                            + uriString
+                            + " ("
+                            + mHitCount
+                            + "h:"
+                            + mMissCount
+                            + "m, "
+                            + mTotalBytes / 1024
+                            + " / "
+                            + mMaxBytes / 1024
+                            + " Kbytes)");
+        }
+    }
+
+    @Nullable
+    private static ScaledBitmapInfo readFile(File file, String uriString) {
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_VERSION) {
+                return null;
+            }
+            int inSampleSize = in.readInt();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            Bitmap bitmap = BitmapFactory.decodeStream(in, null, options);
+            return bitmap == null ? null : new ScaledBitmapInfo(uriString, bitmap, inSampleSize);
+        } catch (IOException e) {
+            if (DEBUG) Log.w(TAG, "Failed to read " + file, e);
+            return null;
+        }
+    }
+
+    private static boolean writeFile(File file, ScaledBitmapInfo bitmapInfo) {
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(bitmapInfo.inSampleSize);
+            // The bitmaps are decoded as RGB_565 unless they have alpha.
+            return bitmapInfo.bitmap.hasAlpha()
+                    ? bitmapInfo.bitmap.compress(Bitmap.CompressFormat.PNG, 0, out)
+                    : bitmapInfo.bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write " + file, e);
+            return false;
+        }
+    }
+
+    private static String getFileName(String uriString, int reqWidth, int reqHeight) {
+        String key = uriString + "|" + reqWidth + "x" + reqHeight;
+        try {
+            byte[] digest =
+                    MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always available on Android.
+            return Integer.toHexString(key.hashCode()) + "_" + key.length();
+        }
+    }
+}
@@ -26,6 +26,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.support.annotation.Nullable;
 import android.support.annotation.UiThread;
+import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 import android.util.ArraySet;
 import android.util.Log;
@@ -34,15 +35,19 @@ import com.android.tv.common.concurrent.NamedThreadFactory;
 import com.android.tv.util.images.BitmapUtils.ScaledBitmapInfo;
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.Executor;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class wraps up completing some arbitrary long running work when loading a bitmap. It handles
@@ -62,7 +67,14 @@ public final class ImageLoader {
 
     private static final ThreadFactory sThreadFactory = new NamedThreadFactory("ImageLoader");
 
-    private static final BlockingQueue<Runnable> sPoolWorkQueue = new LinkedBlockingQueue<>(128);
+    private static final LinkedBlockingDeque<Runnable> sPoolWorkQueue = new LifoBlockingDeque(128);
+
+    // The number of requests which are served by a pending task of the same key.
+    private static final AtomicInteger sDedupHitCount = new AtomicInteger();
+    // The number of queued tasks which are dropped because the queue is full.
+    private static final AtomicInteger sDroppedTaskCount = new AtomicInteger();
+    // The number of queued tasks which are cancelled because no one waits for them.
+    private static final AtomicInteger sCancelledTaskCount = new AtomicInteger();
 
     /**
      * An private {@link Executor} that can be used to execute tasks in parallel.
@@ -72,8 +84,12 @@ public final class ImageLoader {
      * and just leaves the image blank. However other tasks will fail and crash the application.
      *
      * <p>Using a separate thread pool prevents image loading from causing other tasks to fail.
+     *
+     * <p>The most recently requested image is loaded first, because it's most likely on the screen
+     * while the older ones might have been scrolled out. When the queue is full, the oldest task is
+     * dropped instead of the new one.
      */
-    private static final Executor IMAGE_THREAD_POOL_EXECUTOR;
+    private static final ThreadPoolExecutor IMAGE_THREAD_POOL_EXECUTOR;
 
     static {
         ThreadPoolExecutor threadPoolExecutor =
@@ -83,7 +99,8 @@ public final class ImageLoader {
                         KEEP_ALIVE_SECONDS,
                         TimeUnit.SECONDS,
                         sPoolWorkQueue,
-                        sThreadFactory);
+                        sThreadFactory,
+                        new DiscardOldestPolicy());
         threadPoolExecutor.allowCoreThreadTimeOut(true);
         IMAGE_THREAD_POOL_EXECUTOR = threadPoolExecutor;
     }
@@ -124,6 +141,10 @@ public final class ImageLoader {
 
         /** Called when bitmap is loaded if the weak reference is still valid. */
         public abstract void onBitmapLoaded(T referent, @Nullable Bitmap bitmap);
+
+        private boolean isFor(Object referent) {
+            return mWeakReference.get() == referent;
+        }
     }
 
     private static final Map<String, LoadBitmapTask> sPendingListMap = new HashMap<>();
@@ -229,9 +250,58 @@ public final class ImageLoader {
         return doLoadBitmap(callback, IMAGE_THREAD_POOL_EXECUTOR, loadBitmapTask);
     }
 
+    /**
+     * Cancels the pending loads for {@code referent}, e.g. a view which is recycled.
+     *
+     * <p>The callbacks of {@code referent} won't be called. A load which no one waits for any more
+     * is removed from the queue unless it has started.
+     */
+    @UiThread
+    public static void cancelLoads(Object referent) {
+        boolean cancelled = false;
+        for (Iterator<LoadBitmapTask> i = sPendingListMap.values().iterator(); i.hasNext(); ) {
+            LoadBitmapTask task = i.next();
+            if (task.mCallbacks.isEmpty()) {
+                // Prefetches are not bound to any view.
+                continue;
+            }
+            for (Iterator<ImageLoaderCallback> j = task.mCallbacks.iterator(); j.hasNext(); ) {
+                if (j.next().isFor(referent)) {
+                    j.remove();
+                }
+            }
+            if (task.mCallbacks.isEmpty() && task.cancelIfNotStarted()) {
+                if (DEBUG) Log.d(TAG, "Cancelled " + task);
+                i.remove();
+                sCancelledTaskCount.incrementAndGet();
+                cancelled = true;
+            }
+        }
+        if (cancelled) {
+            // Frees the slots of the cancelled tasks in the queue.
+            IMAGE_THREAD_POOL_EXECUTOR.purge();
+        }
+    }
+
+    /** Returns the number of requests which are served by a pending load of the same image. */
+    public static int getDedupHitCount() {
+        return sDedupHitCount.get();
+    }
+
+    /** Returns the number of queued loads which are dropped because the queue is full. */
+    public static int getDroppedTaskCount() {
+        return sDroppedTaskCount.get();
+    }
+
+    /** Returns the number of queued loads which are cancelled by {@link #cancelLoads}. */
+    public static int getCancelledTaskCount() {
+        return sCancelledTaskCount.get();
+    }
+
     /** @return {@code true} if the load is complete and the callback is executed. */
     @UiThread
-    private static boolean doLoadBitmap(
+    @VisibleForTesting
+    static boolean doLoadBitmap(
             ImageLoaderCallback callback, Executor executor, LoadBitmapTask loadBitmapTask) {
         ScaledBitmapInfo bitmapInfo = loadBitmapTask.getFromCache();
         boolean needToReload = loadBitmapTask.isReloadNeeded();
@@ -242,8 +312,14 @@ public final class ImageLoader {
             return true;
         }
         LoadBitmapTask existingTask = sPendingListMap.get(loadBitmapTask.getKey());
-        if (existingTask != null && !loadBitmapTask.isReloadNeeded(existingTask)) {
-            // The image loading is already scheduled and is large enough.
+        if (existingTask != null
+                && (!loadBitmapTask.isReloadNeeded(existingTask)
+                        || existingTask.enlargeIfNotStarted(
+                                loadBitmapTask.mMaxWidth, loadBitmapTask.mMaxHeight))) {
+            // The image loading is already scheduled and is large enough, or it is enlarged to
+            // serve this request too. Only one bitmap is decoded for all the requests.
+            if (DEBUG) Log.d(TAG, "Joined the pending task " + existingTask);
+            sDedupHitCount.incrementAndGet();
             if (callback != null) {
                 existingTask.mCallbacks.add(callback);
             }
@@ -269,11 +345,15 @@ public final class ImageLoader {
      */
     public abstract static class LoadBitmapTask extends AsyncTask<Void, Void, ScaledBitmapInfo> {
         protected final Context mAppContext;
-        protected final int mMaxWidth;
-        protected final int mMaxHeight;
+        // The size can be enlarged by a later request until the task starts. Written while holding
+        // this, so that it isn't changed after the task has started, and read without it.
+        protected volatile int mMaxWidth;
+        protected volatile int mMaxHeight;
         private final Set<ImageLoaderCallback> mCallbacks = new ArraySet<>();
         private final ImageCache mImageCache;
         private final String mKey;
+        // Guarded by this.
+        private boolean mStarted;
 
         /**
          * Returns true if a reload is needed compared to current results in the cache or false if
@@ -308,6 +388,38 @@ public final class ImageLoader {
                     || (other.mMaxWidth != Integer.MAX_VALUE && mMaxWidth >= other.mMaxWidth * 2);
         }
 
+        /**
+         * Enlarges the size to load to serve a request of {@code maxWidth}x{@code maxHeight} too.
+         *
+         * @return {@code false} if the task has already started and can't be changed.
+         */
+        private synchronized boolean enlargeIfNotStarted(int maxWidth, int maxHeight) {
+            if (mStarted) {
+                return false;
+            }
+            mMaxWidth = Math.max(mMaxWidth, maxWidth);
+            mMaxHeight = Math.max(mMaxHeight, maxHeight);
+            return true;
+        }
+
+        /** @return {@code true} if the task is cancelled before it starts. */
+        private synchronized boolean cancelIfNotStarted() {
+            if (mStarted) {
+                return false;
+            }
+            cancel(false);
+            return true;
+        }
+
+        private synchronized boolean markStarted() {
+            mStarted = true;
+            return !isCancelled();
+        }
+
+        private synchronized boolean isStarted() {
+            return mStarted;
+        }
+
         @Nullable
         public final ScaledBitmapInfo getFromCache() {
             return mImageCache.get(mKey);
@@ -338,6 +450,9 @@ public final class ImageLoader {
         @Override
         @Nullable
         public final ScaledBitmapInfo doInBackground(Void... params) {
+            if (!markStarted()) {
+                return null;
+            }
             ScaledBitmapInfo bitmapInfo = getFromCache();
             if (bitmapInfo != null && !isReloadNeeded()) {
                 return bitmapInfo;
@@ -351,12 +466,30 @@ public final class ImageLoader {
 
         @Override
         public final void onPostExecute(ScaledBitmapInfo scaledBitmapInfo) {
+            removeFromPendingList();
+            if (!isStarted()) {
+                // Dropped from the full queue. The callbacks are not called as it was when the
+                // task was rejected.
+                if (DEBUG) Log.d(ImageLoader.TAG, "Dropped " + this);
+                return;
+            }
             if (DEBUG) Log.d(ImageLoader.TAG, "Bitmap is loaded " + mKey);
 
             for (ImageLoader.ImageLoaderCallback callback : mCallbacks) {
                 callback.onBitmapLoaded(scaledBitmapInfo == null ? null : scaledBitmapInfo.bitmap);
             }
-            ImageLoader.sPendingListMap.remove(mKey);
+        }
+
+        @Override
+        protected final void onCancelled(ScaledBitmapInfo scaledBitmapInfo) {
+            removeFromPendingList();
+        }
+
+        private void removeFromPendingList() {
+            // A larger load of the same key might have replaced this one.
+            if (ImageLoader.sPendingListMap.get(mKey) == this) {
+                ImageLoader.sPendingListMap.remove(mKey);
+            }
         }
 
         public final String getKey() {
@@ -389,8 +522,34 @@ public final class ImageLoader {
         @Override
         @Nullable
         public final ScaledBitmapInfo doGetBitmapInBackground() {
-            return BitmapUtils.decodeSampledBitmapFromUriString(
-                    mAppContext, getKey(), mMaxWidth, mMaxHeight);
+            // Only the remote images are stored on disk. The local ones are cheap to open and can
+            // be changed without changing their URIs.
+            DiskImageCache diskImageCache =
+                    isDiskCacheable(getKey(), mMaxWidth, mMaxHeight)
+                            ? DiskImageCache.getInstance(mAppContext)
+                            : null;
+            if (diskImageCache != null) {
+                ScaledBitmapInfo bitmapInfo =
+                        diskImageCache.get(getKey(), mMaxWidth, mMaxHeight);
+                if (bitmapInfo != null) {
+                    return bitmapInfo;
+                }
+            }
+            ScaledBitmapInfo bitmapInfo =
+                    BitmapUtils.decodeSampledBitmapFromUriString(
+                            mAppContext, getKey(), mMaxWidth, mMaxHeight);
+            if (bitmapInfo != null && diskImageCache != null) {
+                diskImageCache.put(bitmapInfo, mMaxWidth, mMaxHeight);
+            }
+            return bitmapInfo;
+        }
+
+        private static boolean isDiskCacheable(String uriString, int maxWidth, int maxHeight) {
+            // Full sized images are not stored not to waste the budget on a few large files.
+            return maxWidth != Integer.MAX_VALUE
+                    && maxHeight != Integer.MAX_VALUE
+                    && uriString != null
+                    && (uriString.startsWith("http://") || uriString.startsWith("https://"));
         }
     }
 
@@ -428,6 +587,44 @@ public final class ImageLoader {
         }
     }
 
+    /** A {@link LinkedBlockingDeque} which takes the most recently offered element first. */
+    @VisibleForTesting
+    static final class LifoBlockingDeque extends LinkedBlockingDeque<Runnable> {
+        LifoBlockingDeque(int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        public boolean offer(Runnable runnable) {
+            // ThreadPoolExecutor offers tasks with offer() and takes them from the head.
+            return offerFirst(runnable);
+        }
+    }
+
+    /** Drops the oldest task in the queue, which is the last one of {@link LifoBlockingDeque}. */
+    @VisibleForTesting
+    static final class DiscardOldestPolicy implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+            BlockingDeque<Runnable> queue = (BlockingDeque<Runnable>) executor.getQueue();
+            Runnable oldest = queue.pollLast();
+            if (oldest instanceof Future) {
+                // Its LoadBitmapTask gets onPostExecute without being started.
+                ((Future<?>) oldest).cancel(false);
+            }
+            if (oldest != null) {
+                sDroppedTaskCount.incrementAndGet();
+                if (DEBUG) Log.d(TAG, "Dropped the oldest task. Total: " + sDroppedTaskCount);
+            }
+            if (!queue.offer(runnable)) {
+                throw new RejectedExecutionException("Image loading queue is full");
+            }
+        }
+    }
+
     private static synchronized Handler getMainHandler() {
         if (sMainHandler == null) {
             sMainHandler = new Handler(Looper.getMainLooper());
@@ -93,6 +93,11 @@ public class FakeClock implements Clock {
         return mCurrentTimeMillis - mBootTimeMillis;
     }
 
+    @Override
+    public long elapsedRealtimeNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(elapsedRealtime());
+    }
+
     @Override
     public long uptimeMillis() {
         return elapsedRealtime();
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.Log;
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.data.api.Channel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link CompactProgramList}. */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class CompactProgramListTest {
+    private static final String TAG = "CompactProgramListTest";
+
+    private static final long CHANNEL_ID = 7;
+    private static final long START_TIME_MS = TimeUnit.DAYS.toMillis(17000);
+    private static final long PROGRAM_DURATION_MS = TimeUnit.MINUTES.toMillis(30);
+    // A large lineup: 500 channels with a two-day guide of half hour programs.
+    private static final int BENCHMARK_CHANNEL_COUNT = 500;
+    private static final int BENCHMARK_PROGRAMS_PER_CHANNEL = 96;
+    private static final String[] TITLES = {"News", "Movie", "Sports", "Kids", "Documentary"};
+    private static final String[] GENRES = {"NEWS", "MOVIES", "SPORTS", "FAMILY_KIDS", "EDUCATION"};
+
+    @Test
+    public void testGet_materializesPartialProgram() {
+        CompactProgramList list = new CompactProgramList(CHANNEL_ID);
+        List<Program> programs = createPartialPrograms(CHANNEL_ID, 10);
+
+        addAllPartial(list, programs, new CompactProgramList.Interner());
+
+        assertThat(list).containsExactlyElementsIn(programs).inOrder();
+        assertThat(list.getId(3)).isEqualTo(programs.get(3).getId());
+    }
+
+    @Test
+    public void testBinarySearchStartTime_matchesCollectionsBinarySearch() {
+        CompactProgramList list = new CompactProgramList(CHANNEL_ID);
+        List<Program> programs = createPartialPrograms(CHANNEL_ID, 10);
+        addAllPartial(list, programs, new CompactProgramList.Interner());
+
+        for (long time = START_TIME_MS - PROGRAM_DURATION_MS;
+                time < START_TIME_MS + PROGRAM_DURATION_MS * 11;
+                time += PROGRAM_DURATION_MS / 2) {
+            Program key = new Program.Builder().setStartTimeUtcMillis(time).build();
+            assertThat(list.binarySearchStartTime(time))
+                    .isEqualTo(Collections.binarySearch(programs, key));
+        }
+    }
+
+    @Test
+    public void testListIterator_replaceWithCompleteProgram() {
+        CompactProgramList list = new CompactProgramList(CHANNEL_ID);
+        List<Program> programs = createPartialPrograms(CHANNEL_ID, 3);
+        addAllPartial(list, programs, new CompactProgramList.Interner());
+        Program complete =
+                new Program.Builder(programs.get(1)).setDescription("description").build();
+        Program dummy =
+                new Program.Builder()
+                        .setChannelId(Channel.INVALID_ID)
+                        .setStartTimeUtcMillis(programs.get(2).getEndTimeUtcMillis())
+                        .setEndTimeUtcMillis(programs.get(2).getEndTimeUtcMillis() + 1)
+                        .build();
+
+        ListIterator<Program> i = list.listIterator();
+        i.next();
+        i.remove();
+        i.next();
+        i.set(complete);
+        i.next();
+        i.add(dummy);
+
+        assertThat(list).containsExactly(complete, programs.get(2), dummy).inOrder();
+        assertThat(list.get(0)).isSameAs(complete);
+        assertThat(list.getEndTimeUtcMillis(2)).isEqualTo(dummy.getEndTimeUtcMillis());
+    }
+
+    @Test
+    public void testAddPartial_internsTitles() {
+        CompactProgramList.Interner interner = new CompactProgramList.Interner();
+        CompactProgramList first = new CompactProgramList(1);
+        CompactProgramList second = new CompactProgramList(2);
+
+        addAllPartial(first, createPartialPrograms(1, 1), interner);
+        addAllPartial(second, createPartialPrograms(2, 1), interner);
+
+        assertThat(first.get(0).getTitle()).isSameAs(second.get(0).getTitle());
+        assertThat(first.get(0).getCanonicalGenreIds())
+                .isSameAs(second.get(0).getCanonicalGenreIds());
+    }
+
+    @Test
+    public void testGet_doesNotRetainPartialProgram() {
+        CompactProgramList list = new CompactProgramList(CHANNEL_ID);
+        List<Program> programs = createPartialPrograms(CHANNEL_ID, 3);
+        addAllPartial(list, programs, new CompactProgramList.Interner());
+
+        Program program = list.get(1);
+
+        assertThat(list.get(1)).isEqualTo(program);
+        assertThat(list.get(1)).isNotSameAs(program);
+        assertThat(list.getRetainedProgramCount()).isEqualTo(0);
+        assertThat(list.getStartTimeUtcMillis(1)).isEqualTo(program.getStartTimeUtcMillis());
+        assertThat(list.binarySearchStartTime(program.getStartTimeUtcMillis())).isEqualTo(1);
+    }
+
+    @Test
+    public void testMemoryUsage_partialPrograms() {
+        List<List<Program>> lineup = createLineup();
+        long baseline = getUsedMemory();
+        List<CompactProgramList> compactLists = new ArrayList<>();
+        CompactProgramList.Interner interner = new CompactProgramList.Interner();
+        for (int channel = 0; channel < BENCHMARK_CHANNEL_COUNT; ++channel) {
+            CompactProgramList list = new CompactProgramList(channel);
+            addAllPartial(list, lineup.get(channel), interner);
+            compactLists.add(list);
+        }
+        interner = null;
+        long compactBytes = getUsedMemory() - baseline;
+        // Measures the objects by releasing them, because they are created before the baseline.
+        long beforeRelease = getUsedMemory();
+        lineup = null;
+        long objectBytes = beforeRelease - getUsedMemory();
+        Log.i(
+                TAG,
+                BENCHMARK_CHANNEL_COUNT * BENCHMARK_PROGRAMS_PER_CHANNEL
+                        + " partial programs: ArrayList<Program> "
+                        + objectBytes / 1024
+                        + "KB, CompactProgramList "
+                        + compactBytes / 1024
+                        + "KB");
+
+        assertThat(compactLists).hasSize(BENCHMARK_CHANNEL_COUNT);
+        for (CompactProgramList list : compactLists) {
+            // A full scan, like a guide redraw, keeps the programs in the columns.
+            for (Program program : list) {
+                assertThat(program).isNotNull();
+            }
+            assertThat(list).hasSize(BENCHMARK_PROGRAMS_PER_CHANNEL);
+            assertThat(list.hasColumns()).isTrue();
+            assertThat(list.getRetainedProgramCount()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testMemoryUsage_completePrograms() {
+        // Without partial programs, the list costs no more than the ArrayList it replaced.
+        List<List<Program>> lineup = createLineup();
+        long baseline = getUsedMemory();
+        List<List<Program>> arrayLists = new ArrayList<>();
+        for (List<Program> programs : lineup) {
+            arrayLists.add(new ArrayList<>(programs));
+        }
+        long arrayListBytes = getUsedMemory() - baseline;
+        arrayLists = null;
+        baseline = getUsedMemory();
+        List<CompactProgramList> compactLists = new ArrayList<>();
+        for (int channel = 0; channel < BENCHMARK_CHANNEL_COUNT; ++channel) {
+            CompactProgramList list = new CompactProgramList(channel);
+            list.addAll(lineup.get(channel));
+            compactLists.add(list);
+        }
+        long compactBytes = getUsedMemory() - baseline;
+        Log.i(
+                TAG,
+                BENCHMARK_CHANNEL_COUNT * BENCHMARK_PROGRAMS_PER_CHANNEL
+                        + " complete programs: ArrayList<Program> "
+                        + arrayListBytes / 1024
+                        + "KB, CompactProgramList "
+                        + compactBytes / 1024
+                        + "KB");
+
+        assertThat(compactLists).hasSize(BENCHMARK_CHANNEL_COUNT);
+        for (CompactProgramList list : compactLists) {
+            // Both keep a reference per program, and no columns are allocated.
+            assertThat(list.hasColumns()).isFalse();
+            assertThat(list.getRetainedProgramCount()).isEqualTo(BENCHMARK_PROGRAMS_PER_CHANNEL);
+        }
+    }
+
+    private static List<List<Program>> createLineup() {
+        List<List<Program>> lineup = new ArrayList<>();
+        for (int channel = 0; channel < BENCHMARK_CHANNEL_COUNT; ++channel) {
+            lineup.add(createPartialPrograms(channel, BENCHMARK_PROGRAMS_PER_CHANNEL));
+        }
+        return lineup;
+    }
+
+    private static void addAllPartial(
+            CompactProgramList list, List<Program> programs, CompactProgramList.Interner interner) {
+        for (Program program : programs) {
+            list.addPartial(program, interner);
+        }
+    }
+
+    /** Creates programs which have only the columns of {@link Program#PARTIAL_PROJECTION}. */
+    private static List<Program> createPartialPrograms(long channelId, int count) {
+        List<Program> programs = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            long startTimeMs = START_TIME_MS + PROGRAM_DURATION_MS * i;
+            programs.add(
+                    new Program.Builder()
+                            .setId(channelId * 1000 + i)
+                            .setChannelId(channelId)
+                            // Copies the strings as a cursor would do.
+                            .setTitle(new String(TITLES[i % TITLES.length]))
+                            .setEpisodeTitle("Episode " + i)
+                            .setCanonicalGenres(GENRES[i % GENRES.length])
+                            .setStartTimeUtcMillis(startTimeMs)
+                            .setEndTimeUtcMillis(startTimeMs + PROGRAM_DURATION_MS)
+                            .build());
+        }
+        return programs;
+    }
+
+    private static long getUsedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
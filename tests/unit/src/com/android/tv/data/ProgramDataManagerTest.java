@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data;
+
+import static androidx.test.InstrumentationRegistry.getInstrumentation;
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.media.tv.TvContract;
+import android.media.tv.TvContract.Programs;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Looper;
+import android.test.mock.MockContentProvider;
+import android.test.mock.MockContentResolver;
+import android.text.TextUtils;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.common.flags.impl.DefaultBackendKnobsFlags;
+import com.android.tv.perf.EventNames;
+import com.android.tv.perf.PerformanceMonitor;
+import com.android.tv.perf.TimerEvent;
+import com.android.tv.testing.FakeClock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+
+/**
+ * Tests for the delta reload of {@link ProgramDataManager}.
+ *
+ * <p>Note that all the methods of {@link ProgramDataManager} are called from the UI thread.
+ */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ProgramDataManagerTest {
+    private static final long WAIT_TIME_OUT_MS = 1000L;
+    private static final int CHANNEL_COUNT = 3;
+    private static final int PROGRAMS_PER_CHANNEL = 5;
+    private static final int ALL_PROGRAM_COUNT = CHANNEL_COUNT * PROGRAMS_PER_CHANNEL;
+    // Must be larger than ProgramDataManager.MAX_DELTA_RELOAD_CHANGE_COUNT.
+    private static final int TOO_MANY_CHANGE_COUNT = 201;
+
+    private final Semaphore mProgramUpdated = new Semaphore(0);
+    private final ReadRowCountMonitor mPerformanceMonitor = new ReadRowCountMonitor();
+    private FakeClock mClock;
+    private FakeProgramProvider mContentProvider;
+    private MockContentResolver mContentResolver;
+    private ProgramDataManager mProgramDataManager;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        mClock = FakeClock.createWithCurrentTime();
+        mContentProvider = new FakeProgramProvider(getTargetContext());
+        mContentResolver = new MockContentResolver();
+        mContentResolver.addProvider(TvContract.AUTHORITY, mContentProvider);
+        long nextProgramId = 1;
+        for (long channelId = 1; channelId <= CHANNEL_COUNT; ++channelId) {
+            for (int i = 0; i < PROGRAMS_PER_CHANNEL; ++i) {
+                mContentProvider.addProgram(nextProgramId++, channelId, i);
+            }
+        }
+        Context context = Mockito.mock(Context.class);
+        Mockito.when(context.getContentResolver()).thenReturn(mContentResolver);
+        ChannelDataManager channelDataManager = Mockito.mock(ChannelDataManager.class);
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            mProgramDataManager =
+                                    new ProgramDataManager(
+                                            context,
+                                            AsyncTask.SERIAL_EXECUTOR,
+                                            mContentResolver,
+                                            mClock,
+                                            Looper.getMainLooper(),
+                                            new DefaultBackendKnobsFlags(),
+                                            mPerformanceMonitor,
+                                            channelDataManager);
+                            mProgramDataManager.setProgramPrefetchUpdateWait(0);
+                            mProgramDataManager.setPrefetchEnabled(true);
+                            mProgramDataManager.addCallback(
+                                    new ProgramDataManager.Callback() {
+                                        @Override
+                                        public void onProgramUpdated() {
+                                            mProgramUpdated.release();
+                                        }
+
+                                        @Override
+                                        public void onSingleChannelUpdated(long channelId) {}
+                                    });
+                            mProgramDataManager.start();
+                        });
+        // The first prefetch is followed by the second one with the longer time range.
+        waitForPrefetch(2);
+        assertThat(mPerformanceMonitor.getLastReadRowCount()).isEqualTo(ALL_PROGRAM_COUNT);
+    }
+
+    @After
+    public void tearDown() {
+        getInstrumentation().runOnMainSync(() -> mProgramDataManager.stop());
+    }
+
+    @Test
+    public void testDeltaReload_changedProgram() throws InterruptedException {
+        List<String> otherChannelTitles = getTitles(2);
+        mContentProvider.setTitle(3, "Changed");
+
+        notifyChange(TvContract.buildProgramUri(3));
+        waitForPrefetch(1);
+
+        // Only the channel of the program is read again.
+        assertThat(mPerformanceMonitor.getLastReadRowCount())
+                .isEqualTo(PROGRAMS_PER_CHANNEL);
+        assertThat(getTitles(1)).contains("Changed");
+        assertThat(getTitles(2)).isEqualTo(otherChannelTitles);
+    }
+
+    @Test
+    public void testDeltaReload_changedChannel() throws InterruptedException {
+        mContentProvider.addProgram(100, 2, PROGRAMS_PER_CHANNEL);
+
+        notifyChange(TvContract.buildProgramsUriForChannel(2));
+        waitForPrefetch(1);
+
+        assertThat(mPerformanceMonitor.getLastReadRowCount())
+                .isEqualTo(PROGRAMS_PER_CHANNEL + 1);
+        assertThat(getTitles(2)).hasSize(PROGRAMS_PER_CHANNEL + 1);
+    }
+
+    @Test
+    public void testDeltaReload_resolvesChannelOfInsertedProgram() throws InterruptedException {
+        // The inserted program isn't in the cache, so its channel is queried.
+        mContentProvider.addProgram(100, 3, PROGRAMS_PER_CHANNEL);
+
+        notifyChange(TvContract.buildProgramUri(100));
+        waitForPrefetch(1);
+
+        assertThat(mContentProvider.mResolvedProgramIds).containsExactly(100L);
+        assertThat(mPerformanceMonitor.getLastReadRowCount())
+                .isEqualTo(PROGRAMS_PER_CHANNEL + 1);
+        assertThat(getTitles(3)).hasSize(PROGRAMS_PER_CHANNEL + 1);
+    }
+
+    @Test
+    public void testFullReload_tooManyChanges() throws InterruptedException {
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            for (int i = 1; i <= TOO_MANY_CHANGE_COUNT; ++i) {
+                                mProgramDataManager
+                                        .getContentObserver()
+                                        .onChange(false, TvContract.buildProgramUri(i));
+                            }
+                        });
+        waitForPrefetch(1);
+
+        assertThat(mContentProvider.mResolvedProgramIds).isEmpty();
+        assertThat(mPerformanceMonitor.getLastReadRowCount()).isEqualTo(ALL_PROGRAM_COUNT);
+    }
+
+    @Test
+    public void testFullReload_tableChange() throws InterruptedException {
+        notifyChange(Programs.CONTENT_URI);
+        waitForPrefetch(1);
+
+        assertThat(mPerformanceMonitor.getLastReadRowCount()).isEqualTo(ALL_PROGRAM_COUNT);
+    }
+
+    private void notifyChange(Uri uri) {
+        getInstrumentation()
+                .runOnMainSync(() -> mProgramDataManager.getContentObserver().onChange(false, uri));
+    }
+
+    private void waitForPrefetch(int count) throws InterruptedException {
+        assertThat(mProgramUpdated.tryAcquire(count, WAIT_TIME_OUT_MS, TimeUnit.MILLISECONDS))
+                .isTrue();
+    }
+
+    private List<Program> getPrograms(long channelId) {
+        List<Program> programs = new ArrayList<>();
+        getInstrumentation()
+                .runOnMainSync(
+                        () ->
+                                programs.addAll(
+                                        mProgramDataManager.getPrograms(
+                                                channelId,
+                                                mClock.currentTimeMillis()
+                                                        - TimeUnit.HOURS.toMillis(1))));
+        return programs;
+    }
+
+    private List<String> getTitles(long channelId) {
+        List<String> titles = new ArrayList<>();
+        for (Program program : getPrograms(channelId)) {
+            titles.add(program.getTitle());
+        }
+        return titles;
+    }
+
+    /** Keeps the number of the rows read by the last prefetch. */
+    private static class ReadRowCountMonitor implements PerformanceMonitor {
+        private volatile int mLastReadRowCount;
+
+        int getLastReadRowCount() {
+            return mLastReadRowCount;
+        }
+
+        @Override
+        public void recordCount(String eventName, long count) {
+            if (eventName.equals(
+                    EventNames.PROGRAM_DATA_MANAGER_PROGRAMS_PREFETCH_READ_ROW_COUNT)) {
+                mLastReadRowCount = (int) count;
+            }
+        }
+
+        @Override
+        public void startMemoryMonitor() {}
+
+        @Override
+        public void recordMemory(String eventName) {}
+
+        @Override
+        public void startGlobalTimer(String eventName) {}
+
+        @Override
+        public void stopGlobalTimer(String eventName) {}
+
+        @Override
+        public TimerEvent startTimer() {
+            return new TimerEvent() {};
+        }
+
+        @Override
+        public void stopTimer(TimerEvent event, String eventName) {}
+
+        @Override
+        public void startJankRecorder(String eventName) {}
+
+        @Override
+        public void stopJankRecorder(String eventName) {}
+
+        @Override
+        public boolean startPerformanceMonitorEventDebugActivity(Context context) {
+            return false;
+        }
+    }
+
+    /** A program row of {@link FakeProgramProvider}. */
+    private static class FakeProgram {
+        private final long mId;
+        private final long mChannelId;
+        private final long mStartTimeUtcMillis;
+        private final long mEndTimeUtcMillis;
+        private String mTitle;
+
+        private FakeProgram(long id, long channelId, long startTimeUtcMillis, String title) {
+            mId = id;
+            mChannelId = channelId;
+            mStartTimeUtcMillis = startTimeUtcMillis;
+            mEndTimeUtcMillis = startTimeUtcMillis + TimeUnit.HOURS.toMillis(1);
+            mTitle = title;
+        }
+
+        private Object getValue(String column) {
+            switch (column) {
+                case Programs._ID:
+                    return mId;
+                case Programs.COLUMN_PACKAGE_NAME:
+                    return "com.example.input";
+                case Programs.COLUMN_CHANNEL_ID:
+                    return mChannelId;
+                case Programs.COLUMN_TITLE:
+                    return mTitle;
+                case Programs.COLUMN_START_TIME_UTC_MILLIS:
+                    return mStartTimeUtcMillis;
+                case Programs.COLUMN_END_TIME_UTC_MILLIS:
+                    return mEndTimeUtcMillis;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /** Serves the programs and the queries which {@link ProgramDataManager} makes. */
+    private class FakeProgramProvider extends MockContentProvider {
+        private final List<FakeProgram> mPrograms = new ArrayList<>();
+        // The program IDs in the queries to resolve the channels of changed programs.
+        private final Set<Long> mResolvedProgramIds = Collections.synchronizedSet(new HashSet<>());
+
+        private FakeProgramProvider(Context context) {
+            super(context);
+        }
+
+        /**
+         * Adds an hour-long program. The program of {@code index} 0 is the current one, and the
+         * others follow it.
+         */
+        private synchronized void addProgram(long id, long channelId, int index) {
+            long startTimeMs =
+                    mClock.currentTimeMillis()
+                            - TimeUnit.MINUTES.toMillis(30)
+                            + TimeUnit.HOURS.toMillis(index);
+            mPrograms.add(new FakeProgram(id, channelId, startTimeMs, "Program " + id));
+        }
+
+        private synchronized void setTitle(long id, String title) {
+            for (FakeProgram program : mPrograms) {
+                if (program.mId == id) {
+                    program.mTitle = title;
+                }
+            }
+        }
+
+        @Override
+        public synchronized Cursor query(
+                Uri uri,
+                String[] projection,
+                String selection,
+                String[] selectionArgs,
+                String sortOrder) {
+            Set<Long> programIds = null;
+            if (!TextUtils.isEmpty(selection)) {
+                // Programs._ID + " IN (...)"
+                programIds = new HashSet<>();
+                String ids =
+                        selection.substring(selection.indexOf('(') + 1, selection.indexOf(')'));
+                for (String id : ids.split(",")) {
+                    programIds.add(Long.parseLong(id.trim()));
+                }
+                mResolvedProgramIds.addAll(programIds);
+            }
+            String channelId = uri.getQueryParameter(TvContract.PARAM_CHANNEL);
+            String startTime = uri.getQueryParameter(TvContract.PARAM_START_TIME);
+            String endTime = uri.getQueryParameter(TvContract.PARAM_END_TIME);
+            List<FakeProgram> programs = new ArrayList<>();
+            for (FakeProgram program : mPrograms) {
+                if ((programIds == null || programIds.contains(program.mId))
+                        && (channelId == null || Long.parseLong(channelId) == program.mChannelId)
+                        && (startTime == null
+                                || program.mEndTimeUtcMillis >= Long.parseLong(startTime))
+                        && (endTime == null
+                                || program.mStartTimeUtcMillis <= Long.parseLong(endTime))) {
+                    programs.add(program);
+                }
+            }
+            // ProgramDataManager sorts them by the start time, the channel and the end time.
+            Collections.sort(
+                    programs,
+                    (FakeProgram lhs, FakeProgram rhs) -> {
+                        int ret = Long.compare(lhs.mStartTimeUtcMillis, rhs.mStartTimeUtcMillis);
+                        if (ret == 0) {
+                            ret = Long.compare(lhs.mChannelId, rhs.mChannelId);
+                        }
+                        return ret != 0
+                                ? ret
+                                : Long.compare(lhs.mEndTimeUtcMillis, rhs.mEndTimeUtcMillis);
+                    });
+            MatrixCursor cursor = new MatrixCursor(projection);
+            for (FakeProgram program : programs) {
+                Object[] row = new Object[projection.length];
+                for (int i = 0; i < projection.length; ++i) {
+                    row[i] = program.getValue(projection[i]);
+                }
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+
+        @Override
+        public Bundle call(String method, String request, Bundle args) {
+            // No extra columns.
+            return null;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data.epg;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.ContentProviderOperation;
+import android.media.tv.TvContract;
+import android.net.Uri;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.data.ChannelImpl;
+import com.android.tv.data.Program;
+import com.android.tv.testing.FakeClock;
+import com.android.tv.testing.FakeEpgReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link EpgIngestPipeline}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class EpgIngestPipelineTest {
+    private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+    private static final long DURATION = TimeUnit.DAYS.toMillis(1);
+    private static final int BATCH_SIZE = 50;
+    private static final int PROGRAMS_PER_CHANNEL = 3;
+
+    private FakeClock mClock;
+    private FakeEpgReader mReader;
+
+    @Before
+    public void setUp() {
+        mClock = FakeClock.createWithTimeOne();
+        mReader = new FakeEpgReader(mClock);
+    }
+
+    @Test
+    public void testIngest_writesAllOperationsInCoalescedBatches() {
+        // Channels without programs are also passed through the differ.
+        Set<EpgReader.EpgChannel> channels = createChannels(120, 100);
+        CountDownLatch allDiffed = new CountDownLatch(120);
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        EpgIngestPipeline pipeline =
+                new EpgIngestPipeline(
+                        (channelId, programs) -> {
+                            allDiffed.countDown();
+                            return diff(channelId, programs);
+                        },
+                        ops -> {
+                            // Lets the operations of the other channels pile up.
+                            await(allDiffed);
+                            return batchSizes.add(ops.size());
+                        },
+                        null,
+                        3,
+                        200);
+
+        EpgIngestPipeline.Stats stats = pipeline.ingest(mReader, channels, DURATION, BATCH_SIZE);
+
+        assertThat(stats.channelCount).isEqualTo(120);
+        assertThat(stats.operationCount).isEqualTo(100 * PROGRAMS_PER_CHANNEL);
+        int total = 0;
+        for (int size : batchSizes) {
+            assertThat(size).isAtMost(EpgFetchHelper.BATCH_OPERATION_COUNT);
+            total += size;
+        }
+        assertThat(total).isEqualTo(100 * PROGRAMS_PER_CHANNEL);
+        // The operations of several channels are applied together.
+        assertThat(batchSizes.size()).isAtMost(10);
+        assertThat(stats.writeBatchCount).isEqualTo(batchSizes.size());
+    }
+
+    @Test
+    public void testIngest_countsFailedBatches() {
+        Set<EpgReader.EpgChannel> channels = createChannels(10, 10);
+        EpgIngestPipeline pipeline =
+                new EpgIngestPipeline(EpgIngestPipelineTest::diff, ops -> false, null, 1, 10);
+
+        EpgIngestPipeline.Stats stats = pipeline.ingest(mReader, channels, DURATION, BATCH_SIZE);
+
+        assertThat(stats.writeBatchCount).isGreaterThan(0);
+        assertThat(stats.failedWriteBatchCount).isEqualTo(stats.writeBatchCount);
+    }
+
+    @Test
+    public void testIngest_retriesChannelsOfFailedBatch() {
+        Set<EpgReader.EpgChannel> channels = createChannels(10, 10);
+        // The first operation of the channel 3.
+        Uri badUri = TvContract.buildProgramUri(3 * 100);
+        List<ContentProviderOperation> applied = Collections.synchronizedList(new ArrayList<>());
+        EpgIngestPipeline pipeline =
+                new EpgIngestPipeline(
+                        EpgIngestPipelineTest::diff,
+                        ops -> {
+                            for (ContentProviderOperation op : ops) {
+                                if (op.getUri().equals(badUri)) {
+                                    return false;
+                                }
+                            }
+                            return applied.addAll(ops);
+                        },
+                        null,
+                        1,
+                        10);
+
+        EpgIngestPipeline.Stats stats = pipeline.ingest(mReader, channels, DURATION, BATCH_SIZE);
+
+        // Only the operations of the bad channel are lost.
+        assertThat(applied).hasSize(9 * PROGRAMS_PER_CHANNEL);
+        assertThat(stats.operationCount).isEqualTo(10 * PROGRAMS_PER_CHANNEL);
+        assertThat(stats.failedWriteBatchCount).isAtLeast(1);
+    }
+
+    @Test
+    public void testIngest_readerWaitsForWriter() throws InterruptedException {
+        int maxPendingChannels = 10;
+        Set<EpgReader.EpgChannel> channels = createChannels(100, 100);
+        CountDownLatch writerBlocked = new CountDownLatch(1);
+        CountDownLatch pendingChannelsFull = new CountDownLatch(maxPendingChannels);
+        AtomicInteger diffedChannels = new AtomicInteger();
+        EpgIngestPipeline pipeline =
+                new EpgIngestPipeline(
+                        (channelId, programs) -> {
+                            diffedChannels.incrementAndGet();
+                            pendingChannelsFull.countDown();
+                            return diff(channelId, programs);
+                        },
+                        ops -> {
+                            await(writerBlocked);
+                            return true;
+                        },
+                        null,
+                        3,
+                        maxPendingChannels);
+        Thread ingestThread =
+                new Thread(() -> pipeline.ingest(mReader, channels, DURATION, BATCH_SIZE));
+        ingestThread.start();
+
+        assertThat(pendingChannelsFull.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        Thread.sleep(100);
+        assertThat(diffedChannels.get()).isEqualTo(maxPendingChannels);
+
+        writerBlocked.countDown();
+        ingestThread.join(TIMEOUT_MS);
+        assertThat(ingestThread.isAlive()).isFalse();
+        assertThat(diffedChannels.get()).isEqualTo(100);
+    }
+
+    private Set<EpgReader.EpgChannel> createChannels(int count, int countWithPrograms) {
+        Set<EpgReader.EpgChannel> channels = new HashSet<>();
+        for (int i = 0; i < count; ++i) {
+            String epgChannelId = "epg" + i;
+            channels.add(
+                    EpgReader.EpgChannel.createEpgChannel(
+                            new ChannelImpl.Builder().setId(i).build(), epgChannelId, false));
+            if (i >= countWithPrograms) {
+                continue;
+            }
+            for (int j = 0; j < PROGRAMS_PER_CHANNEL; ++j) {
+                long startTimeMs = mClock.currentTimeMillis() + TimeUnit.HOURS.toMillis(j);
+                mReader.epgChannelId2Programs.put(
+                        epgChannelId,
+                        new Program.Builder()
+                                .setTitle("Program " + j)
+                                .setStartTimeUtcMillis(startTimeMs)
+                                .setEndTimeUtcMillis(startTimeMs + TimeUnit.HOURS.toMillis(1))
+                                .build());
+            }
+        }
+        return channels;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertThat(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Returns an operation per program. */
+    private static List<ContentProviderOperation> diff(long channelId, List<Program> programs) {
+        List<ContentProviderOperation> ops = new ArrayList<>();
+        for (int i = 0; i < programs.size(); ++i) {
+            ops.add(
+                    ContentProviderOperation.newDelete(
+                                    TvContract.buildProgramUri(channelId * 100 + i))
+                            .build());
+        }
+        return ops;
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.data.epg;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.data.ChannelImpl;
+import com.android.tv.data.Program;
+import com.android.tv.data.api.Channel;
+import com.android.tv.testing.FakeClock;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link XmltvEpgReader}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class XmltvEpgReaderTest {
+    private static final String TAG = "XmltvEpgReaderTest";
+    // 2019-01-01 00:00:00 UTC
+    private static final long START_TIME_MS = 1546300800000L;
+    private static final long PROGRAM_DURATION_MS = TimeUnit.MINUTES.toMillis(30);
+
+    private static final String XMLTV =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<!DOCTYPE tv SYSTEM \"xmltv.dtd\">\n"
+                    + "<tv date=\"20190101120000 +0000\">\n"
+                    + "  <channel id=\"kqed.example\">\n"
+                    + "    <display-name>KQED</display-name>\n"
+                    + "    <display-name>9-1</display-name>\n"
+                    + "  </channel>\n"
+                    + "  <channel id=\"other.example\">\n"
+                    + "    <display-name>Other</display-name>\n"
+                    + "  </channel>\n"
+                    + "  <!-- <programme channel=\"kqed.example\"> -->\n"
+                    + "  <programme start=\"20190101010000 +0100\" stop=\"20190101013000 +0100\""
+                    + " channel=\"kqed.example\">\n"
+                    + "    <title lang=\"en\">News &amp; Weather</title>\n"
+                    + "    <title lang=\"fr\">Nouvelles</title>\n"
+                    + "    <sub-title>Morning</sub-title>\n"
+                    + "    <desc>Today's news.</desc>\n"
+                    + "    <episode-num system=\"xmltv_ns\">1.4/10.</episode-num>\n"
+                    + "  </programme>\n"
+                    + "  <programme start=\"20190101003000\" channel=\"kqed.example\">\n"
+                    + "    <title><![CDATA[Show </programme>]]></title>\n"
+                    + "  </programme>\n"
+                    + "  <programme start=\"20190101010000 +0000\" stop=\"20190101020000 +0000\""
+                    + " channel=\"kqed.example\"><title>Later</title></programme>\n"
+                    + "  <programme start=\"20190101000000 +0000\" stop=\"20190101010000 +0000\""
+                    + " channel=\"other.example\"><title>Other show</title></programme>\n"
+                    + "</tv>\n";
+
+    private File mFile;
+    private FakeClock mClock;
+    private XmltvEpgReader mReader;
+
+    @Before
+    public void setUp() {
+        mFile = new File(getTargetContext().getCacheDir(), "xmltv_epg_reader_test.xml");
+        mClock = FakeClock.createWithTime(START_TIME_MS);
+        mReader = new XmltvEpgReader(mFile, mClock);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void testGetChannels_matchesNumberAndName() throws IOException {
+        write(XMLTV);
+        Set<Channel> inputChannels = new HashSet<>();
+        inputChannels.add(createChannel(1, "9.1", "Nine"));
+        inputChannels.add(createChannel(2, "10", "OTHER"));
+        inputChannels.add(createChannel(3, "11", "Unknown"));
+
+        Set<EpgReader.EpgChannel> epgChannels =
+                mReader.getChannels(inputChannels, XmltvEpgReader.LINEUP_ID);
+
+        List<String> epgChannelIds = new ArrayList<>();
+        for (EpgReader.EpgChannel epgChannel : epgChannels) {
+            epgChannelIds.add(epgChannel.getChannel().getId() + ":" + epgChannel.getEpgChannelId());
+        }
+        assertThat(epgChannelIds).containsExactly("1:kqed.example", "2:other.example");
+        assertThat(mReader.getChannelNumbers(XmltvEpgReader.LINEUP_ID)).containsExactly("9-1");
+        assertThat(mReader.getEpgTimestamp()).isEqualTo(20190101120000L);
+    }
+
+    @Test
+    public void testGetPrograms_parsesProgrammes() throws IOException {
+        write(XMLTV);
+        EpgReader.EpgChannel epgChannel =
+                EpgReader.EpgChannel.createEpgChannel(
+                        createChannel(1, "9.1", "Nine"), "kqed.example", false);
+
+        List<Program> programs = mReader.getPrograms(epgChannel);
+
+        assertThat(programs).hasSize(3);
+        Program news = programs.get(0);
+        assertThat(news.getTitle()).isEqualTo("News & Weather");
+        assertThat(news.getEpisodeTitle()).isEqualTo("Morning");
+        assertThat(news.getDescription()).isEqualTo("Today's news.");
+        assertThat(news.getSeasonNumber()).isEqualTo("2");
+        assertThat(news.getEpisodeNumber()).isEqualTo("5");
+        assertThat(news.getChannelId()).isEqualTo(1);
+        assertThat(news.getStartTimeUtcMillis()).isEqualTo(START_TIME_MS);
+        assertThat(news.getEndTimeUtcMillis()).isEqualTo(START_TIME_MS + PROGRAM_DURATION_MS);
+        Program show = programs.get(1);
+        assertThat(show.getTitle()).isEqualTo("Show </programme>");
+        // Ends when the next programme starts.
+        assertThat(show.getEndTimeUtcMillis()).isEqualTo(START_TIME_MS + 2 * PROGRAM_DURATION_MS);
+    }
+
+    @Test
+    public void testGetPrograms_duringDuration() throws IOException {
+        write(XMLTV);
+        EpgReader.EpgChannel kqed =
+                EpgReader.EpgChannel.createEpgChannel(
+                        createChannel(1, "9.1", "Nine"), "kqed.example", false);
+        EpgReader.EpgChannel unknown =
+                EpgReader.EpgChannel.createEpgChannel(
+                        createChannel(3, "11", "Unknown"), "unknown.example", false);
+        Set<EpgReader.EpgChannel> epgChannels = new HashSet<>();
+        epgChannels.add(kqed);
+        epgChannels.add(unknown);
+        mClock.setCurrentTimeMillis(START_TIME_MS + PROGRAM_DURATION_MS + 1);
+
+        Map<EpgReader.EpgChannel, Collection<Program>> programs =
+                mReader.getPrograms(epgChannels, TimeUnit.MINUTES.toSeconds(10));
+
+        assertThat(programs.get(unknown)).isEmpty();
+        assertThat(programs.get(kqed)).hasSize(1);
+        assertThat(programs.get(kqed).iterator().next().getTitle())
+                .isEqualTo("Show </programme>");
+    }
+
+    @Test
+    public void testGetPrograms_reindexesChangedFile() throws IOException {
+        write(XMLTV);
+        EpgReader.EpgChannel other =
+                EpgReader.EpgChannel.createEpgChannel(
+                        createChannel(2, "10", "Other"), "other.example", false);
+        assertThat(mReader.getPrograms(other)).hasSize(1);
+
+        write(XMLTV.replace("other.example", "renamed.example"));
+
+        assertThat(mReader.getPrograms(other)).isEmpty();
+    }
+
+    @Test
+    public void testGetPrograms_skipsMalformedProgramme() throws IOException {
+        write(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<tv>\n"
+                        + "  <channel id=\"kqed.example\">"
+                        + "<display-name>KQED</display-name></channel>\n"
+                        + "  <programme start=\"20190101000000 +0000\""
+                        + " channel=\"kqed.example\"><title>First</title></programme>\n"
+                        + "  <programme start=\"20190101003000 +0000\""
+                        + " channel=\"kqed.example\"><title>Broken</desc></programme>\n"
+                        + "  <programme start=\"20190101010000 +0000\""
+                        + " stop=\"20190101013000 +0000\""
+                        + " channel=\"kqed.example\"><title>Last</title></programme>\n"
+                        + "</tv>\n");
+        EpgReader.EpgChannel epgChannel =
+                EpgReader.EpgChannel.createEpgChannel(
+                        createChannel(1, "9.1", "Nine"), "kqed.example", false);
+
+        List<Program> programs = mReader.getPrograms(epgChannel);
+
+        List<String> titles = new ArrayList<>();
+        for (Program program : programs) {
+            titles.add(program.getTitle());
+        }
+        assertThat(titles).containsExactly("First", "Last").inOrder();
+    }
+
+    /** Measures the reader with a synthetic XMLTV file of 500 channels for 14 days. */
+    @LargeTest
+    @Test
+    public void testBenchmark_500Channels14Days() throws IOException {
+        int channelCount = 500;
+        int programsPerChannel = (int) (TimeUnit.DAYS.toMillis(14) / PROGRAM_DURATION_MS);
+        writeSyntheticFile(channelCount, programsPerChannel);
+        Set<Channel> inputChannels = new HashSet<>();
+        for (int i = 0; i < channelCount; ++i) {
+            inputChannels.add(createChannel(i, String.valueOf(i + 1), "Channel " + i));
+        }
+
+        long startTimeMs = System.currentTimeMillis();
+        Set<EpgReader.EpgChannel> epgChannels =
+                mReader.getChannels(inputChannels, XmltvEpgReader.LINEUP_ID);
+        long indexTimeMs = System.currentTimeMillis() - startTimeMs;
+
+        // Reads the programs for two days in batches of 50 channels, as EpgFetcherImpl does.
+        startTimeMs = System.currentTimeMillis();
+        int programCount = 0;
+        List<EpgReader.EpgChannel> all = new ArrayList<>(epgChannels);
+        for (int i = 0; i < all.size(); i += 50) {
+            Set<EpgReader.EpgChannel> batch =
+                    new HashSet<>(all.subList(i, Math.min(all.size(), i + 50)));
+            for (Collection<Program> programs :
+                    mReader.getPrograms(batch, TimeUnit.DAYS.toSeconds(2)).values()) {
+                programCount += programs.size();
+            }
+        }
+        long readTimeMs = System.currentTimeMillis() - startTimeMs;
+
+        // Reads all the programs of a channel.
+        startTimeMs = System.currentTimeMillis();
+        List<Program> allPrograms = mReader.getPrograms(all.get(0));
+        long readChannelTimeMs = System.currentTimeMillis() - startTimeMs;
+
+        Log.i(
+                TAG,
+                "File: "
+                        + mFile.length() / 1024
+                        + "KB, index: "
+                        + indexTimeMs
+                        + "ms, 2 days of all channels: "
+                        + readTimeMs
+                        + "ms, 14 days of a channel: "
+                        + readChannelTimeMs
+                        + "ms");
+        assertThat(epgChannels).hasSize(channelCount);
+        assertThat(programCount)
+                .isEqualTo(channelCount * (int) (TimeUnit.DAYS.toMillis(2) / PROGRAM_DURATION_MS));
+        assertThat(allPrograms).hasSize(programsPerChannel);
+    }
+
+    private void write(String xmltv) throws IOException {
+        long lastModified = mFile.exists() ? mFile.lastModified() : 0;
+        try (Writer writer =
+                new OutputStreamWriter(new FileOutputStream(mFile), StandardCharsets.UTF_8)) {
+            writer.write(xmltv);
+        }
+        // Makes sure that the change is detected even within the time resolution of the file
+        // system.
+        mFile.setLastModified(Math.max(lastModified + 1000, mFile.lastModified()));
+    }
+
+    private void writeSyntheticFile(int channelCount, int programsPerChannel) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss Z", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try (Writer writer =
+                new BufferedWriter(
+                        new OutputStreamWriter(
+                                new FileOutputStream(mFile), StandardCharsets.UTF_8))) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<tv date=\"20190101000000 +0000\">\n");
+            for (int i = 0; i < channelCount; ++i) {
+                writer.write(
+                        "<channel id=\"ch"
+                                + i
+                                + "\"><display-name>"
+                                + (i + 1)
+                                + "</display-name></channel>\n");
+            }
+            for (int i = 0; i < channelCount; ++i) {
+                for (int j = 0; j < programsPerChannel; ++j) {
+                    long start = START_TIME_MS + j * PROGRAM_DURATION_MS;
+                    writer.write(
+                            "<programme start=\""
+                                    + format.format(start)
+                                    + "\" stop=\""
+                                    + format.format(start + PROGRAM_DURATION_MS)
+                                    + "\" channel=\"ch"
+                                    + i
+                                    + "\"><title>Program "
+                                    + j
+                                    + "</title><desc>Description of program "
+                                    + j
+                                    + " on channel "
+                                    + i
+                                    + ".</desc>"
+                                    + "<episode-num system=\"xmltv_ns\">0.1.</episode-num>"
+                                    + "</programme>\n");
+                }
+            }
+            writer.write("</tv>\n");
+        }
+    }
+
+    private static Channel createChannel(long id, String displayNumber, String displayName) {
+        return new ChannelImpl.Builder()
+                .setId(id)
+                .setPackageName("com.example")
+                .setDisplayNumber(displayNumber)
+                .setDisplayName(displayName)
+                .build();
+    }
+}
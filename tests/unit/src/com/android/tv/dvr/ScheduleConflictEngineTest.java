@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Build;
+import androidx.test.filters.SdkSuppress;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.dvr.DvrScheduleManager.ConflictInfo;
+import com.android.tv.dvr.data.ScheduledRecording;
+import com.android.tv.testing.dvr.RecordingTestUtils;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link ScheduleConflictEngine}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = Build.VERSION_CODES.N)
+public class ScheduleConflictEngineTest {
+    private static final long CHANNEL_ID = 1;
+    private static final long SLOT_MS = TimeUnit.MINUTES.toMillis(30);
+
+    @Test
+    public void testGetConflicts_separatedSchedules() {
+        List<ScheduledRecording> schedules = new ArrayList<>();
+        schedules.add(createSchedule(1, 1, 0, 2));
+        schedules.add(createSchedule(2, 2, 1, 3));
+        schedules.add(createSchedule(3, 3, 3, 4));
+        schedules.add(createSchedule(4, 4, 5, 7));
+        schedules.add(createSchedule(5, 5, 6, 8));
+
+        ScheduleConflictEngine engine = new ScheduleConflictEngine(1, schedules);
+
+        assertThat(engine.getClusterCount()).isEqualTo(3);
+        assertThat(toPartialConflicts(engine.getConflicts().values()))
+                .isEqualTo(toPartialConflicts(simulate(schedules, 1)));
+        assertThat(engine.getConflicts().keySet()).containsExactly(1L, 4L);
+    }
+
+    @Test
+    public void testAdd_mergesClusters() {
+        List<ScheduledRecording> schedules = new ArrayList<>();
+        schedules.add(createSchedule(1, 1, 0, 2));
+        schedules.add(createSchedule(2, 2, 4, 6));
+        ScheduleConflictEngine engine = new ScheduleConflictEngine(1, schedules);
+        assertThat(engine.getClusterCount()).isEqualTo(2);
+        assertThat(engine.getConflicts()).isEmpty();
+
+        ScheduledRecording bridge = createSchedule(3, 3, 1, 5);
+        engine.add(bridge);
+        schedules.add(bridge);
+
+        assertThat(engine.getClusterCount()).isEqualTo(1);
+        assertThat(toPartialConflicts(engine.getConflicts().values()))
+                .isEqualTo(toPartialConflicts(simulate(schedules, 1)));
+
+        engine.remove(bridge);
+        assertThat(engine.getClusterCount()).isEqualTo(2);
+        assertThat(engine.getConflicts()).isEmpty();
+    }
+
+    @Test
+    public void testAddAndRemove_sameAsSimulationOfAllSchedules() {
+        Random random = new Random(1234);
+        for (int round = 0; round < 50; ++round) {
+            int tunerCount = 1 + random.nextInt(3);
+            List<ScheduledRecording> schedules = new ArrayList<>();
+            long nextId = 1;
+            for (int i = random.nextInt(10); i > 0; --i) {
+                schedules.add(createRandomSchedule(random, nextId++));
+            }
+            ScheduleConflictEngine engine = new ScheduleConflictEngine(tunerCount, schedules);
+            for (int step = 0; step < 100; ++step) {
+                if (schedules.isEmpty() || random.nextInt(3) != 0) {
+                    ScheduledRecording schedule = createRandomSchedule(random, nextId++);
+                    schedules.add(schedule);
+                    engine.add(schedule);
+                } else {
+                    engine.remove(schedules.remove(random.nextInt(schedules.size())));
+                }
+                assertThat(toPartialConflicts(engine.getConflicts().values()))
+                        .isEqualTo(toPartialConflicts(simulate(schedules, tunerCount)));
+            }
+        }
+    }
+
+    private static ScheduledRecording createRandomSchedule(Random random, long id) {
+        // Schedules in a week of 30 minutes slots, some of which start at the same time.
+        int startSlot = random.nextInt(7 * 48);
+        int endSlot = startSlot + 1 + random.nextInt(8);
+        return createSchedule(id, random.nextInt(20), startSlot, endSlot);
+    }
+
+    private static ScheduledRecording createSchedule(
+            long id, long priority, int startSlot, int endSlot) {
+        return RecordingTestUtils.createTestRecordingWithIdAndPriorityAndPeriod(
+                id, CHANNEL_ID, priority, startSlot * SLOT_MS, endSlot * SLOT_MS);
+    }
+
+    private static List<ConflictInfo> simulate(
+            List<ScheduledRecording> schedules, int tunerCount) {
+        return DvrScheduleManager.getConflictingSchedulesInfo(
+                new ArrayList<>(schedules), tunerCount);
+    }
+
+    private static Map<Long, Boolean> toPartialConflicts(Collection<ConflictInfo> conflicts) {
+        Map<Long, Boolean> result = new HashMap<>();
+        for (ConflictInfo conflictInfo : conflicts) {
+            result.put(conflictInfo.schedule.getId(), conflictInfo.partialConflict);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Build;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.Range;
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SdkSuppress;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.dvr.data.ScheduledRecording;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link ScheduledRecordingIndex}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = Build.VERSION_CODES.N)
+public class ScheduledRecordingIndexTest {
+    private static final String TAG = "ScheduledRecordingIndexTest";
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+    private static final int INPUT_COUNT = 3;
+    private static final int SERIES_RECORDING_COUNT = 20;
+    private static final int[] STATES = {
+        ScheduledRecording.STATE_RECORDING_NOT_STARTED,
+        ScheduledRecording.STATE_RECORDING_IN_PROGRESS,
+        ScheduledRecording.STATE_RECORDING_FINISHED
+    };
+
+    private final ScheduledRecordingIndex mIndex = new ScheduledRecordingIndex();
+    // The primary map which the index mirrors, as DvrDataManagerImpl does.
+    private final Map<Long, ScheduledRecording> mSchedules = new HashMap<>();
+
+    @Test
+    public void testGetNextStartTimeAfter() {
+        put(createSchedule(1, "input", 1, 10 * HOUR_MS, 11 * HOUR_MS));
+        put(createSchedule(2, "input", 1, 12 * HOUR_MS, 13 * HOUR_MS));
+
+        assertThat(mIndex.getNextStartTimeAfter(0)).isEqualTo(10 * HOUR_MS);
+        assertThat(mIndex.getNextStartTimeAfter(10 * HOUR_MS)).isEqualTo(12 * HOUR_MS);
+        assertThat(mIndex.getNextStartTimeAfter(12 * HOUR_MS))
+                .isEqualTo(DvrDataManager.NEXT_START_TIME_NOT_FOUND);
+
+        remove(2);
+        assertThat(mIndex.getNextStartTimeAfter(10 * HOUR_MS))
+                .isEqualTo(DvrDataManager.NEXT_START_TIME_NOT_FOUND);
+    }
+
+    @Test
+    public void testUpdate_movesScheduleBetweenIndexes() {
+        put(createSchedule(1, "input1", 1, 0, HOUR_MS));
+        put(
+                ScheduledRecording.buildFrom(mSchedules.get(1L))
+                        .setSeriesRecordingId(2)
+                        .setStartTimeMs(2 * HOUR_MS)
+                        .setEndTimeMs(3 * HOUR_MS)
+                        .build());
+
+        assertThat(mIndex.getSchedulesForSeriesRecording(1)).isEmpty();
+        assertThat(mIndex.getSchedulesForSeriesRecording(2)).containsExactly(mSchedules.get(1L));
+        assertThat(mIndex.getSchedulesForInput("input1")).containsExactly(mSchedules.get(1L));
+        assertThat(mIndex.getNextStartTimeAfter(-1)).isEqualTo(2 * HOUR_MS);
+        assertThat(
+                        mIndex.getSchedules(
+                                new Range<>(0L, HOUR_MS),
+                                ScheduledRecording.STATE_RECORDING_NOT_STARTED))
+                .isEmpty();
+    }
+
+    @Test
+    public void testQueries_sameAsLinearScan() {
+        Random random = new Random(1234);
+        long nextId = 1;
+        for (int step = 0; step < 2000; ++step) {
+            int action = random.nextInt(4);
+            if (mSchedules.isEmpty() || action < 2) {
+                put(createRandomSchedule(random, nextId++));
+            } else if (action == 2) {
+                ScheduledRecording old = getRandomSchedule(random);
+                put(
+                        ScheduledRecording.buildFrom(old)
+                                .setState(STATES[random.nextInt(STATES.length)])
+                                .setSeriesRecordingId(random.nextInt(SERIES_RECORDING_COUNT))
+                                .build());
+            } else {
+                remove(getRandomSchedule(random).getId());
+            }
+            if (step % 20 == 0) {
+                assertSameAsLinearScan(random);
+            }
+        }
+    }
+
+    /** Compares the queries on the index with the linear scans over 5000 schedules. */
+    @LargeTest
+    @Test
+    public void testBenchmark_5000Schedules() {
+        Random random = new Random(1234);
+        for (long id = 1; id <= 5000; ++id) {
+            put(createRandomSchedule(random, id));
+        }
+        int queryCount = 1000;
+        long[] times = new long[queryCount];
+        for (int i = 0; i < queryCount; ++i) {
+            times[i] = random.nextInt(14 * 24) * HOUR_MS;
+        }
+
+        long startTimeNs = System.nanoTime();
+        int indexResultCount = 0;
+        for (long time : times) {
+            Range<Long> period = new Range<>(time, time + HOUR_MS);
+            indexResultCount +=
+                    mIndex.getSchedules(period, ScheduledRecording.STATE_RECORDING_NOT_STARTED)
+                            .size();
+            indexResultCount += mIndex.getSchedulesForSeriesRecording(time % 20).size();
+            indexResultCount += mIndex.getSchedulesForInput("input" + time % 3).size();
+            mIndex.getNextStartTimeAfter(time);
+        }
+        long indexTimeNs = System.nanoTime() - startTimeNs;
+
+        startTimeNs = System.nanoTime();
+        int scanResultCount = 0;
+        for (long time : times) {
+            Range<Long> period = new Range<>(time, time + HOUR_MS);
+            scanResultCount +=
+                    scanSchedules(period, ScheduledRecording.STATE_RECORDING_NOT_STARTED).size();
+            scanResultCount += scanSchedulesForSeriesRecording(time % 20).size();
+            scanResultCount += scanSchedulesForInput("input" + time % 3).size();
+            scanNextStartTimeAfter(time);
+        }
+        long scanTimeNs = System.nanoTime() - startTimeNs;
+
+        Log.i(
+                TAG,
+                queryCount
+                        + " rounds of queries, index: "
+                        + TimeUnit.NANOSECONDS.toMillis(indexTimeNs)
+                        + "ms, linear scan: "
+                        + TimeUnit.NANOSECONDS.toMillis(scanTimeNs)
+                        + "ms");
+        assertThat(indexResultCount).isEqualTo(scanResultCount);
+    }
+
+    private void assertSameAsLinearScan(Random random) {
+        for (int i = 0; i < 10; ++i) {
+            long time = random.nextInt(14 * 24) * HOUR_MS;
+            Range<Long> period = new Range<>(time, time + random.nextInt(12) * HOUR_MS);
+            for (int state : STATES) {
+                assertThat(mIndex.getSchedules(period, state))
+                        .containsExactlyElementsIn(scanSchedules(period, state));
+            }
+            assertThat(mIndex.getNextStartTimeAfter(time))
+                    .isEqualTo(scanNextStartTimeAfter(time));
+        }
+        for (long seriesRecordingId = 0;
+                seriesRecordingId < SERIES_RECORDING_COUNT;
+                ++seriesRecordingId) {
+            assertThat(mIndex.getSchedulesForSeriesRecording(seriesRecordingId))
+                    .containsExactlyElementsIn(scanSchedulesForSeriesRecording(seriesRecordingId));
+        }
+        for (int i = 0; i < INPUT_COUNT; ++i) {
+            assertThat(mIndex.getSchedulesForInput("input" + i))
+                    .containsExactlyElementsIn(scanSchedulesForInput("input" + i));
+        }
+    }
+
+    private void put(ScheduledRecording schedule) {
+        ScheduledRecording old = mSchedules.put(schedule.getId(), schedule);
+        if (old != null) {
+            mIndex.remove(old);
+        }
+        mIndex.add(schedule);
+    }
+
+    private void remove(long id) {
+        mIndex.remove(mSchedules.remove(id));
+    }
+
+    private ScheduledRecording getRandomSchedule(Random random) {
+        List<ScheduledRecording> schedules = new ArrayList<>(mSchedules.values());
+        return schedules.get(random.nextInt(schedules.size()));
+    }
+
+    private List<ScheduledRecording> scanSchedules(Range<Long> period, int state) {
+        List<ScheduledRecording> result = new ArrayList<>();
+        for (ScheduledRecording r : mSchedules.values()) {
+            if (r.isOverLapping(period) && r.getState() == state) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    private List<ScheduledRecording> scanSchedulesForSeriesRecording(long seriesRecordingId) {
+        List<ScheduledRecording> result = new ArrayList<>();
+        for (ScheduledRecording r : mSchedules.values()) {
+            if (r.getSeriesRecordingId() == seriesRecordingId) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    private List<ScheduledRecording> scanSchedulesForInput(String inputId) {
+        List<ScheduledRecording> result = new ArrayList<>();
+        for (ScheduledRecording r : mSchedules.values()) {
+            if (TextUtils.equals(r.getInputId(), inputId)) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    private long scanNextStartTimeAfter(long time) {
+        long result = DvrDataManager.NEXT_START_TIME_NOT_FOUND;
+        for (ScheduledRecording r : mSchedules.values()) {
+            if (r.getStartTimeMs() > time
+                    && (result == DvrDataManager.NEXT_START_TIME_NOT_FOUND
+                            || r.getStartTimeMs() < result)) {
+                result = r.getStartTimeMs();
+            }
+        }
+        return result;
+    }
+
+    private static ScheduledRecording createRandomSchedule(Random random, long id) {
+        // Schedules in two weeks, which are up to 4 hours long.
+        long startTimeMs = random.nextInt(14 * 24 * 4) * TimeUnit.MINUTES.toMillis(15);
+        long endTimeMs = startTimeMs + (1 + random.nextInt(16)) * TimeUnit.MINUTES.toMillis(15);
+        return ScheduledRecording.buildFrom(
+                        createSchedule(
+                                id,
+                                "input" + random.nextInt(INPUT_COUNT),
+                                random.nextInt(SERIES_RECORDING_COUNT),
+                                startTimeMs,
+                                endTimeMs))
+                .setState(STATES[random.nextInt(STATES.length)])
+                .build();
+    }
+
+    private static ScheduledRecording createSchedule(
+            long id, String inputId, long seriesRecordingId, long startTimeMs, long endTimeMs) {
+        return ScheduledRecording.builder(inputId, 1, startTimeMs, endTimeMs)
+                .setId(id)
+                .setSeriesRecordingId(seriesRecordingId)
+                .build();
+    }
+}
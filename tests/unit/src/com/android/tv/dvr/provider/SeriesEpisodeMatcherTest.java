@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.dvr.provider;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Build;
+import androidx.test.filters.SdkSuppress;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.data.Program;
+import com.android.tv.dvr.data.SeriesRecording;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link SeriesEpisodeMatcher}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = Build.VERSION_CODES.N)
+public class SeriesEpisodeMatcherTest {
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+    private static final int SERIES_COUNT = 10;
+    private static final int CHANNEL_COUNT = 5;
+
+    @Test
+    public void testMatch_skipsProgramsAfterEndTime() {
+        List<Program> programs =
+                Arrays.asList(
+                        createProgram(1, "series", 1, "1", "1", 0),
+                        createProgram(2, "series", 1, "1", "2", 10 * HOUR_MS),
+                        createProgram(3, "series", 1, "1", "3", 11 * HOUR_MS),
+                        createProgram(4, "other", 1, "1", "1", 0));
+        SeriesEpisodeMatcher matcher = new SeriesEpisodeMatcher(programs, 10 * HOUR_MS);
+
+        List<Program> result =
+                matcher.match(
+                        Arrays.asList(createSeriesRecording(1, "series", 1)),
+                        false,
+                        (seriesRecording, program) -> true);
+
+        assertThat(result).containsExactly(programs.get(0));
+    }
+
+    @Test
+    public void testMatch_checksOnlyFirstMatchingSeriesRecording() {
+        List<Program> programs =
+                Arrays.asList(
+                        createProgram(1, "series", 1, "1", "1", 0),
+                        createProgram(2, "series", 2, "1", "2", HOUR_MS));
+        SeriesEpisodeMatcher matcher = new SeriesEpisodeMatcher(programs, 10 * HOUR_MS);
+        SeriesRecording channel1 = createSeriesRecording(1, "series", 1);
+        SeriesRecording channel2 = createSeriesRecording(2, "series", 2);
+
+        // Rejects all the programs of the first series recording.
+        List<Program> result =
+                matcher.match(
+                        Arrays.asList(channel1, channel2),
+                        false,
+                        (seriesRecording, program) -> seriesRecording != channel1);
+        assertThat(result).containsExactly(programs.get(1));
+
+        // All the programs match the first series recording if the channel option is ignored.
+        result =
+                matcher.match(
+                        Arrays.asList(channel1, channel2),
+                        true,
+                        (seriesRecording, program) -> seriesRecording != channel1);
+        assertThat(result).isEmpty();
+    }
+
+    @Test
+    public void testMatch_sameAsMatchingAllPrograms() {
+        Random random = new Random(1234);
+        List<Program> programs = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            programs.add(
+                    createProgram(
+                            i,
+                            random.nextInt(4) == 0 ? null : "series" + random.nextInt(SERIES_COUNT),
+                            random.nextInt(CHANNEL_COUNT),
+                            String.valueOf(1 + random.nextInt(3)),
+                            String.valueOf(1 + random.nextInt(10)),
+                            random.nextInt(24 * 7) * HOUR_MS));
+        }
+        long endTimeMs = 24 * 5 * HOUR_MS;
+        SeriesEpisodeMatcher matcher = new SeriesEpisodeMatcher(programs, endTimeMs);
+        for (int round = 0; round < 20; ++round) {
+            List<SeriesRecording> seriesRecordings = new ArrayList<>();
+            for (int i = random.nextInt(5); i >= 0; --i) {
+                seriesRecordings.add(
+                        SeriesRecording.buildFrom(
+                                        createSeriesRecording(
+                                                round * 10 + i,
+                                                "series" + random.nextInt(SERIES_COUNT),
+                                                random.nextInt(CHANNEL_COUNT)))
+                                .setChannelOption(
+                                        random.nextBoolean()
+                                                ? SeriesRecording.OPTION_CHANNEL_ALL
+                                                : SeriesRecording.OPTION_CHANNEL_ONE)
+                                .setStartFromSeason(random.nextInt(3))
+                                .setStartFromEpisode(random.nextInt(5))
+                                .build());
+            }
+            boolean ignoreChannelOption = random.nextBoolean();
+            // Accepts the programs depending on both of the series recording and the program.
+            SeriesEpisodeMatcher.Filter filter =
+                    (seriesRecording, program) ->
+                            (seriesRecording.getId() + program.getId()) % 3 != 0;
+
+            Set<Long> expected = new HashSet<>();
+            for (Program program : programs) {
+                if (program.getStartTimeUtcMillis() >= endTimeMs) {
+                    continue;
+                }
+                for (SeriesRecording seriesRecording : seriesRecordings) {
+                    if (ignoreChannelOption
+                            ? seriesRecording.matchProgram(
+                                    program, SeriesRecording.OPTION_CHANNEL_ALL)
+                            : seriesRecording.matchProgram(program)) {
+                        if (filter.accept(seriesRecording, program)) {
+                            expected.add(program.getId());
+                        }
+                        break;
+                    }
+                }
+            }
+            List<Long> actual = new ArrayList<>();
+            for (Program program : matcher.match(seriesRecordings, ignoreChannelOption, filter)) {
+                actual.add(program.getId());
+            }
+            assertThat(actual).containsExactlyElementsIn(expected);
+        }
+    }
+
+    private static Program createProgram(
+            long id,
+            String seriesId,
+            long channelId,
+            String seasonNumber,
+            String episodeNumber,
+            long startTimeMs) {
+        return new Program.Builder()
+                .setId(id)
+                .setTitle("title")
+                .setSeriesId(seriesId)
+                .setChannelId(channelId)
+                .setSeasonNumber(seasonNumber)
+                .setEpisodeNumber(episodeNumber)
+                .setStartTimeUtcMillis(startTimeMs)
+                .setEndTimeUtcMillis(startTimeMs + HOUR_MS)
+                .build();
+    }
+
+    private static SeriesRecording createSeriesRecording(long id, String seriesId, long channelId) {
+        return new SeriesRecording.Builder()
+                .setId(id)
+                .setSeriesId(seriesId)
+                .setChannelId(channelId)
+                .build();
+    }
+}
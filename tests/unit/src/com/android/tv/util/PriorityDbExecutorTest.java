@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.common.concurrent.NamedThreadFactory;
+import com.google.common.base.Suppliers;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link PriorityDbExecutor}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class PriorityDbExecutorTest {
+    private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+
+    private PriorityDbExecutor mExecutor;
+    private final CountDownLatch mBlockingLatch = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        mExecutor =
+                new PriorityDbExecutor(
+                        new NamedThreadFactory("test-db"), Suppliers.ofInstance(null));
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        mBlockingLatch.countDown();
+        mExecutor.shutdownNow();
+        assertThat(mExecutor.awaitTermination(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    @Test
+    public void testInteractiveTaskNotBlockedByBulkTask() throws InterruptedException {
+        CountDownLatch interactiveDone = new CountDownLatch(1);
+        mExecutor.execute(PriorityDbExecutor.PRIORITY_BULK, null, null, this::block);
+
+        mExecutor.execute(
+                PriorityDbExecutor.PRIORITY_INTERACTIVE, null, null, interactiveDone::countDown);
+
+        assertThat(interactiveDone.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    @Test
+    public void testTasksInLaneRunInOrder() throws InterruptedException {
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+
+        for (int i = 0; i < 5; ++i) {
+            int value = i;
+            mExecutor.execute(() -> order.add(value));
+        }
+        mExecutor.execute(done::countDown);
+
+        assertThat(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(order).containsExactly(0, 1, 2, 3, 4).inOrder();
+    }
+
+    @Test
+    public void testCoalescing_supersedesQueuedTask() throws InterruptedException {
+        AtomicBoolean firstRan = new AtomicBoolean();
+        AtomicBoolean firstSuperseded = new AtomicBoolean();
+        CountDownLatch secondDone = new CountDownLatch(1);
+        mExecutor.execute(PriorityDbExecutor.PRIORITY_BACKGROUND, null, null, this::block);
+
+        mExecutor.execute(
+                PriorityDbExecutor.PRIORITY_BACKGROUND,
+                "key",
+                () -> firstSuperseded.set(true),
+                () -> firstRan.set(true));
+        mExecutor.execute(
+                PriorityDbExecutor.PRIORITY_BACKGROUND, "key", null, secondDone::countDown);
+        assertThat(mExecutor.getQueuedTaskCount(PriorityDbExecutor.PRIORITY_BACKGROUND))
+                .isEqualTo(1);
+        mBlockingLatch.countDown();
+
+        assertThat(secondDone.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(firstSuperseded.get()).isTrue();
+        assertThat(firstRan.get()).isFalse();
+        assertThat(mExecutor.getCoalescedTaskCount(PriorityDbExecutor.PRIORITY_BACKGROUND))
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void testCoalescing_differentKeysBothRun() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(2);
+        mExecutor.execute(PriorityDbExecutor.PRIORITY_BACKGROUND, null, null, this::block);
+
+        mExecutor.execute(PriorityDbExecutor.PRIORITY_BACKGROUND, "a", null, done::countDown);
+        mExecutor.execute(PriorityDbExecutor.PRIORITY_BACKGROUND, "b", null, done::countDown);
+        mBlockingLatch.countDown();
+
+        assertThat(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    private void block() {
+        try {
+            mBlockingLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util.images;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.graphics.Bitmap;
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.util.images.BitmapUtils.ScaledBitmapInfo;
+import java.io.File;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link DiskImageCache}. */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class DiskImageCacheTest {
+    private static final String URI_1 = "https://example.com/poster1.jpg";
+    private static final String URI_2 = "https://example.com/poster2.jpg";
+    private static final String URI_3 = "https://example.com/poster3.jpg";
+    private static final int SIZE = 64;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(getTargetContext().getCacheDir(), "disk_image_cache_test");
+        deleteDirectory();
+    }
+
+    @After
+    public void tearDown() {
+        deleteDirectory();
+    }
+
+    @Test
+    public void testGet_afterPut() {
+        DiskImageCache cache = new DiskImageCache(mDirectory, Long.MAX_VALUE);
+
+        assertThat(cache.get(URI_1, SIZE, SIZE)).isNull();
+        cache.put(createBitmapInfo(URI_1, 2), SIZE, SIZE);
+        ScaledBitmapInfo bitmapInfo = cache.get(URI_1, SIZE, SIZE);
+
+        assertThat(bitmapInfo).isNotNull();
+        assertThat(bitmapInfo.id).isEqualTo(URI_1);
+        assertThat(bitmapInfo.inSampleSize).isEqualTo(2);
+        assertThat(bitmapInfo.bitmap.getWidth()).isEqualTo(SIZE);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGet_differentSizeMisses() {
+        DiskImageCache cache = new DiskImageCache(mDirectory, Long.MAX_VALUE);
+
+        cache.put(createBitmapInfo(URI_1, 1), SIZE, SIZE);
+
+        assertThat(cache.get(URI_1, SIZE * 2, SIZE * 2)).isNull();
+    }
+
+    @Test
+    public void testPut_evictsLeastRecentlyUsed() {
+        DiskImageCache cache = new DiskImageCache(mDirectory, Long.MAX_VALUE);
+        cache.put(createBitmapInfo(URI_1, 1), SIZE, SIZE);
+        long entrySize = cache.getSize();
+        // Room for two entries.
+        cache = new DiskImageCache(mDirectory, entrySize * 2 + entrySize / 2);
+        cache.put(createBitmapInfo(URI_2, 1), SIZE, SIZE);
+        assertThat(cache.get(URI_1, SIZE, SIZE)).isNotNull();
+
+        cache.put(createBitmapInfo(URI_3, 1), SIZE, SIZE);
+
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+        assertThat(cache.get(URI_2, SIZE, SIZE)).isNull();
+        assertThat(cache.get(URI_1, SIZE, SIZE)).isNotNull();
+        assertThat(cache.get(URI_3, SIZE, SIZE)).isNotNull();
+    }
+
+    @Test
+    public void testEntriesSurviveRestart() {
+        new DiskImageCache(mDirectory, Long.MAX_VALUE).put(createBitmapInfo(URI_1, 1), SIZE, SIZE);
+
+        DiskImageCache cache = new DiskImageCache(mDirectory, Long.MAX_VALUE);
+
+        assertThat(cache.get(URI_1, SIZE, SIZE)).isNotNull();
+    }
+
+    private static ScaledBitmapInfo createBitmapInfo(String uri, int inSampleSize) {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.RGB_565);
+        bitmap.eraseColor(uri.hashCode());
+        return new ScaledBitmapInfo(uri, bitmap, inSampleSize);
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.util.images;
+
+import static androidx.test.InstrumentationRegistry.getInstrumentation;
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import android.graphics.Bitmap;
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.util.images.BitmapUtils.ScaledBitmapInfo;
+import com.android.tv.util.images.ImageLoader.DiscardOldestPolicy;
+import com.android.tv.util.images.ImageLoader.ImageLoaderCallback;
+import com.android.tv.util.images.ImageLoader.LifoBlockingDeque;
+import com.android.tv.util.images.ImageLoader.LoadBitmapTask;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link ImageLoader}. */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class ImageLoaderTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    // Keeps the tasks which are scheduled by ImageLoader without running them.
+    private final List<Runnable> mQueuedTasks = new ArrayList<>();
+    private final Executor mExecutor = mQueuedTasks::add;
+    private final Object mView1 = new Object();
+    private final Object mView2 = new Object();
+
+    @After
+    public void tearDown() {
+        // Finishes the tasks so that they are removed from the pending list.
+        for (Runnable task : mQueuedTasks) {
+            task.run();
+        }
+    }
+
+    @Test
+    public void testLifoBlockingDeque_takesLatestFirst() {
+        LifoBlockingDeque queue = new LifoBlockingDeque(3);
+        Runnable first = () -> {};
+        Runnable second = () -> {};
+        Runnable third = () -> {};
+        queue.offer(first);
+        queue.offer(second);
+        queue.offer(third);
+
+        assertThat(queue.offer(() -> {})).isFalse();
+        assertThat(queue.poll()).isSameAs(third);
+        assertThat(queue.poll()).isSameAs(second);
+        assertThat(queue.poll()).isSameAs(first);
+    }
+
+    @Test
+    public void testDiscardOldestPolicy_dropsOldestQueuedTask() throws InterruptedException {
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        1,
+                        1,
+                        0,
+                        TimeUnit.SECONDS,
+                        new LifoBlockingDeque(2),
+                        new DiscardOldestPolicy());
+        CountDownLatch blockingTaskStarted = new CountDownLatch(1);
+        CountDownLatch blockingTaskReleased = new CountDownLatch(1);
+        List<String> executedTasks = Collections.synchronizedList(new ArrayList<>());
+        executor.execute(
+                () -> {
+                    blockingTaskStarted.countDown();
+                    try {
+                        blockingTaskReleased.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        assertThat(blockingTaskStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        int droppedTaskCount = ImageLoader.getDroppedTaskCount();
+        FutureTask<Void> oldest = new FutureTask<>(() -> executedTasks.add("oldest"), null);
+        executor.execute(oldest);
+        executor.execute(() -> executedTasks.add("older"));
+        executor.execute(() -> executedTasks.add("newest"));
+
+        blockingTaskReleased.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+        assertThat(oldest.isCancelled()).isTrue();
+        assertThat(executedTasks).containsExactly("newest", "older").inOrder();
+        assertThat(ImageLoader.getDroppedTaskCount()).isEqualTo(droppedTaskCount + 1);
+    }
+
+    @Test
+    public void testCancelLoads_cancelsTaskNoOneWaitsFor() {
+        TestTask task = new TestTask("cancel");
+        int cancelledTaskCount = ImageLoader.getCancelledTaskCount();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            ImageLoader.doLoadBitmap(new TestCallback(mView1), mExecutor, task);
+                            ImageLoader.cancelLoads(mView1);
+                        });
+
+        assertThat(task.isCancelled()).isTrue();
+        assertThat(ImageLoader.getCancelledTaskCount()).isEqualTo(cancelledTaskCount + 1);
+    }
+
+    @Test
+    public void testCancelLoads_keepsTaskAnotherViewWaitsFor() {
+        TestTask task = new TestTask("shared");
+        TestTask sameTask = new TestTask("shared");
+        int dedupHitCount = ImageLoader.getDedupHitCount();
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            ImageLoader.doLoadBitmap(new TestCallback(mView1), mExecutor, task);
+                            ImageLoader.doLoadBitmap(
+                                    new TestCallback(mView2), mExecutor, sameTask);
+                        });
+        assertWithMessage("joined tasks").that(mQueuedTasks).hasSize(1);
+        assertThat(ImageLoader.getDedupHitCount()).isEqualTo(dedupHitCount + 1);
+
+        getInstrumentation().runOnMainSync(() -> ImageLoader.cancelLoads(mView1));
+        assertWithMessage("after cancelling view1").that(task.isCancelled()).isFalse();
+
+        getInstrumentation().runOnMainSync(() -> ImageLoader.cancelLoads(mView2));
+        assertWithMessage("after cancelling view2").that(task.isCancelled()).isTrue();
+    }
+
+    @Test
+    public void testCancelLoads_keepsPrefetch() {
+        TestTask task = new TestTask("prefetch");
+        getInstrumentation()
+                .runOnMainSync(
+                        () -> {
+                            ImageLoader.doLoadBitmap(null, mExecutor, task);
+                            ImageLoader.cancelLoads(mView1);
+                        });
+
+        assertThat(task.isCancelled()).isFalse();
+    }
+
+    private static class TestTask extends LoadBitmapTask {
+        TestTask(String key) {
+            super(getTargetContext(), ImageCache.newInstance(0.1f), key, 100, 100);
+        }
+
+        @Override
+        public ScaledBitmapInfo doGetBitmapInBackground() {
+            return null;
+        }
+    }
+
+    private static class TestCallback extends ImageLoaderCallback<Object> {
+        TestCallback(Object referent) {
+            super(referent);
+        }
+
+        @Override
+        public void onBitmapLoaded(Object referent, Bitmap bitmap) {}
+    }
+}
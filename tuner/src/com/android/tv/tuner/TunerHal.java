@@ -22,6 +22,7 @@ import com.android.tv.common.BuildConfig;
 import com.android.tv.common.compat.TvInputConstantCompat;
 import com.android.tv.tuner.api.Tuner;
 import com.android.tv.common.annotation.UsedByNative;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
 /** A base class to handle a hardware tuner device. */
@@ -39,6 +40,8 @@ public abstract class TunerHal implements Tuner {
     private boolean mIsStreaming;
     private int mFrequency;
     private String mModulation;
+    // Reused for reading into a non-direct buffer. Guarded by this.
+    private byte[] mReadBuffer;
 
     static {
         if (!BuildConfig.NO_JNI_TEST) {
@@ -213,6 +216,39 @@ public abstract class TunerHal implements Tuner {
         }
     }
 
+    /**
+     * Same as {@link #readTsStream(byte[], int)}, but the frames are read from the device directly
+     * into {@code buffer} when it is a direct buffer, without a copy into a Java array. Otherwise
+     * they are copied through an array which is kept for the next reads.
+     *
+     * @param buffer a buffer to write the video data in from its position. The position is
+     *     advanced by the amount of bytes written.
+     * @return the amount of bytes written in the buffer
+     */
+    @Override
+    public synchronized int readTsStream(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            if (mReadBuffer == null || mReadBuffer.length < buffer.remaining()) {
+                mReadBuffer = new byte[buffer.remaining()];
+            }
+            int size = readTsStream(mReadBuffer, buffer.remaining());
+            if (size > 0) {
+                buffer.put(mReadBuffer, 0, size);
+            }
+            return size;
+        }
+        if (!isDeviceOpen()) {
+            return 0;
+        }
+        int size =
+                nativeWriteInDirectBuffer(
+                        getDeviceId(), buffer, buffer.position(), buffer.remaining());
+        if (size > 0) {
+            buffer.position(buffer.position() + size);
+        }
+        return size;
+    }
+
     /**
      * This method gets signal strength for currently tuned channel.
      * Each specific tuner should implement its own method.
@@ -230,6 +266,9 @@ public abstract class TunerHal implements Tuner {
 
     protected native int nativeWriteInBuffer(long deviceId, byte[] javaBuffer, int javaBufferSize);
 
+    protected native int nativeWriteInDirectBuffer(
+            long deviceId, ByteBuffer directBuffer, int offset, int size);
+
     /**
      * Opens Linux DVB frontend device. This method is called from native JNI and used only for
      * DvbTunerHal.
@@ -19,6 +19,7 @@ import android.support.annotation.IntDef;
 import android.support.annotation.StringDef;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.nio.ByteBuffer;
 
 /** A interface a hardware tuner device. */
 public interface Tuner extends AutoCloseable {
@@ -76,6 +77,18 @@ public interface Tuner extends AutoCloseable {
 
     int readTsStream(byte[] javaBuffer, int javaBufferSize);
 
+    /**
+     * Writes TS frames into {@code buffer} from its position, and advances the position by the
+     * number of bytes written.
+     *
+     * <p>This is called for every read of the stream, so it should not allocate a Java array for
+     * each call.
+     *
+     * @return the number of bytes written. Note that this value could be 0 if no new frames have
+     *     been obtained since the last call.
+     */
+    int readTsStream(ByteBuffer buffer);
+
     int getSignalStrength();
 
     /** Filter type */
@@ -24,6 +24,7 @@ import android.text.TextUtils;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseIntArray;
 
 import com.android.tv.tuner.data.PsiData.PatItem;
 import com.android.tv.tuner.data.PsiData.PmtItem;
@@ -37,7 +38,6 @@ import com.android.tv.tuner.data.PsipData.GenreDescriptor;
 import com.android.tv.tuner.data.PsipData.Iso639LanguageDescriptor;
 import com.android.tv.tuner.data.PsipData.MgtItem;
 import com.android.tv.tuner.data.PsipData.ParentalRatingDescriptor;
-import com.android.tv.tuner.data.PsipData.PsipSection;
 import com.android.tv.tuner.data.PsipData.RatingRegion;
 import com.android.tv.tuner.data.PsipData.RegionalRating;
 import com.android.tv.tuner.data.PsipData.SdtItem;
@@ -50,11 +50,11 @@ import com.android.tv.tuner.data.nano.Track.AtscAudioTrack;
 import com.android.tv.tuner.data.nano.Track.AtscCaptionTrack;
 import com.android.tv.tuner.util.ByteArrayBuffer;
 import com.android.tv.tuner.util.ConvertUtils;
+import com.android.tv.tuner.util.Crc32Mpeg2;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -157,78 +157,6 @@ public class SectionParser {
     private static final String STRING_US_TV_Y7 = "US_TV_Y7";
     private static final String STRING_US_TV_FV = "US_TV_FV";
 
-    /*
-     * The following CRC table is from the code generated by the following command.
-     * $ python pycrc.py --model crc-32-mpeg --algorithm table-driven --generate c
-     * To see the details of pycrc, visit http://www.tty1.net/pycrc/index_en.html
-     */
-    public static final int[] CRC_TABLE = {
-        0x00000000, 0x04c11db7, 0x09823b6e, 0x0d4326d9,
-        0x130476dc, 0x17c56b6b, 0x1a864db2, 0x1e475005,
-        0x2608edb8, 0x22c9f00f, 0x2f8ad6d6, 0x2b4bcb61,
-        0x350c9b64, 0x31cd86d3, 0x3c8ea00a, 0x384fbdbd,
-        0x4c11db70, 0x48d0c6c7, 0x4593e01e, 0x4152fda9,
-        0x5f15adac, 0x5bd4b01b, 0x569796c2, 0x52568b75,
-        0x6a1936c8, 0x6ed82b7f, 0x639b0da6, 0x675a1011,
-        0x791d4014, 0x7ddc5da3, 0x709f7b7a, 0x745e66cd,
-        0x9823b6e0, 0x9ce2ab57, 0x91a18d8e, 0x95609039,
-        0x8b27c03c, 0x8fe6dd8b, 0x82a5fb52, 0x8664e6e5,
-        0xbe2b5b58, 0xbaea46ef, 0xb7a96036, 0xb3687d81,
-        0xad2f2d84, 0xa9ee3033, 0xa4ad16ea, 0xa06c0b5d,
-        0xd4326d90, 0xd0f37027, 0xddb056fe, 0xd9714b49,
-        0xc7361b4c, 0xc3f706fb, 0xceb42022, 0xca753d95,
-        0xf23a8028, 0xf6fb9d9f, 0xfbb8bb46, 0xff79a6f1,
-        0xe13ef6f4, 0xe5ffeb43, 0xe8bccd9a, 0xec7dd02d,
-        0x34867077, 0x30476dc0, 0x3d044b19, 0x39c556ae,
-        0x278206ab, 0x23431b1c, 0x2e003dc5, 0x2ac12072,
-        0x128e9dcf, 0x164f8078, 0x1b0ca6a1, 0x1fcdbb16,
-        0x018aeb13, 0x054bf6a4, 0x0808d07d, 0x0cc9cdca,
-        0x7897ab07, 0x7c56b6b0, 0x71159069, 0x75d48dde,
-        0x6b93dddb, 0x6f52c06c, 0x6211e6b5, 0x66d0fb02,
-        0x5e9f46bf, 0x5a5e5b08, 0x571d7dd1, 0x53dc6066,
-        0x4d9b3063, 0x495a2dd4, 0x44190b0d, 0x40d816ba,
-        0xaca5c697, 0xa864db20, 0xa527fdf9, 0xa1e6e04e,
-        0xbfa1b04b, 0xbb60adfc, 0xb6238b25, 0xb2e29692,
-        0x8aad2b2f, 0x8e6c3698, 0x832f1041, 0x87ee0df6,
-        0x99a95df3, 0x9d684044, 0x902b669d, 0x94ea7b2a,
-        0xe0b41de7, 0xe4750050, 0xe9362689, 0xedf73b3e,
-        0xf3b06b3b, 0xf771768c, 0xfa325055, 0xfef34de2,
-        0xc6bcf05f, 0xc27dede8, 0xcf3ecb31, 0xcbffd686,
-        0xd5b88683, 0xd1799b34, 0xdc3abded, 0xd8fba05a,
-        0x690ce0ee, 0x6dcdfd59, 0x608edb80, 0x644fc637,
-        0x7a089632, 0x7ec98b85, 0x738aad5c, 0x774bb0eb,
-        0x4f040d56, 0x4bc510e1, 0x46863638, 0x42472b8f,
-        0x5c007b8a, 0x58c1663d, 0x558240e4, 0x51435d53,
-        0x251d3b9e, 0x21dc2629, 0x2c9f00f0, 0x285e1d47,
-        0x36194d42, 0x32d850f5, 0x3f9b762c, 0x3b5a6b9b,
-        0x0315d626, 0x07d4cb91, 0x0a97ed48, 0x0e56f0ff,
-        0x1011a0fa, 0x14d0bd4d, 0x19939b94, 0x1d528623,
-        0xf12f560e, 0xf5ee4bb9, 0xf8ad6d60, 0xfc6c70d7,
-        0xe22b20d2, 0xe6ea3d65, 0xeba91bbc, 0xef68060b,
-        0xd727bbb6, 0xd3e6a601, 0xdea580d8, 0xda649d6f,
-        0xc423cd6a, 0xc0e2d0dd, 0xcda1f604, 0xc960ebb3,
-        0xbd3e8d7e, 0xb9ff90c9, 0xb4bcb610, 0xb07daba7,
-        0xae3afba2, 0xaafbe615, 0xa7b8c0cc, 0xa379dd7b,
-        0x9b3660c6, 0x9ff77d71, 0x92b45ba8, 0x9675461f,
-        0x8832161a, 0x8cf30bad, 0x81b02d74, 0x857130c3,
-        0x5d8a9099, 0x594b8d2e, 0x5408abf7, 0x50c9b640,
-        0x4e8ee645, 0x4a4ffbf2, 0x470cdd2b, 0x43cdc09c,
-        0x7b827d21, 0x7f436096, 0x7200464f, 0x76c15bf8,
-        0x68860bfd, 0x6c47164a, 0x61043093, 0x65c52d24,
-        0x119b4be9, 0x155a565e, 0x18197087, 0x1cd86d30,
-        0x029f3d35, 0x065e2082, 0x0b1d065b, 0x0fdc1bec,
-        0x3793a651, 0x3352bbe6, 0x3e119d3f, 0x3ad08088,
-        0x2497d08d, 0x2056cd3a, 0x2d15ebe3, 0x29d4f654,
-        0xc5a92679, 0xc1683bce, 0xcc2b1d17, 0xc8ea00a0,
-        0xd6ad50a5, 0xd26c4d12, 0xdf2f6bcb, 0xdbee767c,
-        0xe3a1cbc1, 0xe760d676, 0xea23f0af, 0xeee2ed18,
-        0xf0a5bd1d, 0xf464a0aa, 0xf9278673, 0xfde69bc4,
-        0x89b8fd09, 0x8d79e0be, 0x803ac667, 0x84fbdbd0,
-        0x9abc8bd5, 0x9e7d9662, 0x933eb0bb, 0x97ffad0c,
-        0xafb010b1, 0xab710d06, 0xa6322bdf, 0xa2f33668,
-        0xbcb4666d, 0xb8757bda, 0xb5365d03, 0xb1f740b4
-    };
-
     // A table which maps ATSC genres to TIF genres.
     // See ATSC/65 Table 6.20.
     private static final String[] CANONICAL_GENRES_TABLE = {
@@ -620,10 +548,18 @@ public class SectionParser {
     private static final Charset SCSU_CHARSET =
             Charset.isSupported("SCSU") ? Charset.forName("SCSU") : null;
 
-    // Containers to store the last version numbers of the PSIP sections.
-    private final HashMap<PsipSection, Integer> mSectionVersionMap = new HashMap<>();
+    private static final int INVALID_VERSION_NUMBER = -1;
+
+    // Containers to store the last version numbers of the PSIP sections, keyed by table id, table
+    // id extension and section number. See getSectionKey().
+    private final SparseIntArray mSectionVersionMap = new SparseIntArray();
     private final SparseArray<List<EttItem>> mParsedEttItems = new SparseArray<>();
 
+    // Counters for sections which were handed to the table parsers and sections which were
+    // discarded early as unchanged repeats.
+    private int mParsedSectionCount;
+    private int mSkippedSectionCount;
+
     public interface OutputListener {
         void onPatParsed(List<PatItem> items);
 
@@ -642,8 +578,16 @@ public class SectionParser {
 
     private final OutputListener mListener;
 
+    private final Crc32Mpeg2 mCrc32;
+
     public SectionParser(OutputListener listener) {
+        this(listener, Crc32Mpeg2.getDefault());
+    }
+
+    @VisibleForTesting
+    SectionParser(OutputListener listener, Crc32Mpeg2 crc32) {
         mListener = listener;
+        mCrc32 = crc32;
     }
 
     public void parseSections(ByteArrayBuffer data) {
@@ -662,7 +606,8 @@ public class SectionParser {
             if (DEBUG) {
                 Log.d(TAG, "parseSections 0x" + Integer.toHexString(data.byteAt(pos) & 0xff));
             }
-            parseSection(Arrays.copyOfRange(data.buffer(), pos, pos + sectionLength));
+            // Sections are parsed in place from the reassembly buffer to avoid a copy per section.
+            parseSection(data.buffer(), pos, pos + sectionLength);
             pos += sectionLength;
         }
         if (mListener != null) {
@@ -679,73 +624,99 @@ public class SectionParser {
         mSectionVersionMap.clear();
     }
 
-    private void parseSection(byte[] data) {
-        if (!checkSanity(data)) {
-            Log.d(TAG, "Bad CRC!");
-            return;
-        }
-        PsipSection section = PsipSection.create(data);
-        if (section == null) {
+    /** Returns the number of sections which passed the version and CRC checks. */
+    public int getParsedSectionCount() {
+        return mParsedSectionCount;
+    }
+
+    /** Returns the number of sections which were discarded as repeats of a known version. */
+    public int getSkippedSectionCount() {
+        return mSkippedSectionCount;
+    }
+
+    /** Returns the number of the sections whose last version number is kept. */
+    @VisibleForTesting
+    int getTrackedSectionCount() {
+        return mSectionVersionMap.size();
+    }
+
+    private void parseSection(byte[] data, int offset, int limit) {
+        if (limit - offset < 9) {
             return;
         }
 
         // The currentNextIndicator indicates that the section sent is currently applicable.
-        if (!section.getCurrentNextIndicator()) {
+        if ((data[offset + 5] & 0x01) == 0) {
             return;
         }
-        int versionNumber = (data[5] & 0x3e) >> 1;
-        Integer oldVersionNumber = mSectionVersionMap.get(section);
+        int sectionKey = getSectionKey(data, offset);
+        int versionNumber = (data[offset + 5] & 0x3e) >> 1;
 
         // The versionNumber shall be incremented when a change in the information carried within
-        // the section occurs.
-        if (oldVersionNumber != null && versionNumber == oldVersionNumber) {
+        // the section occurs. Most of the sections are repeats of the carousel, so they are
+        // discarded here before paying for the CRC check.
+        if (mSectionVersionMap.get(sectionKey, INVALID_VERSION_NUMBER) == versionNumber) {
+            mSkippedSectionCount++;
+            return;
+        }
+        if (!checkSanity(data, offset, limit)) {
+            Log.d(TAG, "Bad CRC!");
             return;
         }
+        mParsedSectionCount++;
         boolean result = false;
-        switch (data[0]) {
+        switch (data[offset]) {
             case TABLE_ID_PAT:
-                result = parsePAT(data);
+                result = parsePAT(data, offset, limit);
                 break;
             case TABLE_ID_PMT:
-                result = parsePMT(data);
+                result = parsePMT(data, offset, limit);
                 break;
             case TABLE_ID_MGT:
-                result = parseMGT(data);
+                result = parseMGT(data, offset, limit);
                 break;
             case TABLE_ID_TVCT:
             case TABLE_ID_CVCT:
-                result = parseVCT(data);
+                result = parseVCT(data, offset, limit);
                 break;
             case TABLE_ID_EIT:
-                result = parseEIT(data);
+                result = parseEIT(data, offset, limit);
                 break;
             case TABLE_ID_ETT:
-                result = parseETT(data);
+                result = parseETT(data, offset, limit);
                 break;
             case TABLE_ID_SDT:
-                result = parseSDT(data);
+                result = parseSDT(data, offset, limit);
                 break;
             case TABLE_ID_DVB_ACTUAL_P_F_EIT:
             case TABLE_ID_DVB_ACTUAL_SCHEDULE_EIT:
-                result = parseDVBEIT(data);
+                result = parseDVBEIT(data, offset, limit);
                 break;
             default:
                 break;
         }
         if (result) {
-            mSectionVersionMap.put(section, versionNumber);
+            mSectionVersionMap.put(sectionKey, versionNumber);
         }
     }
 
-    private boolean parsePAT(byte[] data) {
+    private static int getSectionKey(byte[] data, int offset) {
+        // table_id (8 bits), table_id_extension (16 bits) and section_number (8 bits).
+        return (data[offset] & 0xff) << 24
+                | (data[offset + 3] & 0xff) << 16
+                | (data[offset + 4] & 0xff) << 8
+                | (data[offset + 6] & 0xff);
+    }
+
+    private boolean parsePAT(byte[] data, int offset, int limit) {
         if (DEBUG) {
             Log.d(TAG, "PAT is discovered.");
         }
-        int pos = 8;
+        int pos = offset + 8;
 
         List<PatItem> results = new ArrayList<>();
-        for (; pos < data.length - 4; pos = pos + 4) {
-            if (pos > data.length - 4 - 4) {
+        for (; pos < limit - 4; pos = pos + 4) {
+            if (pos > limit - 4 - 4) {
                 Log.e(TAG, "Broken PAT.");
                 return false;
             }
@@ -759,25 +730,25 @@ public class SectionParser {
         return true;
     }
 
-    private boolean parsePMT(byte[] data) {
-        int table_id_ext = ((data[3] & 0xff) << 8) | (data[4] & 0xff);
+    private boolean parsePMT(byte[] data, int offset, int limit) {
+        int table_id_ext = ((data[offset + 3] & 0xff) << 8) | (data[offset + 4] & 0xff);
         if (DEBUG) {
             Log.d(TAG, "PMT is discovered. programNo = " + table_id_ext);
         }
-        if (data.length <= 11) {
+        if (limit <= offset + 11) {
             Log.e(TAG, "Broken PMT.");
             return false;
         }
-        int pcrPid = (data[8] & 0x1f) << 8 | data[9];
-        int programInfoLen = (data[10] & 0x0f) << 8 | data[11];
-        int pos = 12;
-        List<TsDescriptor> descriptors = parseDescriptors(data, pos, pos + programInfoLen);
+        int pcrPid = (data[offset + 8] & 0x1f) << 8 | data[offset + 9];
+        int programInfoLen = (data[offset + 10] & 0x0f) << 8 | data[offset + 11];
+        int pos = offset + 12;
+        List<TsDescriptor> descriptors = parseDescriptors(data, pos, pos + programInfoLen, limit);
         pos += programInfoLen;
         if (DEBUG) {
             Log.d(TAG, "PMT descriptors size: " + descriptors.size());
         }
         List<PmtItem> results = new ArrayList<>();
-        for (; pos < data.length - 4; ) {
+        for (; pos < limit - 4; ) {
             if (pos < 0) {
                 Log.e(TAG, "Broken PMT.");
                 return false;
@@ -785,11 +756,11 @@ public class SectionParser {
             int streamType = data[pos] & 0xff;
             int esPid = (data[pos + 1] & 0x1f) << 8 | (data[pos + 2] & 0xff);
             int esInfoLen = (data[pos + 3] & 0xf) << 8 | (data[pos + 4] & 0xff);
-            if (data.length < pos + esInfoLen + 5) {
+            if (limit < pos + esInfoLen + 5) {
                 Log.e(TAG, "Broken PMT.");
                 return false;
             }
-            descriptors = parseDescriptors(data, pos + 5, pos + 5 + esInfoLen);
+            descriptors = parseDescriptors(data, pos + 5, pos + 5 + esInfoLen, limit);
             List<AtscAudioTrack> audioTracks = generateAudioTracks(descriptors);
             List<AtscCaptionTrack> captionTracks = generateCaptionTracks(descriptors);
             PmtItem pmtItem = new PmtItem(streamType, esPid, audioTracks, captionTracks);
@@ -806,20 +777,20 @@ public class SectionParser {
         return true;
     }
 
-    private boolean parseMGT(byte[] data) {
+    private boolean parseMGT(byte[] data, int offset, int limit) {
         // For details of the structure for MGT, see ATSC A/65 Table 6.2.
         if (DEBUG) {
             Log.d(TAG, "MGT is discovered.");
         }
-        if (data.length <= 10) {
+        if (limit <= offset + 10) {
             Log.e(TAG, "Broken MGT.");
             return false;
         }
-        int tablesDefined = ((data[9] & 0xff) << 8) | (data[10] & 0xff);
-        int pos = 11;
+        int tablesDefined = ((data[offset + 9] & 0xff) << 8) | (data[offset + 10] & 0xff);
+        int pos = offset + 11;
         List<MgtItem> results = new ArrayList<>();
         for (int i = 0; i < tablesDefined; ++i) {
-            if (data.length <= pos + 10) {
+            if (limit <= pos + 10) {
                 Log.e(TAG, "Broken MGT.");
                 return false;
             }
@@ -837,18 +808,18 @@ public class SectionParser {
         return true;
     }
 
-    private boolean parseVCT(byte[] data) {
+    private boolean parseVCT(byte[] data, int offset, int limit) {
         // For details of the structure for VCT, see ATSC A/65 Table 6.4 and 6.8.
         if (DEBUG) {
             Log.d(TAG, "VCT is discovered.");
         }
-        if (data.length <= 9) {
+        if (limit <= offset + 9) {
             Log.e(TAG, "Broken VCT.");
             return false;
         }
-        int numChannelsInSection = (data[9] & 0xff);
-        int sectionNumber = (data[6] & 0xff);
-        int lastSectionNumber = (data[7] & 0xff);
+        int numChannelsInSection = (data[offset + 9] & 0xff);
+        int sectionNumber = (data[offset + 6] & 0xff);
+        int lastSectionNumber = (data[offset + 7] & 0xff);
         if (sectionNumber > lastSectionNumber) {
             // According to section 6.3.1 of the spec ATSC A/65,
             // last section number is the largest section number.
@@ -860,18 +831,17 @@ public class SectionParser {
                             + lastSectionNumber);
             return false;
         }
-        int pos = 10;
+        int pos = offset + 10;
         List<VctItem> results = new ArrayList<>();
         for (int i = 0; i < numChannelsInSection; ++i) {
-            if (data.length <= pos + 31) {
+            if (limit <= pos + 31) {
                 Log.e(TAG, "Broken VCT.");
                 return false;
             }
             String shortName = "";
             int shortNameSize = getShortNameSize(data, pos);
             try {
-                shortName =
-                        new String(Arrays.copyOfRange(data, pos, pos + shortNameSize), "UTF-16");
+                shortName = new String(data, pos, shortNameSize, "UTF-16");
             } catch (UnsupportedEncodingException e) {
                 Log.e(TAG, "Broken VCT.", e);
                 return false;
@@ -897,12 +867,13 @@ public class SectionParser {
             int descriptorsPos = pos + 32;
             int descriptorsLength = ((data[pos + 30] & 0x03) << 8) | (data[pos + 31] & 0xff);
             pos += 32 + descriptorsLength;
-            if (data.length < pos) {
+            if (limit <= pos) {
                 Log.e(TAG, "Broken VCT.");
                 return false;
             }
             List<TsDescriptor> descriptors =
-                    parseDescriptors(data, descriptorsPos, descriptorsPos + descriptorsLength);
+                    parseDescriptors(
+                            data, descriptorsPos, descriptorsPos + descriptorsLength, limit);
             String longName = null;
             for (TsDescriptor descriptor : descriptors) {
                 if (descriptor instanceof ExtendedChannelNameDescriptor) {
@@ -958,22 +929,22 @@ public class SectionParser {
         return true;
     }
 
-    private boolean parseEIT(byte[] data) {
+    private boolean parseEIT(byte[] data, int offset, int limit) {
         // For details of the structure for EIT, see ATSC A/65 Table 6.11.
         if (DEBUG) {
             Log.d(TAG, "EIT is discovered.");
         }
-        if (data.length <= 9) {
+        if (limit <= offset + 9) {
             Log.e(TAG, "Broken EIT.");
             return false;
         }
-        int sourceId = ((data[3] & 0xff) << 8) | (data[4] & 0xff);
-        int numEventsInSection = (data[9] & 0xff);
+        int sourceId = ((data[offset + 3] & 0xff) << 8) | (data[offset + 4] & 0xff);
+        int numEventsInSection = (data[offset + 9] & 0xff);
 
-        int pos = 10;
+        int pos = offset + 10;
         List<EitItem> results = new ArrayList<>();
         for (int i = 0; i < numEventsInSection; ++i) {
-            if (data.length <= pos + 9) {
+            if (limit <= pos + 9) {
                 Log.e(TAG, "Broken EIT.");
                 return false;
             }
@@ -992,13 +963,13 @@ public class SectionParser {
                             | ((data[pos + 7] & 0xff) << 8)
                             | (data[pos + 8] & 0xff);
             int titleLength = (data[pos + 9] & 0xff);
-            if (data.length <= pos + 10 + titleLength + 1) {
+            if (limit <= pos + 10 + titleLength + 1) {
                 Log.e(TAG, "Broken EIT.");
                 return false;
             }
             String titleText = "";
             if (titleLength > 0) {
-                titleText = extractText(data, pos + 10);
+                titleText = extractText(data, pos + 10, limit);
             }
             if ((data[pos + 10 + titleLength] & 0xf0) != 0xf0) {
                 Log.e(TAG, "Broken EIT.");
@@ -1008,12 +979,13 @@ public class SectionParser {
                     ((data[pos + 10 + titleLength] & 0x0f) << 8)
                             | (data[pos + 10 + titleLength + 1] & 0xff);
             int descriptorsPos = pos + 10 + titleLength + 2;
-            if (data.length < descriptorsPos + descriptorsLength) {
+            if (limit < descriptorsPos + descriptorsLength) {
                 Log.e(TAG, "Broken EIT.");
                 return false;
             }
             List<TsDescriptor> descriptors =
-                    parseDescriptors(data, descriptorsPos, descriptorsPos + descriptorsLength);
+                    parseDescriptors(
+                            data, descriptorsPos, descriptorsPos + descriptorsLength, limit);
             if (DEBUG) {
                 Log.d(TAG, String.format("EIT descriptors size: %d", descriptors.size()));
             }
@@ -1043,18 +1015,18 @@ public class SectionParser {
         return true;
     }
 
-    private boolean parseETT(byte[] data) {
+    private boolean parseETT(byte[] data, int offset, int limit) {
         // For details of the structure for ETT, see ATSC A/65 Table 6.13.
         if (DEBUG) {
             Log.d(TAG, "ETT is discovered.");
         }
-        if (data.length <= 12) {
+        if (limit <= offset + 12) {
             Log.e(TAG, "Broken ETT.");
             return false;
         }
-        int sourceId = ((data[9] & 0xff) << 8) | (data[10] & 0xff);
-        int eventId = (((data[11] & 0xff) << 8) | (data[12] & 0xff)) >> 2;
-        String text = extractText(data, 13);
+        int sourceId = ((data[offset + 9] & 0xff) << 8) | (data[offset + 10] & 0xff);
+        int eventId = (((data[offset + 11] & 0xff) << 8) | (data[offset + 12] & 0xff)) >> 2;
+        String text = extractText(data, offset + 13, limit);
         List<EttItem> ettItems = mParsedEttItems.get(sourceId);
         if (ettItems == null) {
             ettItems = new ArrayList<>();
@@ -1064,32 +1036,33 @@ public class SectionParser {
         return true;
     }
 
-    private boolean parseSDT(byte[] data) {
+    private boolean parseSDT(byte[] data, int offset, int limit) {
         // For details of the structure for SDT, see DVB Document A038 Table 5.
         if (DEBUG) {
             Log.d(TAG, "SDT id discovered");
         }
-        if (data.length <= 11) {
+        if (limit <= offset + 11) {
             Log.e(TAG, "Broken SDT.");
             return false;
         }
-        if ((data[1] & 0x80) >> 7 != 1) {
+        if ((data[offset + 1] & 0x80) >> 7 != 1) {
             Log.e(TAG, "Broken SDT, section syntax indicator error.");
             return false;
         }
-        int sectionLength = ((data[1] & 0x0f) << 8) | (data[2] & 0xff);
-        int transportStreamId = ((data[3] & 0xff) << 8) | (data[4] & 0xff);
-        int originalNetworkId = ((data[8] & 0xff) << 8) | (data[9] & 0xff);
-        int pos = 11;
-        if (sectionLength + 3 > data.length) {
+        int sectionLength = ((data[offset + 1] & 0x0f) << 8) | (data[offset + 2] & 0xff);
+        int transportStreamId = ((data[offset + 3] & 0xff) << 8) | (data[offset + 4] & 0xff);
+        int originalNetworkId = ((data[offset + 8] & 0xff) << 8) | (data[offset + 9] & 0xff);
+        int pos = offset + 11;
+        if (offset + sectionLength + 3 > limit) {
             Log.e(TAG, "Broken SDT.");
         }
         List<SdtItem> sdtItems = new ArrayList<>();
-        while (pos + 9 < data.length) {
+        while (pos + 9 < limit) {
             int serviceId = ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
             int descriptorsLength = ((data[pos + 3] & 0x0f) << 8) | (data[pos + 4] & 0xff);
             pos += 5;
-            List<TsDescriptor> descriptors = parseDescriptors(data, pos, pos + descriptorsLength);
+            List<TsDescriptor> descriptors =
+                    parseDescriptors(data, pos, pos + descriptorsLength, limit);
             List<ServiceDescriptor> serviceDescriptors = generateServiceDescriptors(descriptors);
             String serviceName = "";
             String serviceProviderName = "";
@@ -1116,23 +1089,23 @@ public class SectionParser {
         return true;
     }
 
-    private boolean parseDVBEIT(byte[] data) {
+    private boolean parseDVBEIT(byte[] data, int offset, int limit) {
         // For details of the structure for DVB ETT, see DVB Document A038 Table 7.
         if (DEBUG) {
             Log.d(TAG, "DVB EIT is discovered.");
         }
-        if (data.length < 18) {
+        if (limit < offset + 18) {
             Log.e(TAG, "Broken DVB EIT.");
             return false;
         }
-        int sectionLength = ((data[1] & 0x0f) << 8) | (data[2] & 0xff);
-        int sourceId = ((data[3] & 0xff) << 8) | (data[4] & 0xff);
-        int transportStreamId = ((data[8] & 0xff) << 8) | (data[9] & 0xff);
-        int originalNetworkId = ((data[10] & 0xff) << 8) | (data[11] & 0xff);
+        int sectionLength = ((data[offset + 1] & 0x0f) << 8) | (data[offset + 2] & 0xff);
+        int sourceId = ((data[offset + 3] & 0xff) << 8) | (data[offset + 4] & 0xff);
+        int transportStreamId = ((data[offset + 8] & 0xff) << 8) | (data[offset + 9] & 0xff);
+        int originalNetworkId = ((data[offset + 10] & 0xff) << 8) | (data[offset + 11] & 0xff);
 
-        int pos = 14;
+        int pos = offset + 14;
         List<EitItem> results = new ArrayList<>();
-        while (pos + 12 < data.length) {
+        while (pos + 12 < limit) {
             int eventId = ((data[pos] & 0xff) << 8) + (data[pos + 1] & 0xff);
             float modifiedJulianDate = ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
             int startYear = (int) ((modifiedJulianDate - 15078.2f) / 365.25f);
@@ -1164,12 +1137,13 @@ public class SectionParser {
                             + (((data[pos + 9] & 0xf0) >> 4) * 10 + (data[pos + 9] & 0x0f));
             int descriptorsLength = ((data[pos + 10] & 0x0f) << 8) | (data[pos + 10 + 1] & 0xff);
             int descriptorsPos = pos + 10 + 2;
-            if (data.length < descriptorsPos + descriptorsLength) {
+            if (limit < descriptorsPos + descriptorsLength) {
                 Log.e(TAG, "Broken EIT.");
                 return false;
             }
             List<TsDescriptor> descriptors =
-                    parseDescriptors(data, descriptorsPos, descriptorsPos + descriptorsLength);
+                    parseDescriptors(
+                            data, descriptorsPos, descriptorsPos + descriptorsLength, limit);
             if (DEBUG) {
                 Log.d(TAG, String.format("DVB EIT descriptors size: %d", descriptors.size()));
             }
@@ -1507,10 +1481,11 @@ public class SectionParser {
         return "";
     }
 
-    private static List<TsDescriptor> parseDescriptors(byte[] data, int offset, int limit) {
+    private static List<TsDescriptor> parseDescriptors(
+            byte[] data, int offset, int limit, int sectionLimit) {
         // For details of the structure for descriptors, see ATSC A/65 Section 6.9.
         List<TsDescriptor> descriptors = new ArrayList<>();
-        if (data.length < limit) {
+        if (sectionLimit < limit) {
             return descriptors;
         }
         int pos = offset;
@@ -1618,7 +1593,7 @@ public class SectionParser {
             return null;
         }
         for (int i = 0; i < numberServices; ++i) {
-            String language = new String(Arrays.copyOfRange(data, pos, pos + 3));
+            String language = new String(data, pos, 3);
             pos += 3;
             boolean ccType = (data[pos] & 0x80) != 0;
             if (!ccType) {
@@ -1690,7 +1665,7 @@ public class SectionParser {
                 Log.e(TAG, "Broken ContentAdvisory");
                 return null;
             }
-            String ratingDescription = extractText(data, pos);
+            String ratingDescription = extractText(data, pos, limit);
             pos += ratingDescriptionLength;
             ratingRegions.add(new RatingRegion(ratingRegion, ratingDescription, indices));
         }
@@ -1704,7 +1679,7 @@ public class SectionParser {
             return null;
         }
         pos += 2;
-        String text = extractText(data, pos);
+        String text = extractText(data, pos, limit);
         if (text == null) {
             Log.e(TAG, "Broken ExtendedChannelName.");
             return null;
@@ -1910,11 +1885,16 @@ public class SectionParser {
         pos++;
         int serviceProviderNameLength = data[pos] & 0xff;
         pos++;
-        String serviceProviderName = extractTextFromDvb(data, pos, serviceProviderNameLength);
+        String serviceProviderName =
+                extractTextFromDvb(data, pos, serviceProviderNameLength, limit);
         pos += serviceProviderNameLength;
+        if (limit <= pos) {
+            Log.e(TAG, "Broken service descriptor.");
+            return null;
+        }
         int serviceNameLength = data[pos] & 0xff;
         pos++;
-        String serviceName = extractTextFromDvb(data, pos, serviceNameLength);
+        String serviceName = extractTextFromDvb(data, pos, serviceNameLength, limit);
         return new ServiceDescriptor(serviceType, serviceProviderName, serviceName);
     }
 
@@ -1976,28 +1956,28 @@ public class SectionParser {
         return MAX_SHORT_NAME_BYTES;
     }
 
-    private static String extractText(byte[] data, int pos) {
-        if (data.length < pos) {
+    private static String extractText(byte[] data, int pos, int limit) {
+        if (limit <= pos) {
             return null;
         }
         int numStrings = data[pos] & 0xff;
         pos++;
         for (int i = 0; i < numStrings; ++i) {
-            if (data.length <= pos + 3) {
+            if (limit <= pos + 3) {
                 Log.e(TAG, "Broken text.");
                 return null;
             }
             int numSegments = data[pos + 3] & 0xff;
             pos += 4;
             for (int j = 0; j < numSegments; ++j) {
-                if (data.length <= pos + 2) {
+                if (limit <= pos + 2) {
                     Log.e(TAG, "Broken text.");
                     return null;
                 }
                 int compressionType = data[pos] & 0xff;
                 int mode = data[pos + 1] & 0xff;
                 int numBytes = data[pos + 2] & 0xff;
-                if (data.length < pos + 3 + numBytes) {
+                if (limit < pos + 3 + numBytes) {
                     Log.e(TAG, "Broken text.");
                     return null;
                 }
@@ -2025,14 +2005,17 @@ public class SectionParser {
         return null;
     }
 
-    private static String extractTextFromDvb(byte[] data, int pos, int length) {
+    private static String extractTextFromDvb(byte[] data, int pos, int length, int limit) {
         // For details of DVB character set selection, see DVB Document A038 Annex A.
-        if (data.length < pos + length) {
+        if (limit < pos + length) {
             return null;
         }
+        if (length == 0) {
+            return "";
+        }
         try {
             String charsetPrefix = "ISO-8859-";
-            switch (data[0]) {
+            switch (data[pos]) {
                 case 0x01:
                 case 0x02:
                 case 0x03:
@@ -2043,7 +2026,7 @@ public class SectionParser {
                 case 0x09:
                 case 0x0A:
                 case 0x0B:
-                    String charset = charsetPrefix + String.valueOf(data[0] & 0xff + 4);
+                    String charset = charsetPrefix + String.valueOf((data[pos] & 0xff) + 4);
                     return new String(data, pos, length, charset);
                 case 0x10:
                     if (length < 3) {
@@ -2074,18 +2057,14 @@ public class SectionParser {
         return new String(data, pos, length);
     }
 
-    private static boolean checkSanity(byte[] data) {
-        if (data.length <= 1) {
+    private boolean checkSanity(byte[] data, int offset, int limit) {
+        if (limit - offset <= 1) {
             return false;
         }
-        boolean hasCRC = (data[1] & 0x80) != 0; // section_syntax_indicator
+        boolean hasCRC = (data[offset + 1] & 0x80) != 0; // section_syntax_indicator
         if (hasCRC) {
-            int crc = 0xffffffff;
-            for (byte b : data) {
-                int index = ((crc >> 24) ^ (b & 0xff)) & 0xff;
-                crc = CRC_TABLE[index] ^ (crc << 8);
-            }
-            if (crc != 0) {
+            // The CRC over a whole section including its CRC_32 field is zero if it is intact.
+            if (mCrc32.calculate(data, offset, limit) != 0) {
                 return false;
             }
         }
@@ -17,7 +17,6 @@
 package com.android.tv.tuner.exoplayer;
 
 import android.net.Uri;
-import android.os.ConditionVariable;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
@@ -378,11 +377,9 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                     return true;
                 case MSG_FETCH_SAMPLES:
                     boolean didSomething = false;
-                    ConditionVariable conditionVariable = new ConditionVariable();
                     int trackCount = mStreams.length;
                     for (int i = 0; i < trackCount; ++i) {
-                        if (!mTrackMetEos[i]
-                                && C.RESULT_NOTHING_READ != fetchSample(i, conditionVariable)) {
+                        if (!mTrackMetEos[i] && C.RESULT_NOTHING_READ != fetchSample(i)) {
                             if (mMetEos) {
                                 // If mMetEos was on during fetchSample() due to an error,
                                 // fetching from other tracks is not necessary.
@@ -417,7 +414,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
             return false;
         }
 
-        private int fetchSample(int track, ConditionVariable conditionVariable) {
+        private int fetchSample(int track) {
             FormatHolder dummyFormatHolder = new FormatHolder();
             mDecoderInputBuffer.clear();
             int ret = mStreams[track].readData(dummyFormatHolder, mDecoderInputBuffer, false);
@@ -439,7 +436,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                                 track,
                                 Math.max(lastExtractedPositionUs, mDecoderInputBuffer.timeUs));
                     }
-                    queueSample(track, conditionVariable);
+                    queueSample(track);
                 } catch (IOException e) {
                     mLastExtractedPositionUsMap.clear();
                     mMetEos = true;
@@ -461,8 +458,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
             return ret;
         }
 
-        private void queueSample(int index, ConditionVariable conditionVariable)
-                throws IOException {
+        private void queueSample(int index) throws IOException {
             if (mVideoTrackIndex != INVALID_TRACK_INDEX) {
                 if (!mVideoTrackMet) {
                     if (index != mVideoTrackIndex) {
@@ -496,7 +492,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
                                             .INITIAL_AUDIO_BUFFERING_TIME_US;
                     for (Pair<Integer, SampleHolder> pair : mPendingSamples) {
                         if (pair.second.timeUs >= mBaseSamplePts) {
-                            mSampleBuffer.writeSample(pair.first, pair.second, conditionVariable);
+                            mSampleBuffer.writeSample(pair.first, pair.second);
                         }
                     }
                     mPendingSamples.clear();
@@ -523,7 +519,7 @@ public class ExoPlayerSampleExtractor implements SampleExtractor {
             mSampleHolder.data.put(mDecoderInputBuffer.data);
             mSampleHolder.data.flip();
             long writeStartTimeNs = SystemClock.elapsedRealtimeNanos();
-            mSampleBuffer.writeSample(index, mSampleHolder, conditionVariable);
+            mSampleBuffer.writeSample(index, mSampleHolder);
 
             // Checks whether the storage has enough bandwidth for recording samples.
             if (mSampleBuffer.isWriteSpeedSlow(
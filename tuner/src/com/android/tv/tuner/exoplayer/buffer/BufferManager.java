@@ -17,7 +17,6 @@
 package com.android.tv.tuner.exoplayer.buffer;
 
 import android.media.MediaFormat;
-import android.os.ConditionVariable;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 import android.util.ArrayMap;
@@ -113,15 +112,14 @@ public class BufferManager {
         void deselectTrack(int index);
 
         /**
-         * Writes sample to storage.
+         * Writes sample to storage. The sample can be reused by the caller when this returns,
+         * though it may not be written to storage yet.
          *
          * @param index track index
          * @param sample sample to write at storage
-         * @param conditionVariable notifies the completion of writing sample.
          * @throws IOException
          */
-        void writeSample(int index, SampleHolder sample, ConditionVariable conditionVariable)
-                throws IOException;
+        void writeSample(int index, SampleHolder sample) throws IOException;
 
         /** Checks whether storage write speed is slow. */
         boolean isWriteSpeedSlow(int sampleSize, long writeDurationNs);
@@ -298,6 +296,17 @@ public class BufferManager {
         void updateIndexFile(
                 String trackName, int size, long position, SampleChunk sampleChunk, int offset)
                 throws IOException;
+
+        /**
+         * Writes the index entries which have been buffered by {@link #updateIndexFile} to
+         * storage.
+         *
+         * @throws IOException
+         */
+        void flushIndexFiles() throws IOException;
+
+        /** Releases the resources which are used to write index files, e.g. open files. */
+        void release();
     }
 
     private static class EvictChunkQueueMap {
@@ -629,6 +638,15 @@ public class BufferManager {
         }
     }
 
+    /**
+     * Writes the index entries which have been buffered during recording to storage.
+     *
+     * @throws IOException
+     */
+    public void flushIndexFiles() throws IOException {
+        mStorageManager.flushIndexFiles();
+    }
+
     /** Releases all the resources. */
     public void release() {
         try {
@@ -650,6 +668,7 @@ public class BufferManager {
             SoftPreconditions.checkState(
                     false, "Exception on BufferManager#release: ", e.toString());
         }
+        mStorageManager.release();
     }
 
     private void resetWriteStat(float writeBandwidth) {
@@ -659,7 +678,7 @@ public class BufferManager {
     }
 
     /** Adds a disk write sample size to calculate the average disk write bandwidth. */
-    public void addWriteStat(long size, long timeNs) {
+    public synchronized void addWriteStat(long size, long timeNs) {
         if (size >= mMinSampleSizeForSpeedCheck) {
             mTotalWriteSize += size;
             mTotalWriteTimeNs += timeNs;
@@ -670,7 +689,7 @@ public class BufferManager {
      * Returns if the average disk write bandwidth is slower than threshold {@code
      * MINIMUM_DISK_WRITE_SPEED_MBPS}.
      */
-    public boolean isWriteSlow() {
+    public synchronized boolean isWriteSlow() {
         if (mTotalWriteSize < MINIMUM_WRITE_SIZE_FOR_SPEED_CHECK) {
             return false;
         }
@@ -693,10 +712,16 @@ public class BufferManager {
      * Returns recent write bandwidth in MBps. If recent bandwidth is not available, returns {float
      * -1.0f}.
      */
-    public float getWriteBandwidth() {
+    public synchronized float getWriteBandwidth() {
         return mWriteBandwidth == 0.0f ? -1.0f : mWriteBandwidth;
     }
 
+    /** Returns the average disk write bandwidth in MBps of the writes since the last check. */
+    @VisibleForTesting
+    synchronized float getAverageWriteBandwidth() {
+        return calculateWriteBandwidth();
+    }
+
     private float calculateWriteBandwidth() {
         if (mTotalWriteTimeNs == 0) {
             return -1;
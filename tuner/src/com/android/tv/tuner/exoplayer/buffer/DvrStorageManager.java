@@ -17,10 +17,16 @@
 package com.android.tv.tuner.exoplayer.buffer;
 
 import android.media.MediaFormat;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.Pair;
 import com.android.tv.tuner.data.nano.Track.AtscCaptionTrack;
 import com.google.protobuf.nano.MessageNano;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -29,10 +35,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedMap;
 
 /** Manages DVR storage. */
@@ -55,7 +63,21 @@ public class DvrStorageManager implements BufferManager.StorageManager {
     private static final int NO_VALUE = -1;
     private static final long NO_VALUE_LONG = -1L;
 
+    // Index file v2 = entry count : long, { position : long, base position : long, offset : int }
+    // * N
+    private static final int INDEX_HEADER_LENGTH = 8;
+    private static final int INDEX_ENTRY_LENGTH = 20;
+    // The index entries of a track are appended to its file once per this interval or this many
+    // entries, whichever comes first.
+    static final long INDEX_FLUSH_INTERVAL_MS = 2000;
+    private static final int INDEX_FLUSH_ENTRY_COUNT = 16;
+
     private final File mBufferDir;
+    // Maps from track name to the writer of its index file during recording.
+    private final Map<String, IndexFileWriter> mIndexFileWriters = new ArrayMap<>();
+    // The tracks whose whole index has been written, which are guarded by mIndexFileWriters.
+    private final Set<String> mFinalizedTrackNames = new ArraySet<>();
+    private boolean mReleased;
 
     // {@code true} when this is for recording, {@code false} when this is for replaying.
     private final boolean mIsRecording;
@@ -226,7 +248,8 @@ public class DvrStorageManager implements BufferManager.StorageManager {
     private ArrayList<BufferManager.PositionHolder> readOldIndexFile(File indexFile)
             throws IOException {
         ArrayList<BufferManager.PositionHolder> indices = new ArrayList<>();
-        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
             long count = in.readLong();
             for (long i = 0; i < count; ++i) {
                 long positionUs = in.readLong();
@@ -236,19 +259,43 @@ public class DvrStorageManager implements BufferManager.StorageManager {
         }
     }
 
-    private ArrayList<BufferManager.PositionHolder> readNewIndexFile(File indexFile)
+    /**
+     * Reads the index file with a single read. The entries beyond the count in the header, or a
+     * partial entry at the end, are ignored, and a count larger than the entries in the file is
+     * limited to them, so that the index file which is truncated by a crash during recording can
+     * be read.
+     */
+    @VisibleForTesting
+    static ArrayList<BufferManager.PositionHolder> readNewIndexFile(File indexFile)
             throws IOException {
-        ArrayList<BufferManager.PositionHolder> indices = new ArrayList<>();
-        try (DataInputStream in = new DataInputStream(new FileInputStream(indexFile))) {
-            long count = in.readLong();
-            for (long i = 0; i < count; ++i) {
-                long positionUs = in.readLong();
-                long basePositionUs = in.readLong();
-                int offset = in.readInt();
-                indices.add(new BufferManager.PositionHolder(positionUs, basePositionUs, offset));
+        ByteBuffer buffer;
+        try (FileInputStream in = new FileInputStream(indexFile)) {
+            FileChannel channel = in.getChannel();
+            long length = channel.size();
+            if (length < INDEX_HEADER_LENGTH) {
+                throw new IOException("Index file is too short: " + length);
             }
-            return indices;
+            buffer = ByteBuffer.allocate((int) length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    // The file is truncated while it's read.
+                    break;
+                }
+            }
+            buffer.flip();
+        }
+        long count =
+                Math.min(
+                        buffer.getLong(),
+                        (buffer.limit() - INDEX_HEADER_LENGTH) / INDEX_ENTRY_LENGTH);
+        ArrayList<BufferManager.PositionHolder> indices = new ArrayList<>((int) count);
+        for (long i = 0; i < count; ++i) {
+            long positionUs = buffer.getLong();
+            long basePositionUs = buffer.getLong();
+            int offset = buffer.getInt();
+            indices.add(new BufferManager.PositionHolder(positionUs, basePositionUs, offset));
         }
+        return indices;
     }
 
     @Override
@@ -379,8 +426,14 @@ public class DvrStorageManager implements BufferManager.StorageManager {
     @Override
     public void writeIndexFile(String trackName, SortedMap<Long, Pair<SampleChunk, Integer>> index)
             throws IOException {
+        // The whole index replaces the entries which have been appended during recording.
+        synchronized (mIndexFileWriters) {
+            mFinalizedTrackNames.add(trackName);
+        }
+        closeIndexFileWriter(trackName);
         File indexFile = new File(getBufferDir(), trackName + IDX_FILE_SUFFIX_V2);
-        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile))) {
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
             out.writeLong(index.size());
             for (Map.Entry<Long, Pair<SampleChunk, Integer>> entry : index.entrySet()) {
                 out.writeLong(entry.getKey());
@@ -390,21 +443,138 @@ public class DvrStorageManager implements BufferManager.StorageManager {
         }
     }
 
+    /**
+     * Appends an entry to the index file of the track. The entries are buffered and written
+     * periodically, so the index file can be behind the recording by {@code
+     * INDEX_FLUSH_INTERVAL_MS}. The count in the file is the number of the appended entries, which
+     * can be larger than {@code size} when an entry is updated. The entries are ignored once the
+     * whole index has been written by {@link #writeIndexFile} or this has been released, so that
+     * the completed index file is not truncated.
+     */
     @Override
     public void updateIndexFile(
             String trackName, int size, long position, SampleChunk sampleChunk, int offset)
             throws IOException {
-        File indexFile = new File(getBufferDir(), trackName + IDX_FILE_SUFFIX_V2);
-        if (!indexFile.exists()) {
-            indexFile.createNewFile();
-        }
-        RandomAccessFile accessFile = new RandomAccessFile(indexFile, "rw");
-        accessFile.seek(0);
-        accessFile.writeLong(size);
-        accessFile.seek(accessFile.length());
-        accessFile.writeLong(position);
-        accessFile.writeLong(sampleChunk.getStartPositionUs());
-        accessFile.writeInt(offset);
-        accessFile.close();
+        IndexFileWriter writer;
+        synchronized (mIndexFileWriters) {
+            if (mReleased || mFinalizedTrackNames.contains(trackName)) {
+                Log.w(TAG, "Index file of " + trackName + " is already finalized");
+                return;
+            }
+            writer = mIndexFileWriters.get(trackName);
+            if (writer == null) {
+                File indexFile = new File(getBufferDir(), trackName + IDX_FILE_SUFFIX_V2);
+                writer = new IndexFileWriter(indexFile);
+                mIndexFileWriters.put(trackName, writer);
+            }
+        }
+        writer.append(position, sampleChunk.getStartPositionUs(), offset);
+    }
+
+    @Override
+    public void flushIndexFiles() throws IOException {
+        synchronized (mIndexFileWriters) {
+            for (IndexFileWriter writer : mIndexFileWriters.values()) {
+                writer.flush();
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered index entries and closes the index files which are still open, e.g.
+     * when the recording is aborted or the whole index could not be written.
+     */
+    @Override
+    public void release() {
+        List<IndexFileWriter> writers;
+        synchronized (mIndexFileWriters) {
+            mReleased = true;
+            writers = new ArrayList<>(mIndexFileWriters.values());
+            mIndexFileWriters.clear();
+        }
+        for (IndexFileWriter writer : writers) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Fail to close index file", e);
+            }
+        }
+    }
+
+    private void closeIndexFileWriter(String trackName) throws IOException {
+        IndexFileWriter writer;
+        synchronized (mIndexFileWriters) {
+            writer = mIndexFileWriters.remove(trackName);
+        }
+        if (writer != null) {
+            writer.close();
+        }
+    }
+
+    /**
+     * Appends entries to an index file, which is kept open during recording. The entries are
+     * written before the count in the header, so that the count never exceeds the entries in the
+     * file.
+     */
+    private static class IndexFileWriter {
+        private final RandomAccessFile mAccessFile;
+        private final ByteBuffer mHeader = ByteBuffer.allocate(INDEX_HEADER_LENGTH);
+        private final ByteBuffer mPendingEntries =
+                ByteBuffer.allocate(INDEX_ENTRY_LENGTH * INDEX_FLUSH_ENTRY_COUNT);
+        private long mWrittenCount;
+        private long mLastFlushTimeMs;
+
+        private IndexFileWriter(File indexFile) throws IOException {
+            mAccessFile = new RandomAccessFile(indexFile, "rw");
+            mAccessFile.setLength(0);
+            writeCount();
+            mLastFlushTimeMs = SystemClock.elapsedRealtime();
+        }
+
+        private synchronized void append(long positionUs, long basePositionUs, int offset)
+                throws IOException {
+            mPendingEntries.putLong(positionUs);
+            mPendingEntries.putLong(basePositionUs);
+            mPendingEntries.putInt(offset);
+            if (!mPendingEntries.hasRemaining()
+                    || SystemClock.elapsedRealtime() - mLastFlushTimeMs
+                            >= INDEX_FLUSH_INTERVAL_MS) {
+                flush();
+            }
+        }
+
+        private synchronized void flush() throws IOException {
+            mLastFlushTimeMs = SystemClock.elapsedRealtime();
+            if (mPendingEntries.position() == 0) {
+                return;
+            }
+            int count = mPendingEntries.position() / INDEX_ENTRY_LENGTH;
+            mPendingEntries.flip();
+            FileChannel channel = mAccessFile.getChannel();
+            long position = INDEX_HEADER_LENGTH + mWrittenCount * INDEX_ENTRY_LENGTH;
+            while (mPendingEntries.hasRemaining()) {
+                position += channel.write(mPendingEntries, position);
+            }
+            mPendingEntries.clear();
+            mWrittenCount += count;
+            writeCount();
+        }
+
+        private void writeCount() throws IOException {
+            mHeader.clear();
+            mHeader.putLong(mWrittenCount).flip();
+            FileChannel channel = mAccessFile.getChannel();
+            while (mHeader.hasRemaining()) {
+                channel.write(mHeader, mHeader.position());
+            }
+        }
+
+        private synchronized void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                mAccessFile.close();
+            }
+        }
     }
 }
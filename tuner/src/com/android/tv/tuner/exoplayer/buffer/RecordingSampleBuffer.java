@@ -16,7 +16,6 @@
 
 package com.android.tv.tuner.exoplayer.buffer;
 
-import android.os.ConditionVariable;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.util.Log;
@@ -62,7 +61,6 @@ public class RecordingSampleBuffer
     /** The duration of a {@link SampleChunk} for recordings. */
     static final long RECORDING_CHUNK_DURATION_US = MIN_SEEK_DURATION_US * 1200; // 10 minutes
 
-    private static final long BUFFER_WRITE_TIMEOUT_MS = 10 * 1000; // 10 seconds
     private static final long BUFFER_NEEDED_US =
             1000L * Math.max(MpegTsPlayer.MIN_BUFFER_MS, MpegTsPlayer.MIN_REBUFFER_MS);
 
@@ -168,14 +166,8 @@ public class RecordingSampleBuffer
     }
 
     @Override
-    public void writeSample(int index, SampleHolder sample, ConditionVariable conditionVariable)
-            throws IOException {
-        mSampleChunkIoHelper.writeSample(index, sample, conditionVariable);
-
-        if (!conditionVariable.block(BUFFER_WRITE_TIMEOUT_MS)) {
-            Log.e(TAG, "Error: Serious delay on writing buffer");
-            conditionVariable.block();
-        }
+    public void writeSample(int index, SampleHolder sample) throws IOException {
+        mSampleChunkIoHelper.writeSample(index, sample);
     }
 
     @Override
@@ -183,7 +175,8 @@ public class RecordingSampleBuffer
         if (mBufferReason == BUFFER_REASON_RECORDED_PLAYBACK) {
             return false;
         }
-        mBufferManager.addWriteStat(sampleSize, writeDurationNs);
+        // Since samples are written asynchronously, the write stats are added by the I/O thread of
+        // SampleChunkIoHelper instead of the given duration, which is only for queueing.
         return mBufferManager.isWriteSlow();
     }
 
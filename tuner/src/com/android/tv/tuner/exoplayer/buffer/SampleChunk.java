@@ -23,6 +23,8 @@ import com.google.android.exoplayer.SampleHolder;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
 /**
@@ -40,12 +42,26 @@ public class SampleChunk {
 
     // Header = sample size : int, sample flag : int, sample PTS in micro second : long
     private static final int SAMPLE_HEADER_LENGTH = 16;
+    // The size of the write-behind buffer of each write IoState. Samples which don't fit into it,
+    // typically video key frames, are written directly with their headers in a gathering write.
+    private static final int WRITE_BUFFER_SIZE = 128 * 1024;
+    // The size of the window of a finished chunk which is mapped at once for reads. Chunks of
+    // recordings can be too large to be mapped as a whole.
+    private static final int READ_WINDOW_SIZE = 4 * 1024 * 1024;
 
     private final File mFile;
     private final ChunkCallback mChunkCallback;
     private final SamplePool mSamplePool;
     private RandomAccessFile mAccessFile;
     private long mWriteOffset;
+    // The samples in [mFlushedOffset, mWriteOffset) are in mWriteBuffer and not in the file yet.
+    private long mFlushedOffset;
+    private ByteBuffer mWriteBuffer;
+    private final ByteBuffer[] mGatheringBuffers = new ByteBuffer[2];
+    private int mWriteCallCount;
+    private MappedByteBuffer mReadWindow;
+    private long mReadWindowOffset;
+    private int mMapCallCount;
     private boolean mWriteFinished;
     private boolean mIsReading;
     private boolean mIsWriting;
@@ -126,6 +142,7 @@ public class SampleChunk {
     public static class IoState {
         private SampleChunk mChunk;
         private long mCurrentOffset;
+        private ByteBuffer mWriteBuffer;
 
         private boolean equals(SampleChunk chunk, long offset) {
             return chunk == mChunk && mCurrentOffset == offset;
@@ -158,10 +175,14 @@ public class SampleChunk {
          * @throws IOException
          */
         void openRead(SampleChunk chunk, long offset) throws IOException {
-            if (mChunk != null) {
-                mChunk.closeRead();
+            // Keeps the chunk open for the seeks in the same chunk, e.g. for trickplay, so that
+            // its read window can be reused.
+            if (mChunk != chunk) {
+                if (mChunk != null) {
+                    mChunk.closeRead();
+                }
+                chunk.openRead();
             }
-            chunk.openRead();
             reset(chunk, offset);
         }
 
@@ -175,10 +196,19 @@ public class SampleChunk {
             if (mChunk != null) {
                 mChunk.closeWrite(chunk);
             }
-            chunk.openWrite();
+            chunk.openWrite(getWriteBuffer());
             reset(chunk);
         }
 
+        // The write buffer is reused by the chunks which are written through this IoState, since
+        // a chunk flushes it when it's closed.
+        private ByteBuffer getWriteBuffer() {
+            if (mWriteBuffer == null) {
+                mWriteBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            }
+            return mWriteBuffer;
+        }
+
         /**
          * Reads a sample if it is available.
          *
@@ -225,12 +255,23 @@ public class SampleChunk {
                 }
                 mChunk.closeWrite(nextChunk);
                 mChunk.mChunkCallback.onChunkWrite(mChunk);
-                nextChunk.openWrite();
+                nextChunk.openWrite(getWriteBuffer());
                 reset(nextChunk);
             }
             mChunk.write(sample, this);
         }
 
+        /**
+         * Writes the buffered samples of the current SampleChunk to the file.
+         *
+         * @throws IOException
+         */
+        void flush() throws IOException {
+            if (mChunk != null) {
+                mChunk.flushWriteBuffer();
+            }
+        }
+
         /**
          * Finishes write I/O operation.
          *
@@ -304,7 +345,7 @@ public class SampleChunk {
         }
     }
 
-    private void openWrite() throws IOException {
+    private void openWrite(ByteBuffer writeBuffer) throws IOException {
         if (mWriteFinished) {
             throw new IllegalStateException("Opened for write though write is already finished");
         }
@@ -314,6 +355,9 @@ public class SampleChunk {
                         "Write is requested for " + "an already opened SampleChunk");
             }
             mAccessFile = new RandomAccessFile(mFile, "rw");
+            mWriteBuffer = writeBuffer;
+            mWriteBuffer.clear();
+            mFlushedOffset = mWriteOffset;
             mIsWriting = true;
         }
     }
@@ -333,16 +377,22 @@ public class SampleChunk {
     private void closeRead() throws IOException {
         if (mIsReading) {
             mIsReading = false;
+            mReadWindow = null;
             CloseAccessFileIfNeeded();
         }
     }
 
     private void closeWrite(SampleChunk nextChunk) throws IOException {
         if (mIsWriting) {
-            mNextChunk = nextChunk;
-            mIsWriting = false;
-            mWriteFinished = true;
-            CloseAccessFileIfNeeded();
+            try {
+                flushWriteBuffer();
+            } finally {
+                mWriteBuffer = null;
+                mNextChunk = nextChunk;
+                mIsWriting = false;
+                mWriteFinished = true;
+                CloseAccessFileIfNeeded();
+            }
         }
     }
 
@@ -365,6 +415,12 @@ public class SampleChunk {
                 return null;
             }
         }
+        if (mWriteFinished) {
+            return readFromReadWindow(state);
+        }
+        if (mWriteBuffer != null && offset >= mFlushedOffset) {
+            return readFromWriteBuffer(state);
+        }
         mAccessFile.seek(offset);
         int size = mAccessFile.readInt();
         SampleHolder sample = mSamplePool.acquireSample(size);
@@ -384,23 +440,136 @@ public class SampleChunk {
         return sample;
     }
 
+    // Reads a sample of a finished chunk from the mapped window of the file. The window is mapped
+    // again only when the sample is out of it, which is once per READ_WINDOW_SIZE for the
+    // sequential reads, instead of a mapping per sample.
+    private SampleHolder readFromReadWindow(IoState state) throws IOException {
+        long offset = state.mCurrentOffset;
+        if (mReadWindow == null
+                || offset < mReadWindowOffset
+                || offset + SAMPLE_HEADER_LENGTH > mReadWindowOffset + mReadWindow.capacity()) {
+            mapReadWindow(offset, SAMPLE_HEADER_LENGTH);
+        }
+        int position = (int) (offset - mReadWindowOffset);
+        int length = mReadWindow.getInt(position) + SAMPLE_HEADER_LENGTH;
+        if (position + length > mReadWindow.capacity()) {
+            mapReadWindow(offset, length);
+            position = 0;
+        }
+        SampleHolder sample = readSample(mReadWindow, position);
+        state.mCurrentOffset += length;
+        return sample;
+    }
+
+    private void mapReadWindow(long offset, int minLength) throws IOException {
+        long length = Math.min(Math.max(READ_WINDOW_SIZE, minLength), mWriteOffset - offset);
+        if (length < minLength) {
+            throw new IOException("Sample is truncated at " + offset + " of " + mFile);
+        }
+        // The previous window is unmapped when it's garbage collected.
+        mReadWindow =
+                mAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, offset, length);
+        mReadWindowOffset = offset;
+        ++mMapCallCount;
+    }
+
+    // Reads a sample which is not flushed yet, e.g. for the timeshift playback which follows the
+    // recording closely. A sample is either in the write buffer or in the file as a whole.
+    private SampleHolder readFromWriteBuffer(IoState state) {
+        SampleHolder sample =
+                readSample(mWriteBuffer, (int) (state.mCurrentOffset - mFlushedOffset));
+        state.mCurrentOffset += sample.size + SAMPLE_HEADER_LENGTH;
+        return sample;
+    }
+
+    // Copies the sample at the position of the buffer, without changing the buffer's position.
+    private SampleHolder readSample(ByteBuffer buffer, int position) {
+        int size = buffer.getInt(position);
+        SampleHolder sample = mSamplePool.acquireSample(size);
+        sample.size = size;
+        sample.flags = buffer.getInt(position + 4);
+        sample.timeUs = buffer.getLong(position + 8);
+        sample.clearData();
+        ByteBuffer data = buffer.duplicate();
+        data.limit(position + SAMPLE_HEADER_LENGTH + size);
+        data.position(position + SAMPLE_HEADER_LENGTH);
+        sample.data.put(data);
+        return sample;
+    }
+
     @VisibleForTesting
     protected void write(SampleHolder sample, IoState state) throws IOException {
         if (mAccessFile == null || mNextChunk != null || !state.equals(this, mWriteOffset)) {
             throw new IllegalStateException("Requested write for wrong SampleChunk");
         }
 
-        mAccessFile.seek(mWriteOffset);
-        mAccessFile.writeInt(sample.size);
-        mAccessFile.writeInt(sample.flags);
-        mAccessFile.writeLong(sample.timeUs);
+        int length = sample.size + SAMPLE_HEADER_LENGTH;
+        if (mWriteBuffer.remaining() < length) {
+            flushWriteBuffer();
+        }
+        mWriteBuffer.putInt(sample.size);
+        mWriteBuffer.putInt(sample.flags);
+        mWriteBuffer.putLong(sample.timeUs);
         sample.data.position(0).limit(sample.size);
-        mAccessFile.getChannel().position(mWriteOffset + SAMPLE_HEADER_LENGTH).write(sample.data);
-        mWriteOffset += sample.size + SAMPLE_HEADER_LENGTH;
+        if (mWriteBuffer.remaining() >= sample.size) {
+            mWriteBuffer.put(sample.data);
+        } else {
+            // The buffer was flushed above, so it has only the header of this sample.
+            writeFully(sample.data, length);
+        }
+        mWriteOffset += length;
         state.mCurrentOffset = mWriteOffset;
     }
 
+    private void flushWriteBuffer() throws IOException {
+        if (mWriteBuffer == null || mWriteBuffer.position() == 0) {
+            return;
+        }
+        writeFully(null, mWriteBuffer.position());
+    }
+
+    // Writes mWriteBuffer followed by the payload to mFlushedOffset with gathering writes, and
+    // clears mWriteBuffer.
+    private void writeFully(@Nullable ByteBuffer payload, int length) throws IOException {
+        mWriteBuffer.flip();
+        mGatheringBuffers[0] = mWriteBuffer;
+        mGatheringBuffers[1] = payload;
+        FileChannel channel = mAccessFile.getChannel().position(mFlushedOffset);
+        try {
+            long written = 0;
+            while (written < length) {
+                written += channel.write(mGatheringBuffers, 0, payload == null ? 1 : 2);
+                ++mWriteCallCount;
+            }
+        } finally {
+            mGatheringBuffers[0] = mGatheringBuffers[1] = null;
+            mWriteBuffer.clear();
+        }
+        mFlushedOffset += length;
+    }
+
+    /** Returns the number of the write calls to the file, for benchmarks. */
+    @VisibleForTesting
+    int getWriteCallCount() {
+        return mWriteCallCount;
+    }
+
+    /** Returns the number of the mappings of the read windows, for benchmarks. */
+    @VisibleForTesting
+    int getMapCallCount() {
+        return mMapCallCount;
+    }
+
     private void release(boolean delete) {
+        if (mIsWriting && !delete) {
+            try {
+                flushWriteBuffer();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to flush the write buffer", e);
+            }
+        }
+        mWriteBuffer = null;
+        mReadWindow = null;
         mWriteFinished = true;
         mIsReading = mIsWriting = false;
         try {
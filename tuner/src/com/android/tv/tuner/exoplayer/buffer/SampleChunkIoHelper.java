@@ -21,16 +21,19 @@ import android.os.ConditionVariable;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
+import android.support.annotation.VisibleForTesting;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.Pair;
 import com.android.tv.common.SoftPreconditions;
+import com.android.tv.common.util.Clock;
 import com.android.tv.tuner.exoplayer.buffer.RecordingSampleBuffer.BufferReason;
 import com.google.android.exoplayer.MediaFormat;
 import com.google.android.exoplayer.SampleHolder;
 import com.google.android.exoplayer.util.MimeTypes;
 import com.android.tv.common.flags.ConcurrentDvrPlaybackFlags;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -40,12 +43,19 @@ import java.util.concurrent.ConcurrentLinkedQueue;
 /**
  * Handles all {@link SampleChunk} I/O operations. An I/O dedicated thread handles all I/O
  * operations for synchronization.
+ *
+ * <p>Samples are written asynchronously. They are copied into a bounded write queue, and the I/O
+ * thread writes all the queued samples at once. The writer is blocked only when the queue is full.
  */
 public class SampleChunkIoHelper implements Handler.Callback {
     private static final String TAG = "SampleChunkIoHelper";
 
     private static final int MAX_READ_BUFFER_SAMPLES = 3;
     private static final int READ_RESCHEDULING_DELAY_MS = 10;
+    // The maximum size of the samples which are queued to be written. It's a few seconds of
+    // ATSC or DVB streams.
+    private static final long MAX_WRITE_QUEUE_BYTES = 8 * 1024 * 1024;
+    private static final long WRITE_QUEUE_TIMEOUT_MS = 10 * 1000; // 10 seconds
 
     private static final int MSG_OPEN_READ = 1;
     private static final int MSG_OPEN_WRITE = 2;
@@ -55,6 +65,7 @@ public class SampleChunkIoHelper implements Handler.Callback {
     private static final int MSG_WRITE = 6;
     private static final int MSG_RELEASE = 7;
     private static final int MSG_UPDATE_INDEX = 8;
+    private static final int MSG_FLUSH_INDEX = 9;
 
     private final long mSampleChunkDurationUs;
     private final int mTrackCount;
@@ -65,6 +76,7 @@ public class SampleChunkIoHelper implements Handler.Callback {
     private final SamplePool mSamplePool;
     private final IoCallback mIoCallback;
     private final ConcurrentDvrPlaybackFlags mConcurrentDvrPlaybackFlags;
+    private final Clock mClock;
 
     private Handler mIoHandler;
     private final ConcurrentLinkedQueue<SampleHolder> mReadSampleBuffers[];
@@ -76,10 +88,14 @@ public class SampleChunkIoHelper implements Handler.Callback {
     private final Set<Integer> mSelectedTracks = new ArraySet<>();
     private final long[] mReadChunkOffset;
     private final long[] mReadChunkPositionUs;
+    // The samples to be written, which are guarded by itself. A MSG_WRITE is pending whenever the
+    // queue isn't empty.
+    private final ArrayDeque<IoParams> mWriteQueue = new ArrayDeque<>();
+    private long mWriteQueueBytes;
     private long mBufferDurationUs = 0;
     private boolean mWriteEnded;
-    private boolean mErrorNotified;
-    private boolean mFinished;
+    private volatile boolean mErrorNotified;
+    private volatile boolean mFinished;
 
     /** A Callback for I/O events. */
     public abstract static class IoCallback {
@@ -95,19 +111,16 @@ public class SampleChunkIoHelper implements Handler.Callback {
         private final int index;
         private final long positionUs;
         private final SampleHolder sample;
-        private final ConditionVariable conditionVariable;
         private final ConcurrentLinkedQueue<SampleHolder> readSampleBuffer;
 
         private IoParams(
                 int index,
                 long positionUs,
                 SampleHolder sample,
-                ConditionVariable conditionVariable,
                 ConcurrentLinkedQueue<SampleHolder> readSampleBuffer) {
             this.index = index;
             this.positionUs = positionUs;
             this.sample = sample;
-            this.conditionVariable = conditionVariable;
             this.readSampleBuffer = readSampleBuffer;
         }
     }
@@ -131,6 +144,27 @@ public class SampleChunkIoHelper implements Handler.Callback {
             SamplePool samplePool,
             IoCallback ioCallback,
             ConcurrentDvrPlaybackFlags concurrentDvrPlaybackFlags) {
+        this(
+                ids,
+                mediaFormats,
+                bufferReason,
+                bufferManager,
+                samplePool,
+                ioCallback,
+                concurrentDvrPlaybackFlags,
+                Clock.SYSTEM);
+    }
+
+    @VisibleForTesting
+    SampleChunkIoHelper(
+            List<String> ids,
+            List<MediaFormat> mediaFormats,
+            @BufferReason int bufferReason,
+            BufferManager bufferManager,
+            SamplePool samplePool,
+            IoCallback ioCallback,
+            ConcurrentDvrPlaybackFlags concurrentDvrPlaybackFlags,
+            Clock clock) {
         mTrackCount = ids.size();
         mIds = ids;
         mMediaFormats = mediaFormats;
@@ -139,6 +173,7 @@ public class SampleChunkIoHelper implements Handler.Callback {
         mSamplePool = samplePool;
         mIoCallback = ioCallback;
         mConcurrentDvrPlaybackFlags = concurrentDvrPlaybackFlags;
+        mClock = clock;
 
         mReadSampleBuffers = new ConcurrentLinkedQueue[mTrackCount];
         mHandlerReadSampleBuffers = new ConcurrentLinkedQueue[mTrackCount];
@@ -220,21 +255,60 @@ public class SampleChunkIoHelper implements Handler.Callback {
     }
 
     /**
-     * Writes a sample.
+     * Queues a sample to be written. The sample is copied, so it can be reused by the caller when
+     * this returns. Blocks while the write queue is full.
      *
      * @param index track index
      * @param sample to write
-     * @param conditionVariable which will be wait until the write is finished
      * @throws IOException
      */
-    public void writeSample(int index, SampleHolder sample, ConditionVariable conditionVariable)
-            throws IOException {
+    public void writeSample(int index, SampleHolder sample) throws IOException {
         if (mErrorNotified) {
             throw new IOException("Storage I/O error happened");
         }
-        conditionVariable.close();
-        IoParams params = new IoParams(index, 0, sample, conditionVariable, null);
-        mIoHandler.sendMessage(mIoHandler.obtainMessage(MSG_WRITE, params));
+        sample.data.position(0).limit(sample.size);
+        SampleHolder sampleToWrite = mSamplePool.acquireSample(sample.size);
+        sampleToWrite.size = sample.size;
+        sampleToWrite.clearData();
+        sampleToWrite.data.put(sample.data);
+        sampleToWrite.timeUs = sample.timeUs;
+        sampleToWrite.flags = sample.flags;
+
+        boolean writeRequested;
+        synchronized (mWriteQueue) {
+            long waitStartTimeMs = mClock.elapsedRealtime();
+            boolean delayReported = false;
+            while (mWriteQueueBytes >= MAX_WRITE_QUEUE_BYTES && !mErrorNotified && !mFinished) {
+                if (!delayReported
+                        && mClock.elapsedRealtime() - waitStartTimeMs
+                                > WRITE_QUEUE_TIMEOUT_MS) {
+                    Log.e(TAG, "Error: Serious delay on writing buffer");
+                    delayReported = true;
+                }
+                try {
+                    mWriteQueue.wait(WRITE_QUEUE_TIMEOUT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    mSamplePool.releaseSample(sampleToWrite);
+                    throw new IOException("Interrupted while waiting for the write queue", e);
+                }
+            }
+            if (mErrorNotified) {
+                mSamplePool.releaseSample(sampleToWrite);
+                throw new IOException("Storage I/O error happened");
+            }
+            if (mFinished) {
+                // The I/O thread has been stopped, so the sample is dropped as before.
+                mSamplePool.releaseSample(sampleToWrite);
+                return;
+            }
+            writeRequested = !mWriteQueue.isEmpty();
+            mWriteQueue.add(new IoParams(index, 0, sampleToWrite, null));
+            mWriteQueueBytes += sampleToWrite.size;
+        }
+        if (!writeRequested) {
+            mIoHandler.sendEmptyMessage(MSG_WRITE);
+        }
     }
 
     /**
@@ -246,7 +320,7 @@ public class SampleChunkIoHelper implements Handler.Callback {
     public void openRead(int index, long positionUs) {
         // Old mReadSampleBuffers may have a pending read.
         mReadSampleBuffers[index] = new ConcurrentLinkedQueue<>();
-        IoParams params = new IoParams(index, positionUs, null, null, mReadSampleBuffers[index]);
+        IoParams params = new IoParams(index, positionUs, null, mReadSampleBuffers[index]);
         mIoHandler.sendMessage(mIoHandler.obtainMessage(MSG_OPEN_READ, params));
     }
 
@@ -258,7 +332,7 @@ public class SampleChunkIoHelper implements Handler.Callback {
      */
     private void updateIndex(int index, long offset) {
         IoParams params =
-                new IoParams(index, offset, null, null, null); // mReadSampleBuffers[index]);
+                new IoParams(index, offset, null, null); // mReadSampleBuffers[index]);
         mIoHandler.sendMessage(mIoHandler.obtainMessage(MSG_UPDATE_INDEX, params));
     }
 
@@ -340,7 +414,7 @@ public class SampleChunkIoHelper implements Handler.Callback {
                     doRead((int) message.obj);
                     return true;
                 case MSG_WRITE:
-                    doWrite((IoParams) message.obj);
+                    doWriteQueuedSamples();
                     // Since only write will increase storage, eviction will be handled here.
                     return true;
                 case MSG_RELEASE:
@@ -349,10 +423,16 @@ public class SampleChunkIoHelper implements Handler.Callback {
                 case MSG_UPDATE_INDEX:
                     doUpdateIndex((IoParams) message.obj);
                     return true;
+                case MSG_FLUSH_INDEX:
+                    mBufferManager.flushIndexFiles();
+                    return true;
             }
         } catch (IOException e) {
             mIoCallback.onIoError();
             mErrorNotified = true;
+            synchronized (mWriteQueue) {
+                mWriteQueue.notifyAll();
+            }
             Log.e(TAG, "IoException happened", e);
             return true;
         }
@@ -465,61 +545,108 @@ public class SampleChunkIoHelper implements Handler.Callback {
         mIoHandler.sendMessage(mIoHandler.obtainMessage(MSG_READ, index));
     }
 
-    private void doWrite(IoParams params) throws IOException {
+    // Writes all the queued samples as a group, so that the writer isn't blocked per sample and
+    // the samples share the write buffers of the chunks.
+    private void doWriteQueuedSamples() throws IOException {
+        List<IoParams> batch;
+        synchronized (mWriteQueue) {
+            batch = new ArrayList<>(mWriteQueue);
+            mWriteQueue.clear();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        long batchBytes = 0;
+        for (IoParams params : batch) {
+            batchBytes += params.sample.size;
+        }
         try {
-            if (mWriteEnded) {
-                SoftPreconditions.checkState(false);
-                return;
+            long startTimeNs = mClock.elapsedRealtimeNanos();
+            for (IoParams params : batch) {
+                doWrite(params);
             }
-            int index = params.index;
-            SampleHolder sample = params.sample;
-            SampleChunk nextChunk = null;
-            if ((sample.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
-                if (sample.timeUs > mBufferDurationUs) {
-                    mBufferDurationUs = sample.timeUs;
-                }
-                if (sample.timeUs >= mWriteIndexEndPositionUs[index]) {
-                    SampleChunk currentChunk =
-                            sample.timeUs >= mWriteChunkEndPositionUs[index]
-                                    ? null
-                                    : mWriteIoStates[params.index].getChunk();
-                    int currentOffset = (int) mWriteIoStates[params.index].getOffset();
-                    boolean updateIndexFile =
-                            mConcurrentDvrPlaybackFlags.enabled()
-                                    && (mBufferReason
-                                            == RecordingSampleBuffer.BUFFER_REASON_RECORDING)
-                                    && (MimeTypes.isVideo(mMediaFormats.get(index).mimeType)
-                                            || MimeTypes.isAudio(
-                                                    mMediaFormats.get(index).mimeType));
-
-                    nextChunk =
-                            mBufferManager.createNewWriteFileIfNeeded(
-                                    mIds.get(index),
-                                    mWriteIndexEndPositionUs[index],
-                                    mSamplePool,
-                                    currentChunk,
-                                    currentOffset,
-                                    updateIndexFile);
-                    mWriteIndexEndPositionUs[index] =
-                            ((sample.timeUs / RecordingSampleBuffer.MIN_SEEK_DURATION_US) + 1)
-                                    * RecordingSampleBuffer.MIN_SEEK_DURATION_US;
-                    if (nextChunk != null) {
-                        mWriteChunkEndPositionUs[index] =
-                                ((sample.timeUs / mSampleChunkDurationUs) + 1)
-                                        * mSampleChunkDurationUs;
-                    }
+            if (!mWriteEnded && batchBytes > 0) {
+                // A write buffer is flushed by whichever sample doesn't fit in it, so the time of
+                // the group is shared by its samples in proportion to their sizes. The stat is
+                // still added per sample, so that the small samples are filtered out by the
+                // minimum sample size for the speed check.
+                long batchTimeNs = mClock.elapsedRealtimeNanos() - startTimeNs;
+                for (IoParams params : batch) {
+                    mBufferManager.addWriteStat(
+                            params.sample.size, batchTimeNs * params.sample.size / batchBytes);
                 }
             }
-            mWriteIoStates[params.index].write(params.sample, nextChunk);
         } finally {
-            params.conditionVariable.open();
+            for (IoParams params : batch) {
+                mSamplePool.releaseSample(params.sample);
+            }
+            synchronized (mWriteQueue) {
+                mWriteQueueBytes -= batchBytes;
+                mWriteQueue.notifyAll();
+            }
+        }
+    }
+
+    private void doWrite(IoParams params) throws IOException {
+        if (mWriteEnded) {
+            SoftPreconditions.checkState(false);
+            return;
         }
+        int index = params.index;
+        SampleHolder sample = params.sample;
+        SampleChunk nextChunk = null;
+        if ((sample.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+            if (sample.timeUs > mBufferDurationUs) {
+                mBufferDurationUs = sample.timeUs;
+            }
+            if (sample.timeUs >= mWriteIndexEndPositionUs[index]) {
+                SampleChunk currentChunk =
+                        sample.timeUs >= mWriteChunkEndPositionUs[index]
+                                ? null
+                                : mWriteIoStates[params.index].getChunk();
+                int currentOffset = (int) mWriteIoStates[params.index].getOffset();
+                boolean updateIndexFile =
+                        mConcurrentDvrPlaybackFlags.enabled()
+                                && (mBufferReason == RecordingSampleBuffer.BUFFER_REASON_RECORDING)
+                                && (MimeTypes.isVideo(mMediaFormats.get(index).mimeType)
+                                        || MimeTypes.isAudio(mMediaFormats.get(index).mimeType));
+                if (updateIndexFile) {
+                    // The index is read by other instances of the chunks, so the samples which the
+                    // index refers to should be in the file.
+                    mWriteIoStates[index].flush();
+                }
+
+                nextChunk =
+                        mBufferManager.createNewWriteFileIfNeeded(
+                                mIds.get(index),
+                                mWriteIndexEndPositionUs[index],
+                                mSamplePool,
+                                currentChunk,
+                                currentOffset,
+                                updateIndexFile);
+                if (updateIndexFile && !mIoHandler.hasMessages(MSG_FLUSH_INDEX)) {
+                    // The index entries are buffered, and written at the latest after the
+                    // interval even when no more entries come, e.g. during a long GOP.
+                    mIoHandler.sendEmptyMessageDelayed(
+                            MSG_FLUSH_INDEX, DvrStorageManager.INDEX_FLUSH_INTERVAL_MS);
+                }
+                mWriteIndexEndPositionUs[index] =
+                        ((sample.timeUs / RecordingSampleBuffer.MIN_SEEK_DURATION_US) + 1)
+                                * RecordingSampleBuffer.MIN_SEEK_DURATION_US;
+                if (nextChunk != null) {
+                    mWriteChunkEndPositionUs[index] =
+                            ((sample.timeUs / mSampleChunkDurationUs) + 1) * mSampleChunkDurationUs;
+                }
+            }
+        }
+        mWriteIoStates[params.index].write(params.sample, nextChunk);
     }
 
     private void doCloseWrite() throws IOException {
         if (mWriteEnded) {
             return;
         }
+        doWriteQueuedSamples();
         mWriteEnded = true;
         boolean readFinished = true;
         for (int i = 0; i < mTrackCount; ++i) {
@@ -534,6 +661,14 @@ public class SampleChunkIoHelper implements Handler.Callback {
     private void doRelease(ConditionVariable conditionVariable) {
         mIoHandler.removeCallbacksAndMessages(null);
         mFinished = true;
+        synchronized (mWriteQueue) {
+            for (IoParams params : mWriteQueue) {
+                mSamplePool.releaseSample(params.sample);
+            }
+            mWriteQueue.clear();
+            mWriteQueueBytes = 0;
+            mWriteQueue.notifyAll();
+        }
         conditionVariable.open();
         mSelectedTracks.clear();
     }
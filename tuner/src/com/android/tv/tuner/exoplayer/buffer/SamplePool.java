@@ -17,51 +17,153 @@
 package com.android.tv.tuner.exoplayer.buffer;
 
 import com.google.android.exoplayer.SampleHolder;
-import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicLong;
 
-/** Pool of samples to recycle ByteBuffers as much as possible. */
+/**
+ * Pool of samples to recycle ByteBuffers as much as possible.
+ *
+ * <p>The samples are pooled by the size classes of powers of two, and each class is a lock-free
+ * stack, since the pool is shared by the extractor, the I/O thread and the renderers. A released
+ * sample goes to the largest class which its buffer can hold, so any sample of a class can be
+ * acquired for the sizes of the class. The samples larger than the largest class are kept in an
+ * overflow class, and acquired by their capacities.
+ */
 public class SamplePool {
-    private final LinkedList<SampleHolder> mSamplePool = new LinkedList<>();
+    // The size classes are from 1KB to 4MB. Larger samples are allocated by their sizes, and go to
+    // the overflow class when released.
+    private static final int MIN_SIZE_CLASS_SHIFT = 10;
+    private static final int MAX_SIZE_CLASS_SHIFT = 22;
+    private static final long DEFAULT_MAX_RETAINED_BYTES = 32L * 1024 * 1024;
+
+    private final ConcurrentLinkedDeque<SampleHolder>[] mSizeClasses;
+    private final ConcurrentLinkedDeque<SampleHolder> mOverflowClass =
+            new ConcurrentLinkedDeque<>();
+    private final boolean mDirect;
+    private final long mMaxRetainedBytes;
+    private final AtomicLong mRetainedBytes = new AtomicLong();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    public SamplePool() {
+        this(false, DEFAULT_MAX_RETAINED_BYTES);
+    }
 
     /**
-     * Acquires a sample with a buffer larger than size from the pool. Allocate new one or resize an
-     * existing buffer if necessary.
+     * Creates a pool of samples.
+     *
+     * @param direct {@code true} if the samples should have direct buffers
+     * @param maxRetainedBytes the maximum total capacity of the samples which are kept in the
+     *     pool. The released samples over this are left to the garbage collector.
      */
-    public synchronized SampleHolder acquireSample(int size) {
-        if (mSamplePool.isEmpty()) {
-            SampleHolder sample = new SampleHolder(SampleHolder.BUFFER_REPLACEMENT_MODE_NORMAL);
-            sample.ensureSpaceForWrite(size);
-            return sample;
+    @SuppressWarnings("unchecked") // A generic array can't be created.
+    public SamplePool(boolean direct, long maxRetainedBytes) {
+        mDirect = direct;
+        mMaxRetainedBytes = maxRetainedBytes;
+        mSizeClasses = new ConcurrentLinkedDeque[MAX_SIZE_CLASS_SHIFT - MIN_SIZE_CLASS_SHIFT + 1];
+        for (int i = 0; i < mSizeClasses.length; ++i) {
+            mSizeClasses[i] = new ConcurrentLinkedDeque<>();
         }
-        SampleHolder smallestSufficientSample = null;
-        SampleHolder maxSample = mSamplePool.getFirst();
-        for (SampleHolder sample : mSamplePool) {
-            // Grab the smallest sufficient sample.
-            if (sample.data.capacity() >= size
-                    && (smallestSufficientSample == null
-                            || smallestSufficientSample.data.capacity() > sample.data.capacity())) {
-                smallestSufficientSample = sample;
-            }
+    }
 
-            // Grab the max size sample.
-            if (maxSample.data.capacity() < sample.data.capacity()) {
-                maxSample = sample;
+    /**
+     * Acquires a sample with a buffer larger than size from the pool. Allocate new one if
+     * necessary.
+     */
+    public SampleHolder acquireSample(int size) {
+        int sizeClass = getSizeClassToAcquire(size);
+        SampleHolder pooledSample = null;
+        if (sizeClass < mSizeClasses.length) {
+            // Also looks at the next class, whose samples are at most twice as large.
+            int lastSizeClass = Math.min(sizeClass + 1, mSizeClasses.length - 1);
+            for (int i = sizeClass; i <= lastSizeClass && pooledSample == null; ++i) {
+                pooledSample = mSizeClasses[i].pollFirst();
             }
+        } else {
+            pooledSample = pollOverflowSample(size);
         }
-        SampleHolder sampleFromPool = smallestSufficientSample;
-
-        // If there's no sufficient sample, grab the maximum sample and resize it to size.
-        if (sampleFromPool == null) {
-            sampleFromPool = maxSample;
-            sampleFromPool.ensureSpaceForWrite(size);
+        if (pooledSample != null) {
+            mRetainedBytes.addAndGet(-pooledSample.data.capacity());
+            mHitCount.incrementAndGet();
+            return pooledSample;
         }
-        mSamplePool.remove(sampleFromPool);
-        return sampleFromPool;
+        mMissCount.incrementAndGet();
+        SampleHolder sample =
+                new SampleHolder(
+                        mDirect
+                                ? SampleHolder.BUFFER_REPLACEMENT_MODE_DIRECT
+                                : SampleHolder.BUFFER_REPLACEMENT_MODE_NORMAL);
+        // Allocates the whole class, so that the sample can be reused for the sizes of the class.
+        sample.ensureSpaceForWrite(
+                sizeClass < mSizeClasses.length ? 1 << (sizeClass + MIN_SIZE_CLASS_SHIFT) : size);
+        return sample;
     }
 
     /** Releases the sample back to the pool. */
-    public synchronized void releaseSample(SampleHolder sample) {
+    public void releaseSample(SampleHolder sample) {
         sample.clearData();
-        mSamplePool.offerLast(sample);
+        if (sample.data == null) {
+            return;
+        }
+        int capacity = sample.data.capacity();
+        int sizeClass = getSizeClassToRelease(capacity);
+        if (sizeClass < 0) {
+            return;
+        }
+        if (mRetainedBytes.addAndGet(capacity) > mMaxRetainedBytes) {
+            mRetainedBytes.addAndGet(-capacity);
+            return;
+        }
+        if (sizeClass < mSizeClasses.length) {
+            mSizeClasses[sizeClass].offerFirst(sample);
+        } else {
+            mOverflowClass.offerFirst(sample);
+        }
+    }
+
+    /** Returns the number of the acquisitions which were served from the pool. */
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /** Returns the number of the acquisitions which allocated a new sample. */
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /** Returns the total capacity of the samples in the pool. */
+    public long getRetainedBytes() {
+        return mRetainedBytes.get();
+    }
+
+    // Returns the smallest class whose samples can hold the size, which can be out of the classes.
+    private static int getSizeClassToAcquire(int size) {
+        int shift = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        return Math.max(shift, MIN_SIZE_CLASS_SHIFT) - MIN_SIZE_CLASS_SHIFT;
+    }
+
+    // Returns the largest class whose sizes the capacity can hold, the number of the classes for
+    // the overflow class, or -1 if it's too small.
+    private int getSizeClassToRelease(int capacity) {
+        if (capacity > 1 << MAX_SIZE_CLASS_SHIFT) {
+            return mSizeClasses.length;
+        }
+        int shift = 31 - Integer.numberOfLeadingZeros(capacity);
+        return shift - MIN_SIZE_CLASS_SHIFT;
+    }
+
+    // Removes a sample of the overflow class which can hold the size and is at most twice as
+    // large, like the samples of the next size class. There are only a few such samples within the
+    // maximum retained bytes, so they are just scanned.
+    private SampleHolder pollOverflowSample(int size) {
+        for (SampleHolder sample : mOverflowClass) {
+            int capacity = sample.data.capacity();
+            if (capacity >= size
+                    && capacity / 2 <= size
+                    && mOverflowClass.removeFirstOccurrence(sample)) {
+                return sample;
+            }
+        }
+        return null;
     }
 }
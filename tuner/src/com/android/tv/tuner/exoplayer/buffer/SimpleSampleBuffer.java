@@ -16,7 +16,6 @@
 
 package com.android.tv.tuner.exoplayer.buffer;
 
-import android.os.ConditionVariable;
 import android.support.annotation.NonNull;
 import com.android.tv.common.SoftPreconditions;
 import com.android.tv.tuner.exoplayer.SampleExtractor;
@@ -120,8 +119,7 @@ public class SimpleSampleBuffer implements BufferManager.SampleBuffer {
     }
 
     @Override
-    public void writeSample(int index, SampleHolder sample, ConditionVariable conditionVariable)
-            throws IOException {
+    public void writeSample(int index, SampleHolder sample) throws IOException {
         sample.data.position(0).limit(sample.size);
         SampleHolder sampleToQueue = mSamplePool.acquireSample(sample.size);
         sampleToQueue.size = sample.size;
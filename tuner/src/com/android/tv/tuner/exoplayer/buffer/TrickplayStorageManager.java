@@ -146,4 +146,10 @@ public class TrickplayStorageManager implements BufferManager.StorageManager {
     @Override
     public void updateIndexFile(
             String trackName, int size, long position, SampleChunk sampleChunk, int offset) {}
+
+    @Override
+    public void flushIndexFiles() {}
+
+    @Override
+    public void release() {}
 }
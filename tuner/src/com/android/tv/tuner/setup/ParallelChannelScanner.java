@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.setup;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Pair;
+import com.android.tv.tuner.api.ScanChannel;
+import com.android.tv.tuner.data.PsipData.EitItem;
+import com.android.tv.tuner.data.TunerChannel;
+import com.android.tv.tuner.source.TsStreamer;
+import com.android.tv.tuner.ts.EventDetector.EventListener;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scans several {@link ScanChannel}s concurrently. Each worker thread has its own {@link
+ * TsStreamer} which is reused for the channels it scans, so that its buffers are allocated once.
+ *
+ * <p>This is only useful for sources which can be demuxed independently, like local TS files. The
+ * results are buffered per {@link ScanChannel} and delivered on the calling thread in the order of
+ * the given list, so the scan result does not depend on which worker finishes first.
+ */
+class ParallelChannelScanner {
+    private static final String TAG = "ParallelChannelScanner";
+
+    /** Creates a new {@link TsStreamer} which reports to the given listener. */
+    interface StreamerFactory {
+        TsStreamer create(EventListener listener);
+    }
+
+    /** Receives the scan result of each {@link ScanChannel} in the order of the scan list. */
+    interface Callback {
+        void onChannelDetected(TunerChannel channel, boolean channelArrivedAtFirstTime);
+
+        void onEventDetected(TunerChannel channel, List<EitItem> items);
+
+        void onScanChannelDone(ScanChannel scanChannel, long durationMs);
+    }
+
+    private final StreamerFactory mStreamerFactory;
+    private final int mMaxWorkers;
+    private final long mScanPeriodMs;
+    private final Set<ScanJob> mRunningJobs = new HashSet<>();
+    private volatile boolean mCanceled;
+
+    ParallelChannelScanner(StreamerFactory streamerFactory, int maxWorkers, long scanPeriodMs) {
+        mStreamerFactory = streamerFactory;
+        mMaxWorkers = Math.max(1, maxWorkers);
+        mScanPeriodMs = scanPeriodMs;
+    }
+
+    /**
+     * Scans the given channels and blocks until all of them are done or the scan is canceled.
+     * {@code callback} is called on the current thread.
+     */
+    void scan(List<ScanChannel> scanChannels, Callback callback) {
+        if (scanChannels.isEmpty()) {
+            return;
+        }
+        long startMs = SystemClock.elapsedRealtime();
+        ExecutorService executor =
+                Executors.newFixedThreadPool(Math.min(mMaxWorkers, scanChannels.size()));
+        ThreadLocal<Worker> workers =
+                new ThreadLocal<Worker>() {
+                    @Override
+                    protected Worker initialValue() {
+                        return new Worker();
+                    }
+                };
+        List<Future<ScanJob>> futures = new ArrayList<>(scanChannels.size());
+        try {
+            for (ScanChannel scanChannel : scanChannels) {
+                futures.add(
+                        executor.submit(() -> runJob(workers.get(), new ScanJob(scanChannel))));
+            }
+            for (Future<ScanJob> future : futures) {
+                ScanJob job;
+                try {
+                    job = future.get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Failed to scan a channel", e);
+                    continue;
+                } catch (InterruptedException e) {
+                    Log.e(TAG, "The current thread is interrupted during scan()", e);
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    break;
+                }
+                job.deliver(callback);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Log.i(
+                TAG,
+                "Scanned "
+                        + scanChannels.size()
+                        + " channels with "
+                        + Math.min(mMaxWorkers, scanChannels.size())
+                        + " workers in "
+                        + (SystemClock.elapsedRealtime() - startMs)
+                        + "ms");
+    }
+
+    /** Stops all the running scans. Channels which are not started yet will be skipped. */
+    void cancel() {
+        mCanceled = true;
+        synchronized (mRunningJobs) {
+            for (ScanJob job : mRunningJobs) {
+                job.mLatch.countDown();
+            }
+        }
+    }
+
+    private ScanJob runJob(Worker worker, ScanJob job) {
+        if (mCanceled) {
+            return job;
+        }
+        long startMs = SystemClock.elapsedRealtime();
+        TsStreamer streamer = worker.mStreamer;
+        worker.mJob = job;
+        if (streamer != null && streamer.startStream(job.mScanChannel)) {
+            synchronized (mRunningJobs) {
+                mRunningJobs.add(job);
+            }
+            try {
+                if (!mCanceled) {
+                    job.mLatch.await(mScanPeriodMs, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Log.e(TAG, "The scan worker is interrupted. The TS stream is stopped early.", e);
+            } finally {
+                synchronized (mRunningJobs) {
+                    mRunningJobs.remove(job);
+                }
+                streamer.stopStream();
+            }
+        }
+        worker.mJob = null;
+        job.mDurationMs = SystemClock.elapsedRealtime() - startMs;
+        return job;
+    }
+
+    /** Forwards the events of the worker's {@link TsStreamer} to the job it currently runs. */
+    private class Worker implements EventListener {
+        private final TsStreamer mStreamer = mStreamerFactory.create(this);
+        private volatile ScanJob mJob;
+
+        @Override
+        public void onChannelDetected(TunerChannel channel, boolean channelArrivedAtFirstTime) {
+            ScanJob job = mJob;
+            if (job != null) {
+                job.onChannelDetected(channel, channelArrivedAtFirstTime);
+            }
+        }
+
+        @Override
+        public void onEventDetected(TunerChannel channel, List<EitItem> items) {
+            ScanJob job = mJob;
+            if (job != null) {
+                job.onEventDetected(channel, items);
+            }
+        }
+
+        @Override
+        public void onChannelScanDone() {
+            ScanJob job = mJob;
+            if (job != null) {
+                job.onChannelScanDone();
+            }
+        }
+    }
+
+    /** Collects the result of a single {@link ScanChannel} until it is delivered. */
+    private static class ScanJob implements EventListener {
+        private final ScanChannel mScanChannel;
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+        private final List<Pair<TunerChannel, Boolean>> mChannels = new ArrayList<>();
+        private final List<Pair<TunerChannel, List<EitItem>>> mEvents = new ArrayList<>();
+        private long mDurationMs;
+
+        private ScanJob(ScanChannel scanChannel) {
+            mScanChannel = scanChannel;
+        }
+
+        @Override
+        public synchronized void onChannelDetected(
+                TunerChannel channel, boolean channelArrivedAtFirstTime) {
+            mChannels.add(new Pair<>(channel, channelArrivedAtFirstTime));
+        }
+
+        @Override
+        public synchronized void onEventDetected(TunerChannel channel, List<EitItem> items) {
+            mEvents.add(new Pair<>(channel, items));
+        }
+
+        @Override
+        public void onChannelScanDone() {
+            mLatch.countDown();
+        }
+
+        private synchronized void deliver(Callback callback) {
+            // Channels first, so that the events always refer to an already detected channel.
+            for (Pair<TunerChannel, Boolean> channel : mChannels) {
+                callback.onChannelDetected(channel.first, channel.second);
+            }
+            for (Pair<TunerChannel, List<EitItem>> event : mEvents) {
+                callback.onEventDetected(event.first, event.second);
+            }
+            Log.i(
+                    TAG,
+                    "Scanned "
+                            + mScanChannel.frequency
+                            + " "
+                            + mScanChannel.modulation
+                            + " in "
+                            + mDurationMs
+                            + "ms, found "
+                            + mChannels.size()
+                            + " channels");
+            callback.onScanChannelDone(mScanChannel, mDurationMs);
+        }
+    }
+}
@@ -78,6 +78,8 @@ public class ScanFragment extends SetupFragment {
     private static final long CHANNEL_SCAN_SHOW_DELAY_MS = 10000;
     private static final long CHANNEL_SCAN_PERIOD_MS = 4000;
     private static final long SHOW_PROGRESS_DIALOG_DELAY_MS = 300;
+    // Each FileTsStreamer holds its own circular buffer, so the parallelism is bounded.
+    private static final int MAX_PARALLEL_FILE_SCANS = 4;
 
     // Build channels out of the locally stored TS streams.
     private static final boolean SCAN_LOCAL_STREAMS = true;
@@ -245,16 +247,20 @@ public class ScanFragment extends SetupFragment {
     }
 
     private class ChannelScanTask extends AsyncTask<Void, Integer, Void>
-            implements EventDetector.EventListener, ChannelDataManager.ChannelHandlingDoneListener {
+            implements EventDetector.EventListener,
+                    ChannelDataManager.ChannelHandlingDoneListener,
+                    ParallelChannelScanner.Callback {
         private static final int MAX_PROGRESS = 100;
 
         private final Activity mActivity;
         private final int mChannelMapId;
         private final TsStreamer mScanTsStreamer;
-        private final TsStreamer mFileTsStreamer;
+        private final ParallelChannelScanner mFileChannelScanner;
         private final ConditionVariable mConditionStopped;
 
         private final List<ScanChannel> mScanChannelList = new ArrayList<>();
+        private long mScanStartMs;
+        private int mScannedChannelCount;
         private boolean mIsCanceled;
         private boolean mIsFinished;
         private ProgressDialog mFinishingProgressDialog;
@@ -272,7 +278,15 @@ public class ScanFragment extends SetupFragment {
                 }
                 mScanTsStreamer = new TunerTsStreamer(hal, this);
             }
-            mFileTsStreamer = SCAN_LOCAL_STREAMS ? new FileTsStreamer(this, mActivity) : null;
+            mFileChannelScanner =
+                    SCAN_LOCAL_STREAMS
+                            ? new ParallelChannelScanner(
+                                    listener -> new FileTsStreamer(listener, mActivity),
+                                    Math.min(
+                                            Runtime.getRuntime().availableProcessors(),
+                                            MAX_PARALLEL_FILE_SCANS),
+                                    CHANNEL_SCAN_PERIOD_MS)
+                            : null;
             mConditionStopped = new ConditionVariable();
             mChannelDataManager.setChannelScanListener(this, new Handler());
         }
@@ -343,6 +357,9 @@ public class ScanFragment extends SetupFragment {
             if (mLatch != null) {
                 mLatch.countDown();
             }
+            if (mFileChannelScanner != null) {
+                mFileChannelScanner.cancel();
+            }
             mConditionStopped.open();
         }
 
@@ -355,13 +372,30 @@ public class ScanFragment extends SetupFragment {
             if (DEBUG) Log.i(TAG, "Channel scan starting");
             mChannelDataManager.notifyScanStarted();
 
-            long startMs = System.currentTimeMillis();
-            int i = 1;
+            mScanStartMs = System.currentTimeMillis();
+            mScannedChannelCount = 0;
+            List<ScanChannel> fileScanChannels = new ArrayList<>();
+            List<ScanChannel> tunerScanChannels = new ArrayList<>();
             for (ScanChannel scanChannel : mScanChannelList) {
+                if (scanChannel.type == Channel.TunerType.TYPE_FILE) {
+                    fileScanChannels.add(scanChannel);
+                } else {
+                    tunerScanChannels.add(scanChannel);
+                }
+            }
+            // File sources don't share a tuner, so they are demuxed concurrently.
+            if (mFileChannelScanner != null) {
+                mFileChannelScanner.scan(fileScanChannels, this);
+            }
+            for (ScanChannel scanChannel : tunerScanChannels) {
+                if (mConditionStopped.block(-1)) {
+                    break;
+                }
                 int frequency = scanChannel.frequency;
                 String modulation = scanChannel.modulation;
                 Log.i(TAG, "Tuning to " + frequency + " " + modulation);
 
+                long tuneStartMs = System.currentTimeMillis();
                 TsStreamer streamer = getStreamer(scanChannel.type);
                 SoftPreconditions.checkNotNull(streamer);
                 if (streamer != null && streamer.startStream(scanChannel)) {
@@ -377,15 +411,8 @@ public class ScanFragment extends SetupFragment {
                     }
                     streamer.stopStream();
                     addChannelsWithoutVct(scanChannel);
-                    if (System.currentTimeMillis() > startMs + CHANNEL_SCAN_SHOW_DELAY_MS
-                            && !mChannelListVisible) {
-                        maybeSetChannelListVisible();
-                    }
                 }
-                if (mConditionStopped.block(-1)) {
-                    break;
-                }
-                publishProgress(MAX_PROGRESS * i++ / mScanChannelList.size());
+                onScanChannelDone(scanChannel, System.currentTimeMillis() - tuneStartMs);
             }
             mChannelDataManager.notifyScanCompleted();
             if (!mConditionStopped.block(-1)) {
@@ -394,6 +421,20 @@ public class ScanFragment extends SetupFragment {
             if (DEBUG) Log.i(TAG, "Channel scan ended");
         }
 
+        @Override
+        public void onScanChannelDone(ScanChannel scanChannel, long durationMs) {
+            if (DEBUG) {
+                Log.d(TAG, "Scanning " + scanChannel.frequency + " took " + durationMs + "ms");
+            }
+            if (System.currentTimeMillis() > mScanStartMs + CHANNEL_SCAN_SHOW_DELAY_MS
+                    && !mChannelListVisible) {
+                maybeSetChannelListVisible();
+            }
+            if (!mConditionStopped.block(-1)) {
+                publishProgress(MAX_PROGRESS * ++mScannedChannelCount / mScanChannelList.size());
+            }
+        }
+
         private void addChannelsWithoutVct(ScanChannel scanChannel) {
             if (scanChannel.radioFrequencyNumber == null
                     || !(mScanTsStreamer instanceof TunerTsStreamer)) {
@@ -422,8 +463,6 @@ public class ScanFragment extends SetupFragment {
             switch (type) {
                 case Channel.TunerType.TYPE_TUNER:
                     return mScanTsStreamer;
-                case Channel.TunerType.TYPE_FILE:
-                    return mFileTsStreamer;
                 default:
                     return null;
             }
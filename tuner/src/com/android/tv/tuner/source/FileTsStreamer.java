@@ -56,15 +56,10 @@ public class FileTsStreamer implements TsStreamer {
     // Virtual frequency base used for file-based source
     public static final int FREQ_BASE = 100;
 
-    private final Object mCircularBufferMonitor = new Object();
-    private final byte[] mCircularBuffer = new byte[CIRCULAR_BUFFER_SIZE];
+    private final TsRingBuffer mRingBuffer = new TsRingBuffer(CIRCULAR_BUFFER_SIZE);
     private final FileSourceEventDetector mEventDetector;
     private final Context mContext;
 
-    private long mBytesFetched;
-    private long mLastReadPosition;
-    private boolean mStreaming;
-
     private Thread mStreamingThread;
     private StreamProvider mSource;
 
@@ -145,12 +140,10 @@ public class FileTsStreamer implements TsStreamer {
             mSource.addPidFilter(TsParser.DVB_EIT_PID);
             mSource.addPidFilter(TsParser.DVB_SDT_PID);
         }
-        synchronized (mCircularBufferMonitor) {
-            if (mStreaming) {
-                return true;
-            }
-            mStreaming = true;
+        if (mRingBuffer.isOpen()) {
+            return true;
         }
+        mRingBuffer.open();
 
         mStreamingThread = new StreamingThread();
         mStreamingThread.start();
@@ -177,12 +170,10 @@ public class FileTsStreamer implements TsStreamer {
             mSource.addPidFilter(TsParser.DVB_EIT_PID);
             mSource.addPidFilter(TsParser.DVB_SDT_PID);
         }
-        synchronized (mCircularBufferMonitor) {
-            if (mStreaming) {
-                return true;
-            }
-            mStreaming = true;
+        if (mRingBuffer.isOpen()) {
+            return true;
         }
+        mRingBuffer.open();
 
         mStreamingThread = new StreamingThread();
         mStreamingThread.start();
@@ -196,10 +187,7 @@ public class FileTsStreamer implements TsStreamer {
      */
     @Override
     public void stopStream() {
-        synchronized (mCircularBufferMonitor) {
-            mStreaming = false;
-            mCircularBufferMonitor.notify();
-        }
+        mRingBuffer.close();
 
         try {
             if (mStreamingThread != null) {
@@ -221,9 +209,7 @@ public class FileTsStreamer implements TsStreamer {
      * @return the current buffered position
      */
     public long getBufferedPosition() {
-        synchronized (mCircularBufferMonitor) {
-            return mBytesFetched;
-        }
+        return mRingBuffer.getWritePosition();
     }
 
     /** Provides MPEG-2 transport stream from a local file. Stream can be filtered by PID. */
@@ -349,48 +335,26 @@ public class FileTsStreamer implements TsStreamer {
      * @throws IOException
      */
     public int readAt(long pos, byte[] buffer, int offset, int amount) throws IOException {
-        synchronized (mCircularBufferMonitor) {
-            long initialBytesFetched = mBytesFetched;
-            while (mBytesFetched < pos + amount && mStreaming) {
-                try {
-                    mCircularBufferMonitor.wait(READ_TIMEOUT_MS);
-                } catch (InterruptedException e) {
-                    // Wait again.
-                    Thread.currentThread().interrupt();
-                }
-                if (initialBytesFetched == mBytesFetched) {
-                    Log.w(TAG, "No data update for " + READ_TIMEOUT_MS + "ms. returning -1.");
-
-                    // Returning -1 will make demux report EOS so that the input service can retry
-                    // the playback.
-                    return -1;
-                }
-            }
-            if (!mStreaming) {
+        // The streaming thread waits for the player, which may read on different threads.
+        Thread reader = Thread.currentThread();
+        if (mRingBuffer.getGatingReader() != reader) {
+            mRingBuffer.setGatingReader(reader);
+        }
+        int ret = mRingBuffer.read(pos, buffer, offset, amount, READ_TIMEOUT_MS);
+        switch (ret) {
+            case TsRingBuffer.READ_ERROR_TIMEOUT:
+                Log.w(TAG, "No data update for " + READ_TIMEOUT_MS + "ms. returning -1.");
+                // Returning -1 will make demux report EOS so that the input service can retry
+                // the playback.
+                return -1;
+            case TsRingBuffer.READ_ERROR_STREAMING_ENDED:
                 Log.w(TAG, "Stream is already stopped.");
                 return -1;
-            }
-            if (mBytesFetched - CIRCULAR_BUFFER_SIZE > pos) {
+            case TsRingBuffer.READ_ERROR_BUFFER_OVERWRITTEN:
                 Log.e(TAG, "Demux is requesting the data which is already overwritten.");
                 return -1;
-            }
-            int posInBuffer = (int) (pos % CIRCULAR_BUFFER_SIZE);
-            int bytesToCopyInFirstPass = amount;
-            if (posInBuffer + bytesToCopyInFirstPass > mCircularBuffer.length) {
-                bytesToCopyInFirstPass = mCircularBuffer.length - posInBuffer;
-            }
-            System.arraycopy(mCircularBuffer, posInBuffer, buffer, offset, bytesToCopyInFirstPass);
-            if (bytesToCopyInFirstPass < amount) {
-                System.arraycopy(
-                        mCircularBuffer,
-                        0,
-                        buffer,
-                        offset + bytesToCopyInFirstPass,
-                        amount - bytesToCopyInFirstPass);
-            }
-            mLastReadPosition = pos + amount;
-            mCircularBufferMonitor.notify();
-            return amount;
+            default:
+                return ret;
         }
     }
 
@@ -423,26 +387,8 @@ public class FileTsStreamer implements TsStreamer {
         public void run() {
             byte[] dataBuffer = new byte[READ_BUFFER_SIZE];
 
-            synchronized (mCircularBufferMonitor) {
-                mBytesFetched = 0;
-                mLastReadPosition = 0;
-            }
-
-            while (true) {
-                synchronized (mCircularBufferMonitor) {
-                    while ((mBytesFetched - mLastReadPosition + PADDING_SIZE) > CIRCULAR_BUFFER_SIZE
-                            && mStreaming) {
-                        try {
-                            mCircularBufferMonitor.wait();
-                        } catch (InterruptedException e) {
-                            // Wait again.
-                            Thread.currentThread().interrupt();
-                        }
-                    }
-                    if (!mStreaming) {
-                        break;
-                    }
-                }
+            // Keeps the padding not to overwrite the data which is not read yet.
+            while (mRingBuffer.awaitSpace(PADDING_SIZE)) {
 
                 int bytesWritten = mSource.read(dataBuffer);
                 if (bytesWritten <= 0) {
@@ -457,26 +403,7 @@ public class FileTsStreamer implements TsStreamer {
                 }
 
                 mEventDetector.feedTSStream(dataBuffer, 0, bytesWritten);
-
-                synchronized (mCircularBufferMonitor) {
-                    int posInBuffer = (int) (mBytesFetched % CIRCULAR_BUFFER_SIZE);
-                    int bytesToCopyInFirstPass = bytesWritten;
-                    if (posInBuffer + bytesToCopyInFirstPass > mCircularBuffer.length) {
-                        bytesToCopyInFirstPass = mCircularBuffer.length - posInBuffer;
-                    }
-                    System.arraycopy(
-                            dataBuffer, 0, mCircularBuffer, posInBuffer, bytesToCopyInFirstPass);
-                    if (bytesToCopyInFirstPass < bytesWritten) {
-                        System.arraycopy(
-                                dataBuffer,
-                                bytesToCopyInFirstPass,
-                                mCircularBuffer,
-                                0,
-                                bytesWritten - bytesToCopyInFirstPass);
-                    }
-                    mBytesFetched += bytesWritten;
-                    mCircularBufferMonitor.notify();
-                }
+                mRingBuffer.write(dataBuffer, 0, bytesWritten);
             }
 
             Log.i(TAG, "Streaming stopped");
@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.source;
+
+/**
+ * Splits an MPEG-2 TS multiplex into PID-filtered sub-streams.
+ *
+ * <p>The header of each TS packet is parsed only once, and the packet is published to every
+ * {@link Consumer} which subscribes to its PID. Consecutive packets for the same consumer are
+ * published as a single run, so an extra consumer costs a few calls per fed buffer rather than a
+ * parse of the whole multiplex.
+ *
+ * <p>{@link #feed} should be called by a single thread. Subscriptions can be changed on any
+ * thread, and take effect from the next {@link #feed}.
+ */
+public class TsPidDemux {
+    /** The maximum number of consumers. */
+    public static final int MAX_CONSUMERS = 32;
+
+    public static final int PAT_PID = 0x0000;
+
+    private static final int TS_PACKET_SIZE = 188;
+    private static final byte TS_PACKET_START_CODE = 0x47;
+    private static final int NUM_PIDS = 0x2000;
+    private static final int PAT_TABLE_ID = 0x00;
+    private static final int INVALID_PID = -1;
+
+    /** Receives the TS packets of the subscribed PIDs. */
+    public interface Consumer {
+        /**
+         * Called with one or more consecutive whole TS packets. The data is valid only during the
+         * call.
+         */
+        void consume(byte[] data, int offset, int length);
+    }
+
+    private final Consumer[] mConsumers = new Consumer[MAX_CONSUMERS];
+    // The bit mask of the consumers for each PID.
+    private final int[] mPidMasks = new int[NUM_PIDS];
+    // The bit mask of the consumers for all the PIDs.
+    private int mAllPidsMask;
+
+    private final int[] mRunStarts = new int[MAX_CONSUMERS];
+    private final byte[] mPartialPacket = new byte[TS_PACKET_SIZE];
+    private int mPartialPacketLength;
+    private long mPacketCount;
+
+    /** Publishes the packets of {@code pid} to {@code consumer}. */
+    public synchronized void addPid(Consumer consumer, int pid) {
+        mPidMasks[pid] |= getOrAddMask(consumer);
+    }
+
+    /** Publishes all the packets to {@code consumer}. */
+    public synchronized void addAllPids(Consumer consumer) {
+        mAllPidsMask |= getOrAddMask(consumer);
+    }
+
+    /** Stops publishing the packets of {@code pid} to {@code consumer}. */
+    public synchronized void removePid(Consumer consumer, int pid) {
+        int index = indexOf(consumer);
+        if (index >= 0) {
+            mPidMasks[pid] &= ~(1 << index);
+        }
+    }
+
+    /** Stops publishing any packets to {@code consumer}. */
+    public synchronized void removeConsumer(Consumer consumer) {
+        int index = indexOf(consumer);
+        if (index < 0) {
+            return;
+        }
+        int clearMask = ~(1 << index);
+        for (int pid = 0; pid < NUM_PIDS; ++pid) {
+            mPidMasks[pid] &= clearMask;
+        }
+        mConsumers[index] = null;
+        mAllPidsMask &= clearMask;
+    }
+
+    /** Returns the number of TS packets demultiplexed so far. */
+    public long getPacketCount() {
+        return mPacketCount;
+    }
+
+    /**
+     * Feeds MPEG-2 TS data to demultiplex. The data does not need to be aligned to TS packets; a
+     * packet split across two calls is published when the rest of it is fed.
+     *
+     * @param data buffer for the TS stream
+     * @param offset the offset where the stream starts
+     * @param length the length of the available data
+     */
+    public void feed(byte[] data, int offset, int length) {
+        int allPidsMask;
+        synchronized (this) {
+            // Also makes the subscription changes on the other threads visible.
+            allPidsMask = mAllPidsMask;
+        }
+        int pos = offset;
+        int limit = offset + length;
+        if (mPartialPacketLength > 0) {
+            int remaining = TS_PACKET_SIZE - mPartialPacketLength;
+            if (limit - pos < remaining) {
+                System.arraycopy(data, pos, mPartialPacket, mPartialPacketLength, limit - pos);
+                mPartialPacketLength += limit - pos;
+                return;
+            }
+            System.arraycopy(data, pos, mPartialPacket, mPartialPacketLength, remaining);
+            mPartialPacketLength = 0;
+            if (pos + remaining >= limit || data[pos + remaining] == TS_PACKET_START_CODE) {
+                int mask = getMask(mPartialPacket, 0, allPidsMask);
+                publish(mPartialPacket, mask, 0, TS_PACKET_SIZE);
+                ++mPacketCount;
+                pos += remaining;
+            }
+            // Otherwise, the next packet is not where it should be; drop the partial packet.
+        }
+        int openMask = 0;
+        while (pos < limit) {
+            if (data[pos] != TS_PACKET_START_CODE) {
+                endRuns(data, openMask, pos);
+                openMask = 0;
+                pos = findSyncByte(data, pos + 1, limit);
+                continue;
+            }
+            if (pos + TS_PACKET_SIZE > limit) {
+                System.arraycopy(data, pos, mPartialPacket, 0, limit - pos);
+                mPartialPacketLength = limit - pos;
+                break;
+            }
+            int mask = getMask(data, pos, allPidsMask);
+            if (mask != openMask) {
+                endRuns(data, openMask & ~mask, pos);
+                startRuns(mask & ~openMask, pos);
+                openMask = mask;
+            }
+            ++mPacketCount;
+            pos += TS_PACKET_SIZE;
+        }
+        endRuns(data, openMask, pos);
+    }
+
+    /**
+     * Finds the PMT PID of a program from a PAT packet. Only a PAT section which starts and ends in
+     * the packet is handled, which is usual for a PAT of a single multiplex.
+     *
+     * @param data buffer which contains the packet
+     * @param pos the start position of the packet
+     * @param programNumber the program number to find
+     * @return the PMT PID, or {@code -1} if it is not found
+     */
+    public static int findPmtPid(byte[] data, int pos, int programNumber) {
+        int limit = pos + TS_PACKET_SIZE;
+        boolean payloadStartIndicator = (data[pos + 1] & 0x40) != 0;
+        boolean hasPayload = (data[pos + 3] & 0x10) != 0;
+        if (!payloadStartIndicator || !hasPayload) {
+            return INVALID_PID;
+        }
+        boolean hasAdaptation = (data[pos + 3] & 0x20) != 0;
+        int payloadPos = pos + (hasAdaptation ? 5 + (data[pos + 4] & 0xff) : 4);
+        if (payloadPos >= limit) {
+            return INVALID_PID;
+        }
+        // Skips the pointer field. For details, see H.222.0 Table 2-30.
+        int sectionPos = payloadPos + 1 + (data[payloadPos] & 0xff);
+        if (sectionPos + 8 > limit || data[sectionPos] != PAT_TABLE_ID) {
+            return INVALID_PID;
+        }
+        int sectionLength = ((data[sectionPos + 1] & 0x0f) << 8) | (data[sectionPos + 2] & 0xff);
+        // Excludes CRC_32 at the end of the section.
+        int programsEnd = sectionPos + 3 + sectionLength - 4;
+        if (programsEnd > limit) {
+            return INVALID_PID;
+        }
+        for (int i = sectionPos + 8; i + 4 <= programsEnd; i += 4) {
+            int number = ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+            if (number == programNumber) {
+                return ((data[i + 2] & 0x1f) << 8) | (data[i + 3] & 0xff);
+            }
+        }
+        return INVALID_PID;
+    }
+
+    private int getMask(byte[] data, int pos, int allPidsMask) {
+        // For details for the structure of TS packet, see H.222.0 Table 2-2.
+        int pid = ((data[pos + 1] & 0x1f) << 8) | (data[pos + 2] & 0xff);
+        return mPidMasks[pid] | allPidsMask;
+    }
+
+    private void startRuns(int mask, int pos) {
+        while (mask != 0) {
+            int index = Integer.numberOfTrailingZeros(mask);
+            mRunStarts[index] = pos;
+            mask &= mask - 1;
+        }
+    }
+
+    private void endRuns(byte[] data, int mask, int end) {
+        while (mask != 0) {
+            int index = Integer.numberOfTrailingZeros(mask);
+            publish(data, 1 << index, mRunStarts[index], end);
+            mask &= mask - 1;
+        }
+    }
+
+    private void publish(byte[] data, int mask, int start, int end) {
+        while (mask != 0) {
+            Consumer consumer = mConsumers[Integer.numberOfTrailingZeros(mask)];
+            // The consumer might be removed while the data is fed.
+            if (consumer != null) {
+                consumer.consume(data, start, end - start);
+            }
+            mask &= mask - 1;
+        }
+    }
+
+    private int getOrAddMask(Consumer consumer) {
+        int index = indexOf(consumer);
+        if (index < 0) {
+            for (int i = 0; i < MAX_CONSUMERS; ++i) {
+                if (mConsumers[i] == null) {
+                    mConsumers[i] = consumer;
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                throw new IllegalStateException("Too many consumers");
+            }
+        }
+        return 1 << index;
+    }
+
+    private int indexOf(Consumer consumer) {
+        for (int i = 0; i < MAX_CONSUMERS; ++i) {
+            if (mConsumers[i] == consumer) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int findSyncByte(byte[] data, int pos, int limit) {
+        for (; pos < limit; ++pos) {
+            if (data[pos] == TS_PACKET_START_CODE
+                    && (pos + TS_PACKET_SIZE >= limit
+                            || data[pos + TS_PACKET_SIZE] == TS_PACKET_START_CODE)) {
+                // Confirms the sync byte with the next packet when it is available.
+                return pos;
+            }
+        }
+        return limit;
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.source;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A circular buffer of an MPEG-2 TS stream which is written by a single producer thread and read
+ * by any number of readers at their own positions.
+ *
+ * <p>Positions are absolute byte offsets from the start of the stream. The producer publishes the
+ * written bytes by advancing a volatile sequence counter, so neither the producer nor a reader
+ * takes a lock. A reader which is ahead of the producer parks until the bytes are published, and
+ * the producer unparks only the readers which are actually waiting.
+ *
+ * <p>When the buffer is full, the producer overwrites the oldest bytes unless it waits with {@link
+ * #awaitSpace} for the reader set by {@link #setGatingReader}. Other readers never hold up the
+ * producer. Reading the overwritten bytes fails with {@link #READ_ERROR_BUFFER_OVERWRITTEN}.
+ *
+ * <p>A read detects the bytes overwritten while they are copied as a seqlock does. The producer
+ * advances {@link #mWriteLimit} before it writes the bytes, and the reader checks it after the
+ * copy. The bytes are plain memory, and the Java memory model alone doesn't order the racy
+ * accesses to them against the volatile fields. This class relies on the ordering which ART gives
+ * volatile accesses on ARM and x86, as described in the JSR-133 cookbook: a volatile write
+ * followed by a volatile read isn't reordered, accesses after a volatile read stay after it, and
+ * accesses before a volatile write stay before it. So the producer reads a volatile field after
+ * advancing {@link #mWriteLimit} and before writing, and a reader writes a volatile field after
+ * the copy and before checking {@link #mWriteLimit}. TsRingBufferTest checks that a read never
+ * returns the bytes which are overwritten during the copy.
+ *
+ * <p>The bytes are kept in a direct buffer, so a tuner can write into it with {@link #startWrite}
+ * and {@link #commitWrite} without an intermediate Java array. The region for the in-place write
+ * is kept ahead of the write position and announced by the previous commit, so a write which
+ * turns out to be empty doesn't make any read fail.
+ */
+public class TsRingBuffer {
+    /** The stream is closed. */
+    public static final int READ_ERROR_STREAMING_ENDED = -1;
+    /** The requested bytes are already overwritten by the producer. */
+    public static final int READ_ERROR_BUFFER_OVERWRITTEN = -2;
+    /** The requested bytes are not written in time. */
+    public static final int READ_ERROR_TIMEOUT = -3;
+
+    private final ByteBuffer mBuffer;
+    private final int mCapacity;
+    private final int mWriteAheadSize;
+    private final ConcurrentLinkedQueue<Thread> mWaitingReaders = new ConcurrentLinkedQueue<>();
+    // The view of the producer thread.
+    private final ByteBuffer mWriteView;
+    // The states of the reader threads, since a ByteBuffer has its own position.
+    private final ThreadLocal<ReaderState> mReaderStates =
+            new ThreadLocal<ReaderState>() {
+                @Override
+                protected ReaderState initialValue() {
+                    return new ReaderState(mBuffer.duplicate());
+                }
+            };
+
+    // The end of the published bytes.
+    private volatile long mWritePosition;
+    // The end of the bytes which the producer may be writing. The bytes before
+    // mWriteLimit - mCapacity might be overwritten.
+    private volatile long mWriteLimit;
+    private volatile Thread mGatingReader;
+    private volatile long mGatingReadPosition;
+    private volatile boolean mOpen;
+    private volatile Thread mWaitingProducer;
+
+    public TsRingBuffer(int capacity) {
+        this(capacity, 0);
+    }
+
+    /**
+     * Creates a buffer which allows {@link #startWrite} of at most {@code writeAheadSize} bytes.
+     * That many bytes before the write position are never readable.
+     */
+    public TsRingBuffer(int capacity, int writeAheadSize) {
+        mCapacity = capacity;
+        mWriteAheadSize = writeAheadSize;
+        mBuffer = ByteBuffer.allocateDirect(capacity);
+        mWriteView = mBuffer.duplicate();
+    }
+
+    /** Starts a new stream from the position {@code 0}. Should be called before writing. */
+    public void open() {
+        mWritePosition = 0;
+        mWriteLimit = mWriteAheadSize;
+        mGatingReader = null;
+        mGatingReadPosition = 0;
+        mOpen = true;
+    }
+
+    /**
+     * Makes {@link #awaitSpace} wait for the reads of {@code reader}, so that the other readers
+     * which may fall behind don't hold up the producer. Should be called after {@link #open}.
+     *
+     * <p>A new gating reader continues from the position of the previous one, so a single logical
+     * reader which moves between threads can set itself before each read. Until the gating reader
+     * reads, {@link #awaitSpace} waits as if it is at the start of the stream.
+     */
+    public void setGatingReader(Thread reader) {
+        mGatingReader = reader;
+    }
+
+    /** Returns the reader set by {@link #setGatingReader}, or {@code null} if there is none. */
+    public Thread getGatingReader() {
+        return mGatingReader;
+    }
+
+    /** Ends the stream. The waiting readers and producer return immediately. */
+    public void close() {
+        mOpen = false;
+        unparkReaders();
+        Thread producer = mWaitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    /** Returns {@code true} if the stream is opened and not closed yet. */
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    /** Returns the capacity of the buffer in bytes. */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /** Returns the end position of the bytes which are written so far. */
+    public long getWritePosition() {
+        return mWritePosition;
+    }
+
+    /** Returns the end position of the last successful read of the gating reader. */
+    public long getGatingReadPosition() {
+        return mGatingReadPosition;
+    }
+
+    /**
+     * Appends the data at the write position. Should be called only by the producer thread.
+     *
+     * @param data the data to write
+     * @param offset the start offset in {@code data}
+     * @param length the number of bytes to write, which should not exceed the capacity
+     */
+    public void write(byte[] data, int offset, int length) {
+        int posInBuffer = startOverwrite(Math.max(mWriteLimit, mWritePosition + length));
+        int bytesToCopyInFirstPass = Math.min(length, mCapacity - posInBuffer);
+        mWriteView.clear();
+        mWriteView.position(posInBuffer);
+        mWriteView.put(data, offset, bytesToCopyInFirstPass);
+        if (bytesToCopyInFirstPass < length) {
+            mWriteView.position(0);
+            mWriteView.put(data, offset + bytesToCopyInFirstPass, length - bytesToCopyInFirstPass);
+        }
+        commitWrite(length);
+    }
+
+    /**
+     * Returns the region of at most {@code length} bytes at the write position to be written in
+     * place, e.g. by a tuner. Should be called only by the producer thread, followed by {@link
+     * #commitWrite} if any bytes are written.
+     *
+     * <p>The region is already given up by the readers when the previous write is committed, so
+     * nothing needs to be undone if the writer turns out to have no bytes.
+     *
+     * @param length the size of the region, which should not exceed the write-ahead size
+     * @return a buffer positioned at the start of the region, or {@code null} if the region would
+     *     wrap around the end of the buffer. Use {@link #write} in that case.
+     */
+    public ByteBuffer startWrite(int length) {
+        if (length > mWriteAheadSize) {
+            throw new IllegalArgumentException(
+                    "Write of " + length + " bytes exceeds write-ahead size " + mWriteAheadSize);
+        }
+        // Reading the volatile mWritePosition keeps the writes of the bytes after the write of
+        // mWriteLimit in the previous commit. See the class comment.
+        long position = mWritePosition;
+        int posInBuffer = (int) (position % mCapacity);
+        if (posInBuffer + length > mCapacity) {
+            return null;
+        }
+        mWriteView.clear();
+        mWriteView.position(posInBuffer);
+        mWriteView.limit(posInBuffer + length);
+        return mWriteView;
+    }
+
+    /**
+     * Makes the reads of the bytes to be overwritten by the bytes until {@code writeLimit} fail,
+     * and returns the write position in the buffer. Should be called before writing the bytes.
+     */
+    private int startOverwrite(long writeLimit) {
+        mWriteLimit = writeLimit;
+        // Reading the volatile mWritePosition after the volatile write keeps the writes of the
+        // bytes after the write of mWriteLimit. See the class comment.
+        return (int) (mWritePosition % mCapacity);
+    }
+
+    /**
+     * Publishes {@code length} bytes written at the write position, and gives up the region for
+     * the next {@link #startWrite}.
+     */
+    public void commitWrite(int length) {
+        long writePosition = mWritePosition + length;
+        mWriteLimit = Math.max(mWriteLimit, writePosition + mWriteAheadSize);
+        mWritePosition = writePosition;
+        unparkReaders();
+    }
+
+    /**
+     * Blocks the producer until writing {@code reservedSize} bytes, together with the write-ahead
+     * region which follows them, doesn't overwrite the bytes which the gating reader hasn't read
+     * yet.
+     *
+     * @return {@code false} if the stream is closed
+     */
+    public boolean awaitSpace(int reservedSize) {
+        mWaitingProducer = Thread.currentThread();
+        try {
+            while (mOpen
+                    && mWritePosition - mGatingReadPosition + reservedSize + mWriteAheadSize
+                            > mCapacity) {
+                LockSupport.park(this);
+            }
+        } finally {
+            mWaitingProducer = null;
+        }
+        return mOpen;
+    }
+
+    /**
+     * Reads the data at the given position, blocking until it is written.
+     *
+     * @param position the position to read from
+     * @param buffer the buffer to read into
+     * @param offset the start offset in {@code buffer}
+     * @param length the number of bytes to read
+     * @param timeoutMs the maximum time to wait for the data
+     * @return {@code length} when successful, or one of the {@code READ_ERROR_*} otherwise
+     */
+    public int read(long position, byte[] buffer, int offset, int length, long timeoutMs) {
+        int result = awaitData(position, length, timeoutMs);
+        if (result < 0) {
+            return result;
+        }
+        return copy(position, buffer, offset, length);
+    }
+
+    /**
+     * Reads the data at the given position which is written so far, blocking until there is any.
+     *
+     * @param position the position to read from
+     * @param buffer the buffer to read into
+     * @param offset the start offset in {@code buffer}
+     * @param maxLength the maximum number of bytes to read
+     * @param timeoutMs the maximum time to wait for the data
+     * @return the number of bytes read when successful, or one of the {@code READ_ERROR_*}
+     *     otherwise
+     */
+    public int readAvailable(
+            long position, byte[] buffer, int offset, int maxLength, long timeoutMs) {
+        int result = awaitData(position, 1, timeoutMs);
+        if (result < 0) {
+            return result;
+        }
+        int length = (int) Math.min(maxLength, mWritePosition - position);
+        return copy(position, buffer, offset, length);
+    }
+
+    private int copy(long position, byte[] buffer, int offset, int length) {
+        ReaderState state = mReaderStates.get();
+        ByteBuffer readView = state.mReadView;
+        int posInBuffer = (int) (position % mCapacity);
+        int bytesToCopyInFirstPass = Math.min(length, mCapacity - posInBuffer);
+        readView.clear();
+        readView.position(posInBuffer);
+        readView.get(buffer, offset, bytesToCopyInFirstPass);
+        if (bytesToCopyInFirstPass < length) {
+            readView.position(0);
+            readView.get(buffer, offset + bytesToCopyInFirstPass, length - bytesToCopyInFirstPass);
+        }
+        // The volatile write keeps the copy before the check below, which fails if the producer
+        // started to overwrite the bytes while they were being copied. See the class comment.
+        state.mReadPosition = position + length;
+        if (mWriteLimit - mCapacity > position) {
+            return READ_ERROR_BUFFER_OVERWRITTEN;
+        }
+        if (Thread.currentThread() != mGatingReader) {
+            return length;
+        }
+        mGatingReadPosition = position + length;
+        Thread producer = mWaitingProducer;
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+        return length;
+    }
+
+    private int awaitData(long position, int length, long timeoutMs) {
+        long end = position + length;
+        long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        Thread reader = null;
+        try {
+            while (true) {
+                if (!mOpen) {
+                    return READ_ERROR_STREAMING_ENDED;
+                }
+                if (mWriteLimit - mCapacity > position) {
+                    return READ_ERROR_BUFFER_OVERWRITTEN;
+                }
+                if (mWritePosition >= end) {
+                    return length;
+                }
+                long remainingNs = deadlineNs - System.nanoTime();
+                if (remainingNs <= 0) {
+                    return READ_ERROR_TIMEOUT;
+                }
+                if (reader == null) {
+                    // Checks the position again after registering, not to miss the unpark.
+                    reader = Thread.currentThread();
+                    mWaitingReaders.add(reader);
+                    continue;
+                }
+                LockSupport.parkNanos(this, remainingNs);
+            }
+        } finally {
+            if (reader != null) {
+                mWaitingReaders.remove(reader);
+            }
+        }
+    }
+
+    /** The state of a reader thread. */
+    private static final class ReaderState {
+        private final ByteBuffer mReadView;
+        // The end position of the last read of this reader. It's written after each copy, so
+        // that the copy stays before the check of mWriteLimit.
+        private volatile long mReadPosition;
+
+        private ReaderState(ByteBuffer readView) {
+            mReadView = readView;
+        }
+    }
+
+    private void unparkReaders() {
+        if (mWaitingReaders.isEmpty()) {
+            return;
+        }
+        for (Thread reader : mWaitingReaders) {
+            LockSupport.unpark(reader);
+        }
+    }
+}
@@ -29,7 +29,9 @@ import com.android.tv.tuner.ts.EventDetector.EventListener;
 import com.google.android.exoplayer.C;
 import com.google.android.exoplayer.upstream.DataSpec;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -39,23 +41,32 @@ public class TunerTsStreamer implements TsStreamer {
 
     private static final int MIN_READ_UNIT = 1500;
     private static final int READ_BUFFER_SIZE = MIN_READ_UNIT * 10; // ~15KB
+    private static final int INPUT_BUFFER_SIZE = MIN_READ_UNIT * 4000; // ~6MB
     private static final int CIRCULAR_BUFFER_SIZE = MIN_READ_UNIT * 20000; // ~ 30MB
+    private static final int PSIP_BUFFER_SIZE = MIN_READ_UNIT * 1000; // ~1.5MB
     private static final int TS_PACKET_SIZE = 188;
 
     private static final int READ_TIMEOUT_MS = 5000; // 5 secs.
     private static final int BUFFER_UNDERRUN_SLEEP_MS = 10;
-    private static final int READ_ERROR_STREAMING_ENDED = -1;
-    private static final int READ_ERROR_BUFFER_OVERWRITTEN = -2;
 
-    private final Object mCircularBufferMonitor = new Object();
-    private final byte[] mCircularBuffer = new byte[CIRCULAR_BUFFER_SIZE];
-    private long mBytesFetched;
-    private final AtomicLong mLastReadPosition = new AtomicLong();
-    private boolean mStreaming;
+    // The whole stream from the tuner, which is read by the demux and the stream writer.
+    private final TsRingBuffer mRingBuffer = new TsRingBuffer(INPUT_BUFFER_SIZE, READ_BUFFER_SIZE);
+    // The packets of the tuned program, which are read by the data sources.
+    private final TsRingBuffer mProgramBuffer = new TsRingBuffer(CIRCULAR_BUFFER_SIZE);
+    // The packets of the PIDs which the event detector parses.
+    private final TsRingBuffer mPsipBuffer = new TsRingBuffer(PSIP_BUFFER_SIZE);
+    private final TsPidDemux.Consumer mProgramStream =
+            (data, offset, length) -> mProgramBuffer.write(data, offset, length);
+    private final TsPidDemux.Consumer mPsipStream =
+            (data, offset, length) -> mPsipBuffer.write(data, offset, length);
 
     private final Tuner mTunerHal;
     private TunerChannel mChannel;
     private Thread mStreamingThread;
+    private final List<ConsumerThread> mConsumerThreads = new ArrayList<>();
+    private TsPidDemux mDemux;
+    // The PIDs of the PSIP stream in ascending order, as the event detector returns them.
+    private int[] mPsipPids = new int[0];
     private final EventDetector mEventDetector;
     private final List<Pair<EventListener, Boolean>> mEventListenerActions = new ArrayList<>();
 
@@ -108,7 +119,7 @@ public class TunerTsStreamer implements TsStreamer {
                             readLength);
             if (ret > 0) {
                 mLastReadPosition.addAndGet(ret);
-            } else if (ret == READ_ERROR_BUFFER_OVERWRITTEN) {
+            } else if (ret == TsRingBuffer.READ_ERROR_BUFFER_OVERWRITTEN) {
                 long currentPosition = mStartBufferedPosition + mLastReadPosition.get();
                 long endPosition = mTsStreamer.getBufferedPosition();
                 long diff =
@@ -176,21 +187,17 @@ public class TunerTsStreamer implements TsStreamer {
             }
             mChannel = channel;
             mChannelNumber = channel.getDisplayNumber();
-            synchronized (mCircularBufferMonitor) {
-                if (mStreaming) {
-                    Log.w(TAG, "Streaming should be stopped before start streaming");
-                    return true;
-                }
-                mStreaming = true;
-                mBytesFetched = 0;
-                mLastReadPosition.set(0L);
+            if (mRingBuffer.isOpen()) {
+                Log.w(TAG, "Streaming should be stopped before start streaming");
+                return true;
             }
+            mRingBuffer.open();
+            startDemux(channel);
             if (mTsStreamWriter != null) {
                 mTsStreamWriter.setChannel(mChannel);
                 mTsStreamWriter.openFile();
             }
-            mStreamingThread = new StreamingThread();
-            mStreamingThread.start();
+            startStreamingThreads();
             Log.i(TAG, "Streaming started");
             return true;
         }
@@ -202,17 +209,13 @@ public class TunerTsStreamer implements TsStreamer {
         if (mTunerHal.tune(channel.frequency, channel.modulation, null)) {
             mEventDetector.startDetecting(
                     channel.frequency, channel.modulation, EventDetector.ALL_PROGRAM_NUMBERS);
-            synchronized (mCircularBufferMonitor) {
-                if (mStreaming) {
-                    Log.w(TAG, "Streaming should be stopped before start streaming");
-                    return true;
-                }
-                mStreaming = true;
-                mBytesFetched = 0;
-                mLastReadPosition.set(0L);
+            if (mRingBuffer.isOpen()) {
+                Log.w(TAG, "Streaming should be stopped before start streaming");
+                return true;
             }
-            mStreamingThread = new StreamingThread();
-            mStreamingThread.start();
+            mRingBuffer.open();
+            startDemux(null);
+            startStreamingThreads();
             Log.i(TAG, "Streaming started");
             return true;
         }
@@ -226,18 +229,21 @@ public class TunerTsStreamer implements TsStreamer {
     @Override
     public void stopStream() {
         mChannel = null;
-        synchronized (mCircularBufferMonitor) {
-            mStreaming = false;
-            mCircularBufferMonitor.notifyAll();
-        }
+        mRingBuffer.close();
+        mProgramBuffer.close();
+        mPsipBuffer.close();
 
         try {
             if (mStreamingThread != null) {
                 mStreamingThread.join();
             }
+            for (ConsumerThread consumerThread : mConsumerThreads) {
+                consumerThread.join();
+            }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        mConsumerThreads.clear();
         if (mTsStreamWriter != null) {
             mTsStreamWriter.closeFile(true);
             mTsStreamWriter.setChannel(null);
@@ -283,13 +289,11 @@ public class TunerTsStreamer implements TsStreamer {
      * @return the current buffered position
      */
     public long getBufferedPosition() {
-        synchronized (mCircularBufferMonitor) {
-            return mBytesFetched;
-        }
+        return mProgramBuffer.getWritePosition();
     }
 
     public String getStreamerInfo() {
-        return "Channel: " + mChannelNumber + ", Streaming: " + mStreaming;
+        return "Channel: " + mChannelNumber + ", Streaming: " + mRingBuffer.isOpen();
     }
 
     public void registerListener(EventListener listener) {
@@ -312,34 +316,98 @@ public class TunerTsStreamer implements TsStreamer {
         return mTunerHal.getSignalStrength();
     }
 
+    /**
+     * Sets up the demux which splits the stream into the program stream for the data sources and
+     * the PSIP stream for the event detector.
+     *
+     * @param channel the tuned channel, or {@code null} when scanning channels
+     */
+    private void startDemux(TunerChannel channel) {
+        mDemux = new TsPidDemux();
+        mPsipBuffer.open();
+        mPsipPids = new int[0];
+        subscribePsipPids();
+        if (channel == null) {
+            return;
+        }
+        mProgramBuffer.open();
+        List<Integer> pids = new ArrayList<>(channel.getAudioPids());
+        if (channel.hasVideo()) {
+            pids.add(channel.getVideoPid());
+        }
+        if (pids.isEmpty()) {
+            // The program is not known well enough to filter it.
+            mDemux.addAllPids(mProgramStream);
+            return;
+        }
+        pids.add(channel.getPcrPid());
+        pids.add(TsPidDemux.PAT_PID);
+        for (int pid : pids) {
+            if (pid != TunerChannel.INVALID_PID) {
+                mDemux.addPid(mProgramStream, pid);
+            }
+        }
+        // The extractor also needs the PMT, whose PID is found from the PAT.
+        mDemux.addPid(new PmtPidFinder(channel.getProgramNumber()), TsPidDemux.PAT_PID);
+    }
+
+    /**
+     * Subscribes the PSIP stream to the PIDs which the event detector has started to parse, and
+     * unsubscribes it from the PIDs which the detector has stopped parsing.
+     */
+    private void subscribePsipPids() {
+        int[] pids = mEventDetector.getListeningPids();
+        if (Arrays.equals(pids, mPsipPids)) {
+            return;
+        }
+        for (int pid : mPsipPids) {
+            if (Arrays.binarySearch(pids, pid) < 0) {
+                mDemux.removePid(mPsipStream, pid);
+            }
+        }
+        for (int pid : pids) {
+            if (Arrays.binarySearch(mPsipPids, pid) < 0) {
+                mDemux.addPid(mPsipStream, pid);
+            }
+        }
+        mPsipPids = pids;
+    }
+
+    private void startStreamingThreads() {
+        mStreamingThread = new StreamingThread();
+        mStreamingThread.start();
+        // The demux, the detector and the writer read the streams at their own pace, not to delay
+        // the streaming thread. Only the demux, which feeds the playback, holds up the streaming
+        // thread when it falls behind.
+        DemuxThread demuxThread = new DemuxThread();
+        mRingBuffer.setGatingReader(demuxThread);
+        mConsumerThreads.add(demuxThread);
+        if (mEventDetector != null) {
+            mConsumerThreads.add(new EventDetectorThread());
+        }
+        if (mTsStreamWriter != null) {
+            mConsumerThreads.add(new StreamWriterThread());
+        }
+        for (ConsumerThread consumerThread : mConsumerThreads) {
+            consumerThread.start();
+        }
+    }
+
     private class StreamingThread extends Thread {
         @Override
         public void run() {
             // Buffers for streaming data from the tuner and the internal buffer.
             byte[] dataBuffer = new byte[READ_BUFFER_SIZE];
 
-            while (true) {
-                synchronized (mCircularBufferMonitor) {
-                    if (!mStreaming) {
-                        break;
-                    }
-                }
-
-                if (mEventDetector != null) {
-                    synchronized (mEventListenerActions) {
-                        for (Pair listenerAction : mEventListenerActions) {
-                            EventListener listener = (EventListener) listenerAction.first;
-                            if ((boolean) listenerAction.second) {
-                                mEventDetector.registerListener(listener);
-                            } else {
-                                mEventDetector.unregisterListener(listener);
-                            }
-                        }
-                        mEventListenerActions.clear();
-                    }
-                }
-
-                int bytesWritten = mTunerHal.readTsStream(dataBuffer, dataBuffer.length);
+            while (mRingBuffer.awaitSpace(READ_BUFFER_SIZE)) {
+                // The tuner writes into the ring buffer in place, unless the region wraps around.
+                // The region is given up by the readers only when the bytes are committed, so an
+                // underrun doesn't make the demux lose any bytes.
+                ByteBuffer target = mRingBuffer.startWrite(READ_BUFFER_SIZE);
+                int bytesWritten =
+                        target != null
+                                ? mTunerHal.readTsStream(target)
+                                : mTunerHal.readTsStream(dataBuffer, dataBuffer.length);
                 if (bytesWritten <= 0) {
                     try {
                         // When buffer is underrun, we sleep for short time to prevent
@@ -350,36 +418,132 @@ public class TunerTsStreamer implements TsStreamer {
                     }
                     continue;
                 }
-
-                if (mTsStreamWriter != null) {
-                    mTsStreamWriter.writeToFile(dataBuffer, bytesWritten);
+                if (target != null) {
+                    mRingBuffer.commitWrite(bytesWritten);
+                } else {
+                    mRingBuffer.write(dataBuffer, 0, bytesWritten);
                 }
+            }
+
+            Log.i(TAG, "Streaming stopped");
+        }
+    }
+
+    /**
+     * A thread which reads a stream from a ring buffer at its own pace. When a best-effort
+     * consumer lags behind more than the half of the buffer, the oldest data is skipped and
+     * counted as dropped. Other consumers hold up the producer instead, so they skip data only if
+     * it's overwritten regardless.
+     */
+    private abstract class ConsumerThread extends Thread {
+        private final TsRingBuffer mSource;
+        private final int mMaxLagBytes;
+        private long mDroppedBytes;
+
+        private ConsumerThread(String name, TsRingBuffer source, boolean bestEffort) {
+            super(name);
+            mSource = source;
+            mMaxLagBytes = bestEffort ? source.getCapacity() / 2 : source.getCapacity();
+        }
 
-                if (mEventDetector != null) {
-                    mEventDetector.feedTSStream(dataBuffer, 0, bytesWritten);
+        @Override
+        public void run() {
+            byte[] dataBuffer = new byte[READ_BUFFER_SIZE];
+            long position = 0;
+            while (true) {
+                long lag = mSource.getWritePosition() - position;
+                if (lag > mMaxLagBytes) {
+                    // Skips whole TS packets, since the tuner and the demux write whole packets.
+                    long skip =
+                            (lag - mMaxLagBytes + TS_PACKET_SIZE - 1)
+                                    / TS_PACKET_SIZE
+                                    * TS_PACKET_SIZE;
+                    position += skip;
+                    mDroppedBytes += skip;
                 }
-                synchronized (mCircularBufferMonitor) {
-                    int posInBuffer = (int) (mBytesFetched % CIRCULAR_BUFFER_SIZE);
-                    int bytesToCopyInFirstPass = bytesWritten;
-                    if (posInBuffer + bytesToCopyInFirstPass > mCircularBuffer.length) {
-                        bytesToCopyInFirstPass = mCircularBuffer.length - posInBuffer;
-                    }
-                    System.arraycopy(
-                            dataBuffer, 0, mCircularBuffer, posInBuffer, bytesToCopyInFirstPass);
-                    if (bytesToCopyInFirstPass < bytesWritten) {
-                        System.arraycopy(
-                                dataBuffer,
-                                bytesToCopyInFirstPass,
-                                mCircularBuffer,
-                                0,
-                                bytesWritten - bytesToCopyInFirstPass);
+                int ret =
+                        mSource.readAvailable(
+                                position, dataBuffer, 0, dataBuffer.length, READ_TIMEOUT_MS);
+                if (ret == TsRingBuffer.READ_ERROR_STREAMING_ENDED) {
+                    break;
+                } else if (ret > 0) {
+                    consume(dataBuffer, ret);
+                    position += ret;
+                }
+                // Otherwise, try again. The lag check above skips the overwritten data.
+            }
+            if (mDroppedBytes > 0) {
+                Log.w(TAG, getName() + " dropped " + mDroppedBytes + " bytes to catch up");
+            }
+        }
+
+        protected abstract void consume(byte[] data, int length);
+    }
+
+    private class DemuxThread extends ConsumerThread {
+        private DemuxThread() {
+            super("TsDemuxThread", mRingBuffer, false);
+        }
+
+        @Override
+        protected void consume(byte[] data, int length) {
+            mDemux.feed(data, 0, length);
+        }
+    }
+
+    private class EventDetectorThread extends ConsumerThread {
+        private EventDetectorThread() {
+            // The PSIP tables are repeated, so the skipped ones are parsed again later.
+            super("EventDetectorThread", mPsipBuffer, true);
+        }
+
+        @Override
+        protected void consume(byte[] data, int length) {
+            synchronized (mEventListenerActions) {
+                for (Pair listenerAction : mEventListenerActions) {
+                    EventListener listener = (EventListener) listenerAction.first;
+                    if ((boolean) listenerAction.second) {
+                        mEventDetector.registerListener(listener);
+                    } else {
+                        mEventDetector.unregisterListener(listener);
                     }
-                    mBytesFetched += bytesWritten;
-                    mCircularBufferMonitor.notifyAll();
                 }
+                mEventListenerActions.clear();
             }
+            mEventDetector.feedTSStream(data, 0, length);
+            subscribePsipPids();
+        }
+    }
 
-            Log.i(TAG, "Streaming stopped");
+    private class StreamWriterThread extends ConsumerThread {
+        private StreamWriterThread() {
+            super("TsStreamWriterThread", mRingBuffer, true);
+        }
+
+        @Override
+        protected void consume(byte[] data, int length) {
+            mTsStreamWriter.writeToFile(data, length);
+        }
+    }
+
+    /** Adds the PMT PID of the program to the program stream, when it is found from the PAT. */
+    private class PmtPidFinder implements TsPidDemux.Consumer {
+        private final int mProgramNumber;
+        private int mPmtPid = TunerChannel.INVALID_PID;
+
+        private PmtPidFinder(int programNumber) {
+            mProgramNumber = programNumber;
+        }
+
+        @Override
+        public void consume(byte[] data, int offset, int length) {
+            for (int pos = offset; pos < offset + length; pos += TS_PACKET_SIZE) {
+                int pmtPid = TsPidDemux.findPmtPid(data, pos, mProgramNumber);
+                if (pmtPid != TunerChannel.INVALID_PID && pmtPid != mPmtPid) {
+                    mPmtPid = pmtPid;
+                    mDemux.addPid(mProgramStream, pmtPid);
+                }
+            }
         }
     }
 
@@ -394,36 +558,14 @@ public class TunerTsStreamer implements TsStreamer {
      * @throws IOException
      */
     public int readAt(long pos, byte[] buffer, int offset, int amount) throws IOException {
-        while (true) {
-            synchronized (mCircularBufferMonitor) {
-                if (!mStreaming) {
-                    return READ_ERROR_STREAMING_ENDED;
-                }
-                if (mBytesFetched - CIRCULAR_BUFFER_SIZE > pos) {
-                    Log.w(TAG, "Demux is requesting the data which is already overwritten.");
-                    return READ_ERROR_BUFFER_OVERWRITTEN;
-                }
-                if (mBytesFetched < pos + amount) {
-                    try {
-                        mCircularBufferMonitor.wait(READ_TIMEOUT_MS);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                    // Try again to prevent starvation.
-                    // Give chances to read from other threads.
-                    continue;
-                }
-                int startPos = (int) (pos % CIRCULAR_BUFFER_SIZE);
-                int endPos = (int) ((pos + amount) % CIRCULAR_BUFFER_SIZE);
-                int firstLength = (startPos > endPos ? CIRCULAR_BUFFER_SIZE : endPos) - startPos;
-                System.arraycopy(mCircularBuffer, startPos, buffer, offset, firstLength);
-                if (firstLength < amount) {
-                    System.arraycopy(
-                            mCircularBuffer, 0, buffer, offset + firstLength, amount - firstLength);
-                }
-                mCircularBufferMonitor.notifyAll();
-                return amount;
-            }
+        int ret;
+        do {
+            // Try again until the data is written or the streaming ends.
+            ret = mProgramBuffer.read(pos, buffer, offset, amount, READ_TIMEOUT_MS);
+        } while (ret == TsRingBuffer.READ_ERROR_TIMEOUT);
+        if (ret == TsRingBuffer.READ_ERROR_BUFFER_OVERWRITTEN) {
+            Log.w(TAG, "Demux is requesting the data which is already overwritten.");
         }
+        return ret;
     }
 }
@@ -251,6 +251,14 @@ public class EventDetector {
     }
 
     private void reset() {
+        if (DEBUG && mTsParser != null) {
+            Log.d(
+                    TAG,
+                    "Sections parsed: "
+                            + mTsParser.getParsedSectionCount()
+                            + ", skipped: "
+                            + mTsParser.getSkippedSectionCount());
+        }
         // TODO: Use TsParser.reset()
         mTsParser =
                 new TsParser(
@@ -303,6 +311,14 @@ public class EventDetector {
         }
     }
 
+    /**
+     * Returns the PIDs which the detector parses in ascending order, so that the stream can be
+     * filtered by them.
+     */
+    public int[] getListeningPids() {
+        return mTsParser != null ? mTsParser.getListeningPids() : new int[0];
+    }
+
     /**
      * Retrieves the channel information regardless of being well-formed.
      *
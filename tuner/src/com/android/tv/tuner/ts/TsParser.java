@@ -31,7 +31,6 @@ import com.android.tv.tuner.data.SectionParser.OutputListener;
 import com.android.tv.tuner.data.TunerChannel;
 import com.android.tv.tuner.util.ByteArrayBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -49,6 +48,7 @@ public class TsParser {
     private static final int TS_PACKET_START_CODE = 0x47;
     private static final int TS_PACKET_TEI_MASK = 0x80;
     private static final int TS_PACKET_SIZE = 188;
+    private static final int INVALID_PID = -1;
 
     /*
      * Using a SparseArray removes the need to auto box the int key for mStreamMap
@@ -74,6 +74,14 @@ public class TsParser {
     private final TsOutputListener mListener;
     private final boolean mIsDvbSignal;
 
+    // Holds the head of a TS packet which is split across two calls of feedTSData.
+    private final byte[] mPartialPacket = new byte[TS_PACKET_SIZE];
+    private int mPartialPacketLength;
+
+    // Most consecutive packets belong to the same PID, so the last lookup is cached.
+    private int mLastPid = INVALID_PID;
+    private Stream mLastStream;
+
     private int mVctItemCount;
     private int mHandledVctItemCount;
     private int mVctSectionParsedCount;
@@ -102,17 +110,23 @@ public class TsParser {
         protected int mContinuityCounter = INVALID_CONTINUITY_COUNTER;
         protected final ByteArrayBuffer mPacket = new ByteArrayBuffer(TS_PACKET_SIZE);
 
-        public void feedData(byte[] data, int continuityCounter, boolean startIndicator) {
+        public void feedData(
+                byte[] data, int offset, int limit, int continuityCounter, boolean startIndicator) {
             if ((mContinuityCounter + 1) % NUM_CONTINUITY_COUNTER != continuityCounter) {
                 mPacket.setLength(0);
             }
             mContinuityCounter = continuityCounter;
-            handleData(data, startIndicator);
+            handleData(data, offset, limit, startIndicator);
         }
 
-        protected abstract void handleData(byte[] data, boolean startIndicator);
+        protected abstract void handleData(
+                byte[] data, int offset, int limit, boolean startIndicator);
 
         protected abstract void resetDataVersions();
+
+        protected abstract int getParsedSectionCount();
+
+        protected abstract int getSkippedSectionCount();
     }
 
     private class SectionStream extends Stream {
@@ -125,27 +139,27 @@ public class TsParser {
         }
 
         @Override
-        protected void handleData(byte[] data, boolean startIndicator) {
-            int startPos = 0;
+        protected void handleData(byte[] data, int offset, int limit, boolean startIndicator) {
+            int startPos = offset;
             if (mPacket.length() == 0) {
                 if (startIndicator) {
-                    startPos = (data[0] & 0xff) + 1;
+                    startPos += (data[offset] & 0xff) + 1;
                 } else {
                     // Don't know where the section starts yet. Wait until start indicator is on.
                     return;
                 }
             } else {
                 if (startIndicator) {
-                    startPos = 1;
+                    startPos += 1;
                 }
             }
 
             // When a broken packet is encountered, parsing will stop and return right away.
-            if (startPos >= data.length) {
+            if (startPos >= limit) {
                 mPacket.setLength(0);
                 return;
             }
-            mPacket.append(data, startPos, data.length - startPos);
+            mPacket.append(data, startPos, limit - startPos);
             mSectionParser.parseSections(mPacket);
         }
 
@@ -154,6 +168,16 @@ public class TsParser {
             mSectionParser.resetVersionNumbers();
         }
 
+        @Override
+        protected int getParsedSectionCount() {
+            return mSectionParser.getParsedSectionCount();
+        }
+
+        @Override
+        protected int getSkippedSectionCount() {
+            return mSectionParser.getSkippedSectionCount();
+        }
+
         private final OutputListener mSectionListener =
                 new OutputListener() {
                     @Override
@@ -459,6 +483,16 @@ public class TsParser {
 
     private void startListening(int pid) {
         mStreamMap.put(pid, new SectionStream(pid));
+        mLastPid = INVALID_PID;
+        mLastStream = null;
+    }
+
+    private Stream getStream(int pid) {
+        if (pid != mLastPid) {
+            mLastPid = pid;
+            mLastStream = mStreamMap.get(pid);
+        }
+        return mLastStream;
     }
 
     private boolean feedTSPacket(byte[] tsData, int pos) {
@@ -477,39 +511,80 @@ public class TsParser {
 
         // For details for the structure of TS packet, see H.222.0 Table 2-2.
         int pid = ((tsData[pos + 1] & 0x1f) << 8) | (tsData[pos + 2] & 0xff);
-        boolean hasAdaptation = (tsData[pos + 3] & 0x20) != 0;
         boolean hasPayload = (tsData[pos + 3] & 0x10) != 0;
-        boolean payloadStartIndicator = (tsData[pos + 1] & 0x40) != 0;
-        int continuityCounter = tsData[pos + 3] & 0x0f;
-        Stream stream = mStreamMap.get(pid);
-        int payloadPos = pos;
-        payloadPos += hasAdaptation ? 5 + (tsData[pos + 4] & 0xff) : 4;
+        Stream stream = getStream(pid);
         if (!hasPayload || stream == null) {
             // We are not interested in this packet.
             return false;
         }
+        boolean hasAdaptation = (tsData[pos + 3] & 0x20) != 0;
+        boolean payloadStartIndicator = (tsData[pos + 1] & 0x40) != 0;
+        int continuityCounter = tsData[pos + 3] & 0x0f;
+        int payloadPos = pos;
+        payloadPos += hasAdaptation ? 5 + (tsData[pos + 4] & 0xff) : 4;
         if (payloadPos >= pos + TS_PACKET_SIZE) {
             if (DEBUG) Log.d(TAG, "Payload should be included in a single TS packet.");
             return false;
         }
         stream.feedData(
-                Arrays.copyOfRange(tsData, payloadPos, pos + TS_PACKET_SIZE),
-                continuityCounter,
-                payloadStartIndicator);
+                tsData, payloadPos, pos + TS_PACKET_SIZE, continuityCounter, payloadStartIndicator);
         return true;
     }
 
     /**
-     * Feeds MPEG-2 TS data to parse.
+     * Feeds MPEG-2 TS data to parse. The data does not need to be aligned to TS packets; the parser
+     * resynchronizes on the sync byte and keeps a packet split across two calls until the rest of
+     * it is fed.
      *
      * @param tsData buffer for ATSC TS stream
-     * @param pos the offset where buffer starts
+     * @param offset the offset where buffer starts
      * @param length The length of available data
      */
-    public void feedTSData(byte[] tsData, int pos, int length) {
-        for (; pos <= length - TS_PACKET_SIZE; pos += TS_PACKET_SIZE) {
+    public void feedTSData(byte[] tsData, int offset, int length) {
+        int pos = offset;
+        int limit = offset + length;
+        if (mPartialPacketLength > 0) {
+            int remaining = TS_PACKET_SIZE - mPartialPacketLength;
+            if (limit - pos < remaining) {
+                System.arraycopy(tsData, pos, mPartialPacket, mPartialPacketLength, limit - pos);
+                mPartialPacketLength += limit - pos;
+                return;
+            }
+            System.arraycopy(tsData, pos, mPartialPacket, mPartialPacketLength, remaining);
+            mPartialPacketLength = 0;
+            if (pos + remaining >= limit || tsData[pos + remaining] == TS_PACKET_START_CODE) {
+                feedTSPacket(mPartialPacket, 0);
+                pos += remaining;
+            } else if (DEBUG) {
+                // The next packet is not where it should be; drop the partial packet and resync.
+                Log.d(TAG, "Dropped a partial ts packet.");
+            }
+        }
+        while (pos < limit) {
+            if (tsData[pos] != TS_PACKET_START_CODE) {
+                pos = findSyncByte(tsData, pos + 1, limit);
+                continue;
+            }
+            if (pos + TS_PACKET_SIZE > limit) {
+                System.arraycopy(tsData, pos, mPartialPacket, 0, limit - pos);
+                mPartialPacketLength = limit - pos;
+                break;
+            }
             feedTSPacket(tsData, pos);
+            pos += TS_PACKET_SIZE;
+        }
+    }
+
+    private static int findSyncByte(byte[] tsData, int pos, int limit) {
+        for (; pos < limit; ++pos) {
+            if (tsData[pos] == TS_PACKET_START_CODE
+                    && (pos + TS_PACKET_SIZE >= limit
+                            || tsData[pos + TS_PACKET_SIZE] == TS_PACKET_START_CODE)) {
+                // Confirms the sync byte with the next packet when it is available.
+                return pos;
+            }
         }
+        return limit;
     }
 
     /**
@@ -532,6 +607,36 @@ public class TsParser {
         return incompleteChannels;
     }
 
+    /** Returns the PIDs which the parser listens to, in ascending order. */
+    public int[] getListeningPids() {
+        int[] pids = new int[mStreamMap.size()];
+        for (int i = 0; i < pids.length; ++i) {
+            pids[i] = mStreamMap.keyAt(i);
+        }
+        return pids;
+    }
+
+    /** Returns the number of sections parsed so far across all the listened PIDs. */
+    public int getParsedSectionCount() {
+        int count = 0;
+        for (int i = 0; i < mStreamMap.size(); ++i) {
+            count += mStreamMap.valueAt(i).getParsedSectionCount();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of sections discarded so far across all the listened PIDs, because the
+     * same version was already parsed.
+     */
+    public int getSkippedSectionCount() {
+        int count = 0;
+        for (int i = 0; i < mStreamMap.size(); ++i) {
+            count += mStreamMap.valueAt(i).getSkippedSectionCount();
+        }
+        return count;
+    }
+
     /** Reset the versions so that data with old version number can be handled. */
     public void resetDataVersions() {
         for (int eitPid : mEITPids) {
@@ -17,10 +17,12 @@
 package com.android.tv.tuner.tvinput.datamanager;
 
 import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.OperationApplicationException;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.media.tv.TvContract;
 import android.net.Uri;
@@ -40,11 +42,11 @@ import com.android.tv.tuner.data.TunerChannel;
 import com.android.tv.tuner.prefs.TunerPreferences;
 import com.android.tv.tuner.util.ConvertUtils;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
@@ -54,6 +56,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
 /** Manages the channel info and EPG data through {@link TvInputManager}. */
 public class ChannelDataManager implements Handler.Callback {
     private static final String TAG = "ChannelDataManager";
+    // The first path segment of a program uri, e.g. content://android.media.tv/program/1.
+    private static final String PATH_PROGRAM = "program";
 
     private static final String[] ALL_PROGRAMS_SELECTION_ARGS =
             new String[] {
@@ -67,6 +71,8 @@ public class ChannelDataManager implements Handler.Callback {
                 TvContract.Programs.COLUMN_SHORT_DESCRIPTION,
                 TvContract.Programs.COLUMN_VERSION_NUMBER
             };
+    private static final String[] PROGRAM_ID_SELECTION_ARGS =
+            new String[] {TvContract.Programs._ID};
     private static final String[] CHANNEL_DATA_SELECTION_ARGS =
             new String[] {
                 TvContract.Channels._ID,
@@ -107,6 +113,15 @@ public class ChannelDataManager implements Handler.Callback {
     private final ConcurrentHashMap<Long, TunerChannel> mTunerChannelMap;
     private final ConcurrentSkipListMap<TunerChannel, Long> mTunerChannelIdMap;
     private final Uri mChannelsUri;
+    // The programs which have been written for each channel id. Accessed only on mHandler.
+    private final Map<Long, ProgramIndex> mProgramIndexes = new HashMap<>();
+    // The ids of the programs written by this class whose change notifications haven't arrived
+    // yet. Accessed only on mHandler.
+    private final Set<Long> mWrittenProgramIds = new HashSet<>();
+    // Counts the changes of the programs made by others. A program index is checked against
+    // TvProvider only when it has been changed since the last check. Accessed only on mHandler.
+    private long mProgramsVersion;
+    private final ContentObserver mProgramsObserver;
 
     // Used for scanning
     private final ConcurrentSkipListSet<TunerChannel> mScannedChannels;
@@ -155,6 +170,15 @@ public class ChannelDataManager implements Handler.Callback {
         mHandlerThread = new HandlerThread("TvInputServiceBackgroundThread");
         mHandlerThread.start();
         mHandler = new Handler(mHandlerThread.getLooper(), this);
+        mProgramsObserver =
+                new ContentObserver(mHandler) {
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        onProgramsChanged(uri);
+                    }
+                };
+        context.getContentResolver()
+                .registerContentObserver(TvContract.Programs.CONTENT_URI, true, mProgramsObserver);
         mIsScanning = new AtomicBoolean();
         mScannedChannels = new ConcurrentSkipListSet<>();
         mPreviousScannedChannels = new ConcurrentSkipListSet<>();
@@ -197,6 +221,7 @@ public class ChannelDataManager implements Handler.Callback {
     }
 
     public void releaseSafely() {
+        mContext.getContentResolver().unregisterContentObserver(mProgramsObserver);
         mHandlerThread.quitSafely();
         mListener = null;
         mChannelHandlingDoneListener = null;
@@ -305,6 +330,7 @@ public class ChannelDataManager implements Handler.Callback {
             } catch (RemoteException | OperationApplicationException e) {
                 Log.e(TAG, "Error deleting obsolete channels", e);
             }
+            mHandler.post(mProgramIndexes::clear);
         }
         if (mChannelHandlingDoneListener != null && mChannelScanHandler != null) {
             mChannelScanHandler.post(() -> mChannelHandlingDoneListener.onChannelHandlingDone());
@@ -397,153 +423,71 @@ public class ChannelDataManager implements Handler.Callback {
         }
 
         long currentTime = System.currentTimeMillis();
-        List<EitItem> oldItems =
-                getAllProgramsForChannel(
-                        channel, currentTime, currentTime + PROGRAM_QUERY_DURATION);
-        ArrayList<ContentProviderOperation> ops = new ArrayList<>();
-        // TODO: Find a right way to check if the programs are added outside.
-        boolean addedOutside = false;
-        for (EitItem item : oldItems) {
-            if (item.getEventId() == 0) {
-                // The event has been added outside TV tuner.
-                addedOutside = true;
-                break;
-            }
-        }
+        ProgramIndex index = getProgramIndex(channel, currentTime);
+        ProgramBatch batch = new ProgramBatch(channel, index);
 
         // Inserting programs only when there is no overlapping with existing data assuming that:
         // 1. external EPG is more accurate and rich and
         // 2. the data we add here will be updated when we apply external EPG.
-        if (addedOutside) {
-            // oldItemCount cannot be 0 if addedOutside is true.
-            int oldItemCount = oldItems.size();
+        // TODO: Find a right way to check if the programs are added outside.
+        if (index.hasProgramsAddedOutside()) {
             for (EitItem newItem : items) {
                 if (newItem.getEndTimeUtcMillis() < currentTime) {
                     continue;
                 }
-                long newItemStartTime = newItem.getStartTimeUtcMillis();
-                long newItemEndTime = newItem.getEndTimeUtcMillis();
-                if (newItemStartTime < oldItems.get(0).getStartTimeUtcMillis()) {
-                    // Start time smaller than that of any old items. Insert if no overlap.
-                    if (newItemEndTime > oldItems.get(0).getStartTimeUtcMillis()) continue;
-                } else if (newItemStartTime
-                        > oldItems.get(oldItemCount - 1).getStartTimeUtcMillis()) {
-                    // Start time larger than that of any old item. Insert if no overlap.
-                    if (newItemStartTime < oldItems.get(oldItemCount - 1).getEndTimeUtcMillis())
-                        continue;
-                } else {
-                    int pos =
-                            Collections.binarySearch(
-                                    oldItems,
-                                    newItem,
-                                    (EitItem lhs, EitItem rhs) ->
-                                            Long.compare(
-                                                    lhs.getStartTimeUtcMillis(),
-                                                    rhs.getStartTimeUtcMillis()));
-                    if (pos >= 0) {
-                        // Same start Time found. Overlapped.
-                        continue;
-                    }
-                    int insertPoint = -1 - pos;
-                    // Check the two adjacent items.
-                    if (newItemStartTime < oldItems.get(insertPoint - 1).getEndTimeUtcMillis()
-                            || newItemEndTime > oldItems.get(insertPoint).getStartTimeUtcMillis()) {
-                        continue;
-                    }
-                }
-                ops.add(
-                        buildContentProviderOperation(
-                                ContentProviderOperation.newInsert(TvContract.Programs.CONTENT_URI),
-                                newItem,
-                                channel));
-                if (ops.size() >= BATCH_OPERATION_COUNT) {
-                    applyBatch(channel.getName(), ops);
-                    ops.clear();
+                if (!index.overlapsAdjacent(
+                        newItem.getStartTimeUtcMillis(), newItem.getEndTimeUtcMillis())) {
+                    batch.insert(newItem);
                 }
             }
-            applyBatch(channel.getName(), ops);
+            batch.flush();
             return;
         }
 
-        List<EitItem> outdatedOldItems = new ArrayList<>();
-        Map<Integer, EitItem> newEitItemMap = new HashMap<>();
+        // Only the programs of the events in the items are compared with the items.
+        List<EitItem> newItems = new ArrayList<>();
+        Set<Integer> newEventIds = new HashSet<>();
         for (EitItem item : items) {
-            newEitItemMap.put(item.getEventId(), item);
-        }
-        for (EitItem oldItem : oldItems) {
-            EitItem item = newEitItemMap.get(oldItem.getEventId());
-            if (item == null) {
-                outdatedOldItems.add(oldItem);
+            newEventIds.add(item.getEventId());
+            List<ProgramIndex.Entry> oldEntries = index.get(item.getEventId());
+            if (oldEntries.isEmpty()) {
+                newItems.add(item);
                 continue;
             }
-
-            // Since program descriptions arrive at different time, the older one may have the
-            // correct program description while the newer one has no clue what value is.
-            if (oldItem.getDescription() != null
-                    && item.getDescription() == null
-                    && oldItem.getEventId() == item.getEventId()
-                    && oldItem.getStartTime() == item.getStartTime()
-                    && oldItem.getLengthInSecond() == item.getLengthInSecond()
-                    && Objects.equals(oldItem.getContentRating(), item.getContentRating())
-                    && Objects.equals(oldItem.getBroadcastGenre(), item.getBroadcastGenre())
-                    && Objects.equals(oldItem.getCanonicalGenre(), item.getCanonicalGenre())) {
-                item.setDescription(oldItem.getDescription());
-            }
-            if (item.compareTo(oldItem) != 0) {
-                ops.add(
-                        buildContentProviderOperation(
-                                ContentProviderOperation.newUpdate(
-                                        TvContract.buildProgramUri(oldItem.getProgramId())),
-                                item,
-                                null));
-                if (ops.size() >= BATCH_OPERATION_COUNT) {
-                    applyBatch(channel.getName(), ops);
-                    ops.clear();
+            for (ProgramIndex.Entry oldEntry : oldEntries) {
+                // Since program descriptions arrive at different time, the older one may have the
+                // correct program description while the newer one has no clue what value is.
+                if (oldEntry.description != null
+                        && item.getDescription() == null
+                        && oldEntry.matchesExceptTitleAndDescription(item)) {
+                    item.setDescription(oldEntry.description);
+                }
+                if (!oldEntry.matches(item)) {
+                    batch.update(oldEntry, item);
                 }
             }
-            newEitItemMap.remove(item.getEventId());
-        }
-        for (EitItem unverifiedOldItems : outdatedOldItems) {
-            if (unverifiedOldItems.getStartTimeUtcMillis() > currentTime) {
-                // The given new EIT item list covers partial time span of EPG. Here, we delete old
-                // item only when it has an overlapping with the new EIT item list.
-                long startTime = unverifiedOldItems.getStartTimeUtcMillis();
-                long endTime = unverifiedOldItems.getEndTimeUtcMillis();
-                for (EitItem item : newEitItemMap.values()) {
-                    long newItemStartTime = item.getStartTimeUtcMillis();
-                    long newItemEndTime = item.getEndTimeUtcMillis();
-                    if ((startTime >= newItemStartTime && startTime < newItemEndTime)
-                            || (endTime > newItemStartTime && endTime <= newItemEndTime)) {
-                        ops.add(
-                                ContentProviderOperation.newDelete(
-                                                TvContract.buildProgramUri(
-                                                        unverifiedOldItems.getProgramId()))
-                                        .build());
-                        if (ops.size() >= BATCH_OPERATION_COUNT) {
-                            applyBatch(channel.getName(), ops);
-                            ops.clear();
-                        }
-                        break;
-                    }
+        }
+        // The given new EIT item list covers partial time span of EPG. Here, we delete old item
+        // only when it has an overlapping with the new EIT item list.
+        Set<ProgramIndex.Entry> outdatedEntries = new HashSet<>();
+        for (EitItem item : newItems) {
+            for (ProgramIndex.Entry entry :
+                    index.getEntriesStartingOrEndingIn(
+                            item.getStartTimeUtcMillis(), item.getEndTimeUtcMillis())) {
+                if (entry.startTimeUtcMillis > currentTime
+                        && !newEventIds.contains(entry.eventId)
+                        && outdatedEntries.add(entry)) {
+                    batch.delete(entry);
                 }
             }
         }
-        for (EitItem item : newEitItemMap.values()) {
+        for (EitItem item : newItems) {
             if (item.getEndTimeUtcMillis() < currentTime) {
                 continue;
             }
-            ops.add(
-                    buildContentProviderOperation(
-                            ContentProviderOperation.newInsert(TvContract.Programs.CONTENT_URI),
-                            item,
-                            channel));
-            if (ops.size() >= BATCH_OPERATION_COUNT) {
-                applyBatch(channel.getName(), ops);
-                ops.clear();
-            }
+            batch.insert(item);
         }
-
-        applyBatch(channel.getName(), ops);
+        batch.flush();
     }
 
     private ContentProviderOperation buildContentProviderOperation(
@@ -572,14 +516,60 @@ public class ChannelDataManager implements Handler.Callback {
         return builder.build();
     }
 
-    private void applyBatch(String channelName, ArrayList<ContentProviderOperation> operations) {
+    @Nullable
+    private ContentProviderResult[] applyBatch(
+            String channelName, ArrayList<ContentProviderOperation> operations) {
         try {
-            mContext.getContentResolver().applyBatch(TvContract.AUTHORITY, operations);
+            return mContext.getContentResolver().applyBatch(TvContract.AUTHORITY, operations);
         } catch (RemoteException | OperationApplicationException e) {
             Log.e(TAG, "Error updating EPG " + channelName, e);
+            return null;
         }
     }
 
+    /**
+     * Returns the program index of the channel without the programs which have ended. The index is
+     * loaded from TvProvider at the first use, and afterwards when it was dropped or the program
+     * ids in TvProvider show that the programs have been inserted or deleted by others, e.g. by an
+     * external EPG. The program ids are read only if the programs have been changed by others
+     * since the index was last checked.
+     */
+    private ProgramIndex getProgramIndex(TunerChannel channel, long currentTime) {
+        long endTime = currentTime + PROGRAM_QUERY_DURATION;
+        ProgramIndex index = mProgramIndexes.get(channel.getChannelId());
+        if (index != null) {
+            index.removeEndedBefore(currentTime);
+            if (index.getCheckedVersion() == mProgramsVersion) {
+                return index;
+            }
+            Set<Long> programIds = getProgramIdsForChannel(channel, currentTime, endTime);
+            if (index.hasSamePrograms(programIds, endTime)) {
+                index.setCheckedVersion(mProgramsVersion);
+                return index;
+            }
+        }
+        index = new ProgramIndex(getAllProgramsForChannel(channel, currentTime, endTime));
+        index.removeEndedBefore(currentTime);
+        index.setCheckedVersion(mProgramsVersion);
+        mProgramIndexes.put(channel.getChannelId(), index);
+        return index;
+    }
+
+    private void onProgramsChanged(@Nullable Uri uri) {
+        // TvContract.isProgramUri is hidden before O, so the path is checked here.
+        if (uri != null
+                && uri.getPathSegments().size() == 2
+                && PATH_PROGRAM.equals(uri.getPathSegments().get(0))
+                && mWrittenProgramIds.remove(ContentUris.parseId(uri))) {
+            // The notification of a change written by this class.
+            return;
+        }
+        ++mProgramsVersion;
+        // The changes of others may come with the notifications of the written programs, so the
+        // index is checked against TvProvider anyway.
+        mWrittenProgramIds.clear();
+    }
+
     private void handleChannel(TunerChannel channel) {
         long channelId = getChannelId(channel);
         ContentValues values = new ContentValues();
@@ -628,6 +618,7 @@ public class ChannelDataManager implements Handler.Callback {
     }
 
     private void clearChannels() {
+        mProgramIndexes.clear();
         int count = mContext.getContentResolver().delete(mChannelsUri, null, null);
         if (count > 0) {
             // We have just deleted obsolete data. Now tell the user that he or she needs
@@ -752,6 +743,27 @@ public class ChannelDataManager implements Handler.Callback {
         return items;
     }
 
+    private Set<Long> getProgramIdsForChannel(
+            TunerChannel channel, long startTimeMs, long endTimeMs) {
+        Set<Long> programIds = new HashSet<>();
+        try (Cursor cursor =
+                mContext.getContentResolver()
+                        .query(
+                                TvContract.buildProgramsUriForChannel(
+                                        channel.getChannelId(), startTimeMs, endTimeMs),
+                                PROGRAM_ID_SELECTION_ARGS,
+                                null,
+                                null,
+                                null)) {
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    programIds.add(cursor.getLong(0));
+                }
+            }
+        }
+        return programIds;
+    }
+
     private void buildChannelMap() {
         ArrayList<TunerChannel> channels = new ArrayList<>();
         try (Cursor cursor =
@@ -774,6 +786,109 @@ public class ChannelDataManager implements Handler.Callback {
         }
     }
 
+    /**
+     * Applies the program operations of a channel in batches, and keeps the program index in sync
+     * with the results. The index is dropped, to be loaded again, when the results show that
+     * TvProvider has been changed by others.
+     */
+    private class ProgramBatch {
+        private final TunerChannel mChannel;
+        private ProgramIndex mIndex;
+        private final ArrayList<ContentProviderOperation> mOps = new ArrayList<>();
+        // The written item of each operation, or null for a deletion.
+        private final List<EitItem> mItems = new ArrayList<>();
+        // The replaced or deleted entry of each operation, or null for an insertion.
+        private final List<ProgramIndex.Entry> mOldEntries = new ArrayList<>();
+
+        private ProgramBatch(TunerChannel channel, ProgramIndex index) {
+            mChannel = channel;
+            mIndex = index;
+        }
+
+        private void insert(EitItem item) {
+            add(
+                    buildContentProviderOperation(
+                            ContentProviderOperation.newInsert(TvContract.Programs.CONTENT_URI),
+                            item,
+                            mChannel),
+                    item,
+                    null);
+        }
+
+        private void update(ProgramIndex.Entry oldEntry, EitItem item) {
+            add(
+                    buildContentProviderOperation(
+                            ContentProviderOperation.newUpdate(
+                                    TvContract.buildProgramUri(oldEntry.programId)),
+                            item,
+                            null),
+                    item,
+                    oldEntry);
+        }
+
+        private void delete(ProgramIndex.Entry oldEntry) {
+            add(
+                    ContentProviderOperation.newDelete(
+                                    TvContract.buildProgramUri(oldEntry.programId))
+                            .build(),
+                    null,
+                    oldEntry);
+        }
+
+        private void add(
+                ContentProviderOperation op,
+                @Nullable EitItem item,
+                @Nullable ProgramIndex.Entry oldEntry) {
+            mOps.add(op);
+            mItems.add(item);
+            mOldEntries.add(oldEntry);
+            if (mOps.size() >= BATCH_OPERATION_COUNT) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (mOps.isEmpty()) {
+                return;
+            }
+            ContentProviderResult[] results = applyBatch(mChannel.getName(), mOps);
+            if (mIndex != null && !updateIndex(results)) {
+                // The programs might have been changed outside. Reloads the index next time.
+                mProgramIndexes.remove(mChannel.getChannelId());
+                mIndex = null;
+            }
+            mOps.clear();
+            mItems.clear();
+            mOldEntries.clear();
+        }
+
+        private boolean updateIndex(@Nullable ContentProviderResult[] results) {
+            if (results == null || results.length != mOps.size()) {
+                return false;
+            }
+            for (int i = 0; i < results.length; ++i) {
+                EitItem item = mItems.get(i);
+                ProgramIndex.Entry oldEntry = mOldEntries.get(i);
+                if (oldEntry == null) {
+                    long programId = ContentUris.parseId(results[i].uri);
+                    mWrittenProgramIds.add(programId);
+                    mIndex.put(new ProgramIndex.Entry(item, programId));
+                    continue;
+                }
+                mWrittenProgramIds.add(oldEntry.programId);
+                if (results[i].count == null || results[i].count == 0) {
+                    // The program has been deleted outside.
+                    return false;
+                }
+                mIndex.remove(oldEntry);
+                if (item != null) {
+                    mIndex.put(new ProgramIndex.Entry(item, oldEntry.programId));
+                }
+            }
+            return true;
+        }
+    }
+
     private static class ChannelEvent {
         public final TunerChannel channel;
         public final List<EitItem> eitItems;
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.tvinput.datamanager;
+
+import com.android.tv.tuner.data.PsipData.EitItem;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An in-memory index of the programs of a channel in TvProvider, sorted by the start time.
+ *
+ * <p>{@link ChannelDataManager} loads it from TvProvider and keeps it in sync with its own writes,
+ * so that an EIT update is diffed against the index rather than a 16-day query. When TvProvider
+ * has been changed by others since the index was checked, e.g. by an external EPG, the index is
+ * checked against the program ids in TvProvider and loaded again if the programs have been
+ * inserted or deleted. Only the columns which the diff compares are kept for each program.
+ *
+ * <p>Not thread safe.
+ */
+class ProgramIndex {
+    private static final Comparator<Entry> START_TIME_ORDER =
+            (Entry lhs, Entry rhs) -> {
+                int ret = Long.compare(lhs.startTimeUtcMillis, rhs.startTimeUtcMillis);
+                return ret != 0 ? ret : Long.compare(lhs.programId, rhs.programId);
+            };
+
+    /** A program in the index. */
+    static final class Entry {
+        final long programId;
+        final int eventId;
+        final long startTime;
+        final int lengthInSecond;
+        final long startTimeUtcMillis;
+        final long endTimeUtcMillis;
+        final String titleText;
+        final String contentRating;
+        final String broadcastGenre;
+        final String canonicalGenre;
+        // The description is kept as is, since a later EIT item may come without it.
+        final String description;
+
+        Entry(EitItem item, long programId) {
+            this.programId = programId;
+            eventId = item.getEventId();
+            startTime = item.getStartTime();
+            lengthInSecond = item.getLengthInSecond();
+            startTimeUtcMillis = item.getStartTimeUtcMillis();
+            endTimeUtcMillis = item.getEndTimeUtcMillis();
+            titleText = item.getTitleText();
+            contentRating = item.getContentRating();
+            broadcastGenre = item.getBroadcastGenre();
+            canonicalGenre = item.getCanonicalGenre();
+            description = item.getDescription();
+        }
+
+        private Entry(long startTimeUtcMillis, long programId) {
+            this.programId = programId;
+            eventId = 0;
+            startTime = 0;
+            lengthInSecond = 0;
+            this.startTimeUtcMillis = startTimeUtcMillis;
+            endTimeUtcMillis = startTimeUtcMillis;
+            titleText = null;
+            contentRating = null;
+            broadcastGenre = null;
+            canonicalGenre = null;
+            description = null;
+        }
+
+        /**
+         * Returns {@code true} if the item has the same values as this entry except the title and
+         * the description. The description of this entry is carried over to such an item which
+         * has none.
+         */
+        boolean matchesExceptTitleAndDescription(EitItem item) {
+            return eventId == item.getEventId()
+                    && startTime == item.getStartTime()
+                    && lengthInSecond == item.getLengthInSecond()
+                    && Objects.equals(contentRating, item.getContentRating())
+                    && Objects.equals(broadcastGenre, item.getBroadcastGenre())
+                    && Objects.equals(canonicalGenre, item.getCanonicalGenre());
+        }
+
+        /**
+         * Returns {@code true} if the item has the same values as this entry, as {@link
+         * EitItem#compareTo} compares them.
+         */
+        boolean matches(EitItem item) {
+            return matchesExceptTitleAndDescription(item)
+                    && Objects.equals(titleText, item.getTitleText())
+                    && Objects.equals(description, item.getDescription());
+        }
+    }
+
+    private final TreeSet<Entry> mEntries = new TreeSet<>(START_TIME_ORDER);
+    // More than one program can have the same event id, e.g. when a program is rescheduled.
+    private final Map<Integer, List<Entry>> mEntriesByEventId = new HashMap<>();
+    private int mOutsideProgramCount;
+    private long mMaxDurationMillis;
+    private long mCheckedVersion;
+
+    /** Creates an index of the programs read from TvProvider. */
+    ProgramIndex(List<EitItem> items) {
+        for (EitItem item : items) {
+            put(new Entry(item, item.getProgramId()));
+        }
+    }
+
+    /** Adds an entry. The entry of the same program is replaced. */
+    void put(Entry entry) {
+        List<Entry> sameEvent = mEntriesByEventId.get(entry.eventId);
+        if (sameEvent != null) {
+            for (Entry old : sameEvent) {
+                if (old.programId == entry.programId) {
+                    remove(old);
+                    break;
+                }
+            }
+        }
+        mEntries.add(entry);
+        if (entry.eventId == 0) {
+            // The program has been added outside TV tuner.
+            ++mOutsideProgramCount;
+        } else {
+            List<Entry> entries = mEntriesByEventId.get(entry.eventId);
+            if (entries == null) {
+                entries = new ArrayList<>(1);
+                mEntriesByEventId.put(entry.eventId, entries);
+            }
+            entries.add(entry);
+        }
+        mMaxDurationMillis =
+                Math.max(mMaxDurationMillis, entry.endTimeUtcMillis - entry.startTimeUtcMillis);
+    }
+
+    /** Removes an entry. */
+    void remove(Entry entry) {
+        if (!mEntries.remove(entry)) {
+            return;
+        }
+        if (entry.eventId == 0) {
+            --mOutsideProgramCount;
+            return;
+        }
+        List<Entry> entries = mEntriesByEventId.get(entry.eventId);
+        if (entries != null && entries.remove(entry) && entries.isEmpty()) {
+            mEntriesByEventId.remove(entry.eventId);
+        }
+    }
+
+    /** Returns a copy of the entries of the event, which is empty if there is none. */
+    List<Entry> get(int eventId) {
+        List<Entry> entries = mEntriesByEventId.get(eventId);
+        return entries == null ? new ArrayList<>() : new ArrayList<>(entries);
+    }
+
+    /**
+     * Returns the version of the programs in TvProvider at which the index was last checked, as
+     * set by {@link #setCheckedVersion}.
+     */
+    long getCheckedVersion() {
+        return mCheckedVersion;
+    }
+
+    /** Sets the version of the programs in TvProvider which the index is checked against. */
+    void setCheckedVersion(long version) {
+        mCheckedVersion = version;
+    }
+
+    /** Returns the number of the entries. */
+    int size() {
+        return mEntries.size();
+    }
+
+    /** Returns {@code true} if any of the programs has been added outside TV tuner. */
+    boolean hasProgramsAddedOutside() {
+        return mOutsideProgramCount > 0;
+    }
+
+    /**
+     * Returns {@code true} if the index has exactly the given programs, ignoring the entries which
+     * start after the given time as TvProvider is queried up to it.
+     */
+    boolean hasSamePrograms(Set<Long> programIds, long endTimeMs) {
+        int count = 0;
+        for (Entry entry : mEntries) {
+            if (entry.startTimeUtcMillis > endTimeMs) {
+                break;
+            }
+            if (!programIds.contains(entry.programId)) {
+                return false;
+            }
+            ++count;
+        }
+        return count == programIds.size();
+    }
+
+    /** Removes the entries which end before the given time. */
+    void removeEndedBefore(long timeMs) {
+        List<Entry> ended = new ArrayList<>();
+        for (Entry entry : mEntries) {
+            if (entry.startTimeUtcMillis >= timeMs) {
+                break;
+            }
+            if (entry.endTimeUtcMillis < timeMs) {
+                ended.add(entry);
+            }
+        }
+        for (Entry entry : ended) {
+            remove(entry);
+        }
+    }
+
+    /**
+     * Returns {@code true} if the given time span overlaps with any entry. Only the entries which
+     * start just before and after the span are checked, as the programs are not supposed to
+     * overlap with each other.
+     */
+    boolean overlapsAdjacent(long startTimeMs, long endTimeMs) {
+        Entry before = mEntries.lower(new Entry(startTimeMs, Long.MIN_VALUE));
+        Entry after = mEntries.ceiling(new Entry(startTimeMs, Long.MIN_VALUE));
+        if (after != null
+                && (after.startTimeUtcMillis == startTimeMs
+                        || after.startTimeUtcMillis < endTimeMs)) {
+            return true;
+        }
+        return before != null && before.endTimeUtcMillis > startTimeMs;
+    }
+
+    /**
+     * Returns the entries which start or end within the given time span, i.e. whose start time is
+     * in {@code [startTimeMs, endTimeMs)} or whose end time is in {@code (startTimeMs, endTimeMs]}.
+     */
+    List<Entry> getEntriesStartingOrEndingIn(long startTimeMs, long endTimeMs) {
+        List<Entry> entries = new ArrayList<>();
+        // No entry which starts earlier than this can end within the span.
+        Entry from = new Entry(startTimeMs - mMaxDurationMillis, Long.MIN_VALUE);
+        Entry to = new Entry(endTimeMs, Long.MIN_VALUE);
+        Iterator<Entry> it = mEntries.subSet(from, true, to, false).iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            long start = entry.startTimeUtcMillis;
+            long end = entry.endTimeUtcMillis;
+            if ((start >= startTimeMs && start < endTimeMs)
+                    || (end > startTimeMs && end <= endTimeMs)) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.util;
+
+/**
+ * Calculates CRC-32/MPEG-2 checksums, which protect PSI and PSIP sections.
+ *
+ * <p>The checksum is calculated MSB first with the polynomial 0x04c11db7, an initial value of
+ * 0xffffffff and no final XOR. Running it over a whole section including its CRC_32 field yields
+ * zero when the section is intact. See H.222.0 Annex A.
+ */
+public abstract class Crc32Mpeg2 {
+    private static final int POLYNOMIAL = 0x04c11db7;
+    private static final int INITIAL_VALUE = 0xffffffff;
+    private static final int SLICE_COUNT = 8;
+
+    // SLICE_TABLES[k][b] is the CRC contribution of the byte b followed by k zero bytes.
+    // SLICE_TABLES[0] is the ordinary byte-at-a-time table.
+    private static final int[][] SLICE_TABLES = new int[SLICE_COUNT][256];
+
+    static {
+        for (int i = 0; i < 256; ++i) {
+            int crc = i << 24;
+            for (int bit = 0; bit < 8; ++bit) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+            }
+            SLICE_TABLES[0][i] = crc;
+        }
+        for (int k = 1; k < SLICE_COUNT; ++k) {
+            for (int i = 0; i < 256; ++i) {
+                int previous = SLICE_TABLES[k - 1][i];
+                SLICE_TABLES[k][i] = (previous << 8) ^ SLICE_TABLES[0][previous >>> 24];
+            }
+        }
+    }
+
+    private static final Crc32Mpeg2 sDefault = new SliceBy8();
+
+    /** Returns the engine that the section parsers should use by default. */
+    public static Crc32Mpeg2 getDefault() {
+        return sDefault;
+    }
+
+    /** Creates the classic engine which looks up a single table for every byte. */
+    public static Crc32Mpeg2 createByteWise() {
+        return new ByteWise();
+    }
+
+    /** Creates an engine which consumes eight bytes per step using eight lookup tables. */
+    public static Crc32Mpeg2 createSliceBy8() {
+        return new SliceBy8();
+    }
+
+    /**
+     * Calculates the checksum of {@code data} from {@code offset} (inclusive) to {@code limit}
+     * (exclusive).
+     */
+    public final int calculate(byte[] data, int offset, int limit) {
+        return update(INITIAL_VALUE, data, offset, limit);
+    }
+
+    protected abstract int update(int crc, byte[] data, int offset, int limit);
+
+    private static int updateByteWise(int crc, byte[] data, int offset, int limit) {
+        int[] table = SLICE_TABLES[0];
+        for (int i = offset; i < limit; ++i) {
+            crc = table[((crc >>> 24) ^ data[i]) & 0xff] ^ (crc << 8);
+        }
+        return crc;
+    }
+
+    private static final class ByteWise extends Crc32Mpeg2 {
+        @Override
+        protected int update(int crc, byte[] data, int offset, int limit) {
+            return updateByteWise(crc, data, offset, limit);
+        }
+    }
+
+    private static final class SliceBy8 extends Crc32Mpeg2 {
+        @Override
+        protected int update(int crc, byte[] data, int offset, int limit) {
+            int[] t0 = SLICE_TABLES[0];
+            int[] t1 = SLICE_TABLES[1];
+            int[] t2 = SLICE_TABLES[2];
+            int[] t3 = SLICE_TABLES[3];
+            int[] t4 = SLICE_TABLES[4];
+            int[] t5 = SLICE_TABLES[5];
+            int[] t6 = SLICE_TABLES[6];
+            int[] t7 = SLICE_TABLES[7];
+            int pos = offset;
+            for (; pos + SLICE_COUNT <= limit; pos += SLICE_COUNT) {
+                int high =
+                        crc
+                                ^ ((data[pos] & 0xff) << 24
+                                        | (data[pos + 1] & 0xff) << 16
+                                        | (data[pos + 2] & 0xff) << 8
+                                        | (data[pos + 3] & 0xff));
+                crc =
+                        t7[high >>> 24]
+                                ^ t6[(high >>> 16) & 0xff]
+                                ^ t5[(high >>> 8) & 0xff]
+                                ^ t4[high & 0xff]
+                                ^ t3[data[pos + 4] & 0xff]
+                                ^ t2[data[pos + 5] & 0xff]
+                                ^ t1[data[pos + 6] & 0xff]
+                                ^ t0[data[pos + 7] & 0xff];
+            }
+            return updateByteWise(crc, data, pos, limit);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+import com.android.tv.common.compat.TvInputConstantCompat;
+import com.android.tv.tuner.api.Tuner;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link Tuner} which replays a TS file in a loop, without the native tuner library.
+ *
+ * <p>The stream is read from the file directly into the buffer given to {@link
+ * #readTsStream(ByteBuffer)}. It is delivered at the given bit rate, or as fast as possible for
+ * benchmarks.
+ */
+public class ReplayTuner implements Tuner {
+    private static final String TAG = "ReplayTuner";
+    private static final int TS_PACKET_SIZE = 188;
+    private static final int TS_SYNC_BYTE = 0x47;
+
+    private final File mFile;
+    private final double mBytesPerMs;
+    private final SparseBooleanArray mPids = new SparseBooleanArray();
+    private final byte[] mPacket = new byte[TS_PACKET_SIZE];
+    private RandomAccessFile mAccessFile;
+    private FileChannel mChannel;
+    private long mStartTimeMs;
+    private long mTotalReadBytes;
+
+    /**
+     * Creates a tuner replaying {@code file}.
+     *
+     * @param mbps the bit rate to deliver the stream, or {@code 0} to deliver it as fast as
+     *     possible
+     */
+    public ReplayTuner(File file, double mbps) {
+        mFile = file;
+        mBytesPerMs = mbps * 1000 * 1000 / 8 / 1000;
+    }
+
+    @Override
+    public boolean isReusable() {
+        return false;
+    }
+
+    @Override
+    public boolean openFirstAvailable() {
+        return true;
+    }
+
+    @Override
+    public boolean isDeviceOpen() {
+        return true;
+    }
+
+    @Override
+    public long getDeviceId() {
+        return 0;
+    }
+
+    @Override
+    public synchronized boolean tune(
+            int frequency, @ModulationType String modulation, String channelNumber) {
+        stopTune();
+        try {
+            mAccessFile = new RandomAccessFile(mFile, "r");
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to open " + mFile, e);
+            return false;
+        }
+        mChannel = mAccessFile.getChannel();
+        mStartTimeMs = SystemClock.elapsedRealtime();
+        mTotalReadBytes = 0;
+        return true;
+    }
+
+    /** Adds a PID to deliver. All the packets are delivered if no PID is added. */
+    @Override
+    public synchronized boolean addPidFilter(int pid, @FilterType int filterType) {
+        mPids.put(pid, true);
+        return true;
+    }
+
+    @Override
+    public synchronized void stopTune() {
+        mPids.clear();
+        if (mAccessFile != null) {
+            try {
+                mAccessFile.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close " + mFile, e);
+            }
+            mAccessFile = null;
+            mChannel = null;
+        }
+    }
+
+    @Override
+    public void setHasPendingTune(boolean hasPendingTune) {}
+
+    @Override
+    public int getDeliverySystemType() {
+        return DELIVERY_SYSTEM_ATSC;
+    }
+
+    @Override
+    public synchronized int readTsStream(byte[] javaBuffer, int javaBufferSize) {
+        ByteBuffer buffer = ByteBuffer.wrap(javaBuffer, 0, javaBufferSize);
+        return readTsStream(buffer);
+    }
+
+    @Override
+    public synchronized int readTsStream(ByteBuffer buffer) {
+        if (mChannel == null) {
+            return -1;
+        }
+        int size = buffer.remaining() / TS_PACKET_SIZE * TS_PACKET_SIZE;
+        if (mBytesPerMs > 0) {
+            long allowedBytes =
+                    (long) (mBytesPerMs * (SystemClock.elapsedRealtime() - mStartTimeMs));
+            long allowedSize = (allowedBytes - mTotalReadBytes) / TS_PACKET_SIZE * TS_PACKET_SIZE;
+            size = (int) Math.min(size, allowedSize);
+        }
+        if (size <= 0) {
+            return 0;
+        }
+        int start = buffer.position();
+        int limit = buffer.limit();
+        buffer.limit(start + size);
+        try {
+            int readSize = mChannel.read(buffer);
+            if (readSize <= 0) {
+                // Reached the end of the file. Restart from the beginning.
+                mChannel.position(0);
+                readSize = mChannel.read(buffer);
+            }
+            if (readSize <= 0) {
+                return -1;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + mFile, e);
+            return -1;
+        } finally {
+            buffer.limit(limit);
+        }
+        mTotalReadBytes += buffer.position() - start;
+        return filterPackets(buffer, start);
+    }
+
+    @Override
+    public int getSignalStrength() {
+        return TvInputConstantCompat.SIGNAL_STRENGTH_NOT_USED;
+    }
+
+    @Override
+    public synchronized void close() {
+        stopTune();
+    }
+
+    /** Drops the packets of the PIDs which are not added from {@code start} in place. */
+    private int filterPackets(ByteBuffer buffer, int start) {
+        int end = buffer.position() - (buffer.position() - start) % TS_PACKET_SIZE;
+        int destPos = start;
+        for (int i = start; i < end; i += TS_PACKET_SIZE) {
+            if (buffer.get(i) != TS_SYNC_BYTE) {
+                continue;
+            }
+            int pid = ((buffer.get(i + 1) & 0x1f) << 8) + (buffer.get(i + 2) & 0xff);
+            if (mPids.size() != 0 && !mPids.get(pid)) {
+                continue;
+            }
+            if (destPos != i) {
+                buffer.position(i);
+                buffer.get(mPacket);
+                buffer.position(destPos);
+                buffer.put(mPacket);
+            }
+            destPos += TS_PACKET_SIZE;
+        }
+        buffer.position(destPos);
+        return destPos - start;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.data;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.tuner.data.PsiData.PatItem;
+import com.android.tv.tuner.data.PsiData.PmtItem;
+import com.android.tv.tuner.data.PsipData.EitItem;
+import com.android.tv.tuner.data.PsipData.EttItem;
+import com.android.tv.tuner.data.PsipData.MgtItem;
+import com.android.tv.tuner.data.PsipData.SdtItem;
+import com.android.tv.tuner.data.PsipData.VctItem;
+import com.android.tv.tuner.util.ByteArrayBuffer;
+import com.android.tv.tuner.util.Crc32Mpeg2;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link SectionParser}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SectionParserTest {
+    private static final int REPEAT_COUNT = 1000;
+
+    private static class PatCollector implements SectionParser.OutputListener {
+        final List<List<PatItem>> mPats = new ArrayList<>();
+
+        @Override
+        public void onPatParsed(List<PatItem> items) {
+            mPats.add(items);
+        }
+
+        @Override
+        public void onPmtParsed(int programNumber, List<PmtItem> items) {}
+
+        @Override
+        public void onMgtParsed(List<MgtItem> items) {}
+
+        @Override
+        public void onVctParsed(List<VctItem> items, int sectionNumber, int lastSectionNumber) {}
+
+        @Override
+        public void onEitParsed(int sourceId, List<EitItem> items) {}
+
+        @Override
+        public void onEttParsed(int sourceId, List<EttItem> descriptions) {}
+
+        @Override
+        public void onSdtParsed(List<SdtItem> items) {}
+    }
+
+    @Test
+    public void testParseSections_sectionsAtNonZeroOffset() {
+        PatCollector collector = new PatCollector();
+        SectionParser parser = new SectionParser(collector);
+        ByteArrayBuffer buffer = new ByteArrayBuffer(188);
+        byte[] first = createPatSection(0, 0, 1, 0x100);
+        byte[] second = createPatSection(1, 1, 2, 0x200);
+        buffer.append(first, 0, first.length);
+        buffer.append(second, 0, second.length);
+
+        parser.parseSections(buffer);
+
+        assertThat(collector.mPats).hasSize(2);
+        assertThat(collector.mPats.get(1).get(0).getProgramNo()).isEqualTo(2);
+        assertThat(collector.mPats.get(1).get(0).getPmtPid()).isEqualTo(0x200);
+    }
+
+    @Test
+    public void testParseSections_badCrcIsIgnored() {
+        PatCollector collector = new PatCollector();
+        SectionParser parser = new SectionParser(collector);
+        ByteArrayBuffer buffer = new ByteArrayBuffer(188);
+        byte[] section = createPatSection(0, 0, 1, 0x100);
+        section[section.length - 1] ^= 0x01;
+        buffer.append(section, 0, section.length);
+
+        parser.parseSections(buffer);
+
+        assertThat(collector.mPats).isEmpty();
+    }
+
+    @Test
+    public void testParseSections_byteWiseCrc() {
+        PatCollector collector = new PatCollector();
+        SectionParser parser = new SectionParser(collector, Crc32Mpeg2.createByteWise());
+        ByteArrayBuffer buffer = new ByteArrayBuffer(188);
+        byte[] section = createPatSection(0, 0, 1, 0x100);
+        buffer.append(section, 0, section.length);
+
+        parser.parseSections(buffer);
+
+        assertThat(collector.mPats).hasSize(1);
+    }
+
+    @Test
+    public void testParseSections_repeatedSectionIsNotCopied() {
+        PatCollector collector = new PatCollector();
+        SectionParser parser = new SectionParser(collector);
+        ByteArrayBuffer buffer = new ByteArrayBuffer(188);
+        byte[] section = createPatSection(0, 0, 1, 0x100);
+        buffer.append(section, 0, section.length);
+        parser.parseSections(buffer);
+
+        for (int i = 0; i < REPEAT_COUNT; ++i) {
+            parser.parseSections(buffer);
+        }
+
+        // The repeats never reach the table parsers, which are the only ones allocating, and add
+        // no version map entry.
+        assertThat(collector.mPats).hasSize(1);
+        assertThat(parser.getParsedSectionCount()).isEqualTo(1);
+        assertThat(parser.getSkippedSectionCount()).isEqualTo(REPEAT_COUNT);
+        assertThat(parser.getTrackedSectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testParseSections_repeatedSectionIsSkippedBeforeCrc() {
+        PatCollector collector = new PatCollector();
+        SectionParser parser = new SectionParser(collector);
+        ByteArrayBuffer buffer = new ByteArrayBuffer(188);
+        byte[] section = createPatSection(0, 0, 1, 0x100);
+        buffer.append(section, 0, section.length);
+        parser.parseSections(buffer);
+
+        // A repeat with the same version is discarded even though its CRC is broken.
+        section[section.length - 1] ^= 0x01;
+        buffer.clear();
+        buffer.append(section, 0, section.length);
+        parser.parseSections(buffer);
+
+        assertThat(collector.mPats).hasSize(1);
+        assertThat(parser.getParsedSectionCount()).isEqualTo(1);
+        assertThat(parser.getSkippedSectionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testParseSections_newVersionIsParsed() {
+        PatCollector collector = new PatCollector();
+        SectionParser parser = new SectionParser(collector);
+        ByteArrayBuffer buffer = new ByteArrayBuffer(188);
+        byte[] section = createPatSection(0, 0, 1, 0x100);
+        buffer.append(section, 0, section.length);
+        parser.parseSections(buffer);
+
+        section = createPatSection(1, 0, 1, 0x101);
+        buffer.clear();
+        buffer.append(section, 0, section.length);
+        parser.parseSections(buffer);
+
+        assertThat(collector.mPats).hasSize(2);
+        assertThat(collector.mPats.get(1).get(0).getPmtPid()).isEqualTo(0x101);
+        assertThat(parser.getParsedSectionCount()).isEqualTo(2);
+        assertThat(parser.getSkippedSectionCount()).isEqualTo(0);
+    }
+
+    static byte[] createPatSection(int version, int sectionNumber, int programNo, int pmtPid) {
+        // For details of the structure for PAT, see H.222.0 Table 2-30.
+        byte[] section = new byte[16];
+        int sectionLength = section.length - 3;
+        section[0] = 0x00;
+        section[1] = (byte) (0xb0 | (sectionLength >> 8));
+        section[2] = (byte) sectionLength;
+        section[3] = 0x00;
+        section[4] = 0x01;
+        section[5] = (byte) (0xc1 | (version << 1));
+        section[6] = (byte) sectionNumber;
+        section[7] = (byte) sectionNumber;
+        section[8] = (byte) (programNo >> 8);
+        section[9] = (byte) programNo;
+        section[10] = (byte) (0xe0 | (pmtPid >> 8));
+        section[11] = (byte) pmtPid;
+        fillCrc(section);
+        return section;
+    }
+
+    static void fillCrc(byte[] section) {
+        int crc = Crc32Mpeg2.getDefault().calculate(section, 0, section.length - 4);
+        section[section.length - 4] = (byte) (crc >>> 24);
+        section[section.length - 3] = (byte) (crc >>> 16);
+        section[section.length - 2] = (byte) (crc >>> 8);
+        section[section.length - 1] = (byte) crc;
+    }
+}
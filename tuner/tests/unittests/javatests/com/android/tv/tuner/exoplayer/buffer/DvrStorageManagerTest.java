@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.exoplayer.buffer;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.Pair;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link DvrStorageManager}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class DvrStorageManagerTest {
+    private static final String TRACK_ID = "video";
+    private static final long KEY_FRAME_INTERVAL_US = 500000;
+    private static final int ENTRY_LENGTH = 20;
+
+    private final SampleChunk.SampleChunkCreator mCreator = new SampleChunk.SampleChunkCreator();
+    private File mDir;
+    private DvrStorageManager mStorageManager;
+
+    @Before
+    public void setUp() {
+        mDir = new File(getTargetContext().getCacheDir(), "dvr_storage_manager_test");
+        mStorageManager = new DvrStorageManager(mDir, true);
+    }
+
+    @After
+    public void tearDown() {
+        mStorageManager.release();
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void testUpdateIndexFile_readBack() throws IOException {
+        appendEntries(40);
+        mStorageManager.flushIndexFiles();
+
+        assertEntries(mStorageManager.readIndexFile(TRACK_ID), 40);
+    }
+
+    @Test
+    public void testUpdateIndexFile_flushesPeriodically() throws IOException {
+        // The entries are flushed at least once per 16 entries without an explicit flush.
+        appendEntries(40);
+
+        assertThat(mStorageManager.readIndexFile(TRACK_ID).size()).isAtLeast(32);
+    }
+
+    @Test
+    public void testReadIndexFile_partialEntry() throws IOException {
+        appendEntries(40);
+        mStorageManager.flushIndexFiles();
+        File indexFile = getIndexFile();
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "rw")) {
+            file.setLength(file.length() - ENTRY_LENGTH / 2);
+        }
+
+        assertEntries(mStorageManager.readIndexFile(TRACK_ID), 39);
+    }
+
+    @Test
+    public void testReadIndexFile_countLargerThanEntries() throws IOException {
+        // A crash after the count is updated but before the entries are written.
+        appendEntries(40);
+        mStorageManager.flushIndexFiles();
+        writeCount(50);
+
+        assertEntries(mStorageManager.readIndexFile(TRACK_ID), 40);
+    }
+
+    @Test
+    public void testReadIndexFile_countSmallerThanEntries() throws IOException {
+        // A crash after the entries are written but before the count is updated.
+        appendEntries(40);
+        mStorageManager.flushIndexFiles();
+        writeCount(30);
+
+        assertEntries(mStorageManager.readIndexFile(TRACK_ID), 30);
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadIndexFile_noHeader() throws IOException {
+        appendEntries(1);
+        mStorageManager.flushIndexFiles();
+        try (RandomAccessFile file = new RandomAccessFile(getIndexFile(), "rw")) {
+            file.setLength(4);
+        }
+
+        mStorageManager.readIndexFile(TRACK_ID);
+    }
+
+    @Test
+    public void testWriteIndexFile_replacesAppendedEntries() throws IOException {
+        appendEntries(10);
+        SortedMap<Long, Pair<SampleChunk, Integer>> index = new TreeMap<>();
+        for (int i = 0; i < 3; ++i) {
+            index.put(i * KEY_FRAME_INTERVAL_US, new Pair<>(createChunk(0), i * 1000));
+        }
+
+        mStorageManager.writeIndexFile(TRACK_ID, index);
+        mStorageManager.flushIndexFiles();
+
+        assertEntries(mStorageManager.readIndexFile(TRACK_ID), 3);
+    }
+
+    @Test
+    public void testUpdateIndexFile_afterWriteIndexFile() throws IOException {
+        SortedMap<Long, Pair<SampleChunk, Integer>> index = new TreeMap<>();
+        for (int i = 0; i < 3; ++i) {
+            index.put(i * KEY_FRAME_INTERVAL_US, new Pair<>(createChunk(0), i * 1000));
+        }
+        mStorageManager.writeIndexFile(TRACK_ID, index);
+
+        // The completed index file is neither truncated nor appended to.
+        appendEntries(20);
+        mStorageManager.flushIndexFiles();
+
+        assertEntries(mStorageManager.readIndexFile(TRACK_ID), 3);
+    }
+
+    @Test
+    public void testRelease_writesPendingEntries() throws IOException {
+        // Fewer entries than a flush, which stay buffered if the whole index isn't written.
+        appendEntries(10);
+
+        mStorageManager.release();
+
+        assertEntries(mStorageManager.readIndexFile(TRACK_ID), 10);
+        appendEntries(1);
+        assertEntries(mStorageManager.readIndexFile(TRACK_ID), 10);
+    }
+
+    private void appendEntries(int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            mStorageManager.updateIndexFile(
+                    TRACK_ID, i + 1, i * KEY_FRAME_INTERVAL_US, createChunk(0), i * 1000);
+        }
+    }
+
+    private void writeCount(long count) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(getIndexFile(), "rw")) {
+            file.writeLong(count);
+        }
+    }
+
+    private File getIndexFile() {
+        return new File(mDir, TRACK_ID + ".idx2");
+    }
+
+    private SampleChunk createChunk(long startPositionUs) {
+        return mCreator.createSampleChunk(
+                new SamplePool(),
+                new File(mDir, "chunk"),
+                startPositionUs,
+                new SampleChunk.ChunkCallback() {});
+    }
+
+    private static void assertEntries(List<BufferManager.PositionHolder> entries, int count) {
+        assertThat(entries).hasSize(count);
+        for (int i = 0; i < count; ++i) {
+            assertThat(entries.get(i).positionUs).isEqualTo(i * KEY_FRAME_INTERVAL_US);
+            assertThat(entries.get(i).basePositionUs).isEqualTo(0);
+            assertThat(entries.get(i).offset).isEqualTo(i * 1000);
+        }
+    }
+}
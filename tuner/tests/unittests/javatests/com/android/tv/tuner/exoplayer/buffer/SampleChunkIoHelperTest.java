@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.exoplayer.buffer;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.media.MediaCodec;
+import android.os.ConditionVariable;
+import android.os.SystemClock;
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.common.flags.impl.DefaultConcurrentDvrPlaybackFlags;
+import com.android.tv.testing.FakeClock;
+import com.google.android.exoplayer.C;
+import com.google.android.exoplayer.MediaFormat;
+import com.google.android.exoplayer.SampleHolder;
+import com.google.android.exoplayer.util.MimeTypes;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link SampleChunkIoHelper}. */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class SampleChunkIoHelperTest {
+    private static final long FRAME_DURATION_US = TimeUnit.SECONDS.toMicros(1) / 30;
+    private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final int SMALL_SAMPLE_SIZE = 1024;
+    private static final int LARGE_SAMPLE_SIZE = 16 * 1024;
+
+    private final SamplePool mSamplePool = new SamplePool();
+    private final FakeClock mClock = FakeClock.createWithTimeOne();
+    // The writes of the chunks are blocked while it's closed.
+    private final ConditionVariable mWriteGate = new ConditionVariable(true);
+    private final ConditionVariable mWriteStarted = new ConditionVariable();
+    private final AtomicInteger mChunkWriteCount = new AtomicInteger();
+    // The fake time which a chunk takes to write a sample of the large and the small sizes.
+    private volatile long mLargeWriteTimeMs;
+    private volatile long mSmallWriteTimeMs;
+    private BufferManager mBufferManager;
+    private SampleChunkIoHelper mIoHelper;
+
+    @Before
+    public void setUp() throws IOException {
+        mBufferManager =
+                new BufferManager(
+                        new TrickplayStorageManager(
+                                getTargetContext(),
+                                getTargetContext().getCacheDir(),
+                                1024L * 1024 * 1024),
+                        new FakeClockSampleChunkCreator());
+        mIoHelper = createIoHelper();
+        mIoHelper.init();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mWriteGate.open();
+        if (mIoHelper != null) {
+            mIoHelper.release();
+        }
+    }
+
+    @Test
+    public void testWriteSample_doesNotWaitForWrites() throws IOException {
+        int sampleCount = 100;
+        SampleHolder sample = createSample(10 * 1024);
+        mWriteGate.close();
+        writeSample(sample, 0);
+        assertThat(mWriteStarted.block(TIMEOUT_MS)).isTrue();
+
+        // The writes are queued while the first one is blocked.
+        for (int i = 1; i < sampleCount; ++i) {
+            writeSample(sample, i);
+        }
+        assertThat(mChunkWriteCount.get()).isEqualTo(1);
+        mWriteGate.open();
+        mIoHelper.closeWrite();
+
+        // All the samples are written in order.
+        mIoHelper.openRead(0, 0);
+        long timeoutMs = SystemClock.elapsedRealtime() + TIMEOUT_MS;
+        for (int i = 0; i < sampleCount; ) {
+            assertThat(SystemClock.elapsedRealtime()).isLessThan(timeoutMs);
+            SampleHolder read = mIoHelper.readSample(0);
+            if (read == null) {
+                SystemClock.sleep(10);
+                continue;
+            }
+            assertThat(read.timeUs).isEqualTo(i * FRAME_DURATION_US);
+            assertThat(read.size).isEqualTo(sample.size);
+            mSamplePool.releaseSample(read);
+            ++i;
+        }
+    }
+
+    @Test
+    public void testWriteSample_detectsSlowDisk() throws IOException {
+        // 16KB per 10ms is slower than the minimum disk speed, and the slow disk is detected
+        // after 10MB writes though the writer doesn't wait for the writes.
+        mLargeWriteTimeMs = 10;
+        SampleHolder sample = createSample(LARGE_SAMPLE_SIZE);
+        for (int i = 0; i < 640; ++i) {
+            writeSample(sample, i);
+        }
+        closeWriteAndRelease();
+
+        assertThat(mBufferManager.isWriteSlow()).isTrue();
+        assertThat(mBufferManager.getWriteBandwidth()).isWithin(0.0001f).of(1.6384f);
+    }
+
+    @Test
+    public void testWriteSample_sharesGroupTimeAmongSamples() throws IOException {
+        // Only the small samples take time, as if they flush the buffered large samples.
+        mSmallWriteTimeMs = 20;
+        SampleHolder largeSample = createSample(LARGE_SAMPLE_SIZE);
+        SampleHolder smallSample = createSample(SMALL_SAMPLE_SIZE);
+        mWriteGate.close();
+        writeSample(smallSample, 0);
+        assertThat(mWriteStarted.block(TIMEOUT_MS)).isTrue();
+        // The samples are written as a group after the first one.
+        for (int i = 1; i <= 8; i += 2) {
+            writeSample(largeSample, i);
+            writeSample(smallSample, i + 1);
+        }
+        mWriteGate.open();
+        closeWriteAndRelease();
+
+        // A large sample is counted with its share of 20ms for 17KB, while the small samples
+        // are filtered out.
+        assertThat(mBufferManager.getAverageWriteBandwidth()).isWithin(0.0001f).of(0.8704f);
+    }
+
+    @Test
+    public void testWriteSample_afterRelease() throws IOException {
+        SampleChunkIoHelper ioHelper = createIoHelper();
+        ioHelper.init();
+        ioHelper.release();
+
+        // The sample is dropped, and its copy goes back to the pool.
+        ioHelper.writeSample(0, createSample(10 * 1024));
+
+        assertThat(mSamplePool.getRetainedBytes()).isAtLeast(10 * 1024);
+    }
+
+    // Finishes the queued writes.
+    private void closeWriteAndRelease() throws IOException {
+        mIoHelper.closeWrite();
+        mIoHelper.release();
+        mIoHelper = null;
+    }
+
+    private SampleChunkIoHelper createIoHelper() {
+        return new SampleChunkIoHelper(
+                Collections.singletonList("video"),
+                Collections.singletonList(
+                        MediaFormat.createFormatForMimeType(
+                                "video",
+                                MimeTypes.VIDEO_H264,
+                                MediaFormat.NO_VALUE,
+                                C.UNKNOWN_TIME_US)),
+                RecordingSampleBuffer.BUFFER_REASON_LIVE_PLAYBACK,
+                mBufferManager,
+                mSamplePool,
+                new SampleChunkIoHelper.IoCallback() {},
+                new DefaultConcurrentDvrPlaybackFlags(),
+                mClock);
+    }
+
+    private void writeSample(SampleHolder sample, int frameIndex) throws IOException {
+        sample.timeUs = frameIndex * FRAME_DURATION_US;
+        sample.flags = frameIndex % 15 == 0 ? MediaCodec.BUFFER_FLAG_KEY_FRAME : 0;
+        mIoHelper.writeSample(0, sample);
+    }
+
+    /** Creates the chunks which take the time of {@link #mClock} for the writes. */
+    private class FakeClockSampleChunkCreator extends SampleChunk.SampleChunkCreator {
+        @Override
+        public SampleChunk createSampleChunk(
+                SamplePool samplePool,
+                File file,
+                long startPositionUs,
+                SampleChunk.ChunkCallback chunkCallback) {
+            return new SampleChunk(
+                    samplePool, file, startPositionUs, mClock.currentTimeMillis(), chunkCallback) {
+                @Override
+                protected void write(SampleHolder sample, IoState state) throws IOException {
+                    mChunkWriteCount.incrementAndGet();
+                    mWriteStarted.open();
+                    mWriteGate.block();
+                    mClock.sleep(
+                            sample.size >= LARGE_SAMPLE_SIZE
+                                    ? mLargeWriteTimeMs
+                                    : mSmallWriteTimeMs);
+                    super.write(sample, state);
+                }
+            };
+        }
+    }
+
+    private static SampleHolder createSample(int size) {
+        SampleHolder sample = new SampleHolder(SampleHolder.BUFFER_REPLACEMENT_MODE_NORMAL);
+        sample.ensureSpaceForWrite(size);
+        sample.data.put(new byte[size]);
+        sample.size = size;
+        return sample;
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.exoplayer.buffer;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.google.android.exoplayer.SampleHolder;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link SampleChunk}. */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class SampleChunkTest {
+    private static final String TAG = "SampleChunkTest";
+
+    // A sample larger than the write buffer, which is written directly.
+    private static final int LARGE_SAMPLE_SIZE = 300 * 1024;
+    private static final long FRAME_DURATION_US = TimeUnit.SECONDS.toMicros(1) / 30;
+    private static final long CHUNK_DURATION_US = RecordingSampleBuffer.MIN_SEEK_DURATION_US;
+    private static final long BENCHMARK_DURATION_US = TimeUnit.SECONDS.toMicros(60);
+    private static final long PLAYBACK_BENCHMARK_DURATION_US = TimeUnit.SECONDS.toMicros(30);
+    // 19.39Mbps at 30fps, with a key frame every second.
+    private static final int KEY_FRAME_SIZE = 250 * 1024;
+    private static final int FRAME_SIZE = 40 * 1024;
+
+    private final SamplePool mSamplePool = new SamplePool();
+    private final SampleChunk.SampleChunkCreator mCreator = new SampleChunk.SampleChunkCreator();
+    private final SampleChunk.ChunkCallback mChunkCallback = new SampleChunk.ChunkCallback() {};
+    private File mDir;
+    private int mFileCount;
+
+    @Before
+    public void setUp() {
+        mDir = new File(getTargetContext().getCacheDir(), "sample_chunk_test");
+        mDir.mkdirs();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void testWriteAndRead_acrossChunks() throws IOException {
+        Random random = new Random(1234);
+        List<SampleHolder> samples = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            samples.add(
+                    createSample(
+                            random,
+                            random.nextInt(20) == 0
+                                    ? LARGE_SAMPLE_SIZE
+                                    : random.nextInt(20 * 1024),
+                            i * FRAME_DURATION_US));
+        }
+        SampleChunk.IoState writeState = new SampleChunk.IoState();
+        SampleChunk firstChunk = createChunk(0);
+        writeState.openWrite(firstChunk);
+        for (int i = 0; i < samples.size(); ++i) {
+            writeState.write(samples.get(i), i > 0 && i % 50 == 0 ? createChunk(i) : null);
+        }
+        writeState.closeWrite();
+
+        SampleChunk.IoState readState = new SampleChunk.IoState();
+        readState.openRead(firstChunk, 0);
+        for (SampleHolder expected : samples) {
+            assertSameSample(readState.read(), expected);
+        }
+        assertThat(readState.read()).isNull();
+    }
+
+    @Test
+    public void testRead_followsWrite() throws IOException {
+        // Timeshift playback reads the samples which are still in the write buffer.
+        Random random = new Random(1234);
+        SampleChunk chunk = createChunk(0);
+        SampleChunk.IoState writeState = new SampleChunk.IoState();
+        writeState.openWrite(chunk);
+        SampleChunk.IoState readState = new SampleChunk.IoState();
+        readState.openRead(chunk, 0);
+        for (int i = 0; i < 100; ++i) {
+            int size = i % 10 == 0 ? LARGE_SAMPLE_SIZE : random.nextInt(20 * 1024);
+            SampleHolder sample = createSample(random, size, i * FRAME_DURATION_US);
+            writeState.write(sample, null);
+            assertSameSample(readState.read(), sample);
+            assertThat(readState.read()).isNull();
+        }
+        writeState.closeWrite();
+        assertThat(chunk.getWriteCallCount()).isLessThan(100);
+    }
+
+    /**
+     * Writes the samples of an ATSC broadcast into a chunk per second as a timeshift recording
+     * does, and compares the writes with the unbuffered writes of a header and a payload.
+     */
+    @LargeTest
+    @Test
+    public void testBenchmark_atscStream() throws IOException {
+        Random random = new Random(1234);
+        List<SampleHolder> samples = new ArrayList<>();
+        for (long timeUs = 0; timeUs < BENCHMARK_DURATION_US; timeUs += FRAME_DURATION_US) {
+            boolean keyFrame = samples.size() % 30 == 0;
+            samples.add(createSample(random, keyFrame ? KEY_FRAME_SIZE : FRAME_SIZE, timeUs));
+        }
+        File legacyFile = new File(mDir, "legacy");
+
+        long startTimeNs = System.nanoTime();
+        SampleChunk.IoState state = new SampleChunk.IoState();
+        List<SampleChunk> chunks = new ArrayList<>();
+        chunks.add(createChunk(0));
+        state.openWrite(chunks.get(0));
+        for (SampleHolder sample : samples) {
+            SampleChunk nextChunk = null;
+            if (sample.timeUs >= chunks.size() * CHUNK_DURATION_US) {
+                nextChunk = createChunk(sample.timeUs);
+                chunks.add(nextChunk);
+            }
+            state.write(sample, nextChunk);
+        }
+        state.closeWrite();
+        long bufferedTimeNs = System.nanoTime() - startTimeNs;
+
+        startTimeNs = System.nanoTime();
+        try (RandomAccessFile file = new RandomAccessFile(legacyFile, "rw")) {
+            long offset = 0;
+            for (SampleHolder sample : samples) {
+                file.seek(offset);
+                file.writeInt(sample.size);
+                file.writeInt(sample.flags);
+                file.writeLong(sample.timeUs);
+                sample.data.position(0).limit(sample.size);
+                file.getChannel().position(offset + 16).write(sample.data);
+                offset += sample.size + 16;
+            }
+        }
+        long legacyTimeNs = System.nanoTime() - startTimeNs;
+
+        int writeCallCount = 0;
+        for (SampleChunk chunk : chunks) {
+            writeCallCount += chunk.getWriteCallCount();
+        }
+        Log.i(
+                TAG,
+                samples.size()
+                        + " samples, buffered: "
+                        + samples.size() * TimeUnit.SECONDS.toNanos(1) / bufferedTimeNs
+                        + " samples/s with "
+                        + (float) writeCallCount / samples.size()
+                        + " writes per sample, unbuffered: "
+                        + samples.size() * TimeUnit.SECONDS.toNanos(1) / legacyTimeNs
+                        + " samples/s with 4 writes and 2 seeks per sample");
+        assertThat(writeCallCount).isLessThan(samples.size());
+    }
+
+    @Test
+    public void testRead_finishedChunkBySeeks() throws IOException {
+        // Includes a sample which is larger than the read window.
+        Random random = new Random(1234);
+        List<SampleHolder> samples = new ArrayList<>();
+        List<Long> offsets = new ArrayList<>();
+        SampleChunk chunk = createChunk(0);
+        SampleChunk.IoState writeState = new SampleChunk.IoState();
+        writeState.openWrite(chunk);
+        for (int i = 0; i < 100; ++i) {
+            int size = i == 50 ? 5 * 1024 * 1024 : random.nextInt(LARGE_SAMPLE_SIZE);
+            samples.add(createSample(random, size, i * FRAME_DURATION_US));
+            offsets.add(writeState.getOffset());
+            writeState.write(samples.get(i), null);
+        }
+        writeState.closeWrite();
+
+        SampleChunk.IoState readState = new SampleChunk.IoState();
+        readState.openRead(chunk, 0);
+        for (SampleHolder expected : samples) {
+            assertSameSample(readState.read(), expected);
+        }
+        assertThat(readState.read()).isNull();
+        for (int i = 0; i < 20; ++i) {
+            int index = random.nextInt(samples.size());
+            readState.openRead(chunk, offsets.get(index));
+            assertSameSample(readState.read(), samples.get(index));
+        }
+    }
+
+    /**
+     * Reads a recorded ATSC broadcast at 1x, and at 32x trickplay which reads only the key
+     * frames, and compares the reads with the mappings of each sample.
+     */
+    @LargeTest
+    @Test
+    public void testBenchmark_recordedPlayback() throws IOException {
+        File file = new File(mDir, "recording");
+        SampleChunk chunk = mCreator.createSampleChunk(mSamplePool, file, 0, mChunkCallback);
+        SampleChunk.IoState writeState = new SampleChunk.IoState();
+        writeState.openWrite(chunk);
+        SampleHolder sample = new SampleHolder(SampleHolder.BUFFER_REPLACEMENT_MODE_NORMAL);
+        sample.ensureSpaceForWrite(KEY_FRAME_SIZE);
+        List<Long> offsets = new ArrayList<>();
+        List<Long> keyFrameOffsets = new ArrayList<>();
+        for (long timeUs = 0; timeUs < PLAYBACK_BENCHMARK_DURATION_US; ) {
+            boolean keyFrame = offsets.size() % 30 == 0;
+            offsets.add(writeState.getOffset());
+            if (keyFrame) {
+                keyFrameOffsets.add(writeState.getOffset());
+            }
+            sample.size = keyFrame ? KEY_FRAME_SIZE : FRAME_SIZE;
+            sample.timeUs = timeUs;
+            writeState.write(sample, null);
+            timeUs += FRAME_DURATION_US;
+        }
+        writeState.closeWrite();
+
+        runPlaybackBenchmark("1x", chunk, file, offsets, false);
+        runPlaybackBenchmark("32x", chunk, file, keyFrameOffsets, true);
+    }
+
+    // Trickplay seeks to each key frame, while the normal playback reads through.
+    private void runPlaybackBenchmark(
+            String speed, SampleChunk chunk, File file, List<Long> offsets, boolean seek)
+            throws IOException {
+        int mapCallCount = chunk.getMapCallCount();
+        long bytes = 0;
+        long startTimeNs = System.nanoTime();
+        SampleChunk.IoState readState = new SampleChunk.IoState();
+        for (long offset : offsets) {
+            if (seek || offset == 0) {
+                readState.openRead(chunk, offset);
+            }
+            SampleHolder sample = readState.read();
+            bytes += sample.size;
+            mSamplePool.releaseSample(sample);
+        }
+        long windowTimeNs = System.nanoTime() - startTimeNs;
+
+        startTimeNs = System.nanoTime();
+        try (RandomAccessFile accessFile = new RandomAccessFile(file, "r")) {
+            for (long offset : offsets) {
+                mSamplePool.releaseSample(readPerSampleMapping(accessFile, offset));
+            }
+        }
+        long legacyTimeNs = System.nanoTime() - startTimeNs;
+        Log.i(
+                TAG,
+                speed
+                        + " playback of "
+                        + offsets.size()
+                        + " samples, read windows: "
+                        + bytes * 1000 / windowTimeNs
+                        + "MB/s with "
+                        + (chunk.getMapCallCount() - mapCallCount)
+                        + " mappings, mapping per sample: "
+                        + bytes * 1000 / legacyTimeNs
+                        + "MB/s");
+    }
+
+    // Reads a sample as SampleChunk used to, with the header reads and a mapping of the payload.
+    private SampleHolder readPerSampleMapping(RandomAccessFile file, long offset)
+            throws IOException {
+        file.seek(offset);
+        int size = file.readInt();
+        SampleHolder sample = mSamplePool.acquireSample(size);
+        sample.size = size;
+        sample.flags = file.readInt();
+        sample.timeUs = file.readLong();
+        sample.clearData();
+        sample.data.put(
+                file.getChannel().map(FileChannel.MapMode.READ_ONLY, offset + 16, sample.size));
+        return sample;
+    }
+
+    private SampleChunk createChunk(long startPositionUs) {
+        File file = new File(mDir, "chunk" + mFileCount++);
+        return mCreator.createSampleChunk(mSamplePool, file, startPositionUs, mChunkCallback);
+    }
+
+    private static SampleHolder createSample(Random random, int size, long timeUs) {
+        SampleHolder sample = new SampleHolder(SampleHolder.BUFFER_REPLACEMENT_MODE_NORMAL);
+        sample.ensureSpaceForWrite(size);
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        sample.data.put(data);
+        sample.size = size;
+        sample.flags = random.nextInt(2);
+        sample.timeUs = timeUs;
+        return sample;
+    }
+
+    private static void assertSameSample(SampleHolder actual, SampleHolder expected) {
+        assertThat(actual).isNotNull();
+        assertThat(actual.size).isEqualTo(expected.size);
+        assertThat(actual.flags).isEqualTo(expected.flags);
+        assertThat(actual.timeUs).isEqualTo(expected.timeUs);
+        actual.data.flip();
+        expected.data.position(0).limit(expected.size);
+        assertThat(actual.data).isEqualTo(expected.data);
+    }
+}
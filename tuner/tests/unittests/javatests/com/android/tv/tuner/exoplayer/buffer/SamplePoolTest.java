@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.exoplayer.buffer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.google.android.exoplayer.SampleHolder;
+import java.util.ArrayDeque;
+import java.util.LinkedList;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link SamplePool}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class SamplePoolTest {
+    private static final String TAG = "SamplePoolTest";
+
+    private static final int BENCHMARK_ITERATIONS = 200000;
+    // The samples which a thread holds at once, e.g. in the read and the write queues.
+    private static final int BENCHMARK_HELD_SAMPLES = 16;
+
+    @Test
+    public void testAcquireSample_reusesReleasedSample() {
+        SamplePool pool = new SamplePool();
+        SampleHolder sample = pool.acquireSample(3000);
+        assertThat(sample.data.capacity()).isEqualTo(4096);
+        pool.releaseSample(sample);
+
+        assertThat(pool.acquireSample(2500)).isSameAs(sample);
+        assertThat(pool.getHitCount()).isEqualTo(1);
+        assertThat(pool.getMissCount()).isEqualTo(1);
+        assertThat(pool.getRetainedBytes()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAcquireSample_fromNextSizeClass() {
+        SamplePool pool = new SamplePool();
+        SampleHolder sample = pool.acquireSample(8000);
+        pool.releaseSample(sample);
+
+        assertThat(pool.acquireSample(3000)).isSameAs(sample);
+        // A sample of four times the size is not used.
+        pool.releaseSample(sample);
+        assertThat(pool.acquireSample(1500)).isNotSameAs(sample);
+    }
+
+    @Test
+    public void testReleaseSample_unevenCapacity() {
+        // A sample which isn't from the pool goes to the class which it can hold.
+        SamplePool pool = new SamplePool();
+        SampleHolder sample = new SampleHolder(SampleHolder.BUFFER_REPLACEMENT_MODE_NORMAL);
+        sample.ensureSpaceForWrite(6000);
+        pool.releaseSample(sample);
+
+        assertThat(pool.acquireSample(8000)).isNotSameAs(sample);
+        assertThat(pool.acquireSample(4096)).isSameAs(sample);
+    }
+
+    @Test
+    public void testReleaseSample_limitsRetainedBytes() {
+        SamplePool pool = new SamplePool(false, 10 * 1024);
+        SampleHolder[] samples = new SampleHolder[3];
+        for (int i = 0; i < samples.length; ++i) {
+            samples[i] = pool.acquireSample(4096);
+        }
+        for (SampleHolder sample : samples) {
+            pool.releaseSample(sample);
+        }
+
+        assertThat(pool.getRetainedBytes()).isEqualTo(8 * 1024);
+    }
+
+    @Test
+    public void testAcquireSample_largerThanSizeClasses() {
+        SamplePool pool = new SamplePool();
+        SampleHolder sample = pool.acquireSample(5 * 1024 * 1024);
+        assertThat(sample.data.capacity()).isAtLeast(5 * 1024 * 1024);
+        pool.releaseSample(sample);
+
+        // The sample is kept in the overflow class, which serves only the sizes it can hold and
+        // not the sizes of the classes.
+        assertThat(pool.acquireSample(4 * 1024 * 1024)).isNotSameAs(sample);
+        assertThat(pool.acquireSample(6 * 1024 * 1024)).isNotSameAs(sample);
+        assertThat(pool.acquireSample(4 * 1024 * 1024 + 1)).isSameAs(sample);
+        assertThat(pool.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAcquireSample_overflowClassSkipsMuchLargerSample() {
+        SamplePool pool = new SamplePool();
+        SampleHolder sample = pool.acquireSample(10 * 1024 * 1024);
+        pool.releaseSample(sample);
+
+        assertThat(pool.acquireSample(5 * 1024 * 1024 - 1)).isNotSameAs(sample);
+        assertThat(pool.acquireSample(5 * 1024 * 1024)).isSameAs(sample);
+    }
+
+    @Test
+    public void testAcquireSample_direct() {
+        SamplePool pool = new SamplePool(true, 1024 * 1024);
+
+        assertThat(pool.acquireSample(100).data.isDirect()).isTrue();
+    }
+
+    /**
+     * Compares the pool with the previous implementation, with the extractor, the I/O and the
+     * renderer threads which acquire and release the video, audio and caption samples.
+     */
+    @LargeTest
+    @Test
+    public void testBenchmark() throws InterruptedException {
+        for (int threadCount : new int[] {1, 3}) {
+            SamplePool pool = new SamplePool();
+            long sizeClassTimeMs =
+                    runBenchmark(pool::acquireSample, pool::releaseSample, threadCount);
+            LinkedListSamplePool oldPool = new LinkedListSamplePool();
+            long linkedListTimeMs =
+                    runBenchmark(oldPool::acquireSample, oldPool::releaseSample, threadCount);
+            Log.i(
+                    TAG,
+                    threadCount
+                            + " threads, size classes: "
+                            + sizeClassTimeMs
+                            + "ms, hit "
+                            + pool.getHitCount()
+                            + ", miss "
+                            + pool.getMissCount()
+                            + ", retained "
+                            + pool.getRetainedBytes() / 1024
+                            + "KB, linked list: "
+                            + linkedListTimeMs
+                            + "ms");
+        }
+    }
+
+    private static long runBenchmark(Acquirer acquirer, Releaser releaser, int threadCount)
+            throws InterruptedException {
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            Random random = new Random(i);
+            threads[i] =
+                    new Thread(
+                            () -> {
+                                ArrayDeque<SampleHolder> heldSamples = new ArrayDeque<>();
+                                for (int j = 0; j < BENCHMARK_ITERATIONS; ++j) {
+                                    heldSamples.add(acquirer.acquireSample(getSampleSize(random)));
+                                    if (heldSamples.size() > BENCHMARK_HELD_SAMPLES) {
+                                        releaser.releaseSample(heldSamples.poll());
+                                    }
+                                }
+                            });
+        }
+        long startTimeMs = System.currentTimeMillis();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.currentTimeMillis() - startTimeMs;
+    }
+
+    // The sizes of the samples of an ATSC stream, which has a video, an AC-3 audio and a caption
+    // track.
+    private static int getSampleSize(Random random) {
+        int type = random.nextInt(10);
+        if (type < 4) {
+            // Video frames, with a key frame per 30 frames.
+            return random.nextInt(30) == 0
+                    ? 150 * 1024 + random.nextInt(200 * 1024)
+                    : 10 * 1024 + random.nextInt(60 * 1024);
+        } else if (type < 8) {
+            return 1536;
+        }
+        return 20 + random.nextInt(100);
+    }
+
+    private interface Acquirer {
+        SampleHolder acquireSample(int size);
+    }
+
+    private interface Releaser {
+        void releaseSample(SampleHolder sample);
+    }
+
+    /** The previous {@link SamplePool}, which looks for the smallest sufficient sample. */
+    private static class LinkedListSamplePool {
+        private final LinkedList<SampleHolder> mSamplePool = new LinkedList<>();
+
+        public synchronized SampleHolder acquireSample(int size) {
+            if (mSamplePool.isEmpty()) {
+                SampleHolder sample = new SampleHolder(SampleHolder.BUFFER_REPLACEMENT_MODE_NORMAL);
+                sample.ensureSpaceForWrite(size);
+                return sample;
+            }
+            SampleHolder smallestSufficientSample = null;
+            SampleHolder maxSample = mSamplePool.getFirst();
+            for (SampleHolder sample : mSamplePool) {
+                if (sample.data.capacity() >= size
+                        && (smallestSufficientSample == null
+                                || smallestSufficientSample.data.capacity()
+                                        > sample.data.capacity())) {
+                    smallestSufficientSample = sample;
+                }
+                if (maxSample.data.capacity() < sample.data.capacity()) {
+                    maxSample = sample;
+                }
+            }
+            SampleHolder sampleFromPool = smallestSufficientSample;
+            if (sampleFromPool == null) {
+                sampleFromPool = maxSample;
+                sampleFromPool.ensureSpaceForWrite(size);
+            }
+            mSamplePool.remove(sampleFromPool);
+            return sampleFromPool;
+        }
+
+        public synchronized void releaseSample(SampleHolder sample) {
+            sample.clearData();
+            mSamplePool.offerLast(sample);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.setup;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.SystemClock;
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.tuner.api.ScanChannel;
+import com.android.tv.tuner.data.PsipData.EitItem;
+import com.android.tv.tuner.data.TunerChannel;
+import com.android.tv.tuner.source.TsDataSource;
+import com.android.tv.tuner.source.TsStreamer;
+import com.android.tv.tuner.ts.EventDetector.EventListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link ParallelChannelScanner}. */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class ParallelChannelScannerTest {
+    private static final int SCAN_CHANNEL_COUNT = 4;
+    private static final long SCAN_DURATION_MS = 300;
+    private static final long SCAN_PERIOD_MS = 5000;
+
+    private static class FakeFileStreamer implements TsStreamer {
+        private final EventListener mListener;
+        private Thread mThread;
+
+        FakeFileStreamer(EventListener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public boolean startStream(ScanChannel channel) {
+            // Later frequencies finish earlier, so that the delivery order is tested.
+            long durationMs = SCAN_DURATION_MS - channel.frequency * 20;
+            mThread =
+                    new Thread(
+                            () -> {
+                                SystemClock.sleep(durationMs);
+                                mListener.onChannelDetected(
+                                        new TunerChannel(channel.frequency, new ArrayList<>()),
+                                        true);
+                                mListener.onChannelScanDone();
+                            });
+            mThread.start();
+            return true;
+        }
+
+        @Override
+        public boolean startStream(TunerChannel channel) {
+            return false;
+        }
+
+        @Override
+        public void stopStream() {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public TsDataSource createDataSource() {
+            return null;
+        }
+    }
+
+    private static class RecordingCallback implements ParallelChannelScanner.Callback {
+        final List<Integer> mProgramNumbers = new ArrayList<>();
+        final List<Integer> mDoneFrequencies = new ArrayList<>();
+
+        @Override
+        public void onChannelDetected(TunerChannel channel, boolean channelArrivedAtFirstTime) {
+            mProgramNumbers.add(channel.getProgramNumber());
+        }
+
+        @Override
+        public void onEventDetected(TunerChannel channel, List<EitItem> items) {}
+
+        @Override
+        public void onScanChannelDone(ScanChannel scanChannel, long durationMs) {
+            mDoneFrequencies.add(scanChannel.frequency);
+        }
+    }
+
+    @Test
+    public void testScan_deliversInScanOrder() {
+        ParallelChannelScanner scanner =
+                new ParallelChannelScanner(
+                        FakeFileStreamer::new, SCAN_CHANNEL_COUNT, SCAN_PERIOD_MS);
+        RecordingCallback callback = new RecordingCallback();
+
+        scanner.scan(createScanChannels(), callback);
+
+        assertThat(callback.mProgramNumbers).containsExactly(0, 1, 2, 3).inOrder();
+        assertThat(callback.mDoneFrequencies).containsExactly(0, 1, 2, 3).inOrder();
+    }
+
+    @Test
+    public void testScan_runsConcurrently() {
+        ParallelChannelScanner scanner =
+                new ParallelChannelScanner(
+                        FakeFileStreamer::new, SCAN_CHANNEL_COUNT, SCAN_PERIOD_MS);
+        long startMs = SystemClock.elapsedRealtime();
+
+        scanner.scan(createScanChannels(), new RecordingCallback());
+
+        assertThat(SystemClock.elapsedRealtime() - startMs)
+                .isLessThan(SCAN_DURATION_MS * SCAN_CHANNEL_COUNT / 2);
+    }
+
+    @Test
+    public void testScan_reusesStreamerPerWorker() {
+        AtomicInteger createdStreamers = new AtomicInteger();
+        ParallelChannelScanner scanner =
+                new ParallelChannelScanner(
+                        listener -> {
+                            createdStreamers.incrementAndGet();
+                            return new FakeFileStreamer(listener);
+                        },
+                        SCAN_CHANNEL_COUNT / 2,
+                        SCAN_PERIOD_MS);
+        RecordingCallback callback = new RecordingCallback();
+
+        scanner.scan(createScanChannels(), callback);
+
+        assertThat(createdStreamers.get()).isAtMost(SCAN_CHANNEL_COUNT / 2);
+        assertThat(callback.mProgramNumbers).containsExactly(0, 1, 2, 3).inOrder();
+    }
+
+    @Test
+    public void testScan_canceledBeforeStart() {
+        ParallelChannelScanner scanner =
+                new ParallelChannelScanner(
+                        FakeFileStreamer::new, SCAN_CHANNEL_COUNT, SCAN_PERIOD_MS);
+        RecordingCallback callback = new RecordingCallback();
+
+        scanner.cancel();
+        scanner.scan(createScanChannels(), callback);
+
+        assertThat(callback.mProgramNumbers).isEmpty();
+        assertThat(callback.mDoneFrequencies).hasSize(SCAN_CHANNEL_COUNT);
+    }
+
+    private static List<ScanChannel> createScanChannels() {
+        List<ScanChannel> scanChannels = new ArrayList<>();
+        for (int i = 0; i < SCAN_CHANNEL_COUNT; ++i) {
+            scanChannels.add(ScanChannel.forFile(i, "stream" + i + ".ts"));
+        }
+        return scanChannels;
+    }
+}
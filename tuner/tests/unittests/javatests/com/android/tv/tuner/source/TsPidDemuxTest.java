@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.source;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link TsPidDemux}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class TsPidDemuxTest {
+    private static final int TS_PACKET_SIZE = 188;
+    private static final int PMT_PID = 0x30;
+    private static final int VIDEO_PID = 0x31;
+    private static final int AUDIO_PID = 0x34;
+    private static final int OTHER_VIDEO_PID = 0x41;
+    private static final int PSIP_PID = 0x1ffb;
+    private static final int NULL_PID = 0x1fff;
+    // A multiplex of two programs, PSIP and null packets.
+    private static final int[] MULTIPLEX_PIDS = {
+        TsPidDemux.PAT_PID,
+        PMT_PID,
+        VIDEO_PID,
+        VIDEO_PID,
+        OTHER_VIDEO_PID,
+        AUDIO_PID,
+        PSIP_PID,
+        VIDEO_PID,
+        NULL_PID
+    };
+    private static final int REPEAT = 50;
+
+    @Test
+    public void testFeed_oneMultiplexThreeConsumers() {
+        TsPidDemux demux = new TsPidDemux();
+        PacketCollector recording = new PacketCollector();
+        PacketCollector eventDetector = new PacketCollector();
+        PacketCollector streamDump = new PacketCollector();
+        for (int pid : new int[] {TsPidDemux.PAT_PID, PMT_PID, VIDEO_PID, AUDIO_PID}) {
+            demux.addPid(recording, pid);
+        }
+        demux.addPid(eventDetector, PSIP_PID);
+        demux.addAllPids(streamDump);
+        byte[] multiplex = createMultiplex();
+
+        // Feeds the multiplex in chunks which are not aligned to the TS packets.
+        for (int offset = 0; offset < multiplex.length; offset += 1000) {
+            demux.feed(multiplex, offset, Math.min(1000, multiplex.length - offset));
+        }
+
+        assertThat(demux.getPacketCount()).isEqualTo(MULTIPLEX_PIDS.length * REPEAT);
+        assertThat(recording.toByteArray())
+                .isEqualTo(filter(multiplex, TsPidDemux.PAT_PID, PMT_PID, VIDEO_PID, AUDIO_PID));
+        assertThat(eventDetector.toByteArray()).isEqualTo(filter(multiplex, PSIP_PID));
+        assertThat(streamDump.toByteArray()).isEqualTo(multiplex);
+        // Consecutive packets are published together.
+        assertThat(streamDump.mCallCount).isLessThan(MULTIPLEX_PIDS.length * REPEAT);
+    }
+
+    @Test
+    public void testFeed_resynchronizes() {
+        TsPidDemux demux = new TsPidDemux();
+        PacketCollector collector = new PacketCollector();
+        demux.addPid(collector, VIDEO_PID);
+        byte[] first = createPacket(VIDEO_PID, 1);
+        byte[] second = createPacket(VIDEO_PID, 2);
+        byte[] data = new byte[TS_PACKET_SIZE * 2 + 3];
+        System.arraycopy(first, 0, data, 0, TS_PACKET_SIZE);
+        // Garbage bytes between the packets.
+        data[TS_PACKET_SIZE] = 1;
+        data[TS_PACKET_SIZE + 1] = 2;
+        data[TS_PACKET_SIZE + 2] = 3;
+        System.arraycopy(second, 0, data, TS_PACKET_SIZE + 3, TS_PACKET_SIZE);
+
+        demux.feed(data, 0, data.length);
+
+        assertThat(collector.toByteArray()).isEqualTo(concat(first, second));
+    }
+
+    @Test
+    public void testRemoveConsumer() {
+        TsPidDemux demux = new TsPidDemux();
+        PacketCollector collector = new PacketCollector();
+        demux.addPid(collector, VIDEO_PID);
+        byte[] packet = createPacket(VIDEO_PID, 1);
+        demux.feed(packet, 0, packet.length);
+
+        demux.removeConsumer(collector);
+        demux.feed(packet, 0, packet.length);
+
+        assertThat(collector.toByteArray()).isEqualTo(packet);
+    }
+
+    @Test
+    public void testRemovePid() {
+        TsPidDemux demux = new TsPidDemux();
+        PacketCollector collector = new PacketCollector();
+        demux.addPid(collector, VIDEO_PID);
+        demux.addPid(collector, AUDIO_PID);
+        byte[] video = createPacket(VIDEO_PID, 1);
+        byte[] audio = createPacket(AUDIO_PID, 2);
+
+        demux.removePid(collector, VIDEO_PID);
+        demux.feed(video, 0, video.length);
+        demux.feed(audio, 0, audio.length);
+
+        assertThat(collector.toByteArray()).isEqualTo(audio);
+    }
+
+    @Test
+    public void testFindPmtPid() {
+        byte[] pat = createPatPacket(new int[] {1, 0x30, 3, 0x50});
+
+        assertThat(TsPidDemux.findPmtPid(pat, 0, 1)).isEqualTo(0x30);
+        assertThat(TsPidDemux.findPmtPid(pat, 0, 3)).isEqualTo(0x50);
+        assertThat(TsPidDemux.findPmtPid(pat, 0, 2)).isEqualTo(-1);
+    }
+
+    private static byte[] createMultiplex() {
+        byte[] multiplex = new byte[MULTIPLEX_PIDS.length * REPEAT * TS_PACKET_SIZE];
+        int pos = 0;
+        for (int i = 0; i < REPEAT; ++i) {
+            for (int pid : MULTIPLEX_PIDS) {
+                System.arraycopy(createPacket(pid, i), 0, multiplex, pos, TS_PACKET_SIZE);
+                pos += TS_PACKET_SIZE;
+            }
+        }
+        return multiplex;
+    }
+
+    private static byte[] createPacket(int pid, int sequence) {
+        byte[] packet = new byte[TS_PACKET_SIZE];
+        packet[0] = 0x47;
+        packet[1] = (byte) ((pid >> 8) & 0x1f);
+        packet[2] = (byte) (pid & 0xff);
+        packet[3] = (byte) (0x10 | (sequence & 0x0f));
+        // Avoids the sync byte in the payload.
+        Arrays.fill(packet, 4, TS_PACKET_SIZE, (byte) (sequence % 0x40));
+        return packet;
+    }
+
+    private static byte[] createPatPacket(int[] programs) {
+        byte[] packet = createPacket(TsPidDemux.PAT_PID, 0);
+        Arrays.fill(packet, 4, TS_PACKET_SIZE, (byte) 0xff);
+        packet[1] |= 0x40;
+        int pos = 4;
+        packet[pos++] = 0; // pointer_field
+        packet[pos++] = 0; // table_id
+        int sectionLength = 5 + programs.length * 2 + 4;
+        packet[pos++] = (byte) (0xb0 | (sectionLength >> 8));
+        packet[pos++] = (byte) sectionLength;
+        pos += 5; // transport_stream_id to last_section_number
+        for (int i = 0; i < programs.length; i += 2) {
+            packet[pos++] = (byte) (programs[i] >> 8);
+            packet[pos++] = (byte) programs[i];
+            packet[pos++] = (byte) (0xe0 | (programs[i + 1] >> 8));
+            packet[pos++] = (byte) programs[i + 1];
+        }
+        return packet;
+    }
+
+    private static byte[] filter(byte[] multiplex, int... pids) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int pos = 0; pos < multiplex.length; pos += TS_PACKET_SIZE) {
+            int pid = ((multiplex[pos + 1] & 0x1f) << 8) | (multiplex[pos + 2] & 0xff);
+            for (int p : pids) {
+                if (pid == p) {
+                    out.write(multiplex, pos, TS_PACKET_SIZE);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static class PacketCollector implements TsPidDemux.Consumer {
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+        private int mCallCount;
+
+        @Override
+        public void consume(byte[] data, int offset, int length) {
+            assertThat(length % TS_PACKET_SIZE).isEqualTo(0);
+            mOut.write(data, offset, length);
+            ++mCallCount;
+        }
+
+        private byte[] toByteArray() {
+            return mOut.toByteArray();
+        }
+    }
+}
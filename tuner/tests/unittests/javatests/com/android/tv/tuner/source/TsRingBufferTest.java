@@ -0,0 +1,540 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.source;
+
+import static androidx.test.InstrumentationRegistry.getTargetContext;
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.tuner.ReplayTuner;
+import com.android.tv.tuner.api.Tuner;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link TsRingBuffer}. */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class TsRingBufferTest {
+    private static final String TAG = "TsRingBufferTest";
+
+    private static final int CAPACITY = 1000;
+    private static final long TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+
+    // The read unit of TunerTsStreamer.
+    private static final int CHUNK_SIZE = 1500 * 10;
+    private static final int BENCHMARK_CAPACITY = CHUNK_SIZE * 200;
+    private static final long BENCHMARK_DURATION_MS = 500;
+    // ATSC 8-VSB and a typical DVB-T2 multiplex.
+    private static final double ATSC_MBPS = 19.39;
+    private static final double DVB_MBPS = 40.0;
+    private static final int TS_PACKET_SIZE = 188;
+    private static final int REPLAY_FILE_SIZE = TS_PACKET_SIZE * 10000;
+    private static final long REPLAY_BYTES = 200L * 1024 * 1024;
+    private static final int OVERWRITE_CHECK_READS = 20000;
+
+    @Test
+    public void testRead_wrapsAround() {
+        TsRingBuffer ringBuffer = new TsRingBuffer(CAPACITY);
+        ringBuffer.open();
+        ringBuffer.setGatingReader(Thread.currentThread());
+        byte[] data = createData(CAPACITY);
+        byte[] result = new byte[600];
+
+        ringBuffer.write(data, 0, 700);
+        assertThat(ringBuffer.read(0, result, 0, 600, TIMEOUT_MS)).isEqualTo(600);
+        ringBuffer.write(data, 700, 300);
+        ringBuffer.write(data, 0, 500);
+
+        assertThat(ringBuffer.read(900, result, 0, 600, TIMEOUT_MS)).isEqualTo(600);
+        assertThat(Arrays.copyOfRange(result, 0, 100))
+                .isEqualTo(Arrays.copyOfRange(data, 900, 1000));
+        assertThat(Arrays.copyOfRange(result, 100, 600))
+                .isEqualTo(Arrays.copyOfRange(data, 0, 500));
+        assertThat(ringBuffer.getGatingReadPosition()).isEqualTo(1500);
+    }
+
+    @Test
+    public void testRead_overwritten() {
+        TsRingBuffer ringBuffer = new TsRingBuffer(CAPACITY);
+        ringBuffer.open();
+        byte[] data = createData(CAPACITY);
+
+        ringBuffer.write(data, 0, CAPACITY);
+        ringBuffer.write(data, 0, 100);
+
+        assertThat(ringBuffer.read(0, new byte[10], 0, 10, TIMEOUT_MS))
+                .isEqualTo(TsRingBuffer.READ_ERROR_BUFFER_OVERWRITTEN);
+        assertThat(ringBuffer.read(100, new byte[10], 0, 10, TIMEOUT_MS)).isEqualTo(10);
+    }
+
+    @Test
+    public void testRead_waitsForProducer() throws InterruptedException {
+        TsRingBuffer ringBuffer = new TsRingBuffer(CAPACITY);
+        ringBuffer.open();
+        Thread producer =
+                new Thread(
+                        () -> {
+                            SystemClock.sleep(100);
+                            ringBuffer.write(createData(100), 0, 100);
+                        });
+        producer.start();
+
+        assertThat(ringBuffer.read(0, new byte[100], 0, 100, TIMEOUT_MS)).isEqualTo(100);
+        producer.join();
+    }
+
+    @Test
+    public void testRead_timeout() {
+        TsRingBuffer ringBuffer = new TsRingBuffer(CAPACITY);
+        ringBuffer.open();
+
+        assertThat(ringBuffer.read(0, new byte[100], 0, 100, 10))
+                .isEqualTo(TsRingBuffer.READ_ERROR_TIMEOUT);
+    }
+
+    /**
+     * Reads the bytes which the producer keeps overwriting, and checks that a successful read
+     * never returns the bytes which are overwritten during the copy.
+     */
+    @Test
+    public void testRead_detectsOverwriteWhileCopying() throws InterruptedException {
+        int capacity = TS_PACKET_SIZE * 8;
+        TsRingBuffer ringBuffer = new TsRingBuffer(capacity);
+        ringBuffer.open();
+        AtomicBoolean stopped = new AtomicBoolean();
+        Thread producer =
+                new Thread(
+                        () -> {
+                            byte[] packet = new byte[TS_PACKET_SIZE];
+                            while (!stopped.get()) {
+                                long position = ringBuffer.getWritePosition();
+                                for (int i = 0; i < TS_PACKET_SIZE; ++i) {
+                                    packet[i] = getStreamByte(position + i, capacity);
+                                }
+                                ringBuffer.write(packet, 0, TS_PACKET_SIZE);
+                            }
+                        });
+        producer.start();
+        byte[] result = new byte[capacity];
+        int successfulReads = 0;
+        try {
+            for (int i = 0; i < OVERWRITE_CHECK_READS; ++i) {
+                // Reads the oldest bytes, which are the most likely to be overwritten.
+                long position = Math.max(0, ringBuffer.getWritePosition() - capacity);
+                int length = capacity / 2;
+                if (ringBuffer.read(position, result, 0, length, TIMEOUT_MS) != length) {
+                    continue;
+                }
+                ++successfulReads;
+                for (int j = 0; j < length; ++j) {
+                    if (result[j] != getStreamByte(position + j, capacity)) {
+                        throw new AssertionError("Overwritten byte at " + (position + j));
+                    }
+                }
+            }
+        } finally {
+            stopped.set(true);
+            producer.join();
+        }
+        Log.i(TAG, successfulReads + " of " + OVERWRITE_CHECK_READS + " reads succeeded");
+    }
+
+    @Test
+    public void testClose_wakesReader() throws InterruptedException {
+        TsRingBuffer ringBuffer = new TsRingBuffer(CAPACITY);
+        ringBuffer.open();
+        Thread closer =
+                new Thread(
+                        () -> {
+                            SystemClock.sleep(100);
+                            ringBuffer.close();
+                        });
+        closer.start();
+
+        assertThat(ringBuffer.read(0, new byte[100], 0, 100, TIMEOUT_MS))
+                .isEqualTo(TsRingBuffer.READ_ERROR_STREAMING_ENDED);
+        closer.join();
+    }
+
+    @Test
+    public void testAwaitSpace_waitsForReader() throws InterruptedException {
+        TsRingBuffer ringBuffer = new TsRingBuffer(CAPACITY);
+        ringBuffer.open();
+        ringBuffer.setGatingReader(Thread.currentThread());
+        ringBuffer.write(createData(CAPACITY), 0, 800);
+        AtomicBoolean spaceAvailable = new AtomicBoolean();
+        Thread producer = new Thread(() -> spaceAvailable.set(ringBuffer.awaitSpace(300)));
+        producer.start();
+        SystemClock.sleep(100);
+        assertThat(spaceAvailable.get()).isFalse();
+
+        ringBuffer.read(0, new byte[500], 0, 500, TIMEOUT_MS);
+        producer.join(TIMEOUT_MS);
+
+        assertThat(spaceAvailable.get()).isTrue();
+    }
+
+    @Test
+    public void testAwaitSpace_waitsForGatingReaderOnly() throws InterruptedException {
+        TsRingBuffer ringBuffer = new TsRingBuffer(CAPACITY);
+        ringBuffer.open();
+        ringBuffer.write(createData(CAPACITY), 0, 800);
+        AtomicBoolean spaceAvailable = new AtomicBoolean();
+        Thread gatingReader =
+                new Thread(() -> ringBuffer.read(0, new byte[500], 0, 500, TIMEOUT_MS));
+        ringBuffer.setGatingReader(gatingReader);
+        Thread producer = new Thread(() -> spaceAvailable.set(ringBuffer.awaitSpace(300)));
+        producer.start();
+
+        // A read by another reader doesn't make space.
+        ringBuffer.read(0, new byte[500], 0, 500, TIMEOUT_MS);
+        SystemClock.sleep(100);
+        assertThat(spaceAvailable.get()).isFalse();
+
+        gatingReader.start();
+        gatingReader.join(TIMEOUT_MS);
+        producer.join(TIMEOUT_MS);
+
+        assertThat(spaceAvailable.get()).isTrue();
+    }
+
+    @Test
+    public void testStartWrite_writesInPlace() {
+        TsRingBuffer ringBuffer = new TsRingBuffer(CAPACITY, 600);
+        ringBuffer.open();
+        byte[] data = createData(CAPACITY);
+        byte[] result = new byte[600];
+
+        ByteBuffer target = ringBuffer.startWrite(600);
+        target.put(data, 0, 500);
+        ringBuffer.commitWrite(500);
+
+        assertThat(ringBuffer.getWritePosition()).isEqualTo(500);
+        assertThat(ringBuffer.read(0, result, 0, 500, TIMEOUT_MS)).isEqualTo(500);
+        assertThat(Arrays.copyOf(result, 500)).isEqualTo(Arrays.copyOf(data, 500));
+        // The region from 500 to 1100 wraps around.
+        assertThat(ringBuffer.startWrite(600)).isNull();
+    }
+
+    @Test
+    public void testStartWrite_emptyWriteKeepsOldestBytesReadable() {
+        TsRingBuffer ringBuffer = new TsRingBuffer(CAPACITY, 100);
+        ringBuffer.open();
+        byte[] data = createData(1050);
+        byte[] result = new byte[100];
+        ringBuffer.write(data, 0, 500);
+        ringBuffer.write(data, 500, 550);
+
+        // The tuner has no bytes, so nothing is committed.
+        assertThat(ringBuffer.startWrite(100)).isNotNull();
+
+        // The bytes before 150 are given up for the region from 1050 to 1150.
+        assertThat(ringBuffer.read(100, result, 0, 50, TIMEOUT_MS))
+                .isEqualTo(TsRingBuffer.READ_ERROR_BUFFER_OVERWRITTEN);
+        assertThat(ringBuffer.read(150, result, 0, 100, TIMEOUT_MS)).isEqualTo(100);
+        assertThat(result).isEqualTo(Arrays.copyOfRange(data, 150, 250));
+    }
+
+    /**
+     * Compares streaming a TS file from a tuner into the ring buffer through a Java array and
+     * through the direct buffer. The results depend on the device and its load, so they are only
+     * logged.
+     */
+    @LargeTest
+    @Test
+    public void testBenchmark_tunerWrite() throws IOException {
+        File file = new File(getTargetContext().getCacheDir(), "ts_ring_buffer_test.ts");
+        try {
+            writeTsFile(file);
+            long arrayMbps = runTunerWriteBenchmark(file, false);
+            long directMbps = runTunerWriteBenchmark(file, true);
+            Log.i(TAG, "Array path: " + arrayMbps + "Mbps");
+            Log.i(TAG, "Direct path: " + directMbps + "Mbps");
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Compares the delivery latency of the lock free ring buffer with the monitor based circular
+     * buffer which the streamers used to have, at the broadcast rates and when it's not paced. The
+     * results depend on the device and its load, so they are only logged.
+     */
+    @LargeTest
+    @Test
+    public void testBenchmark() throws InterruptedException {
+        for (double mbps : new double[] {ATSC_MBPS, DVB_MBPS, 0}) {
+            BenchmarkResult ringBufferResult = runBenchmark(new RingBufferAdapter(), mbps);
+            BenchmarkResult monitorResult = runBenchmark(new MonitorBuffer(), mbps);
+            Log.i(TAG, mbps + "Mbps ring buffer: " + ringBufferResult);
+            Log.i(TAG, mbps + "Mbps monitor: " + monitorResult);
+        }
+    }
+
+    /**
+     * Streams chunks through {@code buffer} at the rate of {@code mbps}, or as fast as possible if
+     * it's {@code 0}, to a reader which reads them as the demux does.
+     */
+    private static BenchmarkResult runBenchmark(Buffer buffer, double mbps)
+            throws InterruptedException {
+        long chunkIntervalNs =
+                mbps == 0 ? 0 : (long) (CHUNK_SIZE * 8 / (mbps * 1000 * 1000) * 1e9);
+        int chunkCount =
+                mbps == 0
+                        ? 20000
+                        : (int) (TimeUnit.MILLISECONDS.toNanos(BENCHMARK_DURATION_MS)
+                                / chunkIntervalNs);
+        long[] publishTimesNs = new long[chunkCount];
+        byte[] chunk = createData(CHUNK_SIZE);
+        buffer.open();
+        Thread producer =
+                new Thread(
+                        () -> {
+                            long startNs = System.nanoTime();
+                            for (int i = 0; i < chunkCount; ++i) {
+                                long targetNs = startNs + chunkIntervalNs * i;
+                                while (System.nanoTime() < targetNs) {
+                                    SystemClock.sleep(1);
+                                }
+                                publishTimesNs[i] = System.nanoTime();
+                                buffer.write(chunk);
+                            }
+                        });
+        byte[] readBuffer = new byte[CHUNK_SIZE];
+        long totalLatencyNs = 0;
+        long maxLatencyNs = 0;
+        int lostChunks = 0;
+        long startNs = System.nanoTime();
+        producer.start();
+        for (int i = 0; i < chunkCount; ++i) {
+            if (buffer.read((long) CHUNK_SIZE * i, readBuffer) != CHUNK_SIZE) {
+                ++lostChunks;
+                continue;
+            }
+            long latencyNs = System.nanoTime() - publishTimesNs[i];
+            totalLatencyNs += latencyNs;
+            maxLatencyNs = Math.max(maxLatencyNs, latencyNs);
+        }
+        long elapsedNs = System.nanoTime() - startNs;
+        producer.join();
+        buffer.close();
+        int readChunks = chunkCount - lostChunks;
+        return new BenchmarkResult(
+                readChunks == 0 ? 0 : totalLatencyNs / readChunks / 1000,
+                maxLatencyNs / 1000,
+                (double) chunkCount * CHUNK_SIZE * 8 * 1000 / elapsedNs,
+                lostChunks);
+    }
+
+    private static long runTunerWriteBenchmark(File file, boolean direct) {
+        TsRingBuffer ringBuffer = new TsRingBuffer(BENCHMARK_CAPACITY, CHUNK_SIZE);
+        ringBuffer.open();
+        Tuner tuner = new ReplayTuner(file, 0);
+        tuner.tune(0, Tuner.MODULATION_8VSB, null);
+        byte[] dataBuffer = new byte[CHUNK_SIZE];
+        long startNs = System.nanoTime();
+        while (ringBuffer.getWritePosition() < REPLAY_BYTES) {
+            ByteBuffer target = direct ? ringBuffer.startWrite(CHUNK_SIZE) : null;
+            int size =
+                    target != null
+                            ? tuner.readTsStream(target)
+                            : tuner.readTsStream(dataBuffer, dataBuffer.length);
+            assertThat(size).isGreaterThan(0);
+            if (target != null) {
+                ringBuffer.commitWrite(size);
+            } else {
+                ringBuffer.write(dataBuffer, 0, size);
+            }
+        }
+        long elapsedNs = System.nanoTime() - startNs;
+        tuner.stopTune();
+        return ringBuffer.getWritePosition() * 8 * 1000 / elapsedNs;
+    }
+
+    private static void writeTsFile(File file) throws IOException {
+        byte[] data = createData(REPLAY_FILE_SIZE);
+        for (int i = 0; i < REPLAY_FILE_SIZE; i += TS_PACKET_SIZE) {
+            data[i] = 0x47;
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+    }
+
+    // The byte at the stream position, which differs from the byte which overwrites it.
+    private static byte getStreamByte(long position, int capacity) {
+        return (byte) (position + position / capacity);
+    }
+
+    private static byte[] createData(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; ++i) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+
+    private static class BenchmarkResult {
+        final long mAverageLatencyUs;
+        final long mMaxLatencyUs;
+        final double mThroughputMbps;
+        final int mLostChunks;
+
+        BenchmarkResult(
+                long averageLatencyUs, long maxLatencyUs, double throughputMbps, int lostChunks) {
+            mAverageLatencyUs = averageLatencyUs;
+            mMaxLatencyUs = maxLatencyUs;
+            mThroughputMbps = throughputMbps;
+            mLostChunks = lostChunks;
+        }
+
+        @Override
+        public String toString() {
+            return "average latency "
+                    + mAverageLatencyUs
+                    + "us, max latency "
+                    + mMaxLatencyUs
+                    + "us, throughput "
+                    + (long) mThroughputMbps
+                    + "Mbps, lost chunks "
+                    + mLostChunks;
+        }
+    }
+
+    private interface Buffer {
+        void open();
+
+        void write(byte[] data);
+
+        int read(long position, byte[] buffer);
+
+        void close();
+    }
+
+    private static class RingBufferAdapter implements Buffer {
+        private final TsRingBuffer mRingBuffer = new TsRingBuffer(BENCHMARK_CAPACITY);
+
+        @Override
+        public void open() {
+            mRingBuffer.open();
+        }
+
+        @Override
+        public void write(byte[] data) {
+            mRingBuffer.write(data, 0, data.length);
+        }
+
+        @Override
+        public int read(long position, byte[] buffer) {
+            return mRingBuffer.read(position, buffer, 0, buffer.length, TIMEOUT_MS);
+        }
+
+        @Override
+        public void close() {
+            mRingBuffer.close();
+        }
+    }
+
+    /** The circular buffer of the streamers before {@link TsRingBuffer}. */
+    private static class MonitorBuffer implements Buffer {
+        private final Object mMonitor = new Object();
+        private final byte[] mBuffer = new byte[BENCHMARK_CAPACITY];
+        private long mBytesFetched;
+        private boolean mStreaming;
+
+        @Override
+        public void open() {
+            synchronized (mMonitor) {
+                mBytesFetched = 0;
+                mStreaming = true;
+            }
+        }
+
+        @Override
+        public void write(byte[] data) {
+            synchronized (mMonitor) {
+                int posInBuffer = (int) (mBytesFetched % BENCHMARK_CAPACITY);
+                int bytesToCopyInFirstPass =
+                        Math.min(data.length, BENCHMARK_CAPACITY - posInBuffer);
+                System.arraycopy(data, 0, mBuffer, posInBuffer, bytesToCopyInFirstPass);
+                if (bytesToCopyInFirstPass < data.length) {
+                    System.arraycopy(
+                            data,
+                            bytesToCopyInFirstPass,
+                            mBuffer,
+                            0,
+                            data.length - bytesToCopyInFirstPass);
+                }
+                mBytesFetched += data.length;
+                mMonitor.notifyAll();
+            }
+        }
+
+        @Override
+        public int read(long position, byte[] buffer) {
+            synchronized (mMonitor) {
+                while (mStreaming && mBytesFetched < position + buffer.length) {
+                    try {
+                        mMonitor.wait(TIMEOUT_MS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return TsRingBuffer.READ_ERROR_TIMEOUT;
+                    }
+                }
+                if (!mStreaming) {
+                    return TsRingBuffer.READ_ERROR_STREAMING_ENDED;
+                }
+                if (mBytesFetched - BENCHMARK_CAPACITY > position) {
+                    return TsRingBuffer.READ_ERROR_BUFFER_OVERWRITTEN;
+                }
+                int posInBuffer = (int) (position % BENCHMARK_CAPACITY);
+                int bytesToCopyInFirstPass =
+                        Math.min(buffer.length, BENCHMARK_CAPACITY - posInBuffer);
+                System.arraycopy(mBuffer, posInBuffer, buffer, 0, bytesToCopyInFirstPass);
+                if (bytesToCopyInFirstPass < buffer.length) {
+                    System.arraycopy(
+                            mBuffer,
+                            0,
+                            buffer,
+                            bytesToCopyInFirstPass,
+                            buffer.length - bytesToCopyInFirstPass);
+                }
+                mMonitor.notifyAll();
+                return buffer.length;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (mMonitor) {
+                mStreaming = false;
+                mMonitor.notifyAll();
+            }
+        }
+    }
+}
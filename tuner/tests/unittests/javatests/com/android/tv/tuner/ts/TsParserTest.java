@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.ts;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.tuner.data.PsiData.PatItem;
+import com.android.tv.tuner.data.PsiData.PmtItem;
+import com.android.tv.tuner.data.PsipData.EitItem;
+import com.android.tv.tuner.data.PsipData.SdtItem;
+import com.android.tv.tuner.data.PsipData.VctItem;
+import com.android.tv.tuner.util.Crc32Mpeg2;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link TsParser}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class TsParserTest {
+    private static final int TS_PACKET_SIZE = 188;
+    private static final int NULL_PID = 0x1fff;
+
+    private final List<List<PatItem>> mPats = new ArrayList<>();
+    private TsParser mTsParser;
+
+    @Before
+    public void setUp() {
+        mTsParser =
+                new TsParser(
+                        new TsParser.TsOutputListener() {
+                            @Override
+                            public void onPatDetected(List<PatItem> items) {
+                                mPats.add(items);
+                            }
+
+                            @Override
+                            public void onEitPidDetected(int pid) {}
+
+                            @Override
+                            public void onVctItemParsed(VctItem channel, List<PmtItem> pmtItems) {}
+
+                            @Override
+                            public void onEitItemParsed(VctItem channel, List<EitItem> items) {}
+
+                            @Override
+                            public void onEttPidDetected(int pid) {}
+
+                            @Override
+                            public void onAllVctItemsParsed() {}
+
+                            @Override
+                            public void onSdtItemParsed(SdtItem channel, List<PmtItem> pmtItems) {}
+                        },
+                        false);
+    }
+
+    @Test
+    public void testFeedTSData_alignedPackets() {
+        byte[] data = concat(createNullPacket(), createPatPacket(0x100), createNullPacket());
+
+        mTsParser.feedTSData(data, 0, data.length);
+
+        assertThat(mPats).hasSize(1);
+        assertThat(mPats.get(0).get(0).getPmtPid()).isEqualTo(0x100);
+    }
+
+    @Test
+    public void testFeedTSData_packetSplitAcrossCalls() {
+        byte[] data = concat(createNullPacket(), createPatPacket(0x100));
+        int split = TS_PACKET_SIZE + 50;
+
+        mTsParser.feedTSData(data, 0, split);
+        assertThat(mPats).isEmpty();
+        mTsParser.feedTSData(data, split, data.length - split);
+
+        assertThat(mPats).hasSize(1);
+    }
+
+    @Test
+    public void testFeedTSData_resyncAfterGarbage() {
+        byte[] garbage = new byte[37];
+        Arrays.fill(garbage, (byte) 0x12);
+        byte[] data = concat(garbage, createPatPacket(0x100), createNullPacket());
+
+        mTsParser.feedTSData(data, 0, data.length);
+
+        assertThat(mPats).hasSize(1);
+    }
+
+    @Test
+    public void testFeedTSData_nonZeroOffset() {
+        byte[] data = concat(new byte[5], createPatPacket(0x100));
+
+        mTsParser.feedTSData(data, 5, data.length - 5);
+
+        assertThat(mPats).hasSize(1);
+    }
+
+    private static byte[] createNullPacket() {
+        byte[] packet = new byte[TS_PACKET_SIZE];
+        Arrays.fill(packet, (byte) 0xff);
+        packet[0] = 0x47;
+        packet[1] = (byte) (NULL_PID >> 8);
+        packet[2] = (byte) NULL_PID;
+        packet[3] = 0x10;
+        return packet;
+    }
+
+    private static byte[] createPatPacket(int pmtPid) {
+        byte[] packet = new byte[TS_PACKET_SIZE];
+        Arrays.fill(packet, (byte) 0xff);
+        packet[0] = 0x47;
+        packet[1] = 0x40; // payload_unit_start_indicator, PID 0
+        packet[2] = 0x00;
+        packet[3] = 0x10; // payload only, continuity_counter 0
+        packet[4] = 0x00; // pointer_field
+        // For details of the structure for PAT, see H.222.0 Table 2-30.
+        byte[] section = {
+            0x00, (byte) 0xb0, 0x0d, 0x00, 0x01, (byte) 0xc1, 0x00, 0x00,
+            0x00, 0x01, (byte) (0xe0 | (pmtPid >> 8)), (byte) pmtPid, 0, 0, 0, 0
+        };
+        int crc = Crc32Mpeg2.getDefault().calculate(section, 0, section.length - 4);
+        section[12] = (byte) (crc >>> 24);
+        section[13] = (byte) (crc >>> 16);
+        section[14] = (byte) (crc >>> 8);
+        section[15] = (byte) crc;
+        System.arraycopy(section, 0, packet, 5, section.length);
+        return packet;
+    }
+
+    private static byte[] concat(byte[]... arrays) {
+        int length = 0;
+        for (byte[] array : arrays) {
+            length += array.length;
+        }
+        byte[] result = new byte[length];
+        int pos = 0;
+        for (byte[] array : arrays) {
+            System.arraycopy(array, 0, result, pos, array.length);
+            pos += array.length;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.tvinput.datamanager;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import com.android.tv.tuner.data.PsipData.EitItem;
+import com.android.tv.tuner.util.ConvertUtils;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link ProgramIndex}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class ProgramIndexTest {
+    private static final int HOUR_IN_SECOND = 60 * 60;
+    private static final long START_TIME = 1000000000;
+
+    @Test
+    public void testGet_byEventId() {
+        ProgramIndex index = new ProgramIndex(Arrays.asList(item(1, 1, 0, 1), item(2, 2, 1, 1)));
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.get(2)).hasSize(1);
+        assertThat(index.get(2).get(0).programId).isEqualTo(2);
+        assertThat(index.get(3)).isEmpty();
+        assertThat(index.hasProgramsAddedOutside()).isFalse();
+    }
+
+    @Test
+    public void testGet_sameEventIdKeepsAllPrograms() {
+        ProgramIndex index = new ProgramIndex(Arrays.asList(item(1, 1, 0, 1), item(2, 1, 5, 1)));
+
+        assertThat(programIdsOf(index.get(1))).containsExactly(1L, 2L).inOrder();
+
+        index.remove(index.get(1).get(0));
+
+        assertThat(programIdsOf(index.get(1))).containsExactly(2L);
+    }
+
+    @Test
+    public void testHasSamePrograms() {
+        ProgramIndex index = new ProgramIndex(Arrays.asList(item(1, 1, 0, 1), item(2, 2, 1, 1)));
+
+        assertThat(index.hasSamePrograms(new HashSet<>(Arrays.asList(1L, 2L)), utcMillis(2)))
+                .isTrue();
+        // A program has been inserted by others, e.g. by an external EPG.
+        assertThat(index.hasSamePrograms(new HashSet<>(Arrays.asList(1L, 2L, 3L)), utcMillis(2)))
+                .isFalse();
+        // A program has been deleted by others.
+        assertThat(index.hasSamePrograms(new HashSet<>(Arrays.asList(1L)), utcMillis(2)))
+                .isFalse();
+        // The programs after the queried span are ignored.
+        assertThat(index.hasSamePrograms(new HashSet<>(Arrays.asList(1L)), utcMillis(0)))
+                .isTrue();
+    }
+
+    @Test
+    public void testMatches() {
+        EitItem item = item(1, 1, 0, 1);
+        ProgramIndex.Entry entry = new ProgramIndex.Entry(item, 1);
+
+        assertThat(entry.matches(item(1, 1, 0, 1))).isTrue();
+        assertThat(entry.matches(item(1, 1, 0, 2))).isFalse();
+        assertThat(entry.matches(itemWithTitle(1, 0, "Other"))).isFalse();
+        EitItem withoutDescription = item(1, 1, 0, 1);
+        withoutDescription.setDescription(null);
+        assertThat(entry.matches(withoutDescription)).isFalse();
+        assertThat(entry.matchesExceptTitleAndDescription(withoutDescription)).isTrue();
+        // The description is carried over even when the title has been changed.
+        EitItem otherTitleWithoutDescription = itemWithTitle(1, 0, "Other");
+        otherTitleWithoutDescription.setDescription(null);
+        assertThat(entry.matchesExceptTitleAndDescription(otherTitleWithoutDescription)).isTrue();
+        assertThat(entry.matchesExceptTitleAndDescription(item(1, 1, 0, 2))).isFalse();
+    }
+
+    @Test
+    public void testCheckedVersion() {
+        ProgramIndex index = new ProgramIndex(Arrays.asList(item(1, 1, 0, 1)));
+
+        index.setCheckedVersion(3);
+
+        assertThat(index.getCheckedVersion()).isEqualTo(3);
+    }
+
+    @Test
+    public void testPut_replacesSameProgram() {
+        ProgramIndex index = new ProgramIndex(Arrays.asList(item(1, 1, 0, 1)));
+
+        index.put(new ProgramIndex.Entry(item(1, 1, 2, 1), 1));
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.get(1).get(0).startTime).isEqualTo(START_TIME + 2 * HOUR_IN_SECOND);
+    }
+
+    @Test
+    public void testRemoveEndedBefore() {
+        ProgramIndex index =
+                new ProgramIndex(
+                        Arrays.asList(item(1, 1, 0, 1), item(2, 2, 1, 2), item(3, 3, 3, 1)));
+
+        index.removeEndedBefore(utcMillis(2));
+
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.get(1)).isEmpty();
+        assertThat(index.get(2)).isNotEmpty();
+    }
+
+    @Test
+    public void testGetEntriesStartingOrEndingIn() {
+        ProgramIndex index =
+                new ProgramIndex(
+                        Arrays.asList(
+                                item(1, 1, 0, 1),
+                                item(2, 2, 1, 3),
+                                item(3, 3, 4, 1),
+                                item(4, 4, 5, 1)));
+
+        List<Long> programIds =
+                programIdsOf(index.getEntriesStartingOrEndingIn(utcMillis(2), utcMillis(5)));
+
+        // The long program 2 ends within the span, and 3 starts within it.
+        assertThat(programIds).containsExactly(2L, 3L).inOrder();
+    }
+
+    @Test
+    public void testOverlapsAdjacent() {
+        ProgramIndex index = new ProgramIndex(Arrays.asList(item(1, 0, 0, 1), item(2, 0, 3, 1)));
+
+        assertThat(index.hasProgramsAddedOutside()).isTrue();
+        assertThat(index.overlapsAdjacent(utcMillis(1), utcMillis(3))).isFalse();
+        assertThat(index.overlapsAdjacent(utcMillis(0), utcMillis(1))).isTrue();
+        assertThat(index.overlapsAdjacent(utcMillis(2), utcMillis(4))).isTrue();
+        assertThat(index.overlapsAdjacent(utcMillis(4), utcMillis(5))).isFalse();
+    }
+
+    private static List<Long> programIdsOf(List<ProgramIndex.Entry> entries) {
+        List<Long> programIds = new ArrayList<>();
+        for (ProgramIndex.Entry entry : entries) {
+            programIds.add(entry.programId);
+        }
+        return programIds;
+    }
+
+    private static EitItem item(long programId, int eventId, int startHour, int lengthHour) {
+        return new EitItem(
+                programId,
+                eventId,
+                "Title " + eventId,
+                START_TIME + startHour * HOUR_IN_SECOND,
+                lengthHour * HOUR_IN_SECOND,
+                null,
+                null,
+                null,
+                null,
+                null,
+                "Description " + eventId);
+    }
+
+    private static EitItem itemWithTitle(int eventId, int startHour, String title) {
+        return new EitItem(
+                eventId,
+                eventId,
+                title,
+                START_TIME + startHour * HOUR_IN_SECOND,
+                HOUR_IN_SECOND,
+                null,
+                null,
+                null,
+                null,
+                null,
+                "Description " + eventId);
+    }
+
+    private static long utcMillis(int hour) {
+        return ConvertUtils.convertGPSTimeToUnixEpoch(START_TIME + hour * HOUR_IN_SECOND) * 1000;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2019 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.tv.tuner.util;
+
+import static com.google.common.truth.Truth.assertWithMessage;
+
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.test.filters.LargeTest;
+import androidx.test.filters.SmallTest;
+import androidx.test.runner.AndroidJUnit4;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Tests for {@link Crc32Mpeg2}. */
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class Crc32Mpeg2Test {
+    private static final String TAG = "Crc32Mpeg2Test";
+
+    // The check value of CRC-32/MPEG-2 for the ASCII string "123456789".
+    private static final int CHECK_VALUE = 0x0376e6e7;
+
+    // Typical PSI/PSIP section sizes from a PAT up to a full EIT/ETT schedule section.
+    private static final int[] SECTION_SIZES = {16, 188, 1024, 4096};
+    private static final int BENCHMARK_ITERATIONS = 20000;
+    private static final int BENCHMARK_RUNS = 3;
+
+    private final Crc32Mpeg2 mByteWise = Crc32Mpeg2.createByteWise();
+    private final Crc32Mpeg2 mSliceBy8 = Crc32Mpeg2.createSliceBy8();
+    private int mLastResult;
+
+    @Test
+    public void testCheckValue() {
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertWithMessage("byte-wise")
+                .that(mByteWise.calculate(data, 0, data.length))
+                .isEqualTo(CHECK_VALUE);
+        assertWithMessage("slice-by-8")
+                .that(mSliceBy8.calculate(data, 0, data.length))
+                .isEqualTo(CHECK_VALUE);
+    }
+
+    @Test
+    public void testSliceBy8_matchesByteWise() {
+        Random random = new Random(0);
+        byte[] data = new byte[4096 + 8];
+        random.nextBytes(data);
+        for (int length = 0; length <= 64; ++length) {
+            for (int offset = 0; offset < 8; ++offset) {
+                assertWithMessage("offset " + offset + " length " + length)
+                        .that(mSliceBy8.calculate(data, offset, offset + length))
+                        .isEqualTo(mByteWise.calculate(data, offset, offset + length));
+            }
+        }
+        for (int size : SECTION_SIZES) {
+            assertWithMessage("size " + size)
+                    .that(mSliceBy8.calculate(data, 3, 3 + size))
+                    .isEqualTo(mByteWise.calculate(data, 3, 3 + size));
+        }
+    }
+
+    @Test
+    public void testIntactSectionYieldsZero() {
+        byte[] section = new byte[1024];
+        new Random(1).nextBytes(section);
+        int crc = mSliceBy8.calculate(section, 0, section.length - 4);
+        section[section.length - 4] = (byte) (crc >>> 24);
+        section[section.length - 3] = (byte) (crc >>> 16);
+        section[section.length - 2] = (byte) (crc >>> 8);
+        section[section.length - 1] = (byte) crc;
+        assertWithMessage("slice-by-8")
+                .that(mSliceBy8.calculate(section, 0, section.length))
+                .isEqualTo(0);
+        assertWithMessage("byte-wise")
+                .that(mByteWise.calculate(section, 0, section.length))
+                .isEqualTo(0);
+    }
+
+    /**
+     * Compares the engines over the section sizes. The timings depend on the device and its load,
+     * so they are only logged.
+     */
+    @LargeTest
+    @Test
+    public void testBenchmark() {
+        byte[] data = new byte[4096];
+        new Random(2).nextBytes(data);
+        for (int size : SECTION_SIZES) {
+            long byteWiseNs = measure(mByteWise, data, size);
+            int byteWiseResult = mLastResult;
+            long sliceBy8Ns = measure(mSliceBy8, data, size);
+            Log.i(
+                    TAG,
+                    "size "
+                            + size
+                            + ": byte-wise "
+                            + byteWiseNs / 1000
+                            + "us, slice-by-8 "
+                            + sliceBy8Ns / 1000
+                            + "us for "
+                            + BENCHMARK_ITERATIONS
+                            + " sections");
+            assertWithMessage("checksum of size " + size)
+                    .that(mLastResult)
+                    .isEqualTo(byteWiseResult);
+        }
+    }
+
+    // Returns the best time of a few runs to calculate the CRC of the data over and over, and
+    // keeps the combined result in mLastResult so that the loop is not optimized away.
+    private long measure(Crc32Mpeg2 crc32, byte[] data, int size) {
+        long bestNs = Long.MAX_VALUE;
+        for (int run = 0; run < BENCHMARK_RUNS; ++run) {
+            int result = 0;
+            long startNs = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; ++i) {
+                result = 31 * result + crc32.calculate(data, 0, size);
+            }
+            bestNs = Math.min(bestNs, SystemClock.elapsedRealtimeNanos() - startNs);
+            mLastResult = result;
+        }
+        return bestNs;
+    }
+}